@@ -26,8 +26,12 @@ import edu.harvard.iq.policymodels.cli.commands.PrintRunTraceCommand;
 import edu.harvard.iq.policymodels.cli.commands.PrintStackCommand;
 import edu.harvard.iq.policymodels.cli.commands.TodoCommand;
 import edu.harvard.iq.policymodels.cli.commands.UpdateLocalizationCommand;
+import edu.harvard.iq.policymodels.cli.commands.CountRunsCommand;
+import edu.harvard.iq.policymodels.cli.commands.WatchModelCommand;
 import edu.harvard.iq.policymodels.io.StringMapFormat;
 import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.parser.PolicyModelLoader;
+import edu.harvard.iq.policymodels.parser.PolicyModelWatcher;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
@@ -52,6 +56,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -96,6 +101,10 @@ public class CliRunner {
     private final Map<String, String> shortcuts = new HashMap<>();
     private boolean printDebugMessages = false;
     private PolicyModel model;
+    private final PolicyModelLoader modelLoader = PolicyModelLoader.verboseLoader();
+    private PolicyModelWatcher modelWatcher;
+    /** A model reloaded while an interview was running, to be used from the next interview on. */
+    private final AtomicReference<PolicyModel> pendingModel = new AtomicReference<>();
     private RuntimeEngineTracingListener tracer;
     private final Parser<List<String>> cmdScanner = Scanners.many( c -> !Character.isWhitespace(c) ).source().sepBy( Scanners.WHITESPACES );
     private boolean restartFlag = true;
@@ -137,7 +146,8 @@ public class CliRunner {
                 new NewModelCommand(), new OpenInDesktopCommand(), new LoadLocalizationCommand(),
                 new RunValidationsCommand(), new MatchResultToSequenceCommand(), new StatisticsCommand(),
                 new CreateLocalizationCommand(), new OptimizeDecisionGraphCommand(), new TodoCommand(),
-                new UpdateLocalizationCommand(), new LocalizationDiffCommand()
+                new UpdateLocalizationCommand(), new LocalizationDiffCommand(), new CountRunsCommand(),
+                new WatchModelCommand()
         ).forEach(c -> commands.put(c.command(), c));
         
         // shortcuts
@@ -146,6 +156,7 @@ public class CliRunner {
         shortcuts.put("rr","reload" );
         shortcuts.put("r", "restart" );
         shortcuts.put("a", "ask" );
+        shortcuts.put("w", "watch" );
         
         if (System.console() == null) {
             reader = new BufferedReader(new InputStreamReader(System.in));
@@ -163,6 +174,7 @@ public class CliRunner {
             
             while (true) {
                 try {
+                    applyPendingModel();
                     if ( (getModel() != null) && restartFlag && ngn.start()) {
                         restartFlag = false;
                         boolean goFlag = true;
@@ -496,6 +508,61 @@ public class CliRunner {
         return model;
     }
     
+    /**
+     * Sets a model reloaded by {@code source} to be used once the current
+     * interview is over. Models reloaded by a watcher that is not the current
+     * one are dropped, as the model that watcher watched was replaced.
+     * 
+     * @param source The watcher that reloaded the model.
+     * @param aModel The model to use from the next interview on.
+     * @return {@code true} iff the model will be used.
+     */
+    public synchronized boolean setPendingModel( PolicyModelWatcher source, PolicyModel aModel ) {
+        if ( source != modelWatcher ) return false;
+        pendingModel.set(aModel);
+        return true;
+    }
+    
+    private void applyPendingModel() {
+        if ( ngn.getStatus() == RuntimeEngineStatus.Running ) return;
+        PolicyModel pending = pendingModel.getAndSet(null);
+        if ( pending != null ) {
+            setModel(pending);
+            restartFlag = true;
+            printMsg("Using the reloaded model.");
+        }
+    }
+    
+    public synchronized PolicyModelWatcher getModelWatcher() {
+        return modelWatcher;
+    }
+
+    public synchronized void setModelWatcher(PolicyModelWatcher aWatcher) {
+        modelWatcher = aWatcher;
+    }
+    
+    /**
+     * Stops watching the model files, and drops a reloaded model that was
+     * not used yet.
+     * @return {@code true} iff the model files were watched.
+     */
+    public synchronized boolean stopModelWatcher() {
+        pendingModel.set(null);
+        if ( modelWatcher == null ) return false;
+        modelWatcher.close();
+        modelWatcher = null;
+        return true;
+    }
+    
+    /**
+     * The loader is kept between loads, so reloading a model only re-parses
+     * the decision graph files that changed.
+     * @return The loader used for loading models.
+     */
+    public PolicyModelLoader getModelLoader() {
+        return modelLoader;
+    }
+    
     
     private class CliEngineListener implements RuntimeEngine.Listener {
 
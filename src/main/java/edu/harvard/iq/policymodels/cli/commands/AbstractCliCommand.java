@@ -1,5 +1,15 @@
 package edu.harvard.iq.policymodels.cli.commands;
 
+import edu.harvard.iq.policymodels.cli.CliRunner;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.parser.decisiongraph.CompilationUnit;
+import edu.harvard.iq.policymodels.parser.decisiongraph.DecisionGraphCompiler;
+import edu.harvard.iq.policymodels.parser.exceptions.BadSetInstructionException;
+import edu.harvard.iq.policymodels.parser.exceptions.DataTagsParseException;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import java.util.ArrayList;
 import java.util.List;
 import static java.util.stream.Collectors.toList;
 
@@ -40,4 +50,45 @@ public abstract class AbstractCliCommand implements CliCommand {
         return aString.trim().startsWith("-");
     }
 
+    /**
+     * Parses a value expression, as written in a {@code [set: ...]} node, in the
+     * policy space of the runner's model. Problems are reported to the user.
+     *
+     * @param rnr the runner whose model the value belongs to.
+     * @param expression the expression, e.g. {@code Harm=none; Animals+=cats}.
+     * @return The value, or {@code null} if the expression is not valid.
+     */
+    protected CompoundValue parseValueExpression(CliRunner rnr, String expression) {
+        String setExpression = "[>x< set: " + expression + "]";
+        rnr.debugPrint("%s", setExpression);
+        CompilationUnit cu = new CompilationUnit(setExpression);
+        try {
+            try {
+                cu.compile(rnr.getModel().getSpaceRoot(), new EndNode(DecisionGraphCompiler.SYNTHETIC_END_NODE_ID), new ArrayList<>());
+            } catch ( RuntimeException rte ) {
+                if ( rte.getCause() instanceof BadSetInstructionException ) {
+                    throw (BadSetInstructionException) rte.getCause();
+                } else {
+                    throw rte;
+                }
+            }
+        } catch ( BadSetInstructionException bse ) {
+            if ( bse.getBadLookupException() != null ) {
+                rnr.printWarning( bse.getBadLookupException().getMessage() );
+            } else {
+                rnr.printWarning("Error parsing value expression. Is the slot name correct?");
+            }
+            return null;
+        } catch ( DataTagsParseException dpe ) {
+            rnr.printWarning( dpe.getMessage() );
+            rnr.printWarning( "Was the value or slot names entered legal? (i.e. start with a letter, no spaces, etc.)" );
+            return null;
+        }
+        if ( cu.getValidationMessages().stream().anyMatch(vm -> vm.getLevel() == ValidationMessage.Level.ERROR) ) {
+            rnr.printWarning( "Was the value or slot names entered legal? (i.e. start with a letter, no spaces, etc.)" );
+            return null;
+        }
+        return ((SetNode) cu.getDecisionGraph().getNode("x")).getTags();
+    }
+
 }
@@ -0,0 +1,68 @@
+package edu.harvard.iq.policymodels.cli.commands;
+
+import edu.harvard.iq.policymodels.cli.CliRunner;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.tools.queries.RunSummarizer;
+import edu.harvard.iq.policymodels.tools.queries.RunSummary;
+import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * This is the command behind "count-runs". Counts the runs of the interview,
+ * and optionally the runs that result in a superset of the passed tag values,
+ * without going through each run.
+ *
+ * @author michael
+ */
+public class CountRunsCommand extends AbstractCliCommand {
+
+    public CountRunsCommand() {
+        super("count-runs", "Count the runs of the interview, and the runs that result in the passed tags values (if passed).\n"
+                + "--values prints the distinct final values, and how many runs result in each.");
+    }
+
+    @Override
+    public void execute(CliRunner rnr, List<String> args) throws Exception {
+        boolean printValues = args.contains("--values");
+        List<String> valueArgs = C.tail(args).stream()
+                                  .filter( a -> !a.equals("--values") )
+                                  .collect( Collectors.toList() );
+
+        CompoundValue query = null;
+        if ( ! valueArgs.isEmpty() ) {
+            query = parseValueExpression(rnr, String.join(" ", valueArgs));
+            if ( query == null ) return;
+        }
+
+        long start = System.currentTimeMillis();
+        RunSummarizer summarizer = new RunSummarizer(rnr.getModel());
+        RunSummary summary = summarizer.summarize();
+        long duration = System.currentTimeMillis() - start;
+
+        rnr.println("Runs: %,d", summary.getRunCount());
+        rnr.println("  accepted: %,d", summary.getAcceptedCount());
+        rnr.println("  rejected: %,d", summary.getRejectedCount());
+        if ( summary.getLoopCount() > 0 ) {
+            rnr.println("  loops: %,d", summary.getLoopCount());
+        }
+        rnr.println("Distinct final values: %,d", summary.getFinalValues().size());
+        if ( query != null ) {
+            long matching = summary.countMatching(query);
+            rnr.println("Matching runs: %,d", matching);
+            rnr.println("Non-matching runs: %,d", summary.getAcceptedCount()-matching);
+        }
+        rnr.debugPrint("Summarized %,d states in %,d msec", summarizer.getStateCount(), duration);
+
+        if ( printValues ) {
+            summary.getFinalValues().entrySet().stream()
+                    .sorted( (e1, e2) -> e2.getValue().compareTo(e1.getValue()) )
+                    .forEach( (Map.Entry<CompoundValue, Long> ent) -> {
+                        rnr.println("%,d runs:", ent.getValue());
+                        rnr.dumpTagValue(ent.getKey());
+                    });
+        }
+    }
+
+}
@@ -5,7 +5,6 @@ import edu.harvard.iq.policymodels.io.PolicyModelDataParser;
 import edu.harvard.iq.policymodels.io.PolicyModelLoadingException;
 import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
 import edu.harvard.iq.policymodels.parser.PolicyModelLoadResult;
-import edu.harvard.iq.policymodels.parser.PolicyModelLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -68,12 +67,14 @@ public class LoadPolicyModelCommand implements CliCommand {
                 return;
             }
             
-            PolicyModelLoadResult loadRes = PolicyModelLoader.verboseLoader()
-                                                             .load(modelData);
+            PolicyModelLoadResult loadRes = rnr.getModelLoader().load(modelData);
 
             if ( loadRes.isSuccessful() ) {
                 rnr.println("Model '%s' loaded", loadRes.getModel().getMetadata().getTitle());
                 rnr.setModel( loadRes.getModel() );
+                if ( rnr.stopModelWatcher() ) {
+                    rnr.printMsg("Stopped watching the files of the previous model.");
+                }
             } else {
                 rnr.printWarning("Failed to load model: ");
             }
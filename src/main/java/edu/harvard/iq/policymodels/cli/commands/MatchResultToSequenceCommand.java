@@ -4,19 +4,12 @@ import edu.harvard.iq.policymodels.cli.BriefNodePrinter;
 import edu.harvard.iq.policymodels.cli.CliRunner;
 import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
-import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
-import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
-import edu.harvard.iq.policymodels.parser.decisiongraph.CompilationUnit;
-import edu.harvard.iq.policymodels.parser.decisiongraph.DecisionGraphCompiler;
-import edu.harvard.iq.policymodels.parser.exceptions.BadSetInstructionException;
-import edu.harvard.iq.policymodels.parser.exceptions.DataTagsParseException;
-import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
 import edu.harvard.iq.policymodels.tools.queries.DecisionGraphQuery;
 import edu.harvard.iq.policymodels.tools.queries.FindSupertypeResultsDgq;
 import edu.harvard.iq.policymodels.tools.queries.RunTrace;
 import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -28,110 +21,92 @@ import java.util.stream.Collectors;
  * 
  * @author michael
  */
-public class MatchResultToSequenceCommand implements CliCommand {
+public class MatchResultToSequenceCommand extends AbstractCliCommand {
         
-    @Override
-    public String command() {
-        return "find-runs";
-    }
-
-    @Override
-    public String description() {
-        return "Find runs that result in the passed tags values";
+    public MatchResultToSequenceCommand() {
+        super("find-runs", "Find runs that result in the passed tags values.\n"
+                + "--parallel traverses the decision graph using all available processors.\n"
+                + "--ordered with --parallel, prints the runs in the same order as a sequential traversal.\n"
+                + "--prune skips runs that cannot result in the passed values (these are not counted as misses).");
     }
 
     @Override
     public void execute(CliRunner rnr, List<String> args) throws Exception {
-        String tagValueExpression = "[>x< set: " + String.join(" ", C.tail(args)) + "]";
+        boolean parallel = args.contains("--parallel");
+        boolean ordered = args.contains("--ordered");
+        boolean prune = args.contains("--prune");
+        List<String> valueArgs = C.tail(args).stream()
+                                  .filter( a -> !a.equals("--parallel") && !a.equals("--ordered") && !a.equals("--prune") )
+                                  .collect( Collectors.toList() );
+        CompoundValue value = parseValueExpression(rnr, String.join(" ", valueArgs));
+        if ( value == null ) return;
 
-        rnr.debugPrint( tagValueExpression );
-        try {
-            CompilationUnit cu = new CompilationUnit(tagValueExpression);
-            try {
-                cu.compile(rnr.getModel().getSpaceRoot(), new EndNode(DecisionGraphCompiler.SYNTHETIC_END_NODE_ID), new ArrayList<>());
-            } catch ( RuntimeException rte ) {
-                if ( rte.getCause() instanceof BadSetInstructionException ) {
-                    throw (BadSetInstructionException) rte.getCause();
-                } else {
-                    throw rte;
-                }
-            }
-            SetNode sn = (SetNode) cu.getDecisionGraph().getNode("x");
-            if(cu.getValidationMessages().stream().filter(vm -> vm.getLevel() == ValidationMessage.Level.ERROR).collect(Collectors.toList()).isEmpty()){
-                FindSupertypeResultsDgq query = new FindSupertypeResultsDgq(rnr.getModel(), sn.getTags());
-
-                query.get( new DecisionGraphQuery.Listener() {
-                    long foundCount = 0;
-                    long missCount = 0;
-                    long rejectCount = 0;
-                    @Override
-                    public void matchFound(DecisionGraphQuery dgq) {
-                        foundCount++;
-                        rnr.println("Run %d:",foundCount);
-                        printRunTrace(rnr, dgq.getCurrentTrace()) ;
-                        rnr.println();
-                    }
+        FindSupertypeResultsDgq query = new FindSupertypeResultsDgq(rnr.getModel(), value);
+        query.setParallel(parallel);
+        query.setDeterministic(ordered);
+        query.setPruning(prune);
 
-                    @Override
-                    public void nonMatchFound(DecisionGraphQuery dgq) {
-                        missCount++;
-                        if ( totalRunsInspected()%1000==0 ) {
-                            rnr.println(" - So far: %,d matches, %,d misses, %,d rejects", foundCount, missCount, rejectCount);
-                        }
-                    }
+        query.get( new DecisionGraphQuery.Listener() {
+            long foundCount = 0;
+            long missCount = 0;
+            long rejectCount = 0;
+            @Override
+            public void matchFound(DecisionGraphQuery dgq) {
+                foundCount++;
+                rnr.println("Run %d:",foundCount);
+                printRunTrace(rnr, dgq.getCurrentTrace()) ;
+                rnr.println();
+            }
 
-                    @Override
-                    public void rejectionFound(DecisionGraphQuery dgq) {
-                        rejectCount++;
-                        if ( totalRunsInspected()%1000==0 ) {
-                            rnr.println(" - So far: %,d matches, %,d misses, %,d rejects", foundCount, missCount, rejectCount);
-                        }
-                    }
+            @Override
+            public void nonMatchFound(DecisionGraphQuery dgq) {
+                missCount++;
+                if ( totalRunsInspected()%1000==0 ) {
+                    rnr.println(" - So far: %,d matches, %,d misses, %,d rejects", foundCount, missCount, rejectCount);
+                }
+            }
 
-                    @Override
-                    public void started(DecisionGraphQuery dgq) {
-                        rnr.println("started");
-                    }
+            @Override
+            public void rejectionFound(DecisionGraphQuery dgq) {
+                rejectCount++;
+                if ( totalRunsInspected()%1000==0 ) {
+                    rnr.println(" - So far: %,d matches, %,d misses, %,d rejects", foundCount, missCount, rejectCount);
+                }
+            }
 
-                    @Override
-                    public void done(DecisionGraphQuery dgq) {
-                        switch ((int)foundCount) {
-                            case 0:
-                                rnr.println("No matching runs found, out of %,d possible runs.", missCount);
-                                break;
-                            case 1:
-                                rnr.println("Found a single match %,d possible runs.", missCount+foundCount);
-                                break;
-                            default:
-                                rnr.println("Found %,d matches in %,d possible runs.", foundCount, missCount+foundCount);
-                                break;
-                        }
-                    }
+            @Override
+            public void started(DecisionGraphQuery dgq) {
+                rnr.println("started");
+            }
 
-                    @Override
-                    public void loopDetected(DecisionGraphQuery dgq) {
-                        rnr.println("Loop detected with this trace - ");
-                        printRunTrace(rnr, dgq.getCurrentTrace()) ;
-                    }
+            @Override
+            public void done(DecisionGraphQuery dgq) {
+                switch ((int)foundCount) {
+                    case 0:
+                        rnr.println("No matching runs found, out of %,d possible runs.", missCount);
+                        break;
+                    case 1:
+                        rnr.println("Found a single match %,d possible runs.", missCount+foundCount);
+                        break;
+                    default:
+                        rnr.println("Found %,d matches in %,d possible runs.", foundCount, missCount+foundCount);
+                        break;
+                }
+                if ( prune ) {
+                    rnr.println("Skipped %,d partial runs that could not match.", query.getPrunedCount());
+                }
+            }
 
-                    private long totalRunsInspected() {
-                        return foundCount + missCount + rejectCount;
-                    }
-                });
-            } else {
-                rnr.printWarning( "Was the value or slot names entered legal? (i.e. start with a letter, no spaces, etc.)" );
+            @Override
+            public void loopDetected(DecisionGraphQuery dgq) {
+                rnr.println("Loop detected with this trace - ");
+                printRunTrace(rnr, dgq.getCurrentTrace()) ;
             }
 
-        } catch ( BadSetInstructionException bse ) {
-            if ( bse.getBadLookupException() != null ) {
-                rnr.printWarning( bse.getBadLookupException().getMessage() );
-            } else {
-                rnr.printWarning("Error parsing value expression. Is the slot name correct?");
+            private long totalRunsInspected() {
+                return foundCount + missCount + rejectCount;
             }
-        } catch ( DataTagsParseException dpe ) {
-            rnr.printWarning( dpe.getMessage() );
-            rnr.printWarning( "Was the value or slot names entered legal? (i.e. start with a letter, no spaces, etc.)" );
-        }
+        });
     }
 
     private void printRunTrace(CliRunner rnr, RunTrace t) {
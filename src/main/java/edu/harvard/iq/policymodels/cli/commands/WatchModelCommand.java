@@ -0,0 +1,77 @@
+package edu.harvard.iq.policymodels.cli.commands;
+
+import edu.harvard.iq.policymodels.cli.CliRunner;
+import edu.harvard.iq.policymodels.parser.PolicyModelLoadResult;
+import edu.harvard.iq.policymodels.parser.PolicyModelLoader;
+import edu.harvard.iq.policymodels.parser.PolicyModelWatcher;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import java.util.List;
+
+/**
+ * Watches the files of the current model, and reloads it when they change.
+ * A running interview is not affected; the reloaded model is used from the
+ * next interview on.
+ *
+ * @author michael
+ */
+public class WatchModelCommand extends AbstractCliCommand {
+
+    public WatchModelCommand() {
+        super("watch", "Reloads the model when its files change. Use `watch off` to stop.");
+    }
+
+    @Override
+    public boolean requiresModel() {
+        // `watch off` works without a model.
+        return false;
+    }
+
+    @Override
+    public void execute(CliRunner rnr, List<String> args) throws Exception {
+        boolean turnOn = (args.size() < 2) || !args.get(1).trim().equalsIgnoreCase("off");
+        rnr.stopModelWatcher();
+
+        if ( ! turnOn ) {
+            rnr.printMsg("Stopped watching model files.");
+            return;
+        }
+        if ( rnr.getModel() == null ) {
+            rnr.printWarning("Command %s requires a model. Currently, no model is loaded.", command());
+            return;
+        }
+        if ( rnr.getModel().getMetadata() == null || rnr.getModel().getMetadata().getMetadataFile() == null ) {
+            rnr.printWarning("The current model was not loaded from files, so there is nothing to watch.");
+            return;
+        }
+
+        // The watcher loads on its own thread, so it gets its own loader.
+        PolicyModelWatcher watcher = new PolicyModelWatcher(rnr.getModel().getMetadata().getMetadataFile(),
+                                                            PolicyModelLoader.verboseLoader(), rnr.getModel());
+        watcher.setListener( new PolicyModelWatcher.Listener() {
+            @Override
+            public void modelReloaded(PolicyModelWatcher w, PolicyModelLoadResult result) {
+                // A different model may have been loaded while this one was reloading.
+                if ( rnr.setPendingModel(w, result.getModel()) ) {
+                    rnr.println("");
+                    rnr.printMsg("Model reloaded (version %d). It will be used from the next interview on.", w.getVersion());
+                    printMessages(rnr, result.getMessages());
+                }
+            }
+
+            @Override
+            public void reloadFailed(PolicyModelWatcher w, PolicyModelLoadResult result, List<ValidationMessage> messages) {
+                rnr.println("");
+                rnr.printWarning("Model files changed, but the model failed to load. Keeping the current model.");
+                printMessages(rnr, messages);
+            }
+        });
+        watcher.start();
+        rnr.setModelWatcher(watcher);
+        rnr.printMsg("Watching files of model '%s'", rnr.getModel().getMetadata().getTitle());
+    }
+
+    private void printMessages( CliRunner rnr, List<ValidationMessage> messages ) {
+        messages.forEach( m -> rnr.println(m.getLevel() + "   " + m.getMessage()) );
+    }
+
+}
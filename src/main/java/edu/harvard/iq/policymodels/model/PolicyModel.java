@@ -1,10 +1,14 @@
 package edu.harvard.iq.policymodels.model;
 
 import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
 import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
 import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer;
+import edu.harvard.iq.policymodels.model.inference.InferenceCache;
+import edu.harvard.iq.policymodels.model.inference.ValueInferenceRunner;
 import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
@@ -13,6 +17,13 @@ import java.util.TreeSet;
  * The Main reason we're here - a model of a policy. Holds metadata, a decision
  * graph, and a policy space. Can locate localized information when requested.
  * 
+ * Once a model is fully loaded (and optimized, if needed), it can be frozen
+ * using {@link #freeze()}. A frozen model can be used by many interviews
+ * concurrently, with each interview keeping its state in its own
+ * {@link edu.harvard.iq.policymodels.runtime.InterviewSession}. Freezing does
+ * not cover the graph's nodes and the model's metadata; these must not be
+ * changed once the model is shared.
+ * 
  * @author michael
  */
 public class PolicyModel {
@@ -22,13 +33,52 @@ public class PolicyModel {
     private DecisionGraph decisionGraph;
     private final Set<String> localizations = new TreeSet<>();
     private Set<AbstractValueInferrer> valueInferrers = new HashSet<>();
+    private volatile boolean frozen = false;
+    private volatile CompiledDecisionGraph compiledDecisionGraph;
+    private volatile ValueInferenceRunner valueInferenceRunner;
+    private int inferenceCacheSize = DEFAULT_INFERENCE_CACHE_SIZE;
+    private InferenceCache.EvictionPolicy inferenceCachePolicy = InferenceCache.EvictionPolicy.LEAST_RECENTLY_USED;
+    
+    public static final int DEFAULT_INFERENCE_CACHE_SIZE = 4096;
+    
+    /**
+     * Prevents further changes to the model, its policy space, its value
+     * inferrers and the structure of its decision graph. Attempts to change
+     * these after this method is called result in an {@link IllegalStateException}.
+     * The nodes of the graph and the model's metadata are not frozen, and
+     * should not be changed after the model is. Freezing a frozen model has no effect.
+     * 
+     * @return {@code this}, for call chaining.
+     */
+    public synchronized PolicyModel freeze() {
+        if ( frozen ) return this;
+        valueInferrers = Collections.unmodifiableSet(valueInferrers);
+        if ( spaceRoot != null ) {
+            spaceRoot.freeze();
+        }
+        if ( decisionGraph != null ) {
+            decisionGraph.freeze();
+        }
+        frozen = true;
+        return this;
+    }
 
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    private void assertNotFrozen() {
+        if ( frozen ) {
+            throw new IllegalStateException("Policy model is frozen");
+        }
+    }
     
     public PolicyModelData getMetadata() {
         return metadata;
     }
 
     public void setMetadata(PolicyModelData metadata) {
+        assertNotFrozen();
         this.metadata = metadata;
     }
 
@@ -37,6 +87,7 @@ public class PolicyModel {
     }
 
     public void setSpaceRoot(CompoundSlot aSpaceRoot) {
+        assertNotFrozen();
         spaceRoot = aSpaceRoot;
     }
 
@@ -45,15 +96,35 @@ public class PolicyModel {
     }
 
     public void setDecisionGraph(DecisionGraph decisionGraph) {
+        assertNotFrozen();
         this.decisionGraph = decisionGraph;
     }
     
+    /**
+     * Returns the decision graph of the model, compiled to a flat form. For 
+     * frozen models, the compiled graph is computed once and cached.
+     * 
+     * @return The compiled decision graph.
+     */
+    public CompiledDecisionGraph getCompiledDecisionGraph() {
+        if ( ! frozen ) {
+            return CompiledDecisionGraph.compile(decisionGraph);
+        }
+        CompiledDecisionGraph cdg = compiledDecisionGraph;
+        if ( cdg == null ) {
+            cdg = CompiledDecisionGraph.compile(decisionGraph);
+            compiledDecisionGraph = cdg;
+        }
+        return cdg;
+    }
+    
     public void addLocalization( String locName ) {
+        assertNotFrozen();
         localizations.add(locName);
     }
 
     public Set<String> getLocalizations() {
-        return localizations;
+        return frozen ? Collections.unmodifiableSet(localizations) : localizations;
     }
     
     public Path getDirectory() {
@@ -65,9 +136,70 @@ public class PolicyModel {
     }
 
     public void setValueInferrers(Set<AbstractValueInferrer> valueInferrers) {
+        assertNotFrozen();
         this.valueInferrers = valueInferrers;
     }
     
+    /**
+     * Returns a runner for the value inferrers of the model. The runner computes
+     * the slot dependencies of the inferrers once, when created. For frozen 
+     * models, the runner is created once and shared, along with its
+     * {@link InferenceCache}.
+     * 
+     * @return A runner for the model's value inferrers.
+     */
+    public ValueInferenceRunner getValueInferenceRunner() {
+        if ( ! frozen ) {
+            return new ValueInferenceRunner(valueInferrers);
+        }
+        ValueInferenceRunner vir = valueInferenceRunner;
+        if ( vir == null ) {
+            synchronized ( this ) {
+                vir = valueInferenceRunner;
+                if ( vir == null ) {
+                    vir = new ValueInferenceRunner(valueInferrers, 
+                            (inferenceCacheSize > 0) ? new InferenceCache(inferenceCacheSize, inferenceCachePolicy) : null);
+                    valueInferenceRunner = vir;
+                }
+            }
+        }
+        return vir;
+    }
+    
+    /**
+     * @return The inference cache shared by all users of the model, or 
+     *         {@code null} if the model is not frozen, or caching is disabled.
+     */
+    public InferenceCache getInferenceCache() {
+        return frozen ? getValueInferenceRunner().getCache() : null;
+    }
+
+    public int getInferenceCacheSize() {
+        return inferenceCacheSize;
+    }
+
+    /**
+     * Sets the maximal amount of inference results cached for the model,
+     * once it is frozen.
+     * @param aSize the cache size. {@code 0} disables caching.
+     */
+    public void setInferenceCacheSize(int aSize) {
+        assertNotFrozen();
+        if ( aSize < 0 ) {
+            throw new IllegalArgumentException("Cache size cannot be negative (got " + aSize + ")");
+        }
+        inferenceCacheSize = aSize;
+    }
+
+    public InferenceCache.EvictionPolicy getInferenceCachePolicy() {
+        return inferenceCachePolicy;
+    }
+
+    public void setInferenceCachePolicy(InferenceCache.EvictionPolicy aPolicy) {
+        assertNotFrozen();
+        inferenceCachePolicy = aPolicy;
+    }
+    
     @Override
     public String toString() {
         return "[PolicyMode path:" + getMetadata().getMetadataFile().toString() + "]";
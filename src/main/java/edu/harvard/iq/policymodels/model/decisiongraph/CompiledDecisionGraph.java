@@ -0,0 +1,351 @@
+package edu.harvard.iq.policymodels.model.decisiongraph;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ConsiderNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.RejectNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.tools.ReachableNodesCollector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link DecisionGraph}, lowered into flat arrays. Nodes are identified by
+ * dense {@code int} indices, and answers are identified by {@code int} indices
+ * as well. Node indices are assigned by sorting the nodes by their ids, so
+ * compiling the same graph twice yields the same indices.
+ *
+ * Instances are immutable, and can be shared between threads. The graph the
+ * instance was compiled from should not be changed after compilation.
+ *
+ * @author michael
+ */
+public class CompiledDecisionGraph {
+
+    public static final byte ASK      = 0;
+    public static final byte CONSIDER = 1;
+    public static final byte SET      = 2;
+    public static final byte CALL     = 3;
+    public static final byte SECTION  = 4;
+    public static final byte PART     = 5;
+    public static final byte TODO     = 6;
+    public static final byte END      = 7;
+    public static final byte REJECT   = 8;
+    public static final byte CONTINUE = 9;
+
+    /** Index of a missing node (e.g. a {@code [call]} to a non-existent node). */
+    public static final int NO_NODE = -1;
+
+    private static final int[] NO_INTS = new int[0];
+    private static final CompoundValue[] NO_VALUES = new CompoundValue[0];
+
+    private final DecisionGraph source;
+    private final Node[] nodes;
+    private final byte[] kinds;
+
+    /** next node for through nodes, else node for consider nodes. */
+    private final int[] next;
+
+    /** callee for call nodes, start node for sections and parts. */
+    private final int[] inner;
+
+    /** per ask node: answer indices, in the order of the node's answers. */
+    private final int[][] askAnswers;
+
+    /** per ask node: target node for the answer at the same position in {@link #askAnswers}. */
+    private final int[][] askTargets;
+
+    private final CompoundValue[][] considerOptions;
+    private final int[][] considerTargets;
+    private final CompoundValue[] setValues;
+
+    private final Answer[] answers;
+    private final Map<Answer, Integer> answerIndices;
+    private final Map<Node, Integer> nodeIndices;
+    private final Map<String, Integer> nodeIndicesById;
+
+    private final int start;
+    private final int[] parts;
+
+    public static CompiledDecisionGraph compile( DecisionGraph dg ) {
+        return new CompiledDecisionGraph(dg);
+    }
+
+    private CompiledDecisionGraph( DecisionGraph dg ) {
+        source = dg;
+
+        // collect all nodes, including nodes that are reachable but were not added to the graph.
+        ReachableNodesCollector collector = new ReachableNodesCollector();
+        if ( dg.getStart() != null ) {
+            dg.getStart().accept(collector);
+        }
+        dg.getParts().forEach( p -> p.accept(collector) );
+        dg.nodes().forEach( n -> n.accept(collector) );
+
+        Set<Node> identitySet = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Node> nodeList = new ArrayList<>();
+        collector.getCollectedNodes().forEach( n -> { if ( identitySet.add(n) ) nodeList.add(n); } );
+        dg.nodes().forEach( n -> { if ( identitySet.add(n) ) nodeList.add(n); } );
+        nodeList.sort( Comparator.comparing(Node::getId) );
+
+        final int size = nodeList.size();
+        nodes = nodeList.toArray(new Node[size]);
+        kinds = new byte[size];
+        next = new int[size];
+        inner = new int[size];
+        askAnswers = new int[size][];
+        askTargets = new int[size][];
+        considerOptions = new CompoundValue[size][];
+        considerTargets = new int[size][];
+        setValues = new CompoundValue[size];
+
+        nodeIndices = new IdentityHashMap<>(size);
+        nodeIndicesById = new HashMap<>(size);
+        for ( int i=0; i<size; i++ ) {
+            nodeIndices.put(nodes[i], i);
+            nodeIndicesById.putIfAbsent(nodes[i].getId(), i);
+        }
+
+        List<Answer> answerList = new ArrayList<>();
+        answerIndices = new HashMap<>();
+
+        for ( int i=0; i<size; i++ ) {
+            final int idx = i;
+            next[idx] = NO_NODE;
+            inner[idx] = NO_NODE;
+            askAnswers[idx] = NO_INTS;
+            askTargets[idx] = NO_INTS;
+            considerOptions[idx] = NO_VALUES;
+            considerTargets[idx] = NO_INTS;
+
+            nodes[idx].accept(new Node.VoidVisitor() {
+                @Override
+                public void visitImpl(ConsiderNode nd) {
+                    kinds[idx] = CONSIDER;
+                    List<CompoundValue> options = nd.getAnswers();
+                    considerOptions[idx] = options.toArray(new CompoundValue[options.size()]);
+                    considerTargets[idx] = new int[options.size()];
+                    for ( int j=0; j<options.size(); j++ ) {
+                        considerTargets[idx][j] = indexOf(nd.getNodeFor(options.get(j)));
+                    }
+                    next[idx] = indexOf(nd.getElseNode());
+                }
+
+                @Override
+                public void visitImpl(AskNode nd) {
+                    kinds[idx] = ASK;
+                    List<Answer> nodeAnswers = nd.getAnswers();
+                    askAnswers[idx] = new int[nodeAnswers.size()];
+                    askTargets[idx] = new int[nodeAnswers.size()];
+                    int j=0;
+                    for ( Answer ans : nodeAnswers ) {
+                        Integer ansIdx = answerIndices.get(ans);
+                        if ( ansIdx == null ) {
+                            ansIdx = answerList.size();
+                            answerList.add(ans);
+                            answerIndices.put(ans, ansIdx);
+                        }
+                        askAnswers[idx][j] = ansIdx;
+                        askTargets[idx][j] = indexOf(nd.getNodeFor(ans));
+                        j++;
+                    }
+                }
+
+                @Override
+                public void visitImpl(SetNode nd) {
+                    kinds[idx] = SET;
+                    setValues[idx] = nd.getTags();
+                    next[idx] = indexOf(nd.getNextNode());
+                }
+
+                @Override
+                public void visitImpl(SectionNode nd) {
+                    kinds[idx] = SECTION;
+                    inner[idx] = indexOf(nd.getStartNode());
+                    next[idx] = indexOf(nd.getNextNode());
+                }
+
+                @Override
+                public void visitImpl(PartNode nd) {
+                    kinds[idx] = PART;
+                    inner[idx] = indexOf(nd.getStartNode());
+                }
+
+                @Override
+                public void visitImpl(RejectNode nd) {
+                    kinds[idx] = REJECT;
+                }
+
+                @Override
+                public void visitImpl(CallNode nd) {
+                    kinds[idx] = CALL;
+                    inner[idx] = indexOf(nd.getCalleeNode());
+                    next[idx] = indexOf(nd.getNextNode());
+                }
+
+                @Override
+                public void visitImpl(ToDoNode nd) {
+                    kinds[idx] = TODO;
+                    next[idx] = indexOf(nd.getNextNode());
+                }
+
+                @Override
+                public void visitImpl(EndNode nd) {
+                    kinds[idx] = END;
+                }
+
+                @Override
+                public void visitImpl(ContinueNode nd) {
+                    kinds[idx] = CONTINUE;
+                }
+            });
+        }
+
+        answers = answerList.toArray(new Answer[answerList.size()]);
+        start = indexOf(dg.getStart());
+        parts = dg.getParts().stream().mapToInt(this::indexOf).toArray();
+    }
+
+    /**
+     * @param nd A node of the graph.
+     * @return The index of {@code nd}, or {@link #NO_NODE}.
+     */
+    public final int indexOf( Node nd ) {
+        if ( nd == null ) return NO_NODE;
+        Integer idx = nodeIndices.get(nd);
+        return (idx != null) ? idx : NO_NODE;
+    }
+
+    /**
+     * @param nodeId id of a node in the graph.
+     * @return The index of the node with id {@code nodeId}, or {@link #NO_NODE}.
+     */
+    public int indexOf( String nodeId ) {
+        Integer idx = nodeIndicesById.get(nodeId);
+        return (idx != null) ? idx : NO_NODE;
+    }
+
+    /**
+     * @param ans an answer
+     * @return The index of {@code ans}, or {@code -1} if no node in the graph accepts it.
+     */
+    public int answerIndex( Answer ans ) {
+        Integer idx = answerIndices.get(ans);
+        return (idx != null) ? idx : -1;
+    }
+
+    public Answer getAnswer( int answerIndex ) {
+        return answers[answerIndex];
+    }
+
+    public int getAnswerCount() {
+        return answers.length;
+    }
+
+    /**
+     * Finds the node an ask node leads to, for a given answer.
+     * @param askNodeIdx index of an ask node.
+     * @param answerIdx index of the answer.
+     * @return the index of the next node, or {@link #NO_NODE} if the answer
+     *         is not accepted by the node.
+     */
+    public int getAskTarget( int askNodeIdx, int answerIdx ) {
+        final int[] nodeAnswers = askAnswers[askNodeIdx];
+        for ( int i=0; i<nodeAnswers.length; i++ ) {
+            if ( nodeAnswers[i] == answerIdx ) {
+                return askTargets[askNodeIdx][i];
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * @param askNodeIdx index of an ask node.
+     * @return the indices of the node's answers. Callers must not change the returned array.
+     */
+    public int[] getAskAnswers( int askNodeIdx ) {
+        return askAnswers[askNodeIdx];
+    }
+
+    /**
+     * @param askNodeIdx index of an ask node.
+     * @return the indices of the node's targets, by answer position. Callers must not change the returned array.
+     */
+    public int[] getAskTargets( int askNodeIdx ) {
+        return askTargets[askNodeIdx];
+    }
+
+    /**
+     * @param considerNodeIdx index of a consider node.
+     * @return the options of the node, in order. Callers must not change the returned array.
+     */
+    public CompoundValue[] getConsiderOptions( int considerNodeIdx ) {
+        return considerOptions[considerNodeIdx];
+    }
+
+    /**
+     * @param considerNodeIdx index of a consider node.
+     * @return the targets of the node, by option position. Callers must not change the returned array.
+     */
+    public int[] getConsiderTargets( int considerNodeIdx ) {
+        return considerTargets[considerNodeIdx];
+    }
+
+    public CompoundValue getSetValue( int setNodeIdx ) {
+        return setValues[setNodeIdx];
+    }
+
+    public byte getKind( int nodeIdx ) {
+        return kinds[nodeIdx];
+    }
+
+    /**
+     * @param nodeIdx index of a node
+     * @return The next node of a through node, or the else node of a consider node.
+     */
+    public int getNext( int nodeIdx ) {
+        return next[nodeIdx];
+    }
+
+    /**
+     * @param nodeIdx index of a node
+     * @return The callee of a call node, or the start node of a section or a part.
+     */
+    public int getInner( int nodeIdx ) {
+        return inner[nodeIdx];
+    }
+
+    public Node getNode( int nodeIdx ) {
+        return nodes[nodeIdx];
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int[] getParts() {
+        return parts.clone();
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public DecisionGraph getSource() {
+        return source;
+    }
+
+}
@@ -5,6 +5,7 @@ import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
 import edu.harvard.iq.policymodels.tools.ReachableNodesCollector;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -16,6 +17,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A single decision graph that can be traversed (e.g for execution).
+ * Once frozen, nodes cannot be added to or removed from the graph, and it can
+ * be traversed concurrently, as long as its nodes are not changed.
+ * 
+ * The graph caches its {@link GraphAnalysis}, so validators and processors
+ * can share it. The cached analysis is discarded when the graph changes; code
+ * that changes the links between the nodes directly should call {@link #invalidateAnalysis()}.
  * 
  * @author michael
  */
@@ -28,6 +35,8 @@ public class DecisionGraph {
     private List<Node> parts = new LinkedList<>();
     private final Map<String, Node> nodes = new HashMap<>();
     private String id;
+    private volatile boolean frozen = false;
+    private volatile GraphAnalysis analysis;
 
     public DecisionGraph() {
         this("DecisionGraph-" + INDEX.incrementAndGet());
@@ -42,6 +51,7 @@ public class DecisionGraph {
     }
 
     public void setSource(URI source) {
+        assertNotFrozen();
         this.source = source;
     }
 
@@ -56,10 +66,12 @@ public class DecisionGraph {
      * @param start the node from which a default chart traversal will start.
      */
     public void setStart(Node start) {
+        assertNotFrozen();
         if (!nodes.containsKey(start.getId())) {
             add(start);
         }
         this.start = start;
+        invalidateAnalysis();
     }
 
     public Node getNode(String nodeId) {
@@ -74,20 +86,24 @@ public class DecisionGraph {
      * @return the node, for call chaining.
      */
     public <T extends Node> T add(T aNode) {
+        assertNotFrozen();
         ReachableNodesCollector nc = new ReachableNodesCollector();
         aNode.accept(nc);
         nc.getCollectedNodes().forEach( n -> nodes.put(n.getId(), n) );
+        invalidateAnalysis();
         return aNode;
     }
     
     /**
      * Collects the reachable nodes of the graph. I.e reachable from the
-     * start node.
+     * start node. The analysis is re-computed first, as nodes may have been
+     * re-linked since it was cached. Adding the nodes does not invalidate it
+     * again, as reachable nodes are already part of it.
      */
     public void addAllReachableNodes() {
-        ReachableNodesCollector nc = new ReachableNodesCollector();
-        getStart().accept(nc);
-        nc.getCollectedNodes().forEach( n -> nodes.put(n.getId(), n) );
+        assertNotFrozen();
+        invalidateAnalysis();
+        getAnalysis().getReachableNodes().forEach( n -> nodes.put(n.getId(), n) );
     }
     
     /**
@@ -97,15 +113,55 @@ public class DecisionGraph {
      * @param n the node to be removed.
      */
     public void remove(Node n) {
+        assertNotFrozen();
         nodes.remove(n.getId());
+        invalidateAnalysis();
     }
 
     public Iterable<Node> nodes() {
-        return nodes.values();
+        return Collections.unmodifiableCollection(nodes.values());
     }
     
     public Set<String> nodeIds() {
-        return nodes.keySet();
+        return Collections.unmodifiableSet(nodes.keySet());
+    }
+    
+    /**
+     * Prevents further changes to the graph structure. Note that the nodes 
+     * themselves are not frozen, and should not be changed after the graph is.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    /**
+     * Gets the analysis of the graph, computing it if needed. 
+     * @return The analysis of the graph in its current state.
+     */
+    public GraphAnalysis getAnalysis() {
+        GraphAnalysis res = analysis;
+        if ( res == null ) {
+            res = GraphAnalysis.analyze(this);
+            analysis = res;
+        }
+        return res;
+    }
+    
+    /**
+     * Discards the cached analysis of the graph. Called when the graph changes.
+     */
+    public void invalidateAnalysis() {
+        analysis = null;
+    }
+    
+    private void assertNotFrozen() {
+        if ( frozen ) {
+            throw new IllegalStateException("Decision graph " + id + " is frozen");
+        }
     }
 
     public String getId() {
@@ -113,18 +169,21 @@ public class DecisionGraph {
     }
 
     public void setId(String id) {
+        assertNotFrozen();
         this.id = id;
     }
 
     public List<Node> getParts() {
-        return parts;
+        return frozen ? Collections.unmodifiableList(parts) : parts;
     }
     
     public void addPart(Node part) {
+        assertNotFrozen();
         if (!nodes.containsKey(part.getId())) {
             add(part);
         }
         parts.add(part);
+        invalidateAnalysis();
     }
     
     /**
@@ -132,6 +191,7 @@ public class DecisionGraph {
      * @param prefix the prefix to add.
      */
     public void prefixNodeIds( String prefix ) {
+        assertNotFrozen();
         List<Node> nodeList = new ArrayList<>(nodes.values());
         nodeList.stream().forEachOrdered( n -> {
             if( !(n instanceof EndNode) ){
@@ -140,6 +200,7 @@ public class DecisionGraph {
                 nodes.put(n.getId(), n);
             }
         });
+        invalidateAnalysis();
     }
     
     @Override
@@ -0,0 +1,472 @@
+package edu.harvard.iq.policymodels.model.decisiongraph;
+
+import static edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph.NO_NODE;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ConsiderNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.RejectNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structural facts about a decision graph, computed in a single traversal of
+ * its nodes: successors and predecessors of each node, reachability and depth
+ * from the start node, strongly connected components, and immediate dominators.
+ *
+ * Nodes are identified by dense {@code int} indices, assigned by the analysis
+ * (see {@link #indexOf(Node)}). These are not the indices of the graph's
+ * {@link CompiledDecisionGraph} form.
+ *
+ * Edges follow the control flow the way {@link edu.harvard.iq.policymodels.tools.ReachableNodesCollector}
+ * does: a {@code [call]} or a {@code [section]} leads both to its inner node and
+ * to its next node; a {@code [part]} leads to its start node.
+ *
+ * Instances are immutable. Use {@link DecisionGraph#getAnalysis()} to get the
+ * analysis of a graph, rather than re-computing it.
+ *
+ * @author michael
+ */
+public final class GraphAnalysis {
+
+    private static final int[] NO_INTS = new int[0];
+
+    private final Map<Node, Integer> nodeIndices = new IdentityHashMap<>();
+    private final Node[] nodes;
+    private final int start;
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final BitSet reachable;
+    private final int[] depth;
+    private final int[] component;
+    private final int[] componentSizes;
+    private final int[] immediateDominator;
+
+    public static GraphAnalysis analyze( DecisionGraph dg ) {
+        return new GraphAnalysis(dg);
+    }
+
+    private GraphAnalysis( DecisionGraph dg ) {
+        // Index the start node, the parts, and the nodes added to the graph,
+        // then go over the indexed nodes, indexing their successors as they
+        // are found. This covers the nodes reachable from any of these.
+        List<Node> nodeList = new ArrayList<>();
+        start = (dg.getStart() != null) ? index(dg.getStart(), nodeList) : NO_NODE;
+        dg.getParts().forEach( p -> index(p, nodeList) );
+        dg.nodes().forEach( n -> index(n, nodeList) );
+
+        List<int[]> edges = new ArrayList<>();
+        SuccessorCollector collector = new SuccessorCollector();
+        for ( int i=0; i<nodeList.size(); i++ ) {
+            collector.found.clear();
+            nodeList.get(i).accept(collector);
+            int[] out = new int[collector.found.size()];
+            int len = 0;
+            for ( Node s : collector.found ) {
+                // links may be missing, e.g. a [call] to a non-existent node.
+                if ( s != null ) out[len++] = index(s, nodeList);
+            }
+            edges.add( sortedUnique(out, len) );
+        }
+        final int size = nodeList.size();
+        nodes = nodeList.toArray(new Node[size]);
+        successors = edges.toArray(new int[size][]);
+        predecessors = invert(successors);
+
+        depth = new int[size];
+        reachable = new BitSet(size);
+        computeDepths(start);
+
+        component = new int[size];
+        componentSizes = computeComponents();
+
+        immediateDominator = new int[size];
+        computeDominators(start);
+    }
+
+    private int index( Node nd, List<Node> nodeList ) {
+        Integer idx = nodeIndices.get(nd);
+        if ( idx == null ) {
+            idx = nodeList.size();
+            nodeIndices.put(nd, idx);
+            nodeList.add(nd);
+        }
+        return idx;
+    }
+
+    private static int[] sortedUnique( int[] arr, int len ) {
+        if ( len == 0 ) return NO_INTS;
+        Arrays.sort(arr, 0, len);
+        int out = 1;
+        for ( int i=1; i<len; i++ ) {
+            if ( arr[out-1] != arr[i] ) {
+                arr[out++] = arr[i];
+            }
+        }
+        return (out == arr.length) ? arr : Arrays.copyOf(arr, out);
+    }
+
+    /** Lists the nodes a node leads to. Missing links are listed as {@code null}s. */
+    private static final class SuccessorCollector extends Node.VoidVisitor {
+
+        final List<Node> found = new ArrayList<>();
+
+        @Override
+        public void visitImpl(ConsiderNode nd) {
+            nd.getAnswers().forEach( a -> found.add(nd.getNodeFor(a)) );
+            found.add(nd.getElseNode());
+        }
+
+        @Override
+        public void visitImpl(AskNode nd) {
+            nd.getAnswers().forEach( a -> found.add(nd.getNodeFor(a)) );
+        }
+
+        @Override
+        public void visitImpl(SetNode nd) {
+            found.add(nd.getNextNode());
+        }
+
+        @Override
+        public void visitImpl(SectionNode nd) {
+            found.add(nd.getStartNode());
+            found.add(nd.getNextNode());
+        }
+
+        @Override
+        public void visitImpl(PartNode nd) {
+            found.add(nd.getStartNode());
+        }
+
+        @Override
+        public void visitImpl(CallNode nd) {
+            found.add(nd.getCalleeNode());
+            found.add(nd.getNextNode());
+        }
+
+        @Override
+        public void visitImpl(ToDoNode nd) {
+            found.add(nd.getNextNode());
+        }
+
+        @Override
+        public void visitImpl(RejectNode nd) {}
+
+        @Override
+        public void visitImpl(EndNode nd) {}
+
+        @Override
+        public void visitImpl(ContinueNode nd) {}
+    }
+
+    private static int[][] invert( int[][] edges ) {
+        int[] counts = new int[edges.length];
+        for ( int[] targets : edges ) {
+            for ( int t : targets ) counts[t]++;
+        }
+        int[][] out = new int[edges.length][];
+        for ( int i=0; i<edges.length; i++ ) {
+            out[i] = (counts[i] == 0) ? NO_INTS : new int[counts[i]];
+            counts[i] = 0;
+        }
+        for ( int src=0; src<edges.length; src++ ) {
+            for ( int t : edges[src] ) {
+                out[t][counts[t]++] = src;
+            }
+        }
+        return out;
+    }
+
+    /** Breadth-first search from the start node; marks reachable nodes, too. */
+    private void computeDepths( int start ) {
+        Arrays.fill(depth, -1);
+        if ( start == NO_NODE ) return;
+        int[] queue = new int[depth.length];
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        depth[start] = 0;
+        reachable.set(start);
+        while ( head < tail ) {
+            int cur = queue[head++];
+            for ( int s : successors[cur] ) {
+                if ( depth[s] == -1 ) {
+                    depth[s] = depth[cur] + 1;
+                    reachable.set(s);
+                    queue[tail++] = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm, iterative so that
+     * long graphs do not overflow the stack.
+     * @return sizes of the components, by component number.
+     */
+    private int[] computeComponents() {
+        final int size = successors.length;
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        boolean[] onStack = new boolean[size];
+        Arrays.fill(index, -1);
+        int[] sccStack = new int[size];
+        int sccTop = 0;
+        int[] callStack = new int[size];
+        int[] edgePos = new int[size];
+        int nextIndex = 0;
+        List<Integer> sizes = new ArrayList<>();
+
+        for ( int root=0; root<size; root++ ) {
+            if ( index[root] != -1 ) continue;
+            int callTop = 0;
+            callStack[callTop++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+            edgePos[root] = 0;
+
+            while ( callTop > 0 ) {
+                int v = callStack[callTop-1];
+                if ( edgePos[v] < successors[v].length ) {
+                    int w = successors[v][edgePos[v]++];
+                    if ( index[w] == -1 ) {
+                        index[w] = lowLink[w] = nextIndex++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        edgePos[w] = 0;
+                        callStack[callTop++] = w;
+                    } else if ( onStack[w] ) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                } else {
+                    callTop--;
+                    if ( callTop > 0 ) {
+                        int parent = callStack[callTop-1];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                    if ( lowLink[v] == index[v] ) {
+                        int componentId = sizes.size();
+                        int count = 0;
+                        int w;
+                        do {
+                            w = sccStack[--sccTop];
+                            onStack[w] = false;
+                            component[w] = componentId;
+                            count++;
+                        } while ( w != v );
+                        sizes.add(count);
+                    }
+                }
+            }
+        }
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Immediate dominators of the reachable nodes, using the iterative algorithm
+     * of Cooper, Harvey and Kennedy, over a reverse post-order of the nodes.
+     */
+    private void computeDominators( int start ) {
+        Arrays.fill(immediateDominator, NO_NODE);
+        if ( start == NO_NODE ) return;
+
+        // post-order numbering, iterative DFS.
+        final int size = successors.length;
+        int[] postOrder = new int[size];
+        Arrays.fill(postOrder, -1);
+        int[] order = new int[reachable.cardinality()];
+        int orderLen = 0;
+        boolean[] visited = new boolean[size];
+        int[] callStack = new int[size];
+        int[] edgePos = new int[size];
+        int callTop = 0;
+        callStack[callTop++] = start;
+        visited[start] = true;
+        while ( callTop > 0 ) {
+            int v = callStack[callTop-1];
+            if ( edgePos[v] < successors[v].length ) {
+                int w = successors[v][edgePos[v]++];
+                if ( ! visited[w] ) {
+                    visited[w] = true;
+                    callStack[callTop++] = w;
+                }
+            } else {
+                callTop--;
+                postOrder[v] = orderLen;
+                order[orderLen++] = v;
+            }
+        }
+
+        immediateDominator[start] = start;
+        boolean changed = true;
+        while ( changed ) {
+            changed = false;
+            // reverse post-order, skipping the start node (which is last in post-order).
+            for ( int i=orderLen-2; i>=0; i-- ) {
+                int b = order[i];
+                int newIdom = NO_NODE;
+                for ( int p : predecessors[b] ) {
+                    if ( immediateDominator[p] == NO_NODE ) continue;
+                    newIdom = (newIdom == NO_NODE) ? p : intersect(p, newIdom, postOrder);
+                }
+                if ( immediateDominator[b] != newIdom ) {
+                    immediateDominator[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect( int a, int b, int[] postOrder ) {
+        while ( a != b ) {
+            while ( postOrder[a] < postOrder[b] ) a = immediateDominator[a];
+            while ( postOrder[b] < postOrder[a] ) b = immediateDominator[b];
+        }
+        return a;
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return The node at {@code nodeIdx}.
+     */
+    public Node getNode( int nodeIdx ) {
+        return nodes[nodeIdx];
+    }
+
+    /**
+     * @param nd A node.
+     * @return The index of {@code nd}, or {@link CompiledDecisionGraph#NO_NODE}
+     *         if it is not in the analyzed graph.
+     */
+    public int indexOf( Node nd ) {
+        Integer idx = nodeIndices.get(nd);
+        return (idx != null) ? idx : NO_NODE;
+    }
+
+    /**
+     * @return Index of the start node, or {@link CompiledDecisionGraph#NO_NODE} if the graph has none.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return indices of the nodes {@code nodeIdx} leads to. Callers must not change the returned array.
+     */
+    public int[] getSuccessors( int nodeIdx ) {
+        return successors[nodeIdx];
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return indices of the nodes leading to {@code nodeIdx}. Callers must not change the returned array.
+     */
+    public int[] getPredecessors( int nodeIdx ) {
+        return predecessors[nodeIdx];
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return {@code true} iff the node is reachable from the start node.
+     */
+    public boolean isReachable( int nodeIdx ) {
+        return reachable.get(nodeIdx);
+    }
+
+    /**
+     * @param nd A node.
+     * @return {@code true} iff {@code nd} is in the graph, and is reachable from the start node.
+     */
+    public boolean isReachable( Node nd ) {
+        int idx = indexOf(nd);
+        return (idx != NO_NODE) && reachable.get(idx);
+    }
+
+    public int getReachableCount() {
+        return reachable.cardinality();
+    }
+
+    /**
+     * @return The nodes reachable from the start node, in index order.
+     */
+    public List<Node> getReachableNodes() {
+        List<Node> out = new ArrayList<>(reachable.cardinality());
+        for ( int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i+1) ) {
+            out.add( nodes[i] );
+        }
+        return out;
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return Length of the shortest path from the start node to the node, or
+     *         {@code -1} if the node is not reachable.
+     */
+    public int getDepth( int nodeIdx ) {
+        return depth[nodeIdx];
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return Number of the strongly connected component of the node.
+     */
+    public int getComponent( int nodeIdx ) {
+        return component[nodeIdx];
+    }
+
+    public int getComponentCount() {
+        return componentSizes.length;
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return {@code true} iff the node is on a cycle.
+     */
+    public boolean isOnCycle( int nodeIdx ) {
+        if ( componentSizes[component[nodeIdx]] > 1 ) return true;
+        return Arrays.binarySearch(successors[nodeIdx], nodeIdx) >= 0;
+    }
+
+    /**
+     * @param nodeIdx index of a node.
+     * @return The immediate dominator of the node, the node itself for the
+     *         start node, or {@link CompiledDecisionGraph#NO_NODE} if the node
+     *         is not reachable.
+     */
+    public int getImmediateDominator( int nodeIdx ) {
+        return immediateDominator[nodeIdx];
+    }
+
+    /**
+     * @param dominatorIdx index of a node.
+     * @param nodeIdx index of another node.
+     * @return {@code true} iff every path from the start node to {@code nodeIdx}
+     *         passes through {@code dominatorIdx}.
+     */
+    public boolean dominates( int dominatorIdx, int nodeIdx ) {
+        if ( ! reachable.get(nodeIdx) ) return false;
+        int cur = nodeIdx;
+        while ( true ) {
+            if ( cur == dominatorIdx ) return true;
+            int idom = immediateDominator[cur];
+            if ( idom == cur ) return false;
+            cur = idom;
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Base class for value inferrers. Manages subspaces and the inferred values.
@@ -65,16 +66,60 @@ public abstract class AbstractValueInferrer {
     }
     
     protected final List<InferencePair> inferencePairs = new ArrayList<>();
+    
+    /**
+     * Lookup index over the pairs. {@code null} when it needs to be (re)built,
+     * empty when the pairs cannot be indexed.
+     */
+    private volatile Optional<InferencePairIndex> index;
 
     public abstract CompoundValue apply( CompoundValue inValue );
     
     public boolean add(InferencePair e) {
+        index = null;
         return inferencePairs.add(e);
     }
 
+    /**
+     * Note: Changes made directly to the returned list are not seen by the
+     * lookup index. Use {@link #add(edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair)}
+     * instead.
+     * @return The inference pairs of this inferrer.
+     */
     public List<InferencePair> getInferencePairs() {
         return inferencePairs;
     }
+    
+    /**
+     * Builds the lookup index over the inference pairs, if they permit one. 
+     * Called when the inferrer is loaded; otherwise, the index is built on first use.
+     * @return {@code true} iff the pairs are indexed.
+     */
+    public boolean buildIndex() {
+        return getIndex() != null;
+    }
+    
+    /**
+     * @return The lookup index over the pairs, or {@code null} if they cannot be indexed.
+     */
+    InferencePairIndex getIndex() {
+        Optional<InferencePairIndex> idx = index;
+        if ( idx == null ) {
+            idx = Optional.ofNullable(InferencePairIndex.build(inferencePairs));
+            index = idx;
+        }
+        return idx.orElse(null);
+    }
+    
+    /**
+     * Composes {@code inValue} with the inferred value of {@code pair}.
+     * @param inValue the value inferred from.
+     * @param pair the pair found for {@code inValue}.
+     * @return The composed value, or {@code inValue} if there was nothing to add.
+     */
+    protected CompoundValue composeInferred( CompoundValue inValue, InferencePair pair ) {
+        return inValue.isSupersetOf(pair.inferredValue) ? inValue : inValue.composeWith(pair.inferredValue);
+    }
 
     @Override
     public int hashCode() {
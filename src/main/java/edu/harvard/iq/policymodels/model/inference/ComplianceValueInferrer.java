@@ -18,6 +18,12 @@ public class ComplianceValueInferrer extends AbstractValueInferrer {
     @Override
     public CompoundValue apply( CompoundValue inValue ) {
         
+        final InferencePairIndex idx = getIndex();
+        if ( idx != null && idx.accepts(inValue) ) {
+            int found = idx.lastComplied(inValue);
+            return (found >= 0) ? composeInferred(inValue, inferencePairs.get(found)) : inValue;
+        }
+        
         CompoundValue out = inValue;
         CompoundValue last;
         do {
@@ -0,0 +1,173 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of inference results, mapping values to
+ * their inference fixpoints. The cache is split into stripes, each guarded
+ * by its own lock, so that threads looking up different values rarely contend.
+ *
+ * The cache keeps its own copies of the values it stores, and hands out
+ * copies of them, so callers may modify the values they put and get.
+ *
+ * @author michael
+ */
+public class InferenceCache {
+
+    public enum EvictionPolicy {
+        /** Evict the entry that was not looked up for the longest time. */
+        LEAST_RECENTLY_USED,
+        /** Evict the entry that was inserted first. */
+        FIRST_IN_FIRST_OUT
+    }
+
+    /** Marks entries whose value was not changed by the inference. */
+    private static final Object UNCHANGED = new Object();
+
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    private final int maxSize;
+    private final EvictionPolicy policy;
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private class Stripe extends LinkedHashMap<CompoundValue, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe( int aCapacity ) {
+            super(16, 0.75f, policy==EvictionPolicy.LEAST_RECENTLY_USED);
+            capacity = aCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CompoundValue, Object> eldest) {
+            if ( size() > capacity ) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public InferenceCache( int aMaxSize ) {
+        this(aMaxSize, EvictionPolicy.LEAST_RECENTLY_USED);
+    }
+
+    public InferenceCache( int aMaxSize, EvictionPolicy aPolicy ) {
+        if ( aMaxSize < 1 ) {
+            throw new IllegalArgumentException("Cache size must be positive (got " + aMaxSize + ")");
+        }
+        maxSize = aMaxSize;
+        policy = aPolicy;
+
+        int stripeCount = 1;
+        while ( stripeCount*2 <= MAX_STRIPES && stripeCount*2*MIN_STRIPE_SIZE <= maxSize ) {
+            stripeCount *= 2;
+        }
+        stripes = new Stripe[stripeCount];
+        for ( int i=0; i<stripeCount; i++ ) {
+            stripes[i] = new Stripe(maxSize/stripeCount);
+        }
+    }
+
+    /**
+     * Looks up the inference result of {@code value}.
+     * @param value the value inferred from.
+     * @return A copy of the cached result, {@code value} itself if the
+     *         inference did not change it, or {@code null} if the result is
+     *         not cached.
+     */
+    public CompoundValue get( CompoundValue value ) {
+        final Stripe stripe = stripeFor(value);
+        final Object result;
+        synchronized ( stripe ) {
+            result = stripe.get(value);
+        }
+        if ( result == null ) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (result == UNCHANGED) ? value : ((CompoundValue) result).getOwnableInstance();
+    }
+
+    /**
+     * Stores an inference result. {@code value} and {@code result} are copied,
+     * so the caller may keep using them.
+     *
+     * @param value the value inferred from.
+     * @param result the inference result. If this is {@code value} itself,
+     *               the inference is recorded as not changing the value.
+     */
+    public void put( CompoundValue value, CompoundValue result ) {
+        final Object stored = (result == value) ? UNCHANGED : result.getOwnableInstance();
+        final CompoundValue key = value.getOwnableInstance();
+        final Stripe stripe = stripeFor(key);
+        synchronized ( stripe ) {
+            stripe.put(key, stored);
+        }
+    }
+
+    public void clear() {
+        for ( Stripe stripe : stripes ) {
+            synchronized ( stripe ) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for ( Stripe stripe : stripes ) {
+            synchronized ( stripe ) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeFor( CompoundValue value ) {
+        final int hash = value.hashCode();
+        return stripes[ (hash ^ (hash>>>16)) & (stripes.length-1) ];
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "[InferenceCache size:" + size() + "/" + maxSize
+                + " policy:" + policy
+                + " hits:" + getHitCount()
+                + " misses:" + getMissCount()
+                + " evictions:" + getEvictionCount() + "]";
+    }
+
+}
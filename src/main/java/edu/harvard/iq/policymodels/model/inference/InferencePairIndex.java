@@ -0,0 +1,175 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AtomicValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A table of the ordinals of the minimal coordinates of a list of inference
+ * pairs. Can be built when all the minimal coordinates set the same atomic
+ * sub-slots of the same compound slot.
+ *
+ * Since the minimal coordinates are hierarchically ordered, the pairs whose
+ * coordinate supports a value form a suffix of the list, and the pairs whose
+ * coordinate is complied with by a value form a prefix. So the first/last of
+ * these can be found using a binary search. When the table turns out not to
+ * be ordered, the lookup falls back to a linear scan of the table.
+ *
+ * @author michael
+ */
+final class InferencePairIndex {
+
+    private final CompoundSlot slot;
+
+    /** Ordinals (in {@link #slot}) of the sub-slots set by the coordinates. */
+    private final int[] columns;
+
+    /** Value ordinals of the coordinates, row per pair. */
+    private final int[] table;
+
+    private final int rowCount;
+
+    private final boolean ordered;
+
+    /**
+     * Builds an index for the passed pairs, if possible.
+     * @param pairs the pairs to index.
+     * @return The index, or {@code null} if the pairs cannot be indexed.
+     */
+    static InferencePairIndex build( List<InferencePair> pairs ) {
+        if ( pairs.isEmpty() ) return null;
+
+        final CompoundValue first = pairs.get(0).getMinimalCoordinate();
+        final CompoundSlot slot = first.getSlot();
+        final Set<AbstractSlot> subSlots = first.getNonEmptySubSlots();
+        final int[] columns = new int[subSlots.size()];
+        int col = 0;
+        for ( AbstractSlot sub : subSlots ) {
+            if ( ! (sub instanceof AtomicSlot) ) return null;
+            columns[col++] = slot.ordinalOf(sub);
+        }
+
+        final int[] table = new int[pairs.size()*columns.length];
+        boolean ordered = true;
+        for ( int row=0; row<pairs.size(); row++ ) {
+            CompoundValue coordinate = pairs.get(row).getMinimalCoordinate();
+            if ( coordinate.getSlot() != slot || ! coordinate.getNonEmptySubSlots().equals(subSlots) ) {
+                return null;
+            }
+            for ( int c=0; c<columns.length; c++ ) {
+                final int idx = row*columns.length + c;
+                table[idx] = ((AtomicValue)coordinate.getByOrdinal(columns[c])).getOrdinal();
+                if ( row > 0 && table[idx] < table[idx-columns.length] ) {
+                    ordered = false;
+                }
+            }
+        }
+
+        return new InferencePairIndex(slot, columns, table, pairs.size(), ordered);
+    }
+
+    private InferencePairIndex(CompoundSlot aSlot, int[] someColumns, int[] aTable, int aRowCount, boolean isOrdered) {
+        slot = aSlot;
+        columns = someColumns;
+        table = aTable;
+        rowCount = aRowCount;
+        ordered = isOrdered;
+    }
+
+    /**
+     * @param value a value
+     * @return {@code true} iff this index can look up {@code value}.
+     */
+    boolean accepts( CompoundValue value ) {
+        return value.getSlot() == slot;
+    }
+
+    /**
+     * @param value an accepted value.
+     * @return The index of the first pair whose minimal coordinate supports {@code value}, or {@code -1}.
+     */
+    int firstSupporting( CompoundValue value ) {
+        if ( ! hasAllColumns(value) ) return -1;
+        if ( ordered ) {
+            int lo = 0, hi = rowCount;
+            while ( lo < hi ) {
+                final int mid = (lo+hi) >>> 1;
+                if ( rowAtLeast(mid, value) ) {
+                    hi = mid;
+                } else {
+                    lo = mid+1;
+                }
+            }
+            return (lo < rowCount) ? lo : -1;
+        } else {
+            for ( int row=0; row<rowCount; row++ ) {
+                if ( rowAtLeast(row, value) ) return row;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @param value an accepted value.
+     * @return The index of the last pair whose minimal coordinate is complied with by {@code value}, or {@code -1}.
+     */
+    int lastComplied( CompoundValue value ) {
+        if ( ! hasAllColumns(value) ) return -1;
+        if ( ordered ) {
+            int lo = 0, hi = rowCount;
+            while ( lo < hi ) {
+                final int mid = (lo+hi) >>> 1;
+                if ( rowAtMost(mid, value) ) {
+                    lo = mid+1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo-1;
+        } else {
+            for ( int row=rowCount-1; row>=0; row-- ) {
+                if ( rowAtMost(row, value) ) return row;
+            }
+            return -1;
+        }
+    }
+
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    private boolean hasAllColumns( CompoundValue value ) {
+        for ( int column : columns ) {
+            if ( value.getByOrdinal(column) == null ) return false;
+        }
+        return true;
+    }
+
+    private boolean rowAtLeast( int row, CompoundValue value ) {
+        final int offset = row*columns.length;
+        for ( int c=0; c<columns.length; c++ ) {
+            if ( table[offset+c] < ordinalAt(value, c) ) return false;
+        }
+        return true;
+    }
+
+    private boolean rowAtMost( int row, CompoundValue value ) {
+        final int offset = row*columns.length;
+        for ( int c=0; c<columns.length; c++ ) {
+            if ( table[offset+c] > ordinalAt(value, c) ) return false;
+        }
+        return true;
+    }
+
+    private int ordinalAt( CompoundValue value, int column ) {
+        final AbstractValue field = value.getByOrdinal(columns[column]);
+        return ((AtomicValue)field).getOrdinal();
+    }
+
+}
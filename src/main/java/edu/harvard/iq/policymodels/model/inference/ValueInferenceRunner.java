@@ -0,0 +1,188 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Applies a set of value inferrers to a value, until a fixpoint is reached.
+ * The inferrers are applied in rounds - each round, the inferrers are
+ * applied to the result of the previous round, and their results are composed.
+ *
+ * An inferrer reads only the slots of its minimal coordinates (its input slots),
+ * and writes only the slots of its inferred values (its output slots). So
+ * an inferrer needs to be re-applied only when one of its input slots changed
+ * since it was last applied. Each round applies only such inferrers, which
+ * yields the same fixpoint as applying all inferrers in each round.
+ *
+ * A runner may have an {@link InferenceCache}, in which case results are
+ * looked up in it before being computed. A cache should only be used when
+ * the inferrers do not change.
+ *
+ * @author michael
+ */
+public class ValueInferenceRunner {
+
+    private final Collection<AbstractValueInferrer> inferrerCollection;
+    private final AbstractValueInferrer[] inferrers;
+    private final List<Set<AbstractSlot>> inputSlots;
+    private final List<Set<AbstractSlot>> outputSlots;
+
+    /** For each slot, the inferrers that read it. */
+    private final Map<AbstractSlot, BitSet> readers = new HashMap<>();
+
+    /** Cached results. May be {@code null}. */
+    private final InferenceCache cache;
+
+    public ValueInferenceRunner(Collection<AbstractValueInferrer> someInferrers) {
+        this(someInferrers, null);
+    }
+
+    public ValueInferenceRunner(Collection<AbstractValueInferrer> someInferrers, InferenceCache aCache) {
+        inferrerCollection = someInferrers;
+        cache = aCache;
+        inferrers = someInferrers.toArray(new AbstractValueInferrer[someInferrers.size()]);
+        inputSlots = new ArrayList<>(inferrers.length);
+        outputSlots = new ArrayList<>(inferrers.length);
+
+        for ( int i=0; i<inferrers.length; i++ ) {
+            Set<AbstractSlot> in = new HashSet<>();
+            Set<AbstractSlot> out = new HashSet<>();
+            for ( InferencePair pair : inferrers[i].getInferencePairs() ) {
+                in.addAll(pair.getMinimalCoordinate().getNonEmptySubSlots());
+                out.addAll(pair.getInferredValue().getNonEmptySubSlots());
+            }
+            for ( AbstractSlot slot : in ) {
+                readers.computeIfAbsent(slot, s -> new BitSet()).set(i);
+            }
+            inputSlots.add( Collections.unmodifiableSet(in) );
+            outputSlots.add( Collections.unmodifiableSet(out) );
+        }
+    }
+
+    /**
+     * Infers values based on {@code value}.
+     * @param value The value to start from.
+     * @return The inferred value, or {@code value} itself if nothing new was inferred.
+     */
+    public CompoundValue apply( CompoundValue value ) {
+        if ( inferrers.length == 0 ) return value;
+        CompoundValue cached = lookup(value);
+        if ( cached != null ) return cached;
+        
+        BitSet all = new BitSet(inferrers.length);
+        all.set(0, inferrers.length);
+        return store(value, run(value, all));
+    }
+
+    /**
+     * Infers values based on {@code value}, where {@code value} was obtained
+     * by composing some value onto {@code fixpoint}, a result of a previous
+     * inference. Only inferrers whose input slots differ between
+     * {@code fixpoint} and {@code value} are applied in the first round.
+     *
+     * @param fixpoint A value returned from this runner.
+     * @param value The value to start from.
+     * @return The inferred value, or {@code value} itself if nothing new was inferred.
+     */
+    public CompoundValue applyIncremental( CompoundValue fixpoint, CompoundValue value ) {
+        if ( inferrers.length == 0 ) return value;
+        CompoundValue cached = lookup(value);
+        if ( cached != null ) return cached;
+        
+        BitSet affected = new BitSet(inferrers.length);
+        for ( Map.Entry<AbstractSlot, BitSet> e : readers.entrySet() ) {
+            if ( ! Objects.equals(fixpoint.get(e.getKey()), value.get(e.getKey())) ) {
+                affected.or(e.getValue());
+            }
+        }
+        return store(value, run(value, affected));
+    }
+    
+    private CompoundValue lookup( CompoundValue value ) {
+        return (cache != null) ? cache.get(value) : null;
+    }
+    
+    private CompoundValue store( CompoundValue value, CompoundValue result ) {
+        if ( cache != null ) {
+            cache.put(value, result);
+        }
+        return result;
+    }
+
+    private CompoundValue run( CompoundValue value, BitSet active ) {
+        CompoundValue current = value;
+        while ( ! active.isEmpty() ) {
+            CompoundValue next = current;
+            for ( int i=active.nextSetBit(0); i>=0; i=active.nextSetBit(i+1) ) {
+                next = next.composeWith(inferrers[i].apply(current));
+            }
+
+            // schedule inferrers that read slots that changed in this round.
+            BitSet nextActive = new BitSet(inferrers.length);
+            for ( int i=active.nextSetBit(0); i>=0; i=active.nextSetBit(i+1) ) {
+                for ( AbstractSlot slot : outputSlots.get(i) ) {
+                    BitSet slotReaders = readers.get(slot);
+                    if ( slotReaders != null && ! Objects.equals(current.get(slot), next.get(slot)) ) {
+                        nextActive.or(slotReaders);
+                    }
+                }
+            }
+
+            if ( next.equals(current) ) break;
+            current = next;
+            active = nextActive;
+        }
+
+        return current.equals(value) ? value : current;
+    }
+
+    public boolean isEmpty() {
+        return inferrers.length == 0;
+    }
+
+    /**
+     * @return The cache used by this runner, or {@code null}.
+     */
+    public InferenceCache getCache() {
+        return cache;
+    }
+
+    public Collection<AbstractValueInferrer> getInferrers() {
+        return inferrerCollection;
+    }
+
+    /**
+     * @param inferrer an inferrer managed by this runner.
+     * @return The slots {@code inferrer} reads.
+     */
+    public Set<AbstractSlot> getInputSlots( AbstractValueInferrer inferrer ) {
+        return inputSlots.get(indexOf(inferrer));
+    }
+
+    /**
+     * @param inferrer an inferrer managed by this runner.
+     * @return The slots {@code inferrer} may write.
+     */
+    public Set<AbstractSlot> getOutputSlots( AbstractValueInferrer inferrer ) {
+        return outputSlots.get(indexOf(inferrer));
+    }
+
+    private int indexOf( AbstractValueInferrer inferrer ) {
+        for ( int i=0; i<inferrers.length; i++ ) {
+            if ( inferrers[i] == inferrer ) return i;
+        }
+        throw new IllegalArgumentException("Inferrer is not managed by this runner");
+    }
+
+}
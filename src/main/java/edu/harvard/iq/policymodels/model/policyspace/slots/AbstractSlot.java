@@ -55,6 +55,8 @@ public abstract class AbstractSlot {
     
 	private final String name;
 	private String note;
+    private volatile boolean frozen = false;
+    private int hash = 0;
 
 	public AbstractSlot(String name, String note) {
 		this.name = name;
@@ -66,7 +68,9 @@ public abstract class AbstractSlot {
 	}
 
 	public void setNote(String note) {
+        assertNotFrozen();
 		this.note = note;
+        hash = 0;
 	}
 	
 	public String getName() {
@@ -75,6 +79,24 @@ public abstract class AbstractSlot {
 
 	public abstract <T> T accept( Visitor<T> v );
 	
+    /**
+     * Prevents further changes to {@code this} slot, and to any slot it contains.
+     * Frozen slots can be safely shared between threads.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    protected void assertNotFrozen() {
+        if ( frozen ) {
+            throw new IllegalStateException("Slot " + getName() + " is frozen");
+        }
+    }
+	
     public SlotValueLookupResult lookupValue( final String slotName, final String valueName ) {
         return accept(new AbstractSlot.Visitor<SlotValueLookupResult>() {
             
@@ -165,10 +187,14 @@ public abstract class AbstractSlot {
     
 	@Override
 	public int hashCode() {
-		int hash = 3;
-		hash = 89 * hash + Objects.hashCode(this.name);
-		hash = 89 * hash + Objects.hashCode(this.note);
-		return hash;
+        int h = hash;
+        if ( h == 0 ) {
+            h = 3;
+            h = 89 * h + Objects.hashCode(this.name);
+            h = 89 * h + Objects.hashCode(this.note);
+            hash = h;
+        }
+		return h;
 	}
 
 	@Override
@@ -19,6 +19,12 @@ public class AggregateSlot extends AbstractSlot {
 		return itemType;
 	}
 	
+    @Override
+    public void freeze() {
+        super.freeze();
+        itemType.freeze();
+    }
+    
     public AggregateValue createInstance() {
         return new AggregateValue(this);
     }
@@ -1,8 +1,10 @@
 package edu.harvard.iq.policymodels.model.policyspace.slots;
 
 import edu.harvard.iq.policymodels.model.policyspace.values.AtomicValue;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -19,6 +21,8 @@ public class AtomicSlot extends AbstractSlot {
     
 	private final Map<String, AtomicValue> values = new HashMap<>(); 
     
+    private final List<AtomicValue> valuesByOrdinal = new ArrayList<>();
+    
     private AggregateSlot parentSlot;
 
 	public AtomicSlot(String name, String note) {
@@ -46,11 +50,13 @@ public class AtomicSlot extends AbstractSlot {
      * @see #valueOf(java.lang.String) 
 	 */
 	public AtomicValue registerValue( String name, String note ) {
+        assertNotFrozen();
         if ( values.containsKey(name) ) {
             throw new IllegalArgumentException("Value " + name + " already regiseterd.");
         }
 		AtomicValue v = new AtomicValue( nextOrdinal++, name, this, note );
 		values.put( name, v );
+        valuesByOrdinal.add( v );
 		return v;
 	}
     
@@ -68,6 +74,23 @@ public class AtomicSlot extends AbstractSlot {
         }
     }
     
+    /**
+     * Returns the value of {@code this} type that has the passed ordinal.
+     * @param ordinal the ordinal of the requested value.
+     * @return The value with the passed ordinal.
+     * @throws IndexOutOfBoundsException if no value has that ordinal.
+     */
+    public AtomicValue valueByOrdinal( int ordinal ) {
+        return valuesByOrdinal.get(ordinal);
+    }
+    
+    /**
+     * @return The number of values registered in {@code this} slot.
+     */
+    public int getValueCount() {
+        return valuesByOrdinal.size();
+    }
+    
     /**
      * When an {@code this} serves as the item type of an {@link AggregateSlot},
      * that {@link AggregateSlot} is considered the parent slot.
@@ -78,6 +101,7 @@ public class AtomicSlot extends AbstractSlot {
     }
 
     public void setParentSlot(AggregateSlot parentSlot) {
+        assertNotFrozen();
         this.parentSlot = parentSlot;
     }
 
@@ -2,9 +2,11 @@ package edu.harvard.iq.policymodels.model.policyspace.slots;
 
 import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
 import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,11 +16,18 @@ import java.util.Set;
  * the fields are accessible by using the type as key.
  * <br>
  * Corollary: Instances of compound types are maps from types to values of those types.
+ * <br>
+ * Each sub-slot gets a small ordinal when it is added, which values of this slot
+ * use to store their fields in an array. Ordinals are never reused, so removing a
+ * sub-slot does not invalidate existing values.
  * 
  * @author michael
  */
 public class CompoundSlot extends AbstractSlot {
 	private final Map<String,AbstractSlot> subSlots = new LinkedHashMap<>();
+    private final Map<String,Integer> ordinalsByName = new HashMap<>();
+    private AbstractSlot[] subSlotsByOrdinal = new AbstractSlot[0];
+    private Set<AbstractSlot> subSlotsView = Collections.emptySet();
 
 	public CompoundSlot(String name, String note) {
 		super(name, note);
@@ -26,17 +35,63 @@ public class CompoundSlot extends AbstractSlot {
 	
 	public void addSubSlot( AbstractSlot tt ) {
         if ( tt == null ) throw new IllegalArgumentException("Cannot add a null slot");
+        assertNotFrozen();
 		subSlots.put( tt.getName(), tt );
+        Integer ordinal = ordinalsByName.get(tt.getName());
+        if ( ordinal == null ) {
+            ordinal = subSlotsByOrdinal.length;
+            ordinalsByName.put(tt.getName(), ordinal);
+            subSlotsByOrdinal = Arrays.copyOf(subSlotsByOrdinal, ordinal+1);
+        }
+        subSlotsByOrdinal[ordinal] = tt;
+        updateSubSlotsView();
 	}
 	
 	public Set<AbstractSlot> getSubSlots() {
-		return Collections.unmodifiableSet(new HashSet<>(subSlots.values()));
+		return subSlotsView;
 	}
 	
 	public void removeSubSlot( AbstractSlot tt ) {
-		subSlots.remove(tt.getName());
+        assertNotFrozen();
+		if ( subSlots.remove(tt.getName()) != null ) {
+            subSlotsByOrdinal[ordinalsByName.get(tt.getName())] = null;
+            updateSubSlotsView();
+        }
 	}
     
+    private void updateSubSlotsView() {
+        subSlotsView = Collections.unmodifiableSet(new LinkedHashSet<>(subSlots.values()));
+    }
+    
+    /**
+     * Returns the ordinal of a sub-slot of {@code this} slot. Ordinals are
+     * assigned when sub-slots are added, and are stable for the life of the slot.
+     * 
+     * @param subSlot the sub-slot
+     * @return The ordinal of {@code subSlot}, or {@code -1} if it is not a sub-slot of {@code this}.
+     */
+    public int ordinalOf( AbstractSlot subSlot ) {
+        Integer ordinal = ordinalsByName.get(subSlot.getName());
+        if ( ordinal == null ) return -1;
+        AbstractSlot candidate = subSlotsByOrdinal[ordinal];
+        return ( candidate == subSlot || (candidate != null && candidate.equals(subSlot)) ) ? ordinal : -1;
+    }
+    
+    /**
+     * @param ordinal an ordinal of a sub-slot
+     * @return The sub-slot with the passed ordinal, or {@code null} if it was removed.
+     */
+    public AbstractSlot subSlotByOrdinal( int ordinal ) {
+        return subSlotsByOrdinal[ordinal];
+    }
+    
+    /**
+     * @return One more than the highest ordinal ever assigned to a sub-slot.
+     */
+    public int getOrdinalCount() {
+        return subSlotsByOrdinal.length;
+    }
+    
     public AbstractSlot getSubSlot( String subSlotName ) {
         return subSlots.get(subSlotName);
     }
@@ -60,6 +115,12 @@ public class CompoundSlot extends AbstractSlot {
         }
     }
     
+    @Override
+    public void freeze() {
+        super.freeze();
+        subSlots.values().forEach( AbstractSlot::freeze );
+    }
+    
     public CompoundValue createInstance() {
         return new CompoundValue( this );
     }
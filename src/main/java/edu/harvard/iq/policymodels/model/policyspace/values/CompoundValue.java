@@ -3,8 +3,10 @@ package edu.harvard.iq.policymodels.model.policyspace.values;
 import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
 import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
 import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -12,18 +14,23 @@ import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toSet;
 
 /**
- * A value that has multiple fields of different types.
+ * A value that has multiple fields of different types. Fields are stored in
+ * an array, indexed by the ordinals of the sub-slots in the value's slot.
  *
  * @author michael
  */
 public class CompoundValue extends AbstractValue{
 
     private static final Resolver RESOLVER = new Resolver();
+    private static final SubsetComparator SUBSET_COMPARATOR = new SubsetComparator();
 
-    private final Map<AbstractSlot, AbstractValue> fields = new LinkedHashMap<>();
+    private AbstractValue[] fields;
+    private int fieldCount = 0;
+    private final Set<AbstractSlot> nonEmptySubSlots = new NonEmptySubSlots();
 
     public CompoundValue(CompoundSlot type) {
         super(type);
+        fields = new AbstractValue[type.getOrdinalCount()];
     }
 
     @Override
@@ -32,31 +39,64 @@ public class CompoundValue extends AbstractValue{
     }
 
     public void put(AbstractValue value) {
-        if (getSlot().getSubSlots().contains(value.getSlot())) {
-            fields.put(value.getSlot(), value);
+        int ordinal = getSlot().ordinalOf(value.getSlot());
+        if ( ordinal >= 0 ) {
+            putAt(ordinal, value);
         } else {
             throw new IllegalArgumentException("Slot " + getSlot() + " does not have a sub-slot " + value.getSlot() + ".");
         }
     }
+    
+    private void putAt( int ordinal, AbstractValue value ) {
+        if ( ordinal >= fields.length ) {
+            // sub-slot was added to our slot after we were created.
+            fields = Arrays.copyOf(fields, getSlot().getOrdinalCount());
+        }
+        if ( fields[ordinal] == null ) {
+            fieldCount++;
+        }
+        fields[ordinal] = value;
+    }
 
     public void clear(AbstractSlot slot) {
-        fields.remove(slot);
+        int ordinal = getSlot().ordinalOf(slot);
+        if ( ordinal >= 0 && ordinal < fields.length && fields[ordinal] != null ) {
+            fields[ordinal] = null;
+            fieldCount--;
+        }
     }
 
     public AbstractValue get(AbstractSlot slot) {
-        if (getSlot().getSubSlots().contains(slot)) {
-            return fields.get(slot);
+        int ordinal = getSlot().ordinalOf(slot);
+        if ( ordinal >= 0 ) {
+            return fieldAt(ordinal);
         } else {
             throw new IllegalArgumentException("Slot " + getSlot() + " does not have a sub-slot " + slot + ". Available slots are " +
                                                 getSlot().getSubSlots().stream().map( s -> s.getName() ).collect( joining(",","[","]")) );
         }
     }
+    
+    /**
+     * Gets the value of a sub-slot by the sub-slot's ordinal, avoiding the 
+     * lookup done in {@link #get(edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot)}.
+     * 
+     * @param ordinal ordinal of the sub-slot, as per {@link CompoundSlot#ordinalOf(edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot)}.
+     * @return The value of the sub-slot, or {@code null}.
+     */
+    public AbstractValue getByOrdinal( int ordinal ) {
+        return fieldAt(ordinal);
+    }
+    
+    private AbstractValue fieldAt( int ordinal ) {
+        return (ordinal < fields.length) ? fields[ordinal] : null;
+    }
 
     /**
      * @return All the types of all the sub-slot of {@code this}, where there are values.
+     *         This is a live, unmodifiable, view.
      */
     public Set<AbstractSlot> getNonEmptySubSlots() {
-        return fields.keySet();
+        return nonEmptySubSlots;
     }
 
     @Override
@@ -80,8 +120,9 @@ public class CompoundValue extends AbstractValue{
     @Override
     protected String contentToString() {
         StringBuilder sb = new StringBuilder();
-        fields.values().stream()
-                .forEach(tv -> sb.append(tv.toString()));
+        for ( AbstractValue tv : fields ) {
+            if ( tv != null ) sb.append(tv.toString());
+        }
         return "<" + sb + ">";
     }
 
@@ -98,6 +139,20 @@ public class CompoundValue extends AbstractValue{
      * defined above.
      */
     public boolean isSupersetOf(CompoundValue other) {
+        if ( other.getSlot() == getSlot() ) {
+            // Same slot, so same ordinals. Just go over the arrays.
+            for ( int i=0; i<other.fields.length; i++ ) {
+                AbstractValue otherValue = other.fields[i];
+                if ( otherValue != null ) {
+                    AbstractValue ourValue = fieldAt(i);
+                    if ( ourValue == null || !ourValue.accept(SUBSET_COMPARATOR).test(otherValue) ) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        
         if (!(getNonEmptySubSlots().containsAll(other.getNonEmptySubSlots()))) {
             // condition 2 unsatisfied - other has more defined fields than this
             return false;
@@ -107,7 +162,7 @@ public class CompoundValue extends AbstractValue{
             AbstractValue ourValue = get(type);
             AbstractValue otherValue = other.get(type);
             if (otherValue != null) {
-                if (!ourValue.accept(new SubsetComparator()).test(otherValue)) {
+                if (!ourValue.accept(SUBSET_COMPARATOR).test(otherValue)) {
                     return false;
                 }
             }
@@ -148,6 +203,25 @@ public class CompoundValue extends AbstractValue{
         }
 
         CompoundValue result = getSlot().createInstance();
+        if ( other.getSlot() == getSlot() ) {
+            // Same slot, so same ordinals. Just go over the arrays.
+            final int length = Math.max(fields.length, other.fields.length);
+            for ( int i=0; i<length; i++ ) {
+                AbstractValue ours = fieldAt(i);
+                AbstractValue its = other.fieldAt(i);
+                if ( ours == null ) {
+                    if ( its != null ) {
+                        result.putAt(i, its);
+                    }
+                } else if ( its == null ) {
+                    result.putAt(i, ours);
+                } else {
+                    result.putAt(i, ours.accept(RESOLVER).apply(its));
+                }
+            }
+            return result;
+        }
+        
         // Composing. Note that for each type in types, at least one object has a non-null value
         for (AbstractSlot tp : C.unionSet(getNonEmptySubSlots(), other.getNonEmptySubSlots())) {
             AbstractValue ours = get(tp);
@@ -258,7 +332,7 @@ public class CompoundValue extends AbstractValue{
      * @return (@code true} iff no slots are set.
      */
     public boolean isEmpty() {
-        return getNonEmptySubSlots().isEmpty();
+        return fieldCount == 0;
     }
 
     /**
@@ -302,8 +376,15 @@ public class CompoundValue extends AbstractValue{
     
     @Override
     public int hashCode() {
+        // Same as the hash code of a map from slots to values.
+        int fieldsHash = 0;
+        for ( AbstractValue value : fields ) {
+            if ( value != null ) {
+                fieldsHash += value.getSlot().hashCode() ^ value.hashCode();
+            }
+        }
         int hash = 5;
-        hash = 19 * hash + Objects.hashCode(this.fields);
+        hash = 19 * hash + fieldsHash;
         return hash;
     }
 
@@ -316,7 +397,69 @@ public class CompoundValue extends AbstractValue{
             return false;
         }
         final CompoundValue other = (CompoundValue) obj;
-        return super.equals(obj) && Objects.equals(this.fields, other.fields);
+        if ( ! super.equals(obj) ) return false;
+        if ( fieldCount != other.fieldCount ) return false;
+        
+        if ( other.getSlot() == getSlot() ) {
+            final int length = Math.max(fields.length, other.fields.length);
+            for ( int i=0; i<length; i++ ) {
+                if ( ! Objects.equals(fieldAt(i), other.fieldAt(i)) ) return false;
+            }
+        } else {
+            // equal, but different, slots - ordinals may differ.
+            for ( AbstractValue value : fields ) {
+                if ( value != null ) {
+                    int otherOrdinal = other.getSlot().ordinalOf(value.getSlot());
+                    if ( otherOrdinal < 0 || ! value.equals(other.fieldAt(otherOrdinal)) ) return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * A live view of the non-empty sub-slots of a value.
+     */
+    private class NonEmptySubSlots extends AbstractSet<AbstractSlot> {
+
+        @Override
+        public Iterator<AbstractSlot> iterator() {
+            return new Iterator<AbstractSlot>() {
+                int next = advance(0);
+                
+                private int advance( int from ) {
+                    while ( from < fields.length && fields[from] == null ) {
+                        from++;
+                    }
+                    return from;
+                }
+                
+                @Override
+                public boolean hasNext() {
+                    return next < fields.length;
+                }
+
+                @Override
+                public AbstractSlot next() {
+                    if ( ! hasNext() ) throw new NoSuchElementException();
+                    AbstractSlot slot = fields[next].getSlot();
+                    next = advance(next+1);
+                    return slot;
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if ( ! (o instanceof AbstractSlot) ) return false;
+            int ordinal = getSlot().ordinalOf((AbstractSlot) o);
+            return ordinal >= 0 && fieldAt(ordinal) != null;
+        }
+
+        @Override
+        public int size() {
+            return fieldCount;
+        }
     }
 
 }
@@ -0,0 +1,171 @@
+package edu.harvard.iq.policymodels.model.policyspace.values;
+
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A compound value, stored as bits in a {@code long[]}, according to a
+ * {@link PackedValueLayout}. Semantically equivalent to the {@link CompoundValue}
+ * it was packed from, but composition, superset checks and equality are
+ * done using bitwise operations, without allocating maps or visitors.
+ *
+ * Instances are immutable.
+ *
+ * @author michael
+ */
+public final class PackedCompoundValue {
+
+    private final PackedValueLayout layout;
+    private final long[] words;
+    private int hash = 0;
+
+    PackedCompoundValue(PackedValueLayout aLayout, long[] someWords) {
+        layout = aLayout;
+        words = someWords;
+    }
+
+    /**
+     * Packed equivalent of {@link CompoundValue#composeWith(edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue)}.
+     * Atomic fields take the higher ordinal, aggregates and presence bits are OR-ed.
+     *
+     * @param other the value to compose with.
+     * @return A new value, composed from {@code this} and {@code other}.
+     */
+    public PackedCompoundValue composeWith( PackedCompoundValue other ) {
+        if ( other == null ) return this;
+        assertSameLayout(other);
+
+        final long[] res = new long[words.length];
+        final long[] theirs = other.words;
+        for ( int w=0; w<words.length; w++ ) {
+            final long a = words[w];
+            final long b = theirs[w];
+            res[w] = (a | b) & layout.setBits[w];
+
+            final long atomicMask = layout.atomicBits[w];
+            final long aa = a & atomicMask;
+            final long ba = b & atomicMask;
+            if ( aa == ba || ba == 0 ) {
+                res[w] |= aa;
+            } else if ( aa == 0 ) {
+                res[w] |= ba;
+            } else {
+                for ( int i=layout.atomicFieldStart[w]; i<layout.atomicFieldStart[w+1]; i++ ) {
+                    final PackedValueLayout.Field f = layout.atomicFields[i];
+                    final long av = (a >>> f.shift) & f.mask;
+                    final long bv = (b >>> f.shift) & f.mask;
+                    res[w] |= Math.max(av, bv) << f.shift;
+                }
+            }
+        }
+        return new PackedCompoundValue(layout, res);
+    }
+
+    /**
+     * Packed equivalent of {@link CompoundValue#isSupersetOf(edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue)}.
+     * @param other the value to test.
+     * @return {@code true} iff {@code this} is a superset of {@code other}.
+     */
+    public boolean isSupersetOf( PackedCompoundValue other ) {
+        assertSameLayout(other);
+        final long[] theirs = other.words;
+        for ( int w=0; w<words.length; w++ ) {
+            final long a = words[w];
+            final long b = theirs[w];
+            // other has presence/items that we don't.
+            if ( (b & ~a & layout.setBits[w]) != 0 ) return false;
+
+            final long atomicMask = layout.atomicBits[w];
+            final long ba = b & atomicMask;
+            if ( ba == 0 || ba == (a & atomicMask) ) continue;
+
+            for ( int i=layout.atomicFieldStart[w]; i<layout.atomicFieldStart[w+1]; i++ ) {
+                final PackedValueLayout.Field f = layout.atomicFields[i];
+                final long bv = (b >>> f.shift) & f.mask;
+                if ( bv != 0 && bv != ((a >>> f.shift) & f.mask) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packed equivalent of {@link CompoundValue#project(java.util.Set)}.
+     * @param slots top-level slots to project on.
+     * @return A new value, with only the fields of {@code slots}.
+     */
+    public PackedCompoundValue project( Set<AbstractSlot> slots ) {
+        return project(layout.maskFor(slots));
+    }
+
+    /**
+     * Projects {@code this} on a precomputed mask.
+     * @param mask a mask created by {@link PackedValueLayout#maskFor(java.util.Set)}.
+     * @return A new value, with only the fields in the mask.
+     */
+    public PackedCompoundValue project( long[] mask ) {
+        final long[] res = new long[words.length];
+        for ( int w=0; w<words.length; w++ ) {
+            res[w] = words[w] & mask[w];
+        }
+        return new PackedCompoundValue(layout, res);
+    }
+
+    public boolean isEmpty() {
+        for ( long w : words ) {
+            if ( w != 0 ) return false;
+        }
+        return true;
+    }
+
+    public CompoundValue unpack() {
+        return layout.unpack(this);
+    }
+
+    public PackedValueLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return A copy of the words of this value.
+     */
+    public long[] getWords() {
+        return Arrays.copyOf(words, words.length);
+    }
+
+    long[] words() {
+        return words;
+    }
+
+    private void assertSameLayout( PackedCompoundValue other ) {
+        if ( other.layout != layout ) {
+            throw new IllegalArgumentException("Cannot operate on packed values of different layouts");
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if ( h == 0 ) {
+            h = 31 * Arrays.hashCode(words) + 7;
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if ( this == obj ) return true;
+        if ( !(obj instanceof PackedCompoundValue) ) return false;
+        final PackedCompoundValue other = (PackedCompoundValue) obj;
+        return layout == other.layout && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public String toString() {
+        return "[PackedCompoundValue " + unpack() + "]";
+    }
+
+}
@@ -0,0 +1,371 @@
+package edu.harvard.iq.policymodels.model.policyspace.values;
+
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the slots of a policy space onto bits in a {@code long[]}, allowing
+ * values of that space to be stored as {@link PackedCompoundValue}s.
+ *
+ * <ul>
+ *  <li>Atomic slots are stored as {@code ordinal+1} in a bit field that
+ *      does not cross word boundaries. {@code 0} means "no value".</li>
+ *  <li>Aggregate slots are stored as a bit per possible item, plus a presence bit.</li>
+ *  <li>Compound and to-do slots are stored as a presence bit. The fields
+ *      of compound slots follow.</li>
+ * </ul>
+ *
+ * The layout is computed from the slots as they are when the layout is created.
+ * Adding values to atomic slots afterwards invalidates the layout, so layouts
+ * should be created for complete (preferably frozen) spaces.
+ *
+ * @author michael
+ */
+public class PackedValueLayout {
+
+    static final byte ATOMIC    = 0;
+    static final byte AGGREGATE = 1;
+    static final byte COMPOUND  = 2;
+    static final byte TODO      = 3;
+
+    /**
+     * The location of a single slot in the layout.
+     */
+    static final class Field {
+        final AbstractSlot slot;
+        final byte kind;
+
+        /** atomic fields: word, shift, and (unshifted) mask of the value bits. */
+        int word, shift;
+        long mask;
+
+        /** non-atomic fields: global index of the presence bit */
+        int presenceBit;
+
+        /** aggregate fields: global index of the first item bit, and item count. */
+        int firstItemBit, itemCount;
+
+        /** compound fields */
+        Field[] children;
+        Map<AbstractSlot, Field> childBySlot;
+
+        /** all bits used by this field and its descendants. */
+        long[] subtreeBits;
+
+        Field(AbstractSlot aSlot, byte aKind) {
+            slot = aSlot;
+            kind = aKind;
+        }
+    }
+
+    private final CompoundSlot root;
+    private final Field rootField;
+    private final int wordCount;
+
+    /** Per word: bits that belong to atomic fields. */
+    final long[] atomicBits;
+
+    /** Per word: presence and aggregate item bits, which compose by OR. */
+    final long[] setBits;
+
+    /** Atomic fields, sorted by word. */
+    final Field[] atomicFields;
+
+    /** Per word: index of first field in {@link #atomicFields} that's in the word. Has an extra last entry. */
+    final int[] atomicFieldStart;
+
+    private int bitCursor = 0;
+
+    public PackedValueLayout( CompoundSlot aRoot ) {
+        root = aRoot;
+        List<Field> atomics = new ArrayList<>();
+        rootField = new Field(root, COMPOUND);
+        rootField.presenceBit = -1;
+        layoutCompound(rootField, atomics);
+
+        wordCount = Math.max(1, (bitCursor+63) >>> 6);
+        atomicBits = new long[wordCount];
+        setBits = new long[wordCount];
+        computeSubtreeBits(rootField);
+        for ( Field child : rootField.children ) {
+            for ( int i=0; i<wordCount; i++ ) {
+                setBits[i] |= child.subtreeBits[i];
+            }
+        }
+        for ( Field af : atomics ) {
+            atomicBits[af.word] |= af.mask << af.shift;
+        }
+        for ( int i=0; i<wordCount; i++ ) {
+            setBits[i] &= ~atomicBits[i];
+        }
+
+        // atomics are allocated in order, so they are already sorted by word.
+        atomicFields = atomics.toArray(new Field[atomics.size()]);
+        atomicFieldStart = new int[wordCount+1];
+        int fieldIdx = 0;
+        for ( int w=0; w<=wordCount; w++ ) {
+            while ( fieldIdx < atomicFields.length && atomicFields[fieldIdx].word < w ) {
+                fieldIdx++;
+            }
+            atomicFieldStart[w] = fieldIdx;
+        }
+    }
+
+    private void layoutCompound( Field cf, List<Field> atomics ) {
+        List<AbstractSlot> subSlots = new ArrayList<>(((CompoundSlot)cf.slot).getSubSlots());
+        subSlots.sort( Comparator.comparing(AbstractSlot::getName) );
+        cf.children = new Field[subSlots.size()];
+        cf.childBySlot = new HashMap<>();
+
+        int idx = 0;
+        for ( AbstractSlot sub : subSlots ) {
+            Field f = sub.accept(new AbstractSlot.Visitor<Field>() {
+                @Override
+                public Field visitSimpleSlot(AtomicSlot t) {
+                    Field f = new Field(t, ATOMIC);
+                    int width = 64 - Long.numberOfLeadingZeros(t.getValueCount());
+                    if ( width == 0 ) width = 1;
+                    if ( (bitCursor & 63) + width > 64 ) {
+                        bitCursor = (bitCursor + 63) & ~63;
+                    }
+                    f.word = bitCursor >>> 6;
+                    f.shift = bitCursor & 63;
+                    f.mask = (width == 64) ? -1L : (1L << width) - 1;
+                    bitCursor += width;
+                    atomics.add(f);
+                    return f;
+                }
+
+                @Override
+                public Field visitAggregateSlot(AggregateSlot t) {
+                    Field f = new Field(t, AGGREGATE);
+                    f.presenceBit = bitCursor++;
+                    f.firstItemBit = bitCursor;
+                    f.itemCount = t.getItemType().getValueCount();
+                    bitCursor += f.itemCount;
+                    return f;
+                }
+
+                @Override
+                public Field visitCompoundSlot(CompoundSlot t) {
+                    Field f = new Field(t, COMPOUND);
+                    f.presenceBit = bitCursor++;
+                    layoutCompound(f, atomics);
+                    return f;
+                }
+
+                @Override
+                public Field visitTodoSlot(ToDoSlot t) {
+                    Field f = new Field(t, TODO);
+                    f.presenceBit = bitCursor++;
+                    return f;
+                }
+            });
+            cf.children[idx++] = f;
+            cf.childBySlot.put(sub, f);
+        }
+    }
+
+    private void computeSubtreeBits( Field f ) {
+        f.subtreeBits = new long[wordCount];
+        switch ( f.kind ) {
+            case ATOMIC:
+                f.subtreeBits[f.word] |= f.mask << f.shift;
+                break;
+            case AGGREGATE:
+                setBit(f.subtreeBits, f.presenceBit);
+                for ( int i=0; i<f.itemCount; i++ ) {
+                    setBit(f.subtreeBits, f.firstItemBit+i);
+                }
+                break;
+            case TODO:
+                setBit(f.subtreeBits, f.presenceBit);
+                break;
+            case COMPOUND:
+                if ( f.presenceBit >= 0 ) {
+                    setBit(f.subtreeBits, f.presenceBit);
+                }
+                for ( Field child : f.children ) {
+                    computeSubtreeBits(child);
+                    for ( int i=0; i<wordCount; i++ ) {
+                        f.subtreeBits[i] |= child.subtreeBits[i];
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown field kind " + f.kind);
+        }
+    }
+
+    static void setBit( long[] words, int bit ) {
+        words[bit>>>6] |= 1L << (bit & 63);
+    }
+
+    static boolean isSet( long[] words, int bit ) {
+        return (words[bit>>>6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Converts a value to its packed form.
+     * @param value the value to pack. Must be of the layout's root slot.
+     * @return The packed value.
+     */
+    public PackedCompoundValue pack( CompoundValue value ) {
+        if ( ! value.getSlot().equals(root) ) {
+            throw new IllegalArgumentException("Value of slot " + value.getSlot() + " cannot be packed using a layout of " + root);
+        }
+        long[] words = new long[wordCount];
+        packCompound(rootField, value, words);
+        return new PackedCompoundValue(this, words);
+    }
+
+    private void packCompound( Field cf, CompoundValue value, long[] words ) {
+        for ( AbstractSlot sub : value.getNonEmptySubSlots() ) {
+            Field f = cf.childBySlot.get(sub);
+            if ( f == null ) {
+                throw new IllegalArgumentException("Slot " + sub + " is not part of the layout of " + cf.slot);
+            }
+            AbstractValue subValue = value.get(sub);
+            switch ( f.kind ) {
+                case ATOMIC:
+                    long stored = ((AtomicValue)subValue).getOrdinal() + 1L;
+                    if ( (stored & ~f.mask) != 0 ) {
+                        throw new IllegalStateException("Slot " + sub + " has more values than when the layout was created");
+                    }
+                    words[f.word] |= stored << f.shift;
+                    break;
+
+                case AGGREGATE:
+                    setBit(words, f.presenceBit);
+                    for ( AtomicValue item : ((AggregateValue)subValue).getValues() ) {
+                        if ( item.getOrdinal() >= f.itemCount ) {
+                            throw new IllegalStateException("Slot " + sub + " has more values than when the layout was created");
+                        }
+                        setBit(words, f.firstItemBit + item.getOrdinal());
+                    }
+                    break;
+
+                case COMPOUND:
+                    setBit(words, f.presenceBit);
+                    packCompound(f, (CompoundValue)subValue, words);
+                    break;
+
+                case TODO:
+                    setBit(words, f.presenceBit);
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown field kind " + f.kind);
+            }
+        }
+    }
+
+    /**
+     * Converts a packed value back to a regular value.
+     * @param packed the packed value. Must have been created by {@code this} layout.
+     * @return A new value, equal to the one originally packed.
+     */
+    public CompoundValue unpack( PackedCompoundValue packed ) {
+        if ( packed.getLayout() != this ) {
+            throw new IllegalArgumentException("Packed value was created by a different layout");
+        }
+        return unpackCompound(rootField, packed.words());
+    }
+
+    private CompoundValue unpackCompound( Field cf, long[] words ) {
+        CompoundValue result = ((CompoundSlot)cf.slot).createInstance();
+        for ( Field f : cf.children ) {
+            switch ( f.kind ) {
+                case ATOMIC:
+                    long stored = (words[f.word] >>> f.shift) & f.mask;
+                    if ( stored != 0 ) {
+                        result.put(((AtomicSlot)f.slot).valueByOrdinal((int)stored-1));
+                    }
+                    break;
+
+                case AGGREGATE:
+                    if ( isSet(words, f.presenceBit) ) {
+                        AggregateSlot aggSlot = (AggregateSlot) f.slot;
+                        AggregateValue aggValue = aggSlot.createInstance();
+                        for ( int i=0; i<f.itemCount; i++ ) {
+                            if ( isSet(words, f.firstItemBit+i) ) {
+                                aggValue.add(aggSlot.getItemType().valueByOrdinal(i));
+                            }
+                        }
+                        result.put(aggValue);
+                    }
+                    break;
+
+                case COMPOUND:
+                    if ( isSet(words, f.presenceBit) ) {
+                        result.put(unpackCompound(f, words));
+                    }
+                    break;
+
+                case TODO:
+                    if ( isSet(words, f.presenceBit) ) {
+                        result.put(((ToDoSlot)f.slot).getValue());
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown field kind " + f.kind);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a mask containing the bits of the passed top-level slots.
+     * @param slots top-level slots of the layout's root.
+     * @return a mask, suitable for {@link PackedCompoundValue#project(long[])}.
+     */
+    public long[] maskFor( Set<AbstractSlot> slots ) {
+        long[] mask = new long[wordCount];
+        for ( AbstractSlot slot : slots ) {
+            Field f = rootField.childBySlot.get(slot);
+            if ( f != null ) {
+                for ( int i=0; i<wordCount; i++ ) {
+                    mask[i] |= f.subtreeBits[i];
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Creates a packed value from raw words, e.g. when reading values that
+     * were stored using {@link PackedCompoundValue#getWords()}.
+     * @param words the words of the value.
+     * @return A packed value with the passed words.
+     */
+    public PackedCompoundValue fromWords( long[] words ) {
+        if ( words.length != wordCount ) {
+            throw new IllegalArgumentException("Expecting " + wordCount + " words, got " + words.length);
+        }
+        return new PackedCompoundValue(this, Arrays.copyOf(words, wordCount));
+    }
+
+    public PackedCompoundValue emptyValue() {
+        return new PackedCompoundValue(this, new long[wordCount]);
+    }
+
+    public CompoundSlot getRoot() {
+        return root;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+}
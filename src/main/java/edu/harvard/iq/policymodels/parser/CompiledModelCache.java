@@ -0,0 +1,916 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ConsiderNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.RejectNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.inference.ComplianceValueInferrer;
+import edu.harvard.iq.policymodels.model.inference.SupportValueInferrer;
+import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AggregateValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AtomicValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.ToDoValue;
+import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of compiled policy models, stored in a binary format. A cached model
+ * can be loaded without parsing any of the model's source files, which makes
+ * it much faster to load than the model itself.
+ *
+ * Each cache file records the paths of all the source files the model was
+ * compiled from (policy space, decision graph files, value inference file and
+ * model metadata file), along with their SHA-256 digests. A cache file is only
+ * used if all these files still have the same content, so there is no need to
+ * invalidate the cache when the model is edited. The digests are taken by the
+ * loader from the content it parsed, rather than read again when the cache file
+ * is written, so edits made during a load are not mistaken for the cached model.
+ *
+ * Cache files are memory-mapped when read. They are written to a temporary
+ * file first, and then moved in place, so readers never see partial files.
+ *
+ * Readme files and localizations are not cached; they are read from the model
+ * directory when a cached model is loaded.
+ *
+ * @see PolicyModelLoader#setModelCache(edu.harvard.iq.policymodels.parser.CompiledModelCache)
+ * @author michael
+ */
+public class CompiledModelCache {
+
+    /** "PMC" + format version. */
+    static final int MAGIC = 0x504d4301;
+
+    public static final String CACHE_FILE_SUFFIX = ".pmc";
+
+    private static final int NONE = -1;
+
+    private static final byte ATOMIC_SLOT    = 0;
+    private static final byte AGGREGATE_SLOT = 1;
+    private static final byte COMPOUND_SLOT  = 2;
+    private static final byte TODO_SLOT      = 3;
+
+    private static final byte SUPPORT_INFERRER    = 0;
+    private static final byte COMPLIANCE_INFERRER = 1;
+
+    private final Path directory;
+
+    /**
+     * @param aDirectory The directory cache files are stored in. Created when
+     *                   the first cache file is written, if it does not exist.
+     */
+    public CompiledModelCache( Path aDirectory ) {
+        directory = aDirectory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the path of the cache file for the model described by {@code data}.
+     * Different models get different files, so a single directory can serve
+     * as the cache of many models.
+     *
+     * @param data Metadata of a model.
+     * @return Path to the cache file of the model.
+     */
+    public Path cacheFileFor( PolicyModelData data ) {
+        Path keyPath = (data.getMetadataFile() != null) ? data.getMetadataFile() : data.getDecisionGraphPath();
+        byte[] digest = sha256().digest(keyPath.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder("model-");
+        for ( int i=0; i<8; i++ ) {
+            sb.append(String.format("%02x", digest[i]));
+        }
+        return directory.resolve(sb.append(CACHE_FILE_SUFFIX).toString());
+    }
+
+    /**
+     * Reads a cached model, if there is one, and its source files did not change.
+     *
+     * @param data Metadata of the model. Becomes the metadata of the loaded model.
+     * @param configuration Describes how the cached model was loaded (e.g. which
+     *                      post-processors ran). Cache files written with a different
+     *                      configuration are ignored.
+     * @return The cached model and the non-error messages its loading produced,
+     *         or {@code null} if there is no usable cache file.
+     * @throws IOException If the cache file exists but cannot be read.
+     */
+    public PolicyModelLoadResult read( PolicyModelData data, String configuration ) throws IOException {
+        Path cacheFile = cacheFileFor(data);
+        if ( ! Files.exists(cacheFile) ) return null;
+
+        ByteBuffer buf;
+        try ( FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ) ) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch ( NoSuchFileException nsfe ) {
+            return null;
+        }
+
+        try {
+            if ( buf.getInt() != MAGIC ) return null;
+            if ( ! configuration.equals(readString(buf)) ) return null;
+            int sourceCount = buf.getInt();
+            Map<Path, byte[]> sources = new LinkedHashMap<>();
+            for ( int i=0; i<sourceCount; i++ ) {
+                Path source = directory.getFileSystem().getPath(readString(buf));
+                byte[] digest = new byte[32];
+                buf.get(digest);
+                if ( ! Files.exists(source) || ! Arrays.equals(digest, digestOf(source)) ) {
+                    return null;
+                }
+                sources.put(source, digest);
+            }
+
+            PolicyModelLoadResult res = new Decoder(buf).decode(data);
+            res.getSourceFiles().addAll(sources.keySet());
+            res.getSourceDigests().putAll(sources);
+            return res;
+
+        } catch ( BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex ) {
+            throw new IOException("Corrupt model cache file " + cacheFile + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes a successfully loaded model to the cache.
+     *
+     * @param result The result of loading the model from its source files. Its
+     *               source files are stored along with their digests in
+     *               {@link PolicyModelLoadResult#getSourceDigests()}, so that
+     *               changes made while the model was loaded invalidate the cache.
+     * @param configuration Describes how the model was loaded.
+     * @throws IOException If the cache file cannot be written.
+     * @throws IllegalArgumentException If the model cannot be stored (e.g. it
+     *                                  uses an unknown value inferrer type, or
+     *                                  a source file has no digest).
+     */
+    public void write( PolicyModelLoadResult result, String configuration ) throws IOException {
+        PolicyModel model = result.getModel();
+        byte[] body = new Encoder().encode(model, result.getMessages());
+
+        Files.createDirectories(directory);
+        Path cacheFile = cacheFileFor(model.getMetadata());
+        Path tempFile = Files.createTempFile(directory, "model-", ".tmp");
+        try {
+            try ( OutputStream fileOut = Files.newOutputStream(tempFile);
+                  DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut)) ) {
+                out.writeInt(MAGIC);
+                writeString(out, configuration);
+                Set<Path> sources = new LinkedHashSet<>();
+                result.getSourceFiles().forEach( p -> sources.add(p.toAbsolutePath().normalize()) );
+                out.writeInt(sources.size());
+                for ( Path source : sources ) {
+                    byte[] digest = result.getSourceDigests().get(source);
+                    if ( digest == null ) {
+                        throw new IllegalArgumentException("No digest for source file " + source);
+                    }
+                    writeString(out, source.toString());
+                    out.write(digest);
+                }
+                out.write(body);
+            }
+            try {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch ( AtomicMoveNotSupportedException amnse ) {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Deletes the cache file of the model, if it exists.
+     * @param data Metadata of the model.
+     * @throws IOException If the file cannot be deleted.
+     */
+    public void invalidate( PolicyModelData data ) throws IOException {
+        Files.deleteIfExists(cacheFileFor(data));
+    }
+
+    private static byte[] digestOf( Path file ) throws IOException {
+        return digest(Files.readAllBytes(file));
+    }
+
+    /**
+     * @param content Content of a source file.
+     * @return The digest stored for a source file with {@code content}.
+     */
+    static byte[] digest( byte[] content ) {
+        return sha256().digest(content);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // All Java platforms are required to support SHA-256.
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    private static void writeString( DataOutputStream out, String s ) throws IOException {
+        if ( s == null ) {
+            out.writeInt(NONE);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString( ByteBuffer buf ) {
+        int length = buf.getInt();
+        if ( length == NONE ) return null;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a model into the cache format's body: a string table, followed
+     * by the slots, the nodes, the graph, the inferrers and the messages.
+     * Strings are referenced by their index in the string table.
+     */
+    private static class Encoder {
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> stringTable = new ArrayList<>();
+        private final Map<AbstractSlot, Integer> slotIndices = new IdentityHashMap<>();
+        private final List<AbstractSlot> slotList = new ArrayList<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] encode( PolicyModel model, List<ValidationMessage> messages ) throws IOException {
+            encodeSlots(model.getSpaceRoot());
+            encodeGraph(model.getDecisionGraph());
+
+            writeInt(model.getValueInferrers().size());
+            for ( AbstractValueInferrer inf : model.getValueInferrers() ) {
+                if ( inf.getClass() == SupportValueInferrer.class ) {
+                    writeByte(SUPPORT_INFERRER);
+                } else if ( inf.getClass() == ComplianceValueInferrer.class ) {
+                    writeByte(COMPLIANCE_INFERRER);
+                } else {
+                    throw new IllegalArgumentException("Cannot cache value inferrers of type " + inf.getClass().getName());
+                }
+                writeInt(inf.getInferencePairs().size());
+                for ( InferencePair pair : inf.getInferencePairs() ) {
+                    writeValue(pair.getMinimalCoordinate());
+                    writeValue(pair.getInferredValue());
+                }
+            }
+
+            List<ValidationMessage> kept = new ArrayList<>();
+            messages.stream().filter( m -> m.getLevel() != ValidationMessage.Level.ERROR ).forEach(kept::add);
+            writeInt(kept.size());
+            for ( ValidationMessage msg : kept ) {
+                writeByte(msg.getLevel().ordinal());
+                writeStringRef(msg.getMessage());
+            }
+            out.flush();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.size() + stringTable.size()*16);
+            DataOutputStream resultOut = new DataOutputStream(result);
+            resultOut.writeInt(stringTable.size());
+            for ( String s : stringTable ) {
+                writeString(resultOut, s);
+            }
+            bytes.writeTo(resultOut);
+            resultOut.flush();
+            return result.toByteArray();
+        }
+
+        /**
+         * Slots are written children-first, so each slot only refers to slots
+         * written before it. The root slot is the last one.
+         */
+        private void encodeSlots( CompoundSlot root ) {
+            collectSlots(root);
+            writeInt(slotList.size());
+            for ( AbstractSlot slot : slotList ) {
+                slot.accept(new AbstractSlot.VoidVisitor() {
+                    @Override
+                    public void visitAtomicSlotImpl(AtomicSlot t) {
+                        writeSlotHeader(ATOMIC_SLOT, t);
+                        writeInt(t.getValueCount());
+                        for ( int i=0; i<t.getValueCount(); i++ ) {
+                            writeStringRef(t.valueByOrdinal(i).getName());
+                            writeStringRef(t.valueByOrdinal(i).getNote());
+                        }
+                    }
+
+                    @Override
+                    public void visitAggregateSlotImpl(AggregateSlot t) {
+                        writeSlotHeader(AGGREGATE_SLOT, t);
+                        writeInt(slotIndices.get(t.getItemType()));
+                    }
+
+                    @Override
+                    public void visitCompoundSlotImpl(CompoundSlot t) {
+                        writeSlotHeader(COMPOUND_SLOT, t);
+                        writeInt(t.getSubSlots().size());
+                        for ( AbstractSlot sub : t.getSubSlots() ) {
+                            writeInt(slotIndices.get(sub));
+                        }
+                    }
+
+                    @Override
+                    public void visitTodoSlotImpl(ToDoSlot t) {
+                        writeSlotHeader(TODO_SLOT, t);
+                    }
+                });
+            }
+        }
+
+        private void collectSlots( AbstractSlot slot ) {
+            if ( slotIndices.containsKey(slot) ) return;
+            if ( slot instanceof CompoundSlot ) {
+                ((CompoundSlot)slot).getSubSlots().forEach( this::collectSlots );
+            } else if ( slot instanceof AggregateSlot ) {
+                collectSlots(((AggregateSlot)slot).getItemType());
+            }
+            slotIndices.put(slot, slotList.size());
+            slotList.add(slot);
+        }
+
+        private void writeSlotHeader( byte kind, AbstractSlot slot ) {
+            writeByte(kind);
+            writeStringRef(slot.getName());
+            writeStringRef(slot.getNote());
+        }
+
+        /**
+         * Nodes are written by their index in the graph's {@link CompiledDecisionGraph},
+         * and refer to each other by these indices.
+         */
+        private void encodeGraph( DecisionGraph dg ) {
+            final CompiledDecisionGraph cdg = CompiledDecisionGraph.compile(dg);
+            writeInt(cdg.getNodeCount());
+            for ( int i=0; i<cdg.getNodeCount(); i++ ) {
+                Node node = cdg.getNode(i);
+                writeByte(cdg.getKind(i));
+                writeStringRef(node.getId());
+                writeStringRef((node.getCuPath() != null) ? node.getCuPath().toString() : null);
+                node.accept(new Node.VoidVisitor() {
+                    @Override
+                    public void visitImpl(ConsiderNode nd) throws DataTagsRuntimeException {
+                        writeInt(cdg.indexOf(nd.getElseNode()));
+                        writeInt(nd.getAnswers().size());
+                        for ( CompoundValue option : nd.getAnswers() ) {
+                            writeValue(option);
+                            writeInt(cdg.indexOf(nd.getNodeFor(option)));
+                        }
+                    }
+
+                    @Override
+                    public void visitImpl(AskNode nd) throws DataTagsRuntimeException {
+                        writeStringRef(nd.getText());
+                        writeInt(nd.getTermOrder().size());
+                        for ( String term : nd.getTermOrder() ) {
+                            writeStringRef(term);
+                            writeStringRef(nd.getTermText(term));
+                        }
+                        writeInt(nd.getAnswers().size());
+                        for ( Answer ans : nd.getAnswers() ) {
+                            writeStringRef(ans.getAnswerText());
+                            writeInt(cdg.indexOf(nd.getNodeFor(ans)));
+                        }
+                    }
+
+                    @Override
+                    public void visitImpl(SetNode nd) throws DataTagsRuntimeException {
+                        writeValue(nd.getTags());
+                        writeInt(cdg.indexOf(nd.getNextNode()));
+                    }
+
+                    @Override
+                    public void visitImpl(SectionNode nd) throws DataTagsRuntimeException {
+                        writeStringRef(nd.getTitle());
+                        writeInt(cdg.indexOf(nd.getStartNode()));
+                        writeInt(cdg.indexOf(nd.getNextNode()));
+                    }
+
+                    @Override
+                    public void visitImpl(PartNode nd) throws DataTagsRuntimeException {
+                        writeInt(cdg.indexOf(nd.getStartNode()));
+                    }
+
+                    @Override
+                    public void visitImpl(RejectNode nd) throws DataTagsRuntimeException {
+                        writeStringRef(nd.getReason());
+                    }
+
+                    @Override
+                    public void visitImpl(CallNode nd) throws DataTagsRuntimeException {
+                        writeInt(cdg.indexOf(nd.getCalleeNode()));
+                        writeInt(cdg.indexOf(nd.getNextNode()));
+                    }
+
+                    @Override
+                    public void visitImpl(ToDoNode nd) throws DataTagsRuntimeException {
+                        writeStringRef(nd.getTodoText());
+                        writeInt(cdg.indexOf(nd.getNextNode()));
+                    }
+
+                    @Override
+                    public void visitImpl(EndNode nd) throws DataTagsRuntimeException {}
+
+                    @Override
+                    public void visitImpl(ContinueNode nd) throws DataTagsRuntimeException {}
+                });
+            }
+
+            writeStringRef(dg.getId());
+            writeStringRef((dg.getSource() != null) ? dg.getSource().toString() : null);
+            writeInt(cdg.indexOf(dg.getStart()));
+            writeInt(dg.getParts().size());
+            for ( Node part : dg.getParts() ) {
+                writeInt(cdg.indexOf(part));
+            }
+            List<Node> graphNodes = new ArrayList<>();
+            dg.nodes().forEach(graphNodes::add);
+            writeInt(graphNodes.size());
+            for ( Node nd : graphNodes ) {
+                writeInt(cdg.indexOf(nd));
+            }
+        }
+
+        private void writeValue( CompoundValue value ) {
+            if ( value == null ) {
+                writeInt(NONE);
+                return;
+            }
+            writeInt(slotIndex(value.getSlot()));
+            writeCompoundContent(value);
+        }
+
+        private void writeCompoundContent( CompoundValue value ) {
+            writeInt(value.getNonEmptySubSlots().size());
+            for ( AbstractSlot sub : value.getNonEmptySubSlots() ) {
+                writeInt(slotIndex(sub));
+                value.get(sub).accept(new AbstractValue.Visitor<Void>() {
+                    @Override
+                    public Void visitToDoValue(ToDoValue v) {
+                        return null;
+                    }
+
+                    @Override
+                    public Void visitAtomicValue(AtomicValue v) {
+                        writeInt(v.getOrdinal());
+                        return null;
+                    }
+
+                    @Override
+                    public Void visitAggregateValue(AggregateValue v) {
+                        writeInt(v.getValues().size());
+                        for ( AtomicValue item : v.getValues() ) {
+                            writeInt(item.getOrdinal());
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public Void visitCompoundValue(CompoundValue v) {
+                        writeCompoundContent(v);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        private int slotIndex( AbstractSlot slot ) {
+            Integer idx = slotIndices.get(slot);
+            if ( idx == null ) {
+                throw new IllegalArgumentException("Slot " + slot.getName() + " is not part of the model's policy space");
+            }
+            return idx;
+        }
+
+        private void writeStringRef( String s ) {
+            if ( s == null ) {
+                writeInt(NONE);
+            } else {
+                Integer idx = strings.get(s);
+                if ( idx == null ) {
+                    idx = stringTable.size();
+                    stringTable.add(s);
+                    strings.put(s, idx);
+                }
+                writeInt(idx);
+            }
+        }
+
+        // The encoder writes to a byte array, so IOExceptions are not expected.
+
+        private void writeInt( int value ) {
+            try {
+                out.writeInt(value);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private void writeByte( int value ) {
+            try {
+                out.writeByte(value);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Decodes a model from a buffer positioned at the start of a body written
+     * by {@link Encoder}.
+     */
+    private static class Decoder {
+
+        private final ByteBuffer buf;
+        private String[] strings;
+        private AbstractSlot[] slots;
+
+        // node records
+        private byte[] kinds;
+        private Node[] nodes;
+        private String[] ids;
+        private String[] texts;
+        private int[] next;
+        private int[] inner;
+        private int[][] targets;
+        private Object[][] options;
+        private CompoundValue[] setValues;
+
+        Decoder( ByteBuffer aBuffer ) {
+            buf = aBuffer;
+        }
+
+        PolicyModelLoadResult decode( PolicyModelData data ) {
+            strings = new String[buf.getInt()];
+            for ( int i=0; i<strings.length; i++ ) {
+                strings[i] = readString(buf);
+            }
+
+            decodeSlots();
+            CompoundSlot root = (CompoundSlot) slots[slots.length-1];
+            DecisionGraph dg = decodeGraph();
+
+            Set<AbstractValueInferrer> inferrers = new LinkedHashSet<>();
+            int inferrerCount = buf.getInt();
+            for ( int i=0; i<inferrerCount; i++ ) {
+                byte type = buf.get();
+                AbstractValueInferrer inf;
+                switch ( type ) {
+                    case SUPPORT_INFERRER: inf = new SupportValueInferrer(); break;
+                    case COMPLIANCE_INFERRER: inf = new ComplianceValueInferrer(); break;
+                    default: throw new IllegalArgumentException("Unknown inferrer type " + type);
+                }
+                int pairCount = buf.getInt();
+                for ( int j=0; j<pairCount; j++ ) {
+                    CompoundValue minimalCoordinate = readValue();
+                    inf.add(new InferencePair(minimalCoordinate, readValue()));
+                }
+                inf.buildIndex();
+                inferrers.add(inf);
+            }
+
+            PolicyModelLoadResult res = new PolicyModelLoadResult();
+            int messageCount = buf.getInt();
+            for ( int i=0; i<messageCount; i++ ) {
+                ValidationMessage.Level level = ValidationMessage.Level.values()[buf.get()];
+                res.addMessage(new ValidationMessage(level, string()));
+            }
+
+            PolicyModel model = new PolicyModel();
+            model.setMetadata(data);
+            model.setSpaceRoot(root);
+            model.setDecisionGraph(dg);
+            model.setValueInferrers(inferrers);
+            res.setModel(model);
+            return res;
+        }
+
+        private void decodeSlots() {
+            slots = new AbstractSlot[buf.getInt()];
+            for ( int i=0; i<slots.length; i++ ) {
+                byte kind = buf.get();
+                String name = string();
+                String note = string();
+                switch ( kind ) {
+                    case ATOMIC_SLOT:
+                        AtomicSlot atomic = new AtomicSlot(name, note);
+                        int valueCount = buf.getInt();
+                        for ( int v=0; v<valueCount; v++ ) {
+                            String valueName = string();
+                            atomic.registerValue(valueName, string());
+                        }
+                        slots[i] = atomic;
+                        break;
+
+                    case AGGREGATE_SLOT:
+                        AtomicSlot itemType = (AtomicSlot) slots[buf.getInt()];
+                        AggregateSlot aggregate = new AggregateSlot(name, note, itemType);
+                        itemType.setParentSlot(aggregate);
+                        slots[i] = aggregate;
+                        break;
+
+                    case COMPOUND_SLOT:
+                        CompoundSlot compound = new CompoundSlot(name, note);
+                        int subSlotCount = buf.getInt();
+                        for ( int s=0; s<subSlotCount; s++ ) {
+                            compound.addSubSlot(slots[buf.getInt()]);
+                        }
+                        slots[i] = compound;
+                        break;
+
+                    case TODO_SLOT:
+                        slots[i] = new ToDoSlot(name, note);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Unknown slot kind " + kind);
+                }
+            }
+        }
+
+        /**
+         * Nodes are decoded in two passes: first the records are read, and then
+         * the nodes are created and linked. Nodes whose constructors need other
+         * nodes are created after these nodes.
+         */
+        private DecisionGraph decodeGraph() {
+            int nodeCount = buf.getInt();
+            kinds = new byte[nodeCount];
+            nodes = new Node[nodeCount];
+            ids = new String[nodeCount];
+            texts = new String[nodeCount];
+            next = new int[nodeCount];
+            inner = new int[nodeCount];
+            targets = new int[nodeCount][];
+            options = new Object[nodeCount][];
+            setValues = new CompoundValue[nodeCount];
+            String[] cuPaths = new String[nodeCount];
+            List<String[]> terms = new ArrayList<>(nodeCount);
+
+            for ( int i=0; i<nodeCount; i++ ) {
+                kinds[i] = buf.get();
+                ids[i] = string();
+                cuPaths[i] = string();
+                next[i] = NONE;
+                inner[i] = NONE;
+                String[] nodeTerms = null;
+                switch ( kinds[i] ) {
+                    case CompiledDecisionGraph.ASK:
+                        texts[i] = string();
+                        nodeTerms = new String[buf.getInt()*2];
+                        for ( int t=0; t<nodeTerms.length; t++ ) {
+                            nodeTerms[t] = string();
+                        }
+                        int answerCount = buf.getInt();
+                        options[i] = new Object[answerCount];
+                        targets[i] = new int[answerCount];
+                        for ( int a=0; a<answerCount; a++ ) {
+                            options[i][a] = Answer.withName(string());
+                            targets[i][a] = buf.getInt();
+                        }
+                        break;
+                    case CompiledDecisionGraph.CONSIDER:
+                        next[i] = buf.getInt();
+                        int optionCount = buf.getInt();
+                        options[i] = new Object[optionCount];
+                        targets[i] = new int[optionCount];
+                        for ( int o=0; o<optionCount; o++ ) {
+                            options[i][o] = readValue();
+                            targets[i][o] = buf.getInt();
+                        }
+                        break;
+                    case CompiledDecisionGraph.SET:
+                        setValues[i] = readValue();
+                        next[i] = buf.getInt();
+                        break;
+                    case CompiledDecisionGraph.SECTION:
+                        texts[i] = string();
+                        inner[i] = buf.getInt();
+                        next[i] = buf.getInt();
+                        break;
+                    case CompiledDecisionGraph.PART:
+                        inner[i] = buf.getInt();
+                        break;
+                    case CompiledDecisionGraph.REJECT:
+                        texts[i] = string();
+                        break;
+                    case CompiledDecisionGraph.CALL:
+                        inner[i] = buf.getInt();
+                        next[i] = buf.getInt();
+                        break;
+                    case CompiledDecisionGraph.TODO:
+                        texts[i] = string();
+                        next[i] = buf.getInt();
+                        break;
+                    case CompiledDecisionGraph.END:
+                    case CompiledDecisionGraph.CONTINUE:
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown node kind " + kinds[i]);
+                }
+                terms.add(nodeTerms);
+            }
+
+            // create
+            for ( int i=0; i<nodeCount; i++ ) {
+                Node nd = node(i);
+                if ( cuPaths[i] != null ) {
+                    nd.setCuPath(Paths.get(cuPaths[i]));
+                }
+            }
+
+            // link
+            for ( int i=0; i<nodeCount; i++ ) {
+                Node nd = nodes[i];
+                switch ( kinds[i] ) {
+                    case CompiledDecisionGraph.ASK:
+                        AskNode ask = (AskNode) nd;
+                        ask.setText(texts[i]);
+                        String[] nodeTerms = terms.get(i);
+                        for ( int t=0; t<nodeTerms.length; t+=2 ) {
+                            ask.addTerm(nodeTerms[t], nodeTerms[t+1]);
+                        }
+                        for ( int a=0; a<targets[i].length; a++ ) {
+                            ask.addAnswer((Answer)options[i][a], node(targets[i][a]));
+                        }
+                        break;
+                    case CompiledDecisionGraph.CONSIDER:
+                        for ( int o=0; o<targets[i].length; o++ ) {
+                            ((ConsiderNode)nd).setNodeFor((CompoundValue)options[i][o], node(targets[i][o]));
+                        }
+                        break;
+                    case CompiledDecisionGraph.SECTION:
+                        ((SectionNode)nd).setStartNode(node(inner[i]));
+                        break;
+                    case CompiledDecisionGraph.PART:
+                        ((PartNode)nd).setStartNode(node(inner[i]));
+                        break;
+                    case CompiledDecisionGraph.CALL:
+                        ((CallNode)nd).setCalleeNode(node(inner[i]));
+                        break;
+                }
+                if ( (nd instanceof ThroughNode) && next[i] != NONE ) {
+                    ((ThroughNode)nd).setNextNode(node(next[i]));
+                }
+            }
+
+            DecisionGraph dg = new DecisionGraph(string());
+            String source = string();
+            if ( source != null ) {
+                dg.setSource(URI.create(source));
+            }
+            Node start = node(buf.getInt());
+            int partCount = buf.getInt();
+            List<Node> parts = new ArrayList<>(partCount);
+            for ( int i=0; i<partCount; i++ ) {
+                parts.add(node(buf.getInt()));
+            }
+            int graphNodeCount = buf.getInt();
+            List<Node> graphNodes = new ArrayList<>(graphNodeCount);
+            for ( int i=0; i<graphNodeCount; i++ ) {
+                graphNodes.add(node(buf.getInt()));
+            }
+
+            if ( start != null ) {
+                dg.setStart(start);
+            }
+            parts.forEach(dg::addPart);
+            for ( Node nd : graphNodes ) {
+                if ( nd != null && dg.getNode(nd.getId()) == null ) {
+                    dg.add(nd);
+                }
+            }
+            return dg;
+        }
+
+        /**
+         * Gets the node at {@code idx}, creating it if needed.
+         */
+        private Node node( int idx ) {
+            if ( idx == NONE ) return null;
+            Node nd = nodes[idx];
+            if ( nd != null ) return nd;
+            switch ( kinds[idx] ) {
+                case CompiledDecisionGraph.ASK:      nd = new AskNode(ids[idx]); break;
+                case CompiledDecisionGraph.CONSIDER:
+                    if ( next[idx] == idx ) {
+                        throw new IllegalArgumentException("Consider node " + ids[idx] + " is its own else node");
+                    }
+                    nd = new ConsiderNode(ids[idx], node(next[idx]));
+                    break;
+                case CompiledDecisionGraph.SET:      nd = new SetNode(ids[idx], setValues[idx]); break;
+                case CompiledDecisionGraph.CALL:     nd = new CallNode(ids[idx]); break;
+                case CompiledDecisionGraph.SECTION:  nd = new SectionNode(ids[idx], texts[idx]); break;
+                case CompiledDecisionGraph.PART:     nd = new PartNode(ids[idx]); break;
+                case CompiledDecisionGraph.TODO:     nd = new ToDoNode(ids[idx], texts[idx]); break;
+                case CompiledDecisionGraph.END:      nd = new EndNode(ids[idx]); break;
+                case CompiledDecisionGraph.REJECT:   nd = new RejectNode(ids[idx], texts[idx]); break;
+                case CompiledDecisionGraph.CONTINUE: nd = new ContinueNode(ids[idx]); break;
+                default: throw new IllegalArgumentException("Unknown node kind " + kinds[idx]);
+            }
+            nodes[idx] = nd;
+            return nd;
+        }
+
+        private CompoundValue readValue() {
+            int slotIdx = buf.getInt();
+            if ( slotIdx == NONE ) return null;
+            return readCompoundContent((CompoundSlot) slots[slotIdx]);
+        }
+
+        private CompoundValue readCompoundContent( CompoundSlot slot ) {
+            CompoundValue value = slot.createInstance();
+            int count = buf.getInt();
+            for ( int i=0; i<count; i++ ) {
+                AbstractSlot sub = slots[buf.getInt()];
+                value.put(sub.accept(new AbstractSlot.Visitor<AbstractValue>() {
+                    @Override
+                    public AbstractValue visitSimpleSlot(AtomicSlot t) {
+                        return t.valueByOrdinal(buf.getInt());
+                    }
+
+                    @Override
+                    public AbstractValue visitAggregateSlot(AggregateSlot t) {
+                        AggregateValue agg = t.createInstance();
+                        int itemCount = buf.getInt();
+                        for ( int j=0; j<itemCount; j++ ) {
+                            agg.add(t.getItemType().valueByOrdinal(buf.getInt()));
+                        }
+                        return agg;
+                    }
+
+                    @Override
+                    public AbstractValue visitCompoundSlot(CompoundSlot t) {
+                        return readCompoundContent(t);
+                    }
+
+                    @Override
+                    public AbstractValue visitTodoSlot(ToDoSlot t) {
+                        return t.getValue();
+                    }
+                }));
+            }
+            return value;
+        }
+
+        private String string() {
+            int idx = buf.getInt();
+            return (idx == NONE) ? null : strings[idx];
+        }
+    }
+
+}
@@ -0,0 +1,421 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.io.PolicyModelDataParser;
+import edu.harvard.iq.policymodels.io.PolicyModelLoadingException;
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps loaded policy models in memory, within a heap budget. Intended for
+ * hosting many models, where most of the models are not used most of the time.
+ *
+ * Models are stored by the path of their metadata file, along with digests of
+ * the content of their source files. A stored model is used as long as its
+ * source files were not changed; otherwise it is loaded again. When the
+ * estimated size of the stored models exceeds the budget, the least recently
+ * used models are evicted. Evicted models are loaded again when requested;
+ * if the loader has a {@link CompiledModelCache}, this is fast.
+ *
+ * Models are loaded on the requesting thread. Concurrent requests for the same
+ * model wait for a single load. Each load uses a new loader, obtained from
+ * the loader factory, as loaders are not thread-safe. Stored models are frozen,
+ * and shared by all requesters, so callers must not change their nodes or
+ * metadata, which freezing does not cover.
+ *
+ * @author michael
+ */
+public class PolicyModelCache {
+
+    // Estimated heap usage, in bytes, used for computing model sizes.
+    static final long MODEL_BASE_COST = 16 * 1024;
+    static final long NODE_COST = 512;
+    static final long SLOT_COST = 256;
+    static final long VALUE_COST = 128;
+    static final long LOCALIZATION_COST = 32 * 1024;
+
+    /** Stamp of files that were not stamped before the load. Never matches a file. */
+    private static final long[] NO_STAMP = new long[]{ -1, -1 };
+
+    /**
+     * A loaded model, and what we need in order to know it is up to date.
+     */
+    static final class Entry {
+        final Path metadataFile;
+        final PolicyModelLoadResult result;
+        final long estimatedSize;
+        /** Source file -> digest of the content the model was loaded from. */
+        final Map<Path, byte[]> digests;
+        /**
+         * Source file -> (size, last modified), for quick freshness checks.
+         * Stamps are taken before the model is loaded.
+         */
+        final Map<Path, long[]> stamps;
+
+        Entry(Path aMetadataFile, PolicyModelLoadResult aResult, long aSize,
+              Map<Path, byte[]> someDigests, Map<Path, long[]> someStamps) {
+            metadataFile = aMetadataFile;
+            result = aResult;
+            estimatedSize = aSize;
+            digests = someDigests;
+            stamps = someStamps;
+        }
+
+        /** An entry for a result that is returned, but not stored. */
+        Entry(Path aMetadataFile, PolicyModelLoadResult aResult) {
+            this(aMetadataFile, aResult, 0, null, null);
+        }
+    }
+
+    private final long heapBudget;
+    private final Supplier<PolicyModelLoader> loaderFactory;
+    private CompiledModelCache compiledModelCache;
+
+    /** Stored models, in access order. Guarded by {@code this}. */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    private final Map<Path, CompletableFuture<Entry>> loadsInProgress = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates a cache that loads models using production loaders.
+     * @param aHeapBudget Estimated heap size, in bytes, the stored models may use.
+     */
+    public PolicyModelCache( long aHeapBudget ) {
+        this( aHeapBudget, PolicyModelLoader::productionLoader );
+    }
+
+    /**
+     * @param aHeapBudget Estimated heap size, in bytes, the stored models may use.
+     * @param aLoaderFactory Creates a loader for each load.
+     */
+    public PolicyModelCache( long aHeapBudget, Supplier<PolicyModelLoader> aLoaderFactory ) {
+        if ( aHeapBudget <= 0 ) {
+            throw new IllegalArgumentException("Heap budget must be positive: " + aHeapBudget);
+        }
+        heapBudget = aHeapBudget;
+        loaderFactory = aLoaderFactory;
+    }
+
+    /**
+     * Gets the model whose metadata is in {@code aMetadataFile}, loading it
+     * if it is not stored, or if its source files changed. Models that fail
+     * to load are not stored.
+     *
+     * @param aMetadataFile Path to the model's {@code policy-model.xml} file.
+     * @return The result of loading the model. Must not be changed.
+     * @throws PolicyModelLoadingException If the metadata file cannot be read.
+     */
+    public PolicyModelLoadResult get( Path aMetadataFile ) throws PolicyModelLoadingException {
+        Path key = aMetadataFile.toAbsolutePath().normalize();
+        Entry existing;
+        synchronized ( this ) {
+            existing = entries.get(key);
+        }
+        if ( existing != null && isFresh(existing) ) {
+            hitCount.increment();
+            return existing.result;
+        }
+
+        CompletableFuture<Entry> myLoad = new CompletableFuture<>();
+        CompletableFuture<Entry> otherLoad = loadsInProgress.putIfAbsent(key, myLoad);
+        if ( otherLoad != null ) {
+            return await(otherLoad).result;
+        }
+
+        try {
+            Entry loaded = load(key);
+            myLoad.complete(loaded);
+            return loaded.result;
+        } catch ( PolicyModelLoadingException | RuntimeException ex ) {
+            myLoad.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loadsInProgress.remove(key, myLoad);
+        }
+    }
+
+    /**
+     * Convenience method for getting just the model.
+     * @param aMetadataFile Path to the model's {@code policy-model.xml} file.
+     * @return The model, or {@code null} if it failed to load.
+     * @throws PolicyModelLoadingException If the metadata file cannot be read.
+     */
+    public PolicyModel getModel( Path aMetadataFile ) throws PolicyModelLoadingException {
+        PolicyModelLoadResult res = get(aMetadataFile);
+        return res.isSuccessful() ? res.getModel() : null;
+    }
+
+    private Entry load( Path key ) throws PolicyModelLoadingException {
+        // Files are stamped before they are read, and digested as they are read.
+        // So if a file changes during the load, its stamp is outdated, and its
+        // digest is checked on the next request.
+        Map<Path, long[]> stamps = new ConcurrentHashMap<>();
+        byte[] keyDigest;
+        try {
+            stamps.put(key, stampOf(key));
+            keyDigest = digestOf(key);
+        } catch ( IOException ex ) {
+            keyDigest = null;
+        }
+        PolicyModelData data = new PolicyModelDataParser().read(key);
+        Set<Path> known = new LinkedHashSet<>();
+        known.add(data.getPolicySpacePath());
+        known.add(data.getDecisionGraphPath());
+        known.add(data.getValueInferrersPath());
+        synchronized ( this ) {
+            Entry previous = entries.get(key);
+            if ( previous != null && previous.stamps != null ) {
+                known.addAll(previous.stamps.keySet());
+            }
+        }
+        for ( Path p : known ) {
+            if ( p == null ) continue;
+            Path source = p.toAbsolutePath().normalize();
+            try {
+                stamps.putIfAbsent(source, stampOf(source));
+            } catch ( IOException ex ) {
+                // missing files are reported by the loader.
+            }
+        }
+        
+        PolicyModelLoader loader = loaderFactory.get();
+        if ( compiledModelCache != null ) {
+            loader.setModelCache(compiledModelCache);
+        }
+        PolicyModelLoadResult res = loader.load(data);
+        loadCount.increment();
+        if ( ! res.isSuccessful() ) {
+            synchronized ( this ) {
+                remove(key);
+            }
+            return new Entry(key, res);
+        }
+
+        res.getModel().freeze();
+        Map<Path, byte[]> digests = new LinkedHashMap<>();
+        digests.put(key, keyDigest);
+        res.getSourceFiles().forEach( p -> {
+            Path source = p.toAbsolutePath().normalize();
+            digests.putIfAbsent(source, res.getSourceDigests().get(source));
+        });
+        if ( digests.containsValue(null) ) {
+            // Can't tell when the model changes, so don't store it.
+            return new Entry(key, res);
+        }
+        Map<Path, long[]> sourceStamps = new ConcurrentHashMap<>();
+        digests.keySet().forEach( p -> sourceStamps.put(p, stamps.getOrDefault(p, NO_STAMP)) );
+        
+        Entry loaded = new Entry(key, res, estimateSize(res.getModel()), digests, sourceStamps);
+        synchronized ( this ) {
+            remove(key);
+            entries.put(key, loaded);
+            totalSize += loaded.estimatedSize;
+            evict(key);
+        }
+        return loaded;
+    }
+
+    /**
+     * Checks whether the source files of the entry changed since it was loaded.
+     * Files whose size and modification time did not change are assumed to be
+     * unchanged. Files that were touched but not changed do not cause a reload.
+     */
+    private boolean isFresh( Entry e ) {
+        try {
+            for ( Map.Entry<Path, byte[]> digest : e.digests.entrySet() ) {
+                Path p = digest.getKey();
+                long[] stamp = stampOf(p);
+                if ( Arrays.equals(e.stamps.get(p), stamp) ) continue;
+                if ( ! Arrays.equals(digest.getValue(), digestOf(p)) ) {
+                    return false;
+                }
+                e.stamps.put(p, stamp);
+            }
+            return true;
+        } catch ( IOException ex ) {
+            return false;
+        }
+    }
+
+    /** Evicts least recently used entries, until the cache is within budget. Caller must hold the lock. */
+    private void evict( Path keep ) {
+        Iterator<Entry> itr = entries.values().iterator();
+        while ( totalSize > heapBudget && itr.hasNext() ) {
+            Entry e = itr.next();
+            if ( e.metadataFile.equals(keep) ) continue;
+            itr.remove();
+            totalSize -= e.estimatedSize;
+            evictionCount.increment();
+        }
+    }
+
+    /** Caller must hold the lock. */
+    private void remove( Path key ) {
+        Entry removed = entries.remove(key);
+        if ( removed != null ) {
+            totalSize -= removed.estimatedSize;
+        }
+    }
+
+    /**
+     * Removes the model from the cache, if it is stored.
+     * @param aMetadataFile Path to the model's {@code policy-model.xml} file.
+     */
+    public synchronized void invalidate( Path aMetadataFile ) {
+        remove(aMetadataFile.toAbsolutePath().normalize());
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * Estimates the heap size of a loaded model, based on the amount of nodes,
+     * slots, values and localizations it has.
+     *
+     * @param model The model.
+     * @return Estimated size, in bytes.
+     */
+    public static long estimateSize( PolicyModel model ) {
+        long[] slotsAndValues = new long[2];
+        if ( model.getSpaceRoot() != null ) {
+            model.getSpaceRoot().accept(new AbstractSlot.VoidVisitor() {
+                @Override
+                public void visitAtomicSlotImpl(AtomicSlot t) {
+                    slotsAndValues[0]++;
+                    slotsAndValues[1] += t.getValueCount();
+                }
+
+                @Override
+                public void visitAggregateSlotImpl(AggregateSlot t) {
+                    slotsAndValues[0]++;
+                    t.getItemType().accept(this);
+                }
+
+                @Override
+                public void visitCompoundSlotImpl(CompoundSlot t) {
+                    slotsAndValues[0]++;
+                    t.getSubSlots().forEach( s -> s.accept(this) );
+                }
+
+                @Override
+                public void visitTodoSlotImpl(ToDoSlot t) {
+                    slotsAndValues[0]++;
+                }
+            });
+        }
+        long nodeCount = (model.getDecisionGraph() != null) ? model.getDecisionGraph().nodeIds().size() : 0;
+        return MODEL_BASE_COST
+                + nodeCount * NODE_COST
+                + slotsAndValues[0] * SLOT_COST
+                + slotsAndValues[1] * VALUE_COST
+                + model.getLocalizations().size() * LOCALIZATION_COST;
+    }
+
+    private static byte[] digestOf( Path p ) throws IOException {
+        return CompiledModelCache.digest(Files.readAllBytes(p));
+    }
+
+    private static long[] stampOf( Path p ) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        return new long[]{ attrs.size(), attrs.lastModifiedTime().toMillis() };
+    }
+
+    private static Entry await( CompletableFuture<Entry> load ) throws PolicyModelLoadingException {
+        try {
+            return load.join();
+        } catch ( CompletionException ce ) {
+            if ( ce.getCause() instanceof PolicyModelLoadingException ) {
+                throw (PolicyModelLoadingException) ce.getCause();
+            }
+            if ( ce.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+
+    /**
+     * Sets a cache for compiled models, used by the loaders of this cache.
+     * Models evicted from memory are then reloaded from their compiled form.
+     *
+     * @param aCache The compiled model cache, or {@code null}.
+     */
+    public void setCompiledModelCache( CompiledModelCache aCache ) {
+        compiledModelCache = aCache;
+    }
+
+    public CompiledModelCache getCompiledModelCache() {
+        return compiledModelCache;
+    }
+
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * @return Sum of the estimated sizes of the stored models.
+     */
+    public synchronized long getEstimatedSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return Amount of models currently stored.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param aMetadataFile Path to the model's {@code policy-model.xml} file.
+     * @return {@code true} iff the model is stored (whether it is up to date or not).
+     */
+    public synchronized boolean contains( Path aMetadataFile ) {
+        return entries.containsKey(aMetadataFile.toAbsolutePath().normalize());
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[PolicyModelCache models:" + entries.size() + " size:" + totalSize + "/" + heapBudget
+                + " hits:" + hitCount.sum() + " loads:" + loadCount.sum() + " evictions:" + evictionCount.sum() + "]";
+    }
+
+}
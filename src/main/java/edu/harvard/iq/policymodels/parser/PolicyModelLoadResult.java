@@ -5,7 +5,10 @@ import java.util.List;
 import edu.harvard.iq.policymodels.model.PolicyModel;
 import edu.harvard.iq.policymodels.parser.decisiongraph.ast.AstNode;
 import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The result of reading a model. As there are many possible errors and warnings,
@@ -21,6 +24,12 @@ public class PolicyModelLoadResult {
     private PolicyModel model;
     
     private List<? extends AstNode> decisionGraphAst;
+    
+    private boolean loadedFromCache = false;
+    
+    private final List<Path> sourceFiles = new ArrayList<>();
+    
+    private final Map<Path, byte[]> sourceDigests = new ConcurrentHashMap<>();
 
     public boolean isSuccessful() {
         return messages.stream().noneMatch( m->m.getLevel()==ValidationMessage.Level.ERROR );
@@ -57,5 +66,33 @@ public class PolicyModelLoadResult {
     public void setDecisionGraphAst(List<? extends AstNode> decisionGraphAst) {
         this.decisionGraphAst = decisionGraphAst;
     }
+
+    /**
+     * @return {@code true} iff the model was loaded from a {@link CompiledModelCache},
+     *         rather than from its source files.
+     */
+    public boolean isLoadedFromCache() {
+        return loadedFromCache;
+    }
+
+    public void setLoadedFromCache(boolean loadedFromCache) {
+        this.loadedFromCache = loadedFromCache;
+    }
+    
+    /**
+     * @return The files the model was loaded from: metadata, policy space,
+     *         all decision graph files, and value inference.
+     */
+    public List<Path> getSourceFiles() {
+        return sourceFiles;
+    }
+    
+    /**
+     * @return SHA-256 digests of the content of the source files, as the model
+     *         was loaded from it, by absolute and normalized path.
+     */
+    public Map<Path, byte[]> getSourceDigests() {
+        return sourceDigests;
+    }
     
 }
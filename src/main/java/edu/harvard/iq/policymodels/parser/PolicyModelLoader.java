@@ -10,6 +10,7 @@ import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
 import edu.harvard.iq.policymodels.parser.inference.ValueInferenceParseResult;
 import edu.harvard.iq.policymodels.parser.inference.ValueInferenceParser;
 import edu.harvard.iq.policymodels.parser.decisiongraph.DecisionGraphCompiler;
+import edu.harvard.iq.policymodels.parser.decisiongraph.ParsedUnitCache;
 import edu.harvard.iq.policymodels.parser.exceptions.SemanticsErrorException;
 import edu.harvard.iq.policymodels.parser.exceptions.SyntaxErrorException;
 import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParseResult;
@@ -25,12 +26,14 @@ import java.io.IOException;
 import static edu.harvard.iq.policymodels.tools.ValidationMessage.Level;
 import edu.harvard.iq.policymodels.tools.processors.DecisionGraphProcessor;
 import edu.harvard.iq.policymodels.tools.processors.EndNodeOptimizer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import static java.util.stream.Collectors.toList;
 
 /**
  * Loads policy models from {@link PolicyModelData}. Each loader has a list of
@@ -46,6 +49,10 @@ public class PolicyModelLoader extends BaseModelLoader {
     private final List<DecisionGraphAstValidator> dgAstValidators = new ArrayList<>();
     private final List<DecisionGraphValidator> dgValidators = new ArrayList<>();
     private final List<DecisionGraphProcessor> postProcessors = new ArrayList<>();
+    private CompiledModelCache modelCache;
+    
+    /** Decision graph files parsed by this loader, reused when the files do not change. */
+    private final ParsedUnitCache parsedUnitCache = new ParsedUnitCache();
     
     /**
      * @return A loader with all validations and no post-processing.
@@ -76,7 +83,77 @@ public class PolicyModelLoader extends BaseModelLoader {
         return res;
     }
     
+    /**
+     * Loads the model described by {@code data}. If the loader has a model
+     * cache, and the cache has an up-to-date copy of the model, that copy is
+     * loaded instead of the model's source files. Otherwise, successfully 
+     * loaded models are written to the cache.
+     * 
+     * @param data metadata of the model to load.
+     * @return The result of loading the model.
+     */
     public PolicyModelLoadResult load( PolicyModelData data ) {
+        if ( modelCache != null ) {
+            PolicyModelLoadResult cached = loadFromCache(data);
+            if ( cached != null ) return cached;
+        }
+        
+        List<Path> sourceFiles = new ArrayList<>();
+        PolicyModelLoadResult res = loadFromSources(data, sourceFiles);
+        res.getSourceFiles().addAll(sourceFiles);
+        
+        if ( modelCache != null && res.isSuccessful() ) {
+            try {
+                modelCache.write(res, getCacheConfiguration(data));
+            } catch ( IOException | IllegalArgumentException ex ) {
+                res.addMessage( new ValidationMessage(Level.WARNING, "Cannot write model cache: " + ex.getMessage()));
+            }
+        }
+        return res;
+    }
+    
+    private PolicyModelLoadResult loadFromCache( PolicyModelData data ) {
+        PolicyModelLoadResult res;
+        try {
+            res = modelCache.read(data, getCacheConfiguration(data));
+        } catch (IOException ex) {
+            // Unreadable cache files are replaced when the model is loaded from its sources.
+            return null;
+        }
+        if ( res == null ) return null;
+        
+        res.setLoadedFromCache(true);
+        loadLocalizations(data, res);
+        try {
+            res.addMessages( loadReadmes(data, data.getModelDirectoryPath()) );
+        } catch (IOException ex) {
+            res.addMessage( new ValidationMessage(Level.ERROR, "IO error while reading readme files: " + ex.getMessage()));
+        }
+        return res;
+    }
+    
+    /**
+     * Records the digest of a source file that was already parsed, such as the
+     * model's metadata file. If the file changed since, the digest does not
+     * match the parsed content, so the next load re-parses it.
+     */
+    private static void digestSource( Path path, PolicyModelLoadResult res ) throws IOException {
+        res.getSourceDigests().put(path.toAbsolutePath().normalize(), CompiledModelCache.digest(Files.readAllBytes(path)));
+    }
+    
+    /**
+     * Reads a source file, recording the digest of the content that is parsed.
+     * If the file changes after it is read, the digest does not match the file
+     * anymore, so caches do not mistake the loaded model for a model of the
+     * new content.
+     */
+    private static String readSource( Path path, PolicyModelLoadResult res ) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        res.getSourceDigests().put(path.toAbsolutePath().normalize(), CompiledModelCache.digest(content));
+        return new String(content, StandardCharsets.UTF_8);
+    }
+    
+    private PolicyModelLoadResult loadFromSources( PolicyModelData data, List<Path> sourceFiles ) {
         // Setup result
         PolicyModelLoadResult res = new PolicyModelLoadResult();
         PolicyModel model = new PolicyModel();
@@ -86,8 +163,14 @@ public class PolicyModelLoader extends BaseModelLoader {
         try {
             // Load space root.
             CompoundSlot spaceRoot = null;
+            if ( data.getMetadataFile() != null ) {
+                sourceFiles.add(data.getMetadataFile());
+                digestSource(data.getMetadataFile(), res);
+            }
+            sourceFiles.add(data.getPolicySpacePath());
             try {
-                TagSpaceParseResult spaceParseRes = new TagSpaceParser().parse(data.getPolicySpacePath());
+                TagSpaceParseResult spaceParseRes = new TagSpaceParser().parse(readSource(data.getPolicySpacePath(), res));
+                spaceParseRes.setSource(data.getPolicySpacePath().toUri());
                 spaceRoot = spaceParseRes.buildType(data.getRootTypeName()).orElse(null);
                 if ( spaceRoot == null ) {
                     res.addMessage( new ValidationMessage(Level.ERROR, "Slot '" + data.getRootTypeName() + "', used as policy space root, is not defined. ") );
@@ -107,9 +190,11 @@ public class PolicyModelLoader extends BaseModelLoader {
             if ( spaceRoot == null ) return res;
             
             // load decision graph
-            DecisionGraphCompiler decisionGraphCompiler = new DecisionGraphCompiler();
+            DecisionGraphCompiler decisionGraphCompiler = new DecisionGraphCompiler( path -> readSource(path, res) );
+            decisionGraphCompiler.setParsedUnitCache(parsedUnitCache);
             DecisionGraph dg = decisionGraphCompiler.compile(spaceRoot, data, dgAstValidators);
             decisionGraphCompiler.getMessages().forEach(res::addMessage);
+            sourceFiles.addAll(decisionGraphCompiler.getSourcePaths());
             
             if ( dg != null ) {
                 switch ( data.getAnswerTransformationMode() ) {
@@ -122,25 +207,20 @@ public class PolicyModelLoader extends BaseModelLoader {
                         break;
                 }
                 final DecisionGraph fdg = dg; // let the lambdas below compile
-                dgValidators.stream().flatMap( v->v.validate(fdg).stream() ).forEach(res::addMessage);
+                // Validators only read the graph, so they can run in parallel
+                // once the shared analysis is computed.
+                fdg.getAnalysis();
+                dgValidators.parallelStream().map( v->v.validate(fdg) )
+                            .collect( toList() )
+                            .forEach( msgs -> msgs.forEach(res::addMessage) );
                 for ( DecisionGraphProcessor dgp : postProcessors ) {
                     dg = dgp.process(dg);
+                    // processors may re-link nodes directly.
+                    dg.invalidateAnalysis();
                 }
                 model.setDecisionGraph(dg);
                 
-                // Load localizations
-                Path localizations;
-                try {
-                    localizations = ciResolve(data.getMetadataFile().getParent(), FsLocalizationIO.LOCALIZATION_DIRECTORY_NAME);
-                    if ( localizations != null ) {
-                        Files.list(localizations).filter(Files::isDirectory)
-                                                 .filter( d -> Files.exists(d.resolve(FsLocalizationIO.LOCALIZED_METADATA_FILENAME)) )
-                                                 .map(p->p.getFileName().toString())
-                                                 .forEach(res.getModel()::addLocalization);
-                    }
-                } catch (IOException ex) {
-                    res.addMessage( new ValidationMessage(Level.WARNING, "IO Error reading localizations: " + ex.getMessage()));
-                }
+                loadLocalizations(data, res);
 
             } else {
                 res.addMessage( new ValidationMessage(Level.ERROR, "Failed to create decision graph; see previous errors.") );
@@ -149,7 +229,8 @@ public class PolicyModelLoader extends BaseModelLoader {
             //load valueInferrers
             try {
                 if ( data.getValueInferrersPath() != null ) {
-                    ValueInferenceParseResult inferenceParseResult = new ValueInferenceParser(spaceRoot).parse(data.getValueInferrersPath());
+                    sourceFiles.add(data.getValueInferrersPath());
+                    ValueInferenceParseResult inferenceParseResult = new ValueInferenceParser(spaceRoot).parse(readSource(data.getValueInferrersPath(), res));
                     Set<AbstractValueInferrer> valueInferrer =  inferenceParseResult.buildValueInference();
                     model.setValueInferrers(valueInferrer);
                     res.addMessages(inferenceParseResult.getValidationMessages());
@@ -171,6 +252,61 @@ public class PolicyModelLoader extends BaseModelLoader {
         return res;
     }
     
+    private void loadLocalizations( PolicyModelData data, PolicyModelLoadResult res ) {
+        try {
+            Path localizations = ciResolve(data.getMetadataFile().getParent(), FsLocalizationIO.LOCALIZATION_DIRECTORY_NAME);
+            if ( localizations != null ) {
+                Files.list(localizations).filter(Files::isDirectory)
+                                         .filter( d -> Files.exists(d.resolve(FsLocalizationIO.LOCALIZED_METADATA_FILENAME)) )
+                                         .map(p->p.getFileName().toString())
+                                         .forEach(res.getModel()::addLocalization);
+            }
+        } catch (IOException ex) {
+            res.addMessage( new ValidationMessage(Level.WARNING, "IO Error reading localizations: " + ex.getMessage()));
+        }
+    }
+    
+    /**
+     * Describes the parts of the loading process that affect the loaded model,
+     * so that models cached by differently configured loaders are not mixed.
+     */
+    private String getCacheConfiguration( PolicyModelData data ) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(data.getRootTypeName()).append("|")
+          .append(data.getAnswerTransformationMode()).append("|")
+          .append(data.getPolicySpacePath()).append("|")
+          .append(data.getDecisionGraphPath()).append("|")
+          .append(data.getValueInferrersPath());
+        dgAstValidators.forEach( v -> sb.append("|").append(v.getClass().getName()) );
+        dgValidators.forEach( v -> sb.append("|").append(v.getClass().getName()) );
+        postProcessors.forEach( p -> sb.append("|").append(p.getClass().getName()) );
+        return sb.toString();
+    }
+    
+    /**
+     * Sets the cache this loader uses to store compiled models, and to load
+     * them without parsing their source files.
+     * 
+     * @param aCache The cache to use, or {@code null} to always load models from their sources.
+     */
+    public void setModelCache( CompiledModelCache aCache ) {
+        modelCache = aCache;
+    }
+    
+    public CompiledModelCache getModelCache() {
+        return modelCache;
+    }
+    
+    /**
+     * Loaders keep the decision graph files they parse, so when a model is
+     * loaded again, only files that changed are parsed.
+     * 
+     * @return The parsed decision graph files of this loader.
+     */
+    public ParsedUnitCache getParsedUnitCache() {
+        return parsedUnitCache;
+    }
+    
     public void add( DecisionGraphAstValidator vld ) {
         dgAstValidators.add(vld);
     }
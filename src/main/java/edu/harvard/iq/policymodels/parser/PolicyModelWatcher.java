@@ -0,0 +1,333 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.io.PolicyModelDataParser;
+import edu.harvard.iq.policymodels.io.PolicyModelLoadingException;
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Watches the files of a policy model, and reloads the model when they change.
+ *
+ * The watcher monitors the model's directory tree (including the localizations
+ * directory), and the directories of all the files the model was loaded from,
+ * such as decision graphs it imports from other directories. Changes are debounced: a reload starts only after no change
+ * was seen for the debounce delay, so a burst of saves triggers a single load.
+ * Loads run on a background thread, one at a time.
+ *
+ * A reloaded model replaces the current one only if it loaded without errors.
+ * The current model is never changed in place - users that obtained it (e.g.
+ * a running interview) keep using it until they ask for the current model again.
+ *
+ * @author michael
+ */
+public class PolicyModelWatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(PolicyModelWatcher.class.getName());
+
+    /**
+     * Notified when a reload completes. Called on the watcher's load thread.
+     */
+    public interface Listener {
+
+        /**
+         * A new version of the model was loaded, and is now the current model.
+         * @param watcher The watcher that loaded the model.
+         * @param result The result of loading the model.
+         */
+        void modelReloaded( PolicyModelWatcher watcher, PolicyModelLoadResult result );
+
+        /**
+         * The model files changed, but could not be loaded. The current model
+         * was not replaced.
+         *
+         * @param watcher The watcher that attempted the load.
+         * @param result The result of loading the model, or {@code null} if
+         *               the model metadata file could not be read.
+         * @param messages Messages describing the failure.
+         */
+        void reloadFailed( PolicyModelWatcher watcher, PolicyModelLoadResult result, List<ValidationMessage> messages );
+    }
+
+    private final Path metadataFile;
+    private final PolicyModelLoader loader;
+    private final AtomicReference<PolicyModel> currentModel;
+    private final AtomicLong version = new AtomicLong();
+    private volatile long debounceMillis = 300;
+    private volatile Listener listener;
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService loadExecutor;
+    private ScheduledFuture<?> pendingLoad;
+    private final Set<Path> watchedDirectories = new HashSet<>();
+
+    /**
+     * Creates a watcher for the model described in {@code aMetadataFile}.
+     *
+     * @param aMetadataFile Path to the model's {@code policy-model.xml} file.
+     * @param aLoader Loader to load the model with. Should not be used elsewhere while the watcher is running.
+     * @param initialModel The current version of the model, or {@code null} if the model has not been loaded yet.
+     */
+    public PolicyModelWatcher( Path aMetadataFile, PolicyModelLoader aLoader, PolicyModel initialModel ) {
+        metadataFile = aMetadataFile.toAbsolutePath().normalize();
+        loader = aLoader;
+        currentModel = new AtomicReference<>(initialModel);
+    }
+
+    /**
+     * Starts watching the model files. If there is no current model, a load is
+     * scheduled immediately.
+     *
+     * @throws IOException if the model directories cannot be watched.
+     * @throws IllegalStateException if the watcher was already started.
+     */
+    public synchronized void start() throws IOException {
+        if ( watchService != null ) {
+            throw new IllegalStateException("Watcher already started");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        loadExecutor = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread(r, "PolicyModelWatcher-load");
+            t.setDaemon(true);
+            return t;
+        });
+        registerModelDirectories();
+
+        watchThread = new Thread(this::watchLoop, "PolicyModelWatcher-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+
+        if ( currentModel.get() == null ) {
+            requestReload();
+        }
+    }
+
+    /**
+     * Stops watching the files. A load that is already running is allowed to
+     * complete, but its result is not reported.
+     */
+    @Override
+    public synchronized void close() {
+        if ( watchService == null ) return;
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Error closing watch service: " + ex.getMessage(), ex);
+        }
+        loadExecutor.shutdownNow();
+        watchService = null;
+        watchedDirectories.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return watchService != null;
+    }
+
+    /**
+     * Schedules a reload of the model after the debounce delay. Pending reloads
+     * are postponed, so multiple calls in quick succession result in a single reload.
+     */
+    public synchronized void requestReload() {
+        if ( loadExecutor == null || loadExecutor.isShutdown() ) return;
+        if ( pendingLoad != null ) {
+            pendingLoad.cancel(false);
+        }
+        pendingLoad = loadExecutor.schedule(this::reload, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The latest version of the model that loaded without errors.
+     */
+    public PolicyModel getModel() {
+        return currentModel.get();
+    }
+
+    /**
+     * @return Number of times the model was replaced since the watcher was created.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public Path getMetadataFile() {
+        return metadataFile;
+    }
+
+    public void setListener( Listener aListener ) {
+        listener = aListener;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param millis Time, in milliseconds, with no changes to the model files, before a reload starts.
+     */
+    public void setDebounceMillis( long millis ) {
+        if ( millis < 0 ) {
+            throw new IllegalArgumentException("Debounce delay cannot be negative: " + millis);
+        }
+        debounceMillis = millis;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    private void reload() {
+        PolicyModelData data;
+        try {
+            data = new PolicyModelDataParser().read(metadataFile);
+        } catch ( PolicyModelLoadingException ex ) {
+            notifyFailure(null, Collections.singletonList(
+                    new ValidationMessage(ValidationMessage.Level.ERROR, "Cannot read model metadata: " + ex.getMessage())));
+            return;
+        }
+
+        PolicyModelLoadResult res = loader.load(data);
+        // Watch the files this load read - including failed loads, so fixing them triggers a reload.
+        try {
+            registerDirectoriesOf(data);
+            registerDirectoriesOf(res.getSourceFiles());
+        } catch ( IOException ex ) {
+            LOGGER.log(Level.WARNING, "Cannot watch model directories: " + ex.getMessage(), ex);
+        }
+        if ( res.isSuccessful() ) {
+            currentModel.set(res.getModel());
+            version.incrementAndGet();
+            Listener l = listener;
+            if ( l != null && isRunning() ) {
+                l.modelReloaded(this, res);
+            }
+        } else {
+            notifyFailure(res, res.getMessages());
+        }
+    }
+
+    private void notifyFailure( PolicyModelLoadResult res, List<ValidationMessage> messages ) {
+        Listener l = listener;
+        if ( l != null && isRunning() ) {
+            l.reloadFailed(this, res, messages);
+        }
+    }
+
+    private void watchLoop() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        try {
+            while ( true ) {
+                WatchKey key = service.take();
+                boolean relevant = false;
+                for ( WatchEvent<?> evt : key.pollEvents() ) {
+                    if ( evt.kind() == OVERFLOW ) {
+                        relevant = true;
+                        continue;
+                    }
+                    Path changed = ((Path)key.watchable()).resolve((Path)evt.context());
+                    if ( evt.kind() == ENTRY_CREATE && Files.isDirectory(changed) ) {
+                        try {
+                            registerTree(changed);
+                        } catch ( IOException ex ) {
+                            LOGGER.log(Level.WARNING, "Cannot watch directory " + changed + ": " + ex.getMessage(), ex);
+                        }
+                    }
+                    relevant = relevant || isModelFile(changed);
+                }
+                key.reset();
+                if ( relevant ) {
+                    requestReload();
+                }
+            }
+        } catch ( InterruptedException | ClosedWatchServiceException ex ) {
+            // watcher closed.
+        }
+    }
+
+    /**
+     * Filters out files that are not part of the model, but may be written to
+     * its directory, such as editor backups and model cache files.
+     */
+    private boolean isModelFile( Path p ) {
+        String name = p.getFileName().toString();
+        return ! ( name.startsWith(".") || name.endsWith("~")
+                   || name.endsWith(".tmp") || name.endsWith(".swp")
+                   || name.endsWith(CompiledModelCache.CACHE_FILE_SUFFIX) );
+    }
+
+    private void registerModelDirectories() throws IOException {
+        registerTree(metadataFile.getParent());
+        try {
+            registerDirectoriesOf(new PolicyModelDataParser().read(metadataFile));
+        } catch ( PolicyModelLoadingException ex ) {
+            // We'll report this when the model is loaded.
+        }
+    }
+
+    /**
+     * Registers the directories of the main model files, which may reside
+     * outside of the model directory.
+     */
+    private void registerDirectoriesOf( PolicyModelData data ) throws IOException {
+        registerDirectoriesOf( Arrays.asList(data.getPolicySpacePath(), data.getDecisionGraphPath(), data.getValueInferrersPath()) );
+    }
+
+    /**
+     * Registers the directories of the passed files. Used for the files a load
+     * read, as imported decision graphs may reside anywhere.
+     */
+    private void registerDirectoriesOf( Collection<Path> files ) throws IOException {
+        for ( Path p : files ) {
+            if ( p != null && p.getParent() != null && Files.isDirectory(p.getParent()) ) {
+                register(p.getParent());
+            }
+        }
+    }
+
+    private void registerTree( Path root ) throws IOException {
+        try ( Stream<Path> dirs = Files.walk(root) ) {
+            for ( Path dir : (Iterable<Path>)dirs.filter(Files::isDirectory)::iterator ) {
+                register(dir);
+            }
+        }
+    }
+
+    private synchronized void register( Path dir ) throws IOException {
+        if ( watchService == null ) return;
+        Path normalized = dir.toAbsolutePath().normalize();
+        if ( watchedDirectories.add(normalized) ) {
+            normalized.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        }
+    }
+
+}
@@ -71,6 +71,12 @@ import org.jparsec.error.ParserException;
  */
 public class CompilationUnit {
 
+    /** 
+     * Parser for decision graph files. Built once, and shared by all 
+     * compilation units (parsers keep no state between parses).
+     */
+    private static final Parser<ParsedFile> PARSER = DecisionGraphTerminalParser.buildParser( DecisionGraphRuleParser.graphParser() );
+
     private ParsedFile parsedFile;
     private final Path sourcePath;
     
@@ -107,10 +113,17 @@ public class CompilationUnit {
         sourcePath = aPath;
     }
     
-    private void parse() throws DataTagsParseException{
+    /**
+     * Parses the source of this unit, unless it was already parsed successfully.
+     * Parsing does not depend on model-wide data, so units can be parsed 
+     * concurrently, before they are compiled.
+     * 
+     * @throws DataTagsParseException 
+     */
+    void parse() throws DataTagsParseException{
+        if ( parsedFile != null ) return;
         try{
-            Parser<ParsedFile> parser = DecisionGraphTerminalParser.buildParser( DecisionGraphRuleParser.graphParser() );
-            parsedFile = parser.parse(source);
+            parsedFile = PARSER.parse(source);
             parsedFile.getImports().forEach(im -> im.setInitalPath(sourcePath));
             parsedFile.getImports().stream().collect(Collectors.groupingBy(AstImport::getName)).
                                 entrySet().stream().filter(e -> e.getValue().size() > 1).
@@ -123,6 +136,24 @@ public class CompilationUnit {
         }
     }
     
+    boolean isParsed() {
+        return parsedFile != null;
+    }
+    
+    /**
+     * Creates an uncompiled unit that shares the parse result of {@code this}
+     * unit. Parse results are not changed by compilation, so they can be shared.
+     * Should be called before {@code this} unit is compiled.
+     * 
+     * @return A new unit, with the same source, path and parse result as {@code this}.
+     */
+    CompilationUnit copyParsed() {
+        CompilationUnit copy = new CompilationUnit(source, sourcePath);
+        copy.parsedFile = parsedFile;
+        copy.validationMessages.addAll(validationMessages);
+        return copy;
+    }
+    
     /**
      * Convert the AST nodes to model nodes. Populates the validation messages
      * and import map.
@@ -463,6 +494,10 @@ public class CompilationUnit {
         return sourcePath;
     }
     
+    String getSource() {
+        return source;
+    }
+    
     
     /**
      * Traverses the AST, and looks for continue nodes that are outside of a section node.
@@ -26,10 +26,21 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The resultant AST from parsing decision graph code. Can create an actual decision
  * graph, when provided with a tag space (i.e a @{link CompoundType} instance).
+ * 
+ * Imported files are read and parsed concurrently, as soon as the file importing 
+ * them is parsed. Compilation and linking are done by the calling thread, in
+ * the same order as before, so messages and node ids are deterministic.
  *
  * @author michael
  */
@@ -69,6 +80,33 @@ public class DecisionGraphCompiler {
     private final ContentReader contentReader;
     private final List<ValidationMessage> messages = new ArrayList<>();
     
+    /** Parsed units from previous compilations. May be {@code null}. */
+    private ParsedUnitCache parsedUnitCache;
+    
+    /**
+     * Default executor for reading and parsing compilation units. Reading
+     * blocks on IO, so it gets its own small pool rather than the common
+     * {@link java.util.concurrent.ForkJoinPool}, which other parts of a model
+     * load use for computing. Idle threads exit, and the threads are daemons,
+     * so the pool does not need to be shut down.
+     */
+    private static final Executor DEFAULT_PARSE_EXECUTOR = createDefaultParseExecutor();
+    
+    /** Reads and parses compilation units. */
+    private Executor parseExecutor = DEFAULT_PARSE_EXECUTOR;
+    
+    /**
+     * Compilation units being read and parsed, by their normalized path.
+     * Also guards {@link #acceptingParses} and {@link #runningParses}.
+     */
+    private final Map<String, CompletableFuture<CompilationUnit>> parsedUnits = new HashMap<>();
+    
+    /** {@code false} once the current compilation is over. */
+    private boolean acceptingParses = false;
+    
+    /** Amount of parse tasks currently reading or parsing a unit. */
+    private int runningParses = 0;
+    
     public DecisionGraphCompiler(){
         this(new FileSystemContentReader());
     }
@@ -88,6 +126,15 @@ public class DecisionGraphCompiler {
      */
     public DecisionGraph compile(CompoundSlot tagSpace, PolicyModelData modelData,
                                  List<DecisionGraphAstValidator> astValidators) throws IOException {
+        try {
+            return compileUnits(tagSpace, modelData, astValidators);
+        } finally {
+            cancelPendingParses();
+        }
+    }
+    
+    private DecisionGraph compileUnits(CompoundSlot tagSpace, PolicyModelData modelData,
+                                       List<DecisionGraphAstValidator> astValidators) throws IOException {
         
         buildTypeIndex(tagSpace);
         
@@ -95,7 +142,18 @@ public class DecisionGraphCompiler {
         Map<Node, CompilationUnit> nodeToCu = new HashMap<>();
         
         List<AstImport> needToVisit = new ArrayList();
-        CompilationUnit firstCU = new CompilationUnit(contentReader.getContent(modelData.getDecisionGraphPath()) ,modelData.getDecisionGraphPath());
+        synchronized ( parsedUnits ) {
+            parsedUnits.clear();
+            parsedUnits.put(modelData.getDecisionGraphPath().normalize().toString(), null); // main file is not imported.
+            acceptingParses = true;
+        }
+        CompilationUnit firstCU = newUnit(modelData.getDecisionGraphPath());
+        try {
+            parse(firstCU);
+            firstCU.getParsedFile().getImports().forEach(this::parseAsync);
+        } catch (DataTagsParseException ex) {
+            // reported when compiling below.
+        }
         try {
             firstCU.compile(fullyQualifiedSlotName, topLevelType, endAll, astValidators);
             String prefixNodes = modelData.getModelDirectoryPath().relativize(firstCU.getSourcePath()).toString();
@@ -112,12 +170,13 @@ public class DecisionGraphCompiler {
         
         // Load and compile all compilation units (BFS over CU's imports)
         String mainPath = modelData.getDecisionGraphPath().normalize().toString();
+        Set<String> visitedPaths = new HashSet<>();
+        visitedPaths.add(mainPath);
         while ( !needToVisit.isEmpty() ) {
             AstImport astImport = needToVisit.remove(0);
             String currentFilePath = getRealPath(astImport.getPath(), astImport.getInitialPath()).toString();
-            if ( !pathToCu.containsKey(astImport.getPath().toString()) && (!mainPath.equals(currentFilePath))) {
-                String content = contentReader.getContent(getRealPath(astImport.getPath(), astImport.getInitialPath()));
-                CompilationUnit compilationUnit = new CompilationUnit(content, getRealPath(astImport.getPath(), astImport.getInitialPath()));
+            if ( visitedPaths.add(currentFilePath) ) {
+                CompilationUnit compilationUnit = takeParsedUnit(getRealPath(astImport.getPath(), astImport.getInitialPath()));
                 try {
                     compilationUnit.compile(fullyQualifiedSlotName, topLevelType, endAll, astValidators);
                     String prefixNodes = modelData.getModelDirectoryPath().relativize(compilationUnit.getSourcePath()).toString();
@@ -208,6 +267,169 @@ public class DecisionGraphCompiler {
         }
     }
 
+    /**
+     * Starts reading and parsing the imported unit, and then the units it imports,
+     * unless this was already done.
+     */
+    private void parseAsync( AstImport anImport ) {
+        final Path path = getRealPath(anImport.getPath(), anImport.getInitialPath());
+        final CompletableFuture<CompilationUnit> future = new CompletableFuture<>();
+        synchronized ( parsedUnits ) {
+            if ( !acceptingParses || parsedUnits.containsKey(path.toString()) ) return;
+            parsedUnits.put(path.toString(), future);
+        }
+        parseExecutor.execute(() -> {
+            synchronized ( parsedUnits ) {
+                if ( future.isCancelled() ) return;
+                runningParses++;
+            }
+            try {
+                CompilationUnit cu;
+                try {
+                    cu = newUnit(path);
+                } catch (IOException ex) {
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                try {
+                    parse(cu);
+                    cu.getParsedFile().getImports().forEach(this::parseAsync);
+                } catch (DataTagsParseException ex) {
+                    // reported when the unit is compiled.
+                } catch (RuntimeException re) {
+                    future.completeExceptionally(re);
+                    return;
+                }
+                future.complete(cu);
+                
+            } finally {
+                synchronized ( parsedUnits ) {
+                    runningParses--;
+                    parsedUnits.notifyAll();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Cancels the parsing of units that were not taken, e.g. because the unit
+     * importing them failed to compile, and waits for parse tasks that already
+     * started. So no task reads files after the compilation is over.
+     */
+    private void cancelPendingParses() {
+        synchronized ( parsedUnits ) {
+            acceptingParses = false;
+            parsedUnits.values().forEach( f -> {
+                if ( f != null ) f.cancel(false);
+            });
+            parsedUnits.clear();
+            while ( runningParses > 0 ) {
+                try {
+                    parsedUnits.wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets a unit parsed by {@link #parseAsync(AstImport)}. A unit can be 
+     * taken once; later calls re-read the file, so each call gets a 
+     * unit that was not compiled yet.
+     */
+    private CompilationUnit takeParsedUnit( Path path ) throws IOException {
+        CompletableFuture<CompilationUnit> future;
+        synchronized ( parsedUnits ) {
+            future = parsedUnits.put(path.toString(), null);
+        }
+        if ( future != null ) {
+            try {
+                return future.join();
+            } catch ( CompletionException ce ) {
+                if ( ce.getCause() instanceof IOException ) {
+                    throw (IOException) ce.getCause();
+                }
+                if ( ce.getCause() instanceof RuntimeException ) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
+        }
+        return newUnit(path);
+    }
+    
+    /**
+     * Creates a unit for the file at {@code path}. If the parsed unit cache 
+     * has a unit for the current content of the file, the returned unit is
+     * already parsed.
+     */
+    private CompilationUnit newUnit( Path path ) throws IOException {
+        String content = contentReader.getContent(path);
+        if ( parsedUnitCache != null ) {
+            CompilationUnit cached = parsedUnitCache.get(path, content);
+            if ( cached != null ) return cached;
+        }
+        return new CompilationUnit(content, path);
+    }
+    
+    private void parse( CompilationUnit cu ) throws DataTagsParseException {
+        if ( cu.isParsed() ) return;
+        cu.parse();
+        if ( parsedUnitCache != null ) {
+            parsedUnitCache.put(cu);
+        }
+    }
+    
+    private static Executor createDefaultParseExecutor() {
+        final int threadCount = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "DecisionGraphCompiler-parse-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    /**
+     * Sets the executor used for reading and parsing compilation units.
+     * Defaults to a small pool of daemon threads, shared by all compilers.
+     * 
+     * @param anExecutor The executor to use, or {@code null} for reading and
+     *                   parsing on the compiling thread.
+     */
+    public void setParseExecutor( Executor anExecutor ) {
+        parseExecutor = (anExecutor != null) ? anExecutor : Runnable::run;
+    }
+    
+    /**
+     * @return Paths of the files of all compilation units compiled so far.
+     */
+    public Set<Path> getSourcePaths() {
+        Set<Path> paths = new HashSet<>();
+        pathToCu.values().forEach( cu -> paths.add(cu.getSourcePath()) );
+        return paths;
+    }
+    
+    /**
+     * Sets a cache for parsed compilation units. Files whose parsed unit is 
+     * in the cache are not parsed again. Parsed units are added to the cache.
+     * 
+     * @param aCache The cache to use, or {@code null} for parsing all files.
+     */
+    public void setParsedUnitCache( ParsedUnitCache aCache ) {
+        parsedUnitCache = aCache;
+    }
+    
+    public ParsedUnitCache getParsedUnitCache() {
+        return parsedUnitCache;
+    }
+    
     public CompilationUnit put(String key, CompilationUnit value) {
         return pathToCu.put(key, value);
     }
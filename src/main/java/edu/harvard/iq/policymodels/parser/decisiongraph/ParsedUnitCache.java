@@ -0,0 +1,99 @@
+package edu.harvard.iq.policymodels.parser.decisiongraph;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps parsed compilation units between compilations, so that a
+ * {@link DecisionGraphCompiler} only parses files whose content changed since
+ * they were last parsed. Units are stored by their path, and are reused only
+ * if their source is the same as the content of the file being compiled.
+ *
+ * Parsing does not depend on the policy space, so parsed units can be
+ * reused even if the policy space changed. Compilation - creating nodes from
+ * the parsed file - is done anew each time, as the nodes of a unit are changed
+ * when the graph is linked, and may belong to a model that is still in use.
+ *
+ * Instances are thread-safe.
+ *
+ * @author michael
+ */
+public class ParsedUnitCache {
+
+    /** Parsed, uncompiled units, by their normalized path. */
+    private final Map<String, CompilationUnit> units = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Gets a parsed unit for the file at {@code path}, if the cache has one
+     * whose source is {@code content}.
+     *
+     * @param path Path to the unit's file.
+     * @param content Current content of the file.
+     * @return A new, parsed unit, or {@code null}.
+     */
+    CompilationUnit get( Path path, String content ) {
+        CompilationUnit cached = units.get(key(path));
+        if ( cached != null && cached.getSource().equals(content) ) {
+            hitCount.increment();
+            return cached.copyParsed();
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Stores a parsed unit, replacing any unit previously stored for its path.
+     * @param parsed A unit that was parsed successfully.
+     */
+    void put( CompilationUnit parsed ) {
+        if ( parsed.getSourcePath() == null ) return;
+        units.put(key(parsed.getSourcePath()), parsed.copyParsed());
+    }
+
+    /**
+     * Removes the unit stored for {@code path}, if any.
+     * @param path Path to the unit's file.
+     */
+    public void invalidate( Path path ) {
+        units.remove(key(path));
+    }
+
+    public void clear() {
+        units.clear();
+    }
+
+    /**
+     * @return Amount of units in the cache.
+     */
+    public int size() {
+        return units.size();
+    }
+
+    /**
+     * @return Amount of units that were reused rather than parsed.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return Amount of units that had to be parsed.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private static String key( Path path ) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    @Override
+    public String toString() {
+        return "[ParsedUnitCache units:" + units.size() + " hits:" + hitCount.sum() + " misses:" + missCount.sum() + "]";
+    }
+
+}
@@ -104,6 +104,7 @@ public class ValueInferenceParseResult {
                         valueInferrer.add(inferencePair);
                     }
                 }
+                valueInferrer.buildIndex();
             }
             
             if ( isValid() ) {
@@ -27,7 +27,8 @@ import org.jparsec.Parser;
  */
 public class ValueInferenceParser {
     
-    private final Parser<List<ValueInferrerAst>> parser = ValueInferenceTerminalParser.buildParser( ValueInferenceRuleParser.valueInferrersParser() );
+    /** Built once, and shared by all instances (parsers keep no state between parses). */
+    private static final Parser<List<ValueInferrerAst>> PARSER = ValueInferenceTerminalParser.buildParser( ValueInferenceRuleParser.valueInferrersParser() );
     private Map<List<String>, List<String>> fullyQualifiedSlotName = new HashMap<>();
     private final CompoundSlot topLevelType;
 
@@ -44,7 +45,7 @@ public class ValueInferenceParser {
     public ValueInferenceParseResult parse( String valueInferrerCode ) throws SyntaxErrorException {
         fullyQualifiedSlotName = buildTypeIndex();
         try {
-            return new ValueInferenceParseResult( parser.parse(valueInferrerCode), fullyQualifiedSlotName, topLevelType );
+            return new ValueInferenceParseResult( PARSER.parse(valueInferrerCode), fullyQualifiedSlotName, topLevelType );
             
         } catch ( org.jparsec.error.ParserException pe ) {
 			throw new SyntaxErrorException( new CompilationUnitLocationReference(pe.getLocation().line, pe.getLocation().column),
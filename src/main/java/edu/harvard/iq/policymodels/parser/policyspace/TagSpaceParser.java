@@ -20,7 +20,11 @@ import org.jparsec.Parser;
  */
 public class TagSpaceParser {
    
-    private final Parser<List<? extends AbstractAstSlot>> parser = TagSpaceTerminalParser.buildParser( TagSpaceRuleParser.RULES );
+    /**
+     * The grammar is expensive to build, and its parsers keep no state 
+     * between parses, so it is built once and shared by all instances.
+     */
+    private static final Parser<List<? extends AbstractAstSlot>> PARSER = TagSpaceTerminalParser.buildParser( TagSpaceRuleParser.RULES );
     
     /**
      * Parse Tag Space code into a result that can be used to create actual types.
@@ -33,7 +37,7 @@ public class TagSpaceParser {
         
         try {
             // Parse and collect
-            return new TagSpaceParseResult( parser.parse(tagSpaceCode) );
+            return new TagSpaceParseResult( PARSER.parse(tagSpaceCode) );
             
         } catch ( org.jparsec.error.ParserException pe ) {
 			throw new SyntaxErrorException( new CompilationUnitLocationReference(pe.getLocation().line, pe.getLocation().column),
@@ -0,0 +1,403 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.runtime.listeners.RuntimeEngineSilentListener;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs an interview without blocking its callers. Each operation returns a
+ * {@link CompletableFuture}, and runs on the step executor passed at construction.
+ * Operations on the same interview run one at a time, in the order they were
+ * submitted, so the underlying {@link RuntimeEngine} and {@link InterviewSession}
+ * are never used by two threads at once. A failed operation fails its future
+ * only; later operations still run.
+ *
+ * After each step (start, answer, or going back), the interview notifies its
+ * {@link StepListener}s. Listeners are called on the side effect executor, and
+ * return a stage that completes when their work (persisting the session,
+ * writing an audit record, updating metrics...) is done. Steps do not wait for
+ * the side effects of previous steps, unless there are more than
+ * {@link #getMaxPendingSideEffects()} of these pending. Then, the next step is
+ * deferred - without blocking a thread - until enough of them complete.
+ *
+ * Listener methods of the {@link RuntimeEngine} are called synchronously by the
+ * engine, so the interview does not pass them through. Rather, the nodes the
+ * engine processed in a step are reported in the {@link Step}.
+ *
+ * @author michael
+ */
+public class AsyncInterview {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncInterview.class.getName());
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    /**
+     * Reacts to the steps of an interview.
+     */
+    @FunctionalInterface
+    public interface StepListener {
+
+        /**
+         * Called once for each step of the interview, on the side effect executor.
+         * Each listener gets the steps in order, and is not called for a step
+         * before the stage it returned for the previous step completes. Different
+         * listeners handle steps concurrently.
+         *
+         * @param step The step that was made.
+         * @return A stage that completes when the side effects of the step are
+         *         done, or {@code null} if they are done when the method returns.
+         */
+        CompletionStage<?> stepCompleted( Step step );
+    }
+
+    /**
+     * An immutable description of a step made by the interview, and of the
+     * state it left the interview in.
+     */
+    public static final class Step {
+        private final long number;
+        private final Answer answer;
+        private final RuntimeEngineStatus status;
+        private final Node currentNode;
+        private final CompoundValue value;
+        private final List<Node> processedNodes;
+        private final byte[] snapshot;
+
+        Step(long aNumber, Answer anAnswer, InterviewSession session, List<Node> someProcessedNodes, byte[] aSnapshot) {
+            number = aNumber;
+            answer = anAnswer;
+            status = session.getStatus();
+            currentNode = session.getCurrentNode();
+            value = session.getCurrentValue();
+            processedNodes = someProcessedNodes;
+            snapshot = aSnapshot;
+        }
+
+        /**
+         * @return The number of the step in the interview, starting at 1.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return The answer consumed in the step, or {@code null} if the step
+         *         did not consume one (e.g. starting the interview, or going back).
+         */
+        public Answer getAnswer() {
+            return answer;
+        }
+
+        public RuntimeEngineStatus getStatus() {
+            return status;
+        }
+
+        public Node getCurrentNode() {
+            return currentNode;
+        }
+
+        /**
+         * @return The value of the interview after the step. Shared with the
+         *         interview's session, and should not be changed.
+         */
+        public CompoundValue getValue() {
+            return value;
+        }
+
+        /**
+         * @return The nodes the engine processed in the step, in order.
+         */
+        public List<Node> getProcessedNodes() {
+            return processedNodes;
+        }
+
+        /**
+         * @return The state of the interview after the step, as written by {@link SnapshotCodec}.
+         */
+        public ByteBuffer getSnapshot() {
+            return ByteBuffer.wrap(snapshot).asReadOnlyBuffer();
+        }
+
+        @Override
+        public String toString() {
+            return "[Step " + number + " answer:" + answer + " status:" + status
+                    + " node:" + ((currentNode!=null) ? currentNode.getId() : "<none>") + "]";
+        }
+    }
+
+    /**
+     * Collects the nodes processed during a step. Only used on the step executor.
+     */
+    private static class NodeCollector extends RuntimeEngineSilentListener {
+        private List<Node> nodes = new ArrayList<>();
+
+        @Override
+        public void processedNode(RuntimeEngine ngn, Node node) {
+            nodes.add(node);
+        }
+
+        List<Node> takeNodes() {
+            List<Node> res = Collections.unmodifiableList(nodes);
+            nodes = new ArrayList<>();
+            return res;
+        }
+    }
+
+    private final RuntimeEngine engine = new RuntimeEngine();
+    private final NodeCollector collector = new NodeCollector();
+    private final SnapshotCodec codec;
+    private final Executor stepExecutor;
+    private final Executor sideEffectExecutor;
+    private final List<StepListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<CompletableFuture<?>> pendingSideEffects = ConcurrentHashMap.newKeySet();
+    private final Map<StepListener, CompletableFuture<?>> lastSideEffects = new ConcurrentHashMap<>();
+    private volatile BiConsumer<Step, Throwable> sideEffectErrorHandler = (step, err) ->
+            LOGGER.log(Level.WARNING, "Side effect of " + step + " failed", err);
+
+    /** Guards the fields below. */
+    private final Object lock = new Object();
+    private CompletableFuture<?> tail = DONE;
+    private int maxPendingSideEffects = 64;
+    private CompletableFuture<Void> capacityWaiter;
+
+    /** Only used on the step executor. */
+    private long stepCount = 0;
+
+    /**
+     * Creates an interview whose steps and side effects run on {@code executor}.
+     * @param session The session of the interview.
+     * @param executor Executor for the steps and the side effects.
+     */
+    public AsyncInterview( InterviewSession session, Executor executor ) {
+        this(session, executor, executor);
+    }
+
+    /**
+     * Creates an interview whose steps and side effects run on different executors.
+     * @param session The session of the interview.
+     * @param aStepExecutor Executor for the steps.
+     * @param aSideEffectExecutor Executor for calling the step listeners.
+     */
+    public AsyncInterview( InterviewSession session, Executor aStepExecutor, Executor aSideEffectExecutor ) {
+        if ( session == null || session.getModel() == null ) {
+            throw new IllegalArgumentException("Interview needs a session of a model");
+        }
+        if ( aStepExecutor == null || aSideEffectExecutor == null ) {
+            throw new IllegalArgumentException("Executors cannot be null");
+        }
+        engine.setSession(session);
+        engine.setListener(collector);
+        codec = engine.getSnapshotCodec();
+        stepExecutor = aStepExecutor;
+        sideEffectExecutor = aSideEffectExecutor;
+    }
+
+    /**
+     * Starts the interview.
+     * @return A future of whether the interview waits for an answer.
+     * @see RuntimeEngine#start()
+     */
+    public CompletableFuture<Boolean> start() {
+        return submit(() -> step(null, engine::start));
+    }
+
+    /**
+     * Consumes an answer.
+     * @param ans The answer.
+     * @return A future of whether the interview waits for another answer.
+     * @see RuntimeEngine#consume(edu.harvard.iq.policymodels.model.decisiongraph.Answer)
+     */
+    public CompletableFuture<Boolean> consume( Answer ans ) {
+        return submit(() -> step(ans, () -> engine.consume(ans)));
+    }
+
+    /**
+     * Takes the interview back {@code steps} answers. The session must have a {@link SessionHistory}.
+     * @param steps Number of answers to go back.
+     * @return A future of whether the interview waits for an answer.
+     * @see RuntimeEngine#back(int)
+     */
+    public CompletableFuture<Boolean> back( int steps ) {
+        return submit(() -> step(null, () -> engine.back(steps)));
+    }
+
+    /**
+     * Runs a read-only query on the interview's engine, in order with the steps.
+     * This is the safe way to read the state of the interview (e.g. its
+     * current node, in order to look up its localized text), as the engine may
+     * be used by another thread at any time.
+     *
+     * @param <T> Type of the query result.
+     * @param query The query. Should not change the engine or its session.
+     * @return A future of the query result.
+     */
+    public <T> CompletableFuture<T> query( Function<? super RuntimeEngine, T> query ) {
+        return submit(() -> query.apply(engine));
+    }
+
+    /**
+     * @return A future that completes when all operations submitted so far,
+     *         and all of their side effects, are done. Failures of either do
+     *         not fail the returned future.
+     */
+    public CompletableFuture<Void> drain() {
+        final CompletableFuture<?> last;
+        synchronized ( lock ) {
+            last = tail;
+        }
+        return last.handle((r, e) -> null)
+                .thenCompose(x -> CompletableFuture.allOf(pendingSideEffects.stream()
+                                        .map(f -> f.handle((r, e) -> null))
+                                        .toArray(CompletableFuture[]::new)));
+    }
+
+    private <T> CompletableFuture<T> submit( Supplier<T> task ) {
+        synchronized ( lock ) {
+            CompletableFuture<T> res = tail.handle((r, e) -> null)
+                    .thenCompose(x -> sideEffectCapacity())
+                    .thenApplyAsync(x -> task.get(), stepExecutor);
+            tail = res;
+            return res;
+        }
+    }
+
+    private boolean step( Answer ans, BooleanSupplier op ) {
+        try {
+            return op.getAsBoolean();
+        } finally {
+            List<Node> processed = collector.takeNodes();
+            stepCount++;
+            if ( ! listeners.isEmpty() ) {
+                InterviewSession session = engine.getSession();
+                Step step = new Step(stepCount, ans, session, processed, codec.encode(session));
+                listeners.forEach(l -> startSideEffect(l, step));
+            }
+        }
+    }
+
+    private void startSideEffect( StepListener listener, Step step ) {
+        final CompletableFuture<?> previous = lastSideEffects.getOrDefault(listener, DONE);
+        final CompletableFuture<Object> effect = previous.handle((r, e) -> null)
+                .thenComposeAsync(x -> orDone(listener.stepCompleted(step)), sideEffectExecutor);
+        lastSideEffects.put(listener, effect);
+        pendingSideEffects.add(effect);
+        effect.whenComplete((r, err) -> {
+            if ( err != null ) {
+                sideEffectErrorHandler.accept(step, (err.getCause() != null) ? err.getCause() : err);
+            }
+            sideEffectDone(effect);
+        });
+    }
+
+    private void sideEffectDone( CompletableFuture<?> effect ) {
+        CompletableFuture<Void> waiter = null;
+        synchronized ( lock ) {
+            pendingSideEffects.remove(effect);
+            if ( capacityWaiter != null && pendingSideEffects.size() < maxPendingSideEffects ) {
+                waiter = capacityWaiter;
+                capacityWaiter = null;
+            }
+        }
+        if ( waiter != null ) waiter.complete(null);
+    }
+
+    /**
+     * @return A future that completes when a step may run without exceeding
+     *         the maximal number of pending side effects. Steps run one at a
+     *         time, so there is at most a single waiting step.
+     */
+    private CompletableFuture<Void> sideEffectCapacity() {
+        synchronized ( lock ) {
+            if ( pendingSideEffects.size() < maxPendingSideEffects ) return DONE;
+            capacityWaiter = new CompletableFuture<>();
+            return capacityWaiter;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletionStage<Object> orDone( CompletionStage<?> stage ) {
+        return (stage != null) ? (CompletionStage<Object>) stage : (CompletionStage<Object>)(CompletionStage<?>) DONE;
+    }
+
+    public void addListener( StepListener listener ) {
+        listeners.add(listener);
+    }
+
+    public void removeListener( StepListener listener ) {
+        listeners.remove(listener);
+        lastSideEffects.remove(listener);
+    }
+
+    /**
+     * @return The number of side effects that were started and not completed yet.
+     */
+    public int getPendingSideEffectCount() {
+        return pendingSideEffects.size();
+    }
+
+    public int getMaxPendingSideEffects() {
+        synchronized ( lock ) {
+            return maxPendingSideEffects;
+        }
+    }
+
+    /**
+     * Sets the number of pending side effects above which steps are deferred.
+     * Side effects are counted per listener, so with two listeners, each step
+     * starts two side effects.
+     * @param max The maximal number of pending side effects. Must be positive.
+     */
+    public void setMaxPendingSideEffects( int max ) {
+        if ( max < 1 ) {
+            throw new IllegalArgumentException("Maximal pending side effects must be positive, not " + max);
+        }
+        CompletableFuture<Void> waiter = null;
+        synchronized ( lock ) {
+            maxPendingSideEffects = max;
+            if ( capacityWaiter != null && pendingSideEffects.size() < maxPendingSideEffects ) {
+                waiter = capacityWaiter;
+                capacityWaiter = null;
+            }
+        }
+        if ( waiter != null ) waiter.complete(null);
+    }
+
+    /**
+     * Sets the handler of failed side effects. By default, failures are logged.
+     * @param handler Called with the step whose side effect failed, and the failure.
+     */
+    public void setSideEffectErrorHandler( BiConsumer<Step, Throwable> handler ) {
+        if ( handler == null ) {
+            throw new IllegalArgumentException("Handler cannot be null");
+        }
+        sideEffectErrorHandler = handler;
+    }
+
+    /**
+     * @return The session of the interview. Should only be used when no
+     *         operations are running, e.g. after the future returned by {@link #drain()} completes.
+     */
+    public InterviewSession getSession() {
+        return engine.getSession();
+    }
+
+}
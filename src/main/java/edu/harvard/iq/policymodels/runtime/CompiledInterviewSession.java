@@ -0,0 +1,118 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.util.Arrays;
+
+/**
+ * The per-run state of an interview executed by a {@link CompiledRuntimeEngine}.
+ * Nodes are referred to by their indices in a {@link CompiledDecisionGraph}, and
+ * the stack is an {@code int} array.
+ *
+ * Not thread-safe; should be used by a single thread at a time.
+ *
+ * @author michael
+ */
+public class CompiledInterviewSession {
+
+    private final CompiledDecisionGraph graph;
+    private int[] stack = new int[8];
+    private int stackSize = 0;
+    private int currentNode = CompiledDecisionGraph.NO_NODE;
+    private CompoundValue currentValue;
+    private boolean valueInferred = false;
+    private RuntimeEngineStatus status = RuntimeEngineStatus.Idle;
+
+    public CompiledInterviewSession(CompiledDecisionGraph aGraph) {
+        graph = aGraph;
+    }
+
+    public CompiledDecisionGraph getGraph() {
+        return graph;
+    }
+
+    void push( int nodeIdx ) {
+        if ( stackSize == stack.length ) {
+            stack = Arrays.copyOf(stack, stack.length*2);
+        }
+        stack[stackSize++] = nodeIdx;
+    }
+
+    int pop() {
+        return stack[--stackSize];
+    }
+
+    int peek() {
+        return stack[stackSize-1];
+    }
+
+    /**
+     * @return The node indices on the stack, bottom first.
+     */
+    public int[] getStack() {
+        return Arrays.copyOf(stack, stackSize);
+    }
+
+    public int getStackSize() {
+        return stackSize;
+    }
+
+    public int getCurrentNodeIndex() {
+        return currentNode;
+    }
+
+    void setCurrentNodeIndex(int nodeIdx) {
+        currentNode = nodeIdx;
+    }
+
+    /**
+     * @return The node the session is at, or {@code null}.
+     */
+    public Node getCurrentNode() {
+        return (currentNode != CompiledDecisionGraph.NO_NODE) ? graph.getNode(currentNode) : null;
+    }
+
+    public CompoundValue getCurrentValue() {
+        return currentValue;
+    }
+
+    void setCurrentValue(CompoundValue aValue, boolean inferred) {
+        currentValue = aValue;
+        valueInferred = inferred;
+    }
+
+    /**
+     * @return {@code true} iff the current value is a fixpoint of the model's value inference.
+     */
+    public boolean isValueInferred() {
+        return valueInferred;
+    }
+
+    public RuntimeEngineStatus getStatus() {
+        return status;
+    }
+
+    void setStatus(RuntimeEngineStatus aStatus) {
+        status = aStatus;
+    }
+
+    /**
+     * Removes all run-related state, leaving the session ready for a new run.
+     */
+    public void clear() {
+        stackSize = 0;
+        currentNode = CompiledDecisionGraph.NO_NODE;
+        currentValue = null;
+        valueInferred = false;
+        status = RuntimeEngineStatus.Idle;
+    }
+
+    @Override
+    public String toString() {
+        return "[CompiledInterviewSession status:" + status
+                + " node:" + currentNode
+                + " stack depth:" + stackSize + "]";
+    }
+
+}
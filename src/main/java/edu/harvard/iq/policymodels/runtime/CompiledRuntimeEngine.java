@@ -0,0 +1,197 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import static edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph.*;
+import edu.harvard.iq.policymodels.model.inference.ValueInferenceRunner;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+
+/**
+ * An engine that executes a {@link CompiledDecisionGraph}. Semantically
+ * equivalent to {@link RuntimeEngine}, but works on node and answer indices
+ * rather than on node objects, and does not report to listeners.
+ *
+ * The engine holds no per-run state, so a single instance can be used by many
+ * threads, each working on its own {@link CompiledInterviewSession}.
+ *
+ * @author michael
+ */
+public class CompiledRuntimeEngine {
+
+    private final CompiledDecisionGraph graph;
+    private final CompoundSlot spaceRoot;
+    private final ValueInferenceRunner valueInference;
+
+    public CompiledRuntimeEngine(PolicyModel model) {
+        this(model.getCompiledDecisionGraph(), model.getSpaceRoot(),
+             model.getValueInferenceRunner());
+    }
+
+    public CompiledRuntimeEngine(CompiledDecisionGraph aGraph, CompoundSlot aSpaceRoot, ValueInferenceRunner aValueInference) {
+        graph = aGraph;
+        spaceRoot = aSpaceRoot;
+        valueInference = aValueInference;
+    }
+
+    public CompiledInterviewSession newSession() {
+        return new CompiledInterviewSession(graph);
+    }
+
+    /**
+     * Resolves an answer to its index. Should be done once per answer, outside
+     * the interview loop.
+     * @param ans the answer
+     * @return The answer's index, or {@code -1} if no node accepts it.
+     */
+    public int answerIndex( Answer ans ) {
+        return graph.answerIndex(ans);
+    }
+
+    /**
+     * Starts a new run on the passed session, from the start node of the graph.
+     * @param session the session to run on. Previous state is discarded.
+     * @return {@code true} iff there is a need to consume answers.
+     * @throws IllegalArgumentException if {@code session} is not of the engine's graph.
+     * @throws IllegalStateException if the graph is malformed.
+     */
+    public boolean start( CompiledInterviewSession session ) {
+        assertSameGraph(session);
+        session.clear();
+        session.setCurrentValue(spaceRoot.createInstance(), false);
+        session.setStatus(RuntimeEngineStatus.Running);
+        return run(session, graph.getStart());
+    }
+
+    /**
+     * Advances the session to the node appropriate for the passed answer.
+     * @param session the session, currently at an ask node.
+     * @param answerIdx index of the answer (see {@link #answerIndex(edu.harvard.iq.policymodels.model.decisiongraph.Answer)}).
+     * @return {@code true} iff there is where to advance to.
+     * @throws IllegalArgumentException if {@code session} is not of the engine's
+     *         graph, or if the current node has no target for the answer.
+     * @throws IllegalStateException if the session is not at an ask node, or if the graph is malformed.
+     */
+    public boolean consume( CompiledInterviewSession session, int answerIdx ) {
+        assertSameGraph(session);
+        final int current = session.getCurrentNodeIndex();
+        if ( current == NO_NODE || graph.getKind(current) != ASK ) {
+            throw new IllegalStateException("Session is not at an ask node");
+        }
+        final int next = (answerIdx >= 0) ? graph.getAskTarget(current, answerIdx) : NO_NODE;
+        if ( next == NO_NODE ) {
+            throw new IllegalArgumentException("AskNode " + graph.getNode(current).getId()
+                                                + " does not have a node for answer #" + answerIdx );
+        }
+        return run(session, next);
+    }
+
+    public boolean consume( CompiledInterviewSession session, Answer ans ) {
+        return consume(session, answerIndex(ans));
+    }
+
+    private boolean run( CompiledInterviewSession session, int nodeIdx ) {
+        int nd = nodeIdx;
+        CompoundValue value = session.getCurrentValue();
+        boolean inferred = session.isValueInferred();
+        try {
+            while ( nd != NO_NODE ) {
+                session.setCurrentNodeIndex(nd);
+                switch ( graph.getKind(nd) ) {
+                    case ASK:
+                        return true;
+
+                    case CONSIDER:
+                        final CompoundValue[] options = graph.getConsiderOptions(nd);
+                        int target = graph.getNext(nd);
+                        for ( int i=0; i<options.length; i++ ) {
+                            if ( value.isSupersetOf(options[i]) ) {
+                                target = graph.getConsiderTargets(nd)[i];
+                                break;
+                            }
+                        }
+                        nd = target;
+                        break;
+
+                    case SET:
+                        final CompoundValue composed = value.composeWith(graph.getSetValue(nd));
+                        value = inferred ? valueInference.applyIncremental(value, composed)
+                                         : valueInference.apply(composed);
+                        inferred = true;
+                        nd = graph.getNext(nd);
+                        break;
+
+                    case TODO:
+                        nd = graph.getNext(nd);
+                        break;
+
+                    case CALL:
+                        if ( graph.getInner(nd) == NO_NODE ) {
+                            session.setStatus(RuntimeEngineStatus.Error);
+                            throw new IllegalStateException("Call node " + graph.getNode(nd).getId() + " has no callee");
+                        }
+                        session.push(nd);
+                        nd = graph.getInner(nd);
+                        break;
+
+                    case SECTION:
+                        session.push(nd);
+                        nd = graph.getInner(nd);
+                        break;
+
+                    case PART:
+                        nd = graph.getInner(nd);
+                        break;
+
+                    case END:
+                        int caller = NO_NODE;
+                        while ( session.getStackSize() > 0 ) {
+                            final int top = session.pop();
+                            if ( graph.getKind(top) != SECTION ) {
+                                caller = top;
+                                break;
+                            }
+                        }
+                        if ( caller == NO_NODE ) {
+                            // stack is empty, so the run is over.
+                            session.setStatus(RuntimeEngineStatus.Accept);
+                            return false;
+                        }
+                        nd = graph.getNext(caller);
+                        break;
+
+                    case CONTINUE:
+                        if ( session.getStackSize() == 0 || graph.getKind(session.peek()) != SECTION ) {
+                            session.setStatus(RuntimeEngineStatus.Error);
+                            throw new IllegalStateException("[continue] node outside of a [section] node.");
+                        }
+                        nd = graph.getNext(session.pop());
+                        break;
+
+                    case REJECT:
+                        session.setStatus(RuntimeEngineStatus.Reject);
+                        return false;
+
+                    default:
+                        throw new IllegalStateException("Unknown node kind: " + graph.getKind(nd));
+                }
+            }
+        } finally {
+            session.setCurrentValue(value, inferred);
+        }
+        return session.getStatus() == RuntimeEngineStatus.Running;
+    }
+
+    private void assertSameGraph( CompiledInterviewSession session ) {
+        // node indices are only meaningful in the graph they were taken from.
+        if ( session.getGraph() != graph ) {
+            throw new IllegalArgumentException("Session is not of the engine's graph");
+        }
+    }
+
+    public CompiledDecisionGraph getGraph() {
+        return graph;
+    }
+
+}
@@ -0,0 +1,439 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import static edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph.NO_NODE;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * An append-only log of the changes to a single {@link InterviewSession}.
+ * Rather than writing the whole state of the session after each answer, the
+ * journal writes only what changed: the answer and the new current node,
+ * and - if they changed - the new status, the nodes popped from and pushed to
+ * the stack, and the top-level slots whose values changed. Every few steps, the journal writes a full checkpoint
+ * (a {@link SnapshotCodec} snapshot), so that reconstructing a session does
+ * not require reading the log from the beginning.
+ *
+ * A journal is attached to a session using {@link InterviewSession#setJournal(edu.harvard.iq.policymodels.runtime.InterviewJournal)};
+ * the {@link RuntimeEngine} then records each step it takes on that session.
+ * Use {@link #replay(edu.harvard.iq.policymodels.runtime.SnapshotCodec, java.nio.ByteBuffer, edu.harvard.iq.policymodels.runtime.InterviewSession)}
+ * to reconstruct the session from the log.
+ *
+ * Records are framed as a type byte, a payload length (varint), and the payload,
+ * so a record that was partially written (e.g. because of a crash) is detected
+ * and ignored during replay. Use {@link #append(edu.harvard.iq.policymodels.runtime.SnapshotCodec, java.nio.channels.FileChannel)}
+ * to continue writing such a log.
+ *
+ * Not thread-safe; like the session, it should be used by a single thread at a time.
+ *
+ * @author michael
+ */
+public class InterviewJournal {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 32;
+
+    static final byte CHECKPOINT = 1;
+    static final byte STEP = 2;
+
+    private static final byte STATUS_CHANGED = 1;
+    private static final byte STACK_CHANGED  = 2;
+    private static final byte VALUE_CHANGED  = 4;
+
+    private final SnapshotCodec codec;
+    private final OutputStream out;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private final byte[] frameHeader = new byte[6];
+
+    /** The state as of the last record, used to compute the deltas. */
+    private boolean hasCheckpoint = false;
+    private RuntimeEngineStatus lastStatus;
+    private int[] lastStack = new int[0];
+    private final AbstractValue[] lastFields;
+    private final int[] changedOrdinals;
+    private boolean lastHadValue;
+
+    private int stepsSinceCheckpoint = 0;
+    private long bytesWritten = 0;
+
+    /**
+     * Creates a journal writing to the passed stream. The stream is not closed by the journal.
+     * @param aCodec codec of the session's model.
+     * @param anOut stream to write the records to.
+     */
+    public InterviewJournal( SnapshotCodec aCodec, OutputStream anOut ) {
+        codec = aCodec;
+        out = anOut;
+        lastFields = new AbstractValue[codec.getTopLevelSlotCount()];
+        changedOrdinals = new int[lastFields.length];
+    }
+
+    /**
+     * Writes a full checkpoint of the session's state.
+     * @param session the session to record.
+     * @throws UncheckedIOException if the log cannot be written.
+     */
+    public void checkpoint( InterviewSession session ) {
+        while ( true ) {
+            buffer.clear();
+            try {
+                codec.write(session, buffer);
+                break;
+            } catch ( BufferOverflowException boe ) {
+                buffer = ByteBuffer.allocate(buffer.capacity()*2);
+            }
+        }
+        writeRecord(CHECKPOINT);
+
+        hasCheckpoint = true;
+        stepsSinceCheckpoint = 0;
+        lastStatus = session.getStatus();
+        lastStack = stackOf(session);
+        CompoundValue value = session.getCurrentValue();
+        lastHadValue = (value != null);
+        for ( int ordinal=0; ordinal<lastFields.length; ordinal++ ) {
+            lastFields[ordinal] = copyOfField(value, ordinal);
+        }
+    }
+
+    /**
+     * Records a step the session has taken. Writes a checkpoint instead, if
+     * there was no checkpoint yet, or if enough steps were recorded since the last one.
+     *
+     * @param session the session, after the step.
+     * @param answer the answer consumed in the step, or {@code null}.
+     * @throws UncheckedIOException if the log cannot be written.
+     */
+    public void recordStep( InterviewSession session, Answer answer ) {
+        CompoundValue value = session.getCurrentValue();
+        if ( ! hasCheckpoint
+               || stepsSinceCheckpoint >= checkpointInterval
+               || lastHadValue != (value != null) ) {
+            checkpoint(session);
+            return;
+        }
+
+        int answerIdx = (answer != null) ? codec.getGraph().answerIndex(answer) : -1;
+        int node = codec.indexOf(session.getCurrentNode());
+        int[] stack = stackOf(session);
+        int common = 0;
+        while ( common < stack.length && common < lastStack.length && stack[common] == lastStack[common] ) {
+            common++;
+        }
+        int changedCount = 0;
+        if ( value != null ) {
+            for ( int ordinal=0; ordinal<lastFields.length; ordinal++ ) {
+                if ( ! Objects.equals(value.getByOrdinal(ordinal), lastFields[ordinal]) ) {
+                    changedOrdinals[changedCount++] = ordinal;
+                }
+            }
+        }
+        byte flags = 0;
+        if ( session.getStatus() != lastStatus ) flags |= STATUS_CHANGED;
+        if ( common != stack.length || common != lastStack.length ) flags |= STACK_CHANGED;
+        if ( changedCount > 0 ) flags |= VALUE_CHANGED;
+
+        while ( true ) {
+            buffer.clear();
+            try {
+                SnapshotCodec.writeVarInt(buffer, answerIdx + 1);
+                SnapshotCodec.writeVarInt(buffer, node + 1);
+                buffer.put(flags);
+                if ( (flags & STATUS_CHANGED) != 0 ) {
+                    buffer.put((byte)session.getStatus().ordinal());
+                }
+                if ( (flags & STACK_CHANGED) != 0 ) {
+                    SnapshotCodec.writeVarInt(buffer, lastStack.length - common);
+                    SnapshotCodec.writeVarInt(buffer, stack.length - common);
+                    for ( int i=common; i<stack.length; i++ ) {
+                        SnapshotCodec.writeVarInt(buffer, stack[i]);
+                    }
+                }
+                if ( (flags & VALUE_CHANGED) != 0 ) {
+                    SnapshotCodec.writeVarInt(buffer, changedCount);
+                    for ( int i=0; i<changedCount; i++ ) {
+                        int ordinal = changedOrdinals[i];
+                        AbstractValue field = value.getByOrdinal(ordinal);
+                        SnapshotCodec.writeVarInt(buffer, (ordinal << 1) | ((field != null) ? 1 : 0));
+                        if ( field != null ) {
+                            codec.writeTopLevelField(buffer, ordinal, field);
+                        }
+                    }
+                }
+                break;
+            } catch ( BufferOverflowException boe ) {
+                buffer = ByteBuffer.allocate(buffer.capacity()*2);
+            }
+        }
+        writeRecord(STEP);
+
+        stepsSinceCheckpoint++;
+        lastStatus = session.getStatus();
+        lastStack = stack;
+        for ( int i=0; i<changedCount; i++ ) {
+            lastFields[changedOrdinals[i]] = copyOfField(value, changedOrdinals[i]);
+        }
+    }
+
+    private void writeRecord( byte type ) {
+        int length = buffer.position();
+        int headerLength = 0;
+        frameHeader[headerLength++] = type;
+        int remaining = length;
+        while ( (remaining & ~0x7F) != 0 ) {
+            frameHeader[headerLength++] = (byte)((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        frameHeader[headerLength++] = (byte)remaining;
+        try {
+            out.write(frameHeader, 0, headerLength);
+            out.write(buffer.array(), 0, length);
+            out.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write to interview journal", ex);
+        }
+        bytesWritten += headerLength + length;
+    }
+
+    private int[] stackOf( InterviewSession session ) {
+        Deque<ThroughNode> stack = session.getStack();
+        int[] res = new int[stack.size()];
+        int idx = 0;
+        for ( Iterator<ThroughNode> it = stack.descendingIterator(); it.hasNext(); ) {
+            res[idx++] = codec.indexOf(it.next());
+        }
+        return res;
+    }
+
+    private static AbstractValue copyOfField( CompoundValue value, int ordinal ) {
+        if ( value == null ) return null;
+        AbstractValue field = value.getByOrdinal(ordinal);
+        return (field != null) ? field.getOwnableInstance() : null;
+    }
+
+    ////////////////////////////
+    // Replay
+
+    /**
+     * Reconstructs a session from a journal: finds the last checkpoint in
+     * {@code log}, and applies the steps recorded after it. A partially
+     * written last record is ignored. If the log cannot be replayed,
+     * {@code session} is not changed.
+     *
+     * @param codec codec of the session's model.
+     * @param log the journal, from its position to its limit.
+     * @param session the session to apply the state to.
+     * @return Number of steps replayed after the last checkpoint.
+     * @throws IllegalArgumentException if there is no checkpoint in the log,
+     *         if a record is malformed, or if {@code session} is not of the codec's model.
+     */
+    public static int replay( SnapshotCodec codec, ByteBuffer log, InterviewSession session ) {
+        // find the last complete checkpoint.
+        int[] endAndCheckpoint = scanRecords(log);
+        int end = endAndCheckpoint[0];
+        int checkpointPos = endAndCheckpoint[1];
+        if ( checkpointPos < 0 ) {
+            throw new IllegalArgumentException("Journal has no checkpoint");
+        }
+
+        InterviewSession scratch = new InterviewSession(session.getModel());
+        int steps = 0;
+        ByteBuffer records = log.duplicate();
+        records.position(checkpointPos);
+        records.limit(end);
+        try {
+            while ( records.hasRemaining() ) {
+                byte type = records.get();
+                int length = SnapshotCodec.readVarInt(records);
+                ByteBuffer payload = records.slice();
+                payload.limit(length);
+                records.position(records.position() + length);
+                switch ( type ) {
+                    case CHECKPOINT:
+                        codec.read(payload, scratch);
+                        break;
+                    case STEP:
+                        applyStep(codec, payload, scratch);
+                        steps++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown journal record type " + type);
+                }
+            }
+        } catch ( BufferUnderflowException | IndexOutOfBoundsException e ) {
+            throw new IllegalArgumentException("Malformed journal record", e);
+        }
+
+        session.setStatus(scratch.getStatus());
+        session.setCurrentNode(scratch.getCurrentNode());
+        session.setCurrentValue(scratch.getCurrentValue());
+        session.getStack().clear();
+        for ( Iterator<ThroughNode> it = scratch.getStack().descendingIterator(); it.hasNext(); ) {
+            session.getStack().push(it.next());
+        }
+        return steps;
+    }
+
+    /**
+     * Opens a journal that appends to an existing log file. A partially written
+     * last record (e.g. because of a crash) is truncated first; otherwise, new
+     * records would be written after it, and could not be read back.
+     *
+     * @param codec codec of the session's model.
+     * @param channel the log. Its position is moved to the end of its complete
+     *                records. The channel is not closed by the journal.
+     * @return A journal appending to {@code channel}.
+     * @throws IOException if the log cannot be read or truncated.
+     */
+    public static InterviewJournal append( SnapshotCodec codec, FileChannel channel ) throws IOException {
+        if ( channel.size() > Integer.MAX_VALUE ) {
+            throw new IOException("Journal too large: " + channel.size() + " bytes");
+        }
+        ByteBuffer log = ByteBuffer.allocate((int)channel.size());
+        while ( log.hasRemaining() ) {
+            if ( channel.read(log, log.position()) < 0 ) break;
+        }
+        log.flip();
+        int end = scanRecords(log)[0];
+        channel.truncate(end);
+        channel.position(end);
+        return new InterviewJournal(codec, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Scans the records of a log, from its position.
+     * @return The position after the last complete record, and the position of
+     *         the last complete checkpoint ({@code -1} if there is none).
+     */
+    private static int[] scanRecords( ByteBuffer log ) {
+        int checkpointPos = -1;
+        int end = log.position();
+        ByteBuffer scan = log.duplicate();
+        try {
+            while ( scan.hasRemaining() ) {
+                int recordPos = scan.position();
+                byte type = scan.get();
+                int length = SnapshotCodec.readVarInt(scan);
+                if ( length < 0 || length > scan.remaining() ) break;
+                scan.position(scan.position() + length);
+                end = scan.position();
+                if ( type == CHECKPOINT ) {
+                    checkpointPos = recordPos;
+                }
+            }
+        } catch ( BufferUnderflowException | IllegalArgumentException partial ) {
+            // a partially written last record.
+        }
+        return new int[]{ end, checkpointPos };
+    }
+
+    private static void applyStep( SnapshotCodec codec, ByteBuffer in, InterviewSession session ) {
+        SnapshotCodec.readVarInt(in); // answer - not needed for reconstruction.
+        int nodeIdx = SnapshotCodec.readVarInt(in) - 1;
+        Node node = (nodeIdx != NO_NODE) ? codec.getGraph().getNode(codec.checkIndex(nodeIdx)) : null;
+        byte flags = in.get();
+
+        RuntimeEngineStatus status = session.getStatus();
+        if ( (flags & STATUS_CHANGED) != 0 ) {
+            int statusOrdinal = in.get();
+            RuntimeEngineStatus[] statuses = RuntimeEngineStatus.values();
+            if ( statusOrdinal < 0 || statusOrdinal >= statuses.length ) {
+                throw new IllegalArgumentException("Bad status ordinal " + statusOrdinal);
+            }
+            status = statuses[statusOrdinal];
+        }
+
+        Deque<ThroughNode> stack = session.getStack();
+        int popCount = 0;
+        ThroughNode[] pushed = new ThroughNode[0];
+        if ( (flags & STACK_CHANGED) != 0 ) {
+            popCount = SnapshotCodec.readStackSize(in);
+            if ( popCount > stack.size() ) {
+                throw new IllegalArgumentException("Cannot pop " + popCount + " nodes from a stack of " + stack.size());
+            }
+            pushed = new ThroughNode[SnapshotCodec.readStackSize(in)];
+            for ( int i=0; i<pushed.length; i++ ) {
+                Node nd = codec.getGraph().getNode(codec.checkIndex(SnapshotCodec.readVarInt(in)));
+                if ( ! (nd instanceof ThroughNode) ) {
+                    throw new IllegalArgumentException("Node " + nd.getId() + " cannot be on the stack");
+                }
+                pushed[i] = (ThroughNode) nd;
+            }
+        }
+
+        CompoundValue value = session.getCurrentValue();
+        if ( (flags & VALUE_CHANGED) != 0 ) {
+            int changedCount = SnapshotCodec.readVarInt(in);
+            if ( changedCount < 0 || changedCount > codec.getTopLevelSlotCount() ) {
+                throw new IllegalArgumentException("Bad changed slot count " + changedCount);
+            }
+            value = (value != null) ? value.getOwnableInstance()
+                                    : session.getModel().getSpaceRoot().createInstance();
+            for ( int i=0; i<changedCount; i++ ) {
+                int key = SnapshotCodec.readVarInt(in);
+                int ordinal = key >>> 1;
+                if ( (key & 1) != 0 ) {
+                    value.put( codec.readTopLevelField(in, ordinal) );
+                } else {
+                    AbstractSlot cleared = (ordinal < codec.getTopLevelSlotCount())
+                                            ? value.getSlot().subSlotByOrdinal(ordinal) : null;
+                    if ( cleared == null ) {
+                        throw new IllegalArgumentException("Bad slot ordinal " + ordinal);
+                    }
+                    value.clear(cleared);
+                }
+            }
+        }
+
+        // all read, now apply.
+        session.setStatus(status);
+        session.setCurrentNode(node);
+        for ( int i=0; i<popCount; i++ ) stack.pop();
+        for ( ThroughNode nd : pushed ) stack.push(nd);
+        session.setCurrentValue(value);
+    }
+
+    ////////////////////////////
+    // Accessors
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param anInterval number of steps between full checkpoints. Must be positive.
+     */
+    public void setCheckpointInterval( int anInterval ) {
+        if ( anInterval < 1 ) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive, got " + anInterval);
+        }
+        checkpointInterval = anInterval;
+    }
+
+    /**
+     * @return Number of bytes written to the log by {@code this} journal.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public SnapshotCodec getCodec() {
+        return codec;
+    }
+
+}
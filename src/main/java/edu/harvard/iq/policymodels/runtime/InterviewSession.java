@@ -0,0 +1,163 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.Deque;
+
+/**
+ * The per-run state of a single interview: where the interview is, what is
+ * on the call stack, and what the current value is. Everything else the run
+ * needs is read from the {@link PolicyModel}, which is not copied.
+ *
+ * Sessions are small and cheap to create, so a single {@link RuntimeEngine}
+ * (and a single, frozen, model) can serve many interviews - one session each.
+ * A session is not thread-safe; it should be used by a single thread at a time.
+ *
+ * @see PolicyModel#freeze()
+ * @see RuntimeEngine#setSession(edu.harvard.iq.policymodels.runtime.InterviewSession)
+ * @author michael
+ */
+public class InterviewSession {
+
+    private final PolicyModel model;
+    private final SessionStack stack = new SessionStack();
+    private Node currentNode;
+    private CompoundValue currentValue;
+    private boolean valueInferred = false;
+    private RuntimeEngineStatus status = RuntimeEngineStatus.Idle;
+    private InterviewJournal journal;
+    private SessionHistory history;
+
+    public InterviewSession(PolicyModel aModel) {
+        model = aModel;
+    }
+
+    /**
+     * @return The model this session runs on. Fixed for the life of the session.
+     */
+    public PolicyModel getModel() {
+        return model;
+    }
+
+    /**
+     * @return The call/section stack of the interview. Top of the stack is the
+     *         innermost {@code [call]} or {@code [section]}.
+     */
+    public Deque<ThroughNode> getStack() {
+        return stack;
+    }
+
+    /**
+     * @return The current content of the stack, top first. Unlike {@link #getStack()},
+     *         this is an immutable list, which later changes to the stack do not affect.
+     */
+    ConsList<ThroughNode> getStackItems() {
+        return stack.getItems();
+    }
+
+    void setStackItems( ConsList<ThroughNode> items ) {
+        stack.setItems(items);
+    }
+
+    public Node getCurrentNode() {
+        return currentNode;
+    }
+
+    public void setCurrentNode(Node currentNode) {
+        this.currentNode = currentNode;
+    }
+
+    public CompoundValue getCurrentValue() {
+        return currentValue;
+    }
+
+    /**
+     * Sets the current value. The value is not assumed to be a result of 
+     * value inference.
+     * @param currentValue the new current value.
+     */
+    public void setCurrentValue(CompoundValue currentValue) {
+        setCurrentValue(currentValue, false);
+    }
+    
+    /**
+     * Sets the current value.
+     * @param currentValue the new current value.
+     * @param inferred {@code true} iff the value is a fixpoint of the model's
+     *                 value inference, so subsequent inferences can be incremental.
+     */
+    public void setCurrentValue(CompoundValue currentValue, boolean inferred) {
+        this.currentValue = currentValue;
+        this.valueInferred = inferred;
+    }
+
+    /**
+     * @return {@code true} iff the current value is a fixpoint of the model's value inference.
+     */
+    public boolean isValueInferred() {
+        return valueInferred;
+    }
+
+    public RuntimeEngineStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RuntimeEngineStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * @return The journal recording the changes to this session, or {@code null}.
+     */
+    public InterviewJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets a journal to record the changes made to this session by a {@link RuntimeEngine}.
+     * The journal is kept when the session is cleared.
+     * @param aJournal the journal, or {@code null} to stop recording.
+     */
+    public void setJournal(InterviewJournal aJournal) {
+        journal = aJournal;
+    }
+
+    /**
+     * @return The history of this session's states, or {@code null}.
+     */
+    public SessionHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Sets a history, to which a {@link RuntimeEngine} records the states of
+     * this session, and which allows going back to previous ones. Like the
+     * journal, the history is kept when the session is cleared.
+     * @param aHistory the history, or {@code null} to stop recording.
+     * @see RuntimeEngine#back(int)
+     */
+    public void setHistory(SessionHistory aHistory) {
+        history = aHistory;
+    }
+
+    /**
+     * Removes all run-related state, leaving the session ready for a new run.
+     */
+    public void clear() {
+        stack.clear();
+        currentNode = null;
+        currentValue = null;
+        valueInferred = false;
+    }
+
+    @Override
+    public String toString() {
+        return "[InterviewSession status:" + status
+                + " node:" + ((currentNode!=null) ? currentNode.getId() : "<none>")
+                + " stack depth:" + stack.size() + "]";
+    }
+
+}
@@ -0,0 +1,654 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A file-backed store of paused interview sessions. Sessions are written as
+ * {@link SnapshotCodec} snapshots into memory-mapped segment files, so saving
+ * and loading a session is a single write to, or read from, mapped memory. The
+ * only heap the store keeps for a stored session is an entry in the index,
+ * mapping the session id to the location of its latest record.
+ *
+ * Segments are fixed-size files, holding a header followed by records. Records
+ * are only ever appended; a record has a fixed part and a variable part:
+ * <pre>
+ *   int    length of the variable part
+ *   int    CRC32 of the variable part
+ *   byte   type: saved session, or removed session
+ *   short  length of the session id
+ *   byte[] session id (UTF-8)
+ *   byte[] snapshot (saved sessions only)
+ * </pre>
+ *
+ * The length is written last, after the length field following the record is
+ * zeroed. So the records are always followed by a zero length. When the store
+ * is opened, the index is rebuilt by scanning the segments; a record whose
+ * length is zero or whose CRC does not match (e.g. it was being written when
+ * the process died) marks the end of the data. Use {@link #sync()}, or
+ * {@link #setSyncOnWrite(boolean)}, to make sure records reach the disk.
+ *
+ * Overwritten and removed sessions leave dead records behind. {@link #compact()}
+ * copies the live records to new segments and deletes the old ones. Old segments
+ * are unmapped and deleted oldest first, so if compaction is interrupted, the
+ * records left in the remaining old segments still resolve to the correct state.
+ *
+ * Thread-safe. Loads can run concurrently; saves, removals and compactions are exclusive.
+ *
+ * @author michael
+ */
+public class MappedSessionStore implements AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final int SEGMENT_MAGIC = 0x50535331;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte SAVED = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int SEGMENT_FORMAT_VERSION = 1;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("sessions-(\\d{8})\\.seg");
+
+    private static final Logger LOGGER = Logger.getLogger(MappedSessionStore.class.getName());
+
+    /**
+     * A single segment file, mapped in its entirety.
+     */
+    private static final class Segment {
+        final int number;
+        final Path path;
+        final FileChannel channel;
+        /** {@code null} once the segment is released. */
+        MappedByteBuffer buffer;
+        int writePosition = SEGMENT_HEADER_SIZE;
+        long deadBytes = 0;
+
+        Segment( int aNumber, Path aPath, FileChannel aChannel, MappedByteBuffer aBuffer ) {
+            number = aNumber;
+            path = aPath;
+            channel = aChannel;
+            buffer = aBuffer;
+        }
+    }
+
+    private final Path directory;
+    private final SnapshotCodec codec;
+    private final int segmentSize;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+
+    /** session id to location: segment number in the high word, offset in the low one. */
+    private final Map<String, Long> index = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean syncOnWrite = false;
+    private boolean closed = false;
+
+    public MappedSessionStore( Path aDirectory, SnapshotCodec aCodec ) throws IOException {
+        this(aDirectory, aCodec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a store, creating it if needed.
+     *
+     * @param aDirectory directory of the segment files.
+     * @param aCodec codec of the model whose sessions are stored.
+     * @param aSegmentSize size of each segment file, in bytes. Limits the size of a single session record.
+     * @throws IOException if the segment files cannot be read or created.
+     */
+    public MappedSessionStore( Path aDirectory, SnapshotCodec aCodec, int aSegmentSize ) throws IOException {
+        if ( aSegmentSize < SEGMENT_HEADER_SIZE + 64 ) {
+            throw new IllegalArgumentException("Segment size too small: " + aSegmentSize);
+        }
+        directory = aDirectory;
+        codec = aCodec;
+        segmentSize = aSegmentSize;
+        Files.createDirectories(directory);
+
+        List<Integer> numbers = new ArrayList<>();
+        try ( DirectoryStream<Path> files = Files.newDirectoryStream(directory, "sessions-*.seg") ) {
+            for ( Path p : files ) {
+                Matcher m = SEGMENT_NAME.matcher(p.getFileName().toString());
+                if ( m.matches() ) numbers.add(Integer.parseInt(m.group(1)));
+            }
+        }
+        numbers.sort(null);
+        try {
+            for ( int number : numbers ) {
+                Segment seg = openSegment(number, false);
+                segments.put(number, seg);
+                scan(seg);
+            }
+            if ( segments.isEmpty() ) {
+                active = openSegment(1, true);
+                segments.put(active.number, active);
+            } else {
+                active = segments.lastEntry().getValue();
+                clearTail(active);
+            }
+        } catch ( IOException | RuntimeException e ) {
+            for ( Segment seg : segments.values() ) {
+                release(seg);
+            }
+            throw e;
+        }
+    }
+
+    ////////////////////////////
+    // Segments
+
+    private Path segmentPath( int number ) {
+        return directory.resolve(String.format("sessions-%08d.seg", number));
+    }
+
+    private Segment openSegment( int number, boolean create ) throws IOException {
+        Path path = segmentPath(number);
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = create ? segmentSize : channel.size();
+            if ( size < SEGMENT_HEADER_SIZE || size > Integer.MAX_VALUE ) {
+                throw new IOException("Bad segment file size " + size + " for " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if ( create || (buffer.getInt(0) == 0 && buffer.getInt(4) == 0) ) {
+                // new segment, or a segment whose creation was interrupted.
+                buffer.putInt(0, SEGMENT_MAGIC);
+                buffer.putInt(4, SEGMENT_FORMAT_VERSION);
+                buffer.force();
+            } else if ( buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != SEGMENT_FORMAT_VERSION ) {
+                throw new IOException("Not a session segment file: " + path);
+            }
+            return new Segment(number, path, channel, buffer);
+        } catch ( IOException | RuntimeException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the records of a segment into the index, and sets its write position
+     * after the last valid record.
+     */
+    private void scan( Segment seg ) {
+        ByteBuffer buf = seg.buffer;
+        int pos = SEGMENT_HEADER_SIZE;
+        while ( pos + RECORD_HEADER_SIZE <= buf.limit() ) {
+            int length = buf.getInt(pos);
+            if ( length < 3 || length > buf.limit() - pos - RECORD_HEADER_SIZE ) break;
+            if ( buf.getInt(pos+4) != crcOf(buf, pos+RECORD_HEADER_SIZE, length) ) break;
+
+            byte type = buf.get(pos+RECORD_HEADER_SIZE);
+            String id = idAt(buf, pos);
+            int recordSize = RECORD_HEADER_SIZE + length;
+            markDead(index.remove(id));
+            if ( type == SAVED ) {
+                index.put(id, location(seg.number, pos));
+            } else {
+                seg.deadBytes += recordSize;
+            }
+            pos += recordSize;
+        }
+        seg.writePosition = pos;
+    }
+
+    /**
+     * Zeroes the length of the record at the write position of the segment, which
+     * may be a record that was not completely written. The rest of that record is
+     * left as is: it is overwritten by new records, and anything beyond them is
+     * after a zero length, so it is never scanned.
+     */
+    private static void clearTail( Segment seg ) {
+        clearLength(seg.buffer, seg.writePosition);
+    }
+
+    private static void clearLength( ByteBuffer buf, int recordPos ) {
+        if ( recordPos + 4 <= buf.limit() ) {
+            buf.putInt(recordPos, 0);
+        }
+    }
+
+    /**
+     * Closes the segment file and unmaps its buffer, so that the file can be
+     * deleted. The segment cannot be used afterwards.
+     */
+    private static void release( Segment seg ) throws IOException {
+        MappedByteBuffer buffer = seg.buffer;
+        seg.buffer = null;
+        seg.channel.close();
+        if ( buffer != null ) {
+            unmap(buffer);
+        }
+    }
+
+    /**
+     * Unmaps {@code buffer} now, rather than when it is garbage-collected. There
+     * is no public API for this, so this uses {@code Unsafe.invokeCleaner} where
+     * available (Java 9 and up), and the buffer's cleaner otherwise. If neither
+     * works, the buffer is unmapped when collected.
+     */
+    private static void unmap( MappedByteBuffer buffer ) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch ( ReflectiveOperationException | RuntimeException e ) {
+            // not Java 9+, try the Java 8 way below.
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if ( cleaner != null ) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch ( ReflectiveOperationException | RuntimeException e ) {
+            LOGGER.log(Level.FINE, "Cannot unmap segment buffer: " + e.getMessage(), e);
+        }
+    }
+
+    private Segment startNewSegment() throws IOException {
+        Segment seg = openSegment(segments.lastKey()+1, true);
+        segments.put(seg.number, seg);
+        active = seg;
+        return seg;
+    }
+
+    ////////////////////////////
+    // Records
+
+    private static long location( int segmentNumber, int offset ) {
+        return ((long)segmentNumber << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf( long location ) {
+        return (int)(location >>> 32);
+    }
+
+    private static int offsetOf( long location ) {
+        return (int)location;
+    }
+
+    private static String idAt( ByteBuffer buf, int recordPos ) {
+        int idLength = buf.getShort(recordPos + RECORD_HEADER_SIZE + 1) & 0xFFFF;
+        byte[] idBytes = new byte[idLength];
+        ByteBuffer view = buf.duplicate();
+        view.position(recordPos + RECORD_HEADER_SIZE + 3);
+        view.get(idBytes);
+        return new String(idBytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crcOf( ByteBuffer buf, int from, int length ) {
+        ByteBuffer view = buf.duplicate();
+        view.limit(from+length).position(from);
+        CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int)crc.getValue();
+    }
+
+    private void markDead( Long location ) {
+        if ( location == null ) return;
+        Segment seg = segments.get(segmentOf(location));
+        if ( seg != null ) {
+            seg.deadBytes += RECORD_HEADER_SIZE + seg.buffer.getInt(offsetOf(location));
+        }
+    }
+
+    /**
+     * Writes a record to the active segment, starting a new segment if the
+     * record does not fit.
+     * @param body writes the body of the record, after the id.
+     * @return Location of the new record.
+     */
+    private long append( byte type, String id, Consumer<ByteBuffer> body ) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if ( idBytes.length > 0xFFFF ) {
+            throw new IllegalArgumentException("Session id too long");
+        }
+        boolean freshSegment = false;
+        while ( true ) {
+            Segment seg = active;
+            int pos = seg.writePosition;
+            ByteBuffer buf = seg.buffer.duplicate();
+            boolean fits = (pos + RECORD_HEADER_SIZE + 3 + idBytes.length <= buf.limit());
+            if ( fits ) {
+                try {
+                    buf.position(pos + RECORD_HEADER_SIZE);
+                    buf.put(type);
+                    buf.putShort((short)idBytes.length);
+                    buf.put(idBytes);
+                    body.accept(buf);
+                } catch ( BufferOverflowException overflow ) {
+                    // the length field is still zero, so the partial data is not scanned.
+                    fits = false;
+                }
+            }
+            if ( ! fits ) {
+                if ( freshSegment ) {
+                    throw new IllegalArgumentException("Record of session " + id + " is larger than the segment size");
+                }
+                startNewSegment();
+                freshSegment = true;
+                continue;
+            }
+            int length = buf.position() - pos - RECORD_HEADER_SIZE;
+            clearLength(seg.buffer, pos + RECORD_HEADER_SIZE + length);
+            seg.buffer.putInt(pos+4, crcOf(seg.buffer, pos+RECORD_HEADER_SIZE, length));
+            seg.buffer.putInt(pos, length);
+            seg.writePosition = pos + RECORD_HEADER_SIZE + length;
+            if ( syncOnWrite ) {
+                seg.buffer.force();
+            }
+            return location(seg.number, pos);
+        }
+    }
+
+    ////////////////////////////
+    // Public API
+
+    /**
+     * Saves the state of {@code session} under {@code id}, replacing any previously saved state.
+     *
+     * @param id id of the session.
+     * @param session the session to save.
+     * @throws IOException if a new segment file is needed but cannot be created.
+     */
+    public void save( String id, InterviewSession session ) throws IOException {
+        lock.writeLock().lock();
+        try {
+            assertOpen();
+            long loc = append(SAVED, id, buf -> codec.write(session, buf));
+            markDead(index.put(id, loc));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the state of {@code session} under {@code id}, replacing any previously saved state.
+     *
+     * @param id id of the session.
+     * @param session the session to save.
+     * @throws IOException if a new segment file is needed but cannot be created.
+     */
+    public void save( String id, CompiledInterviewSession session ) throws IOException {
+        lock.writeLock().lock();
+        try {
+            assertOpen();
+            long loc = append(SAVED, id, buf -> codec.write(session, buf));
+            markDead(index.put(id, loc));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the state saved under {@code id} into {@code session}.
+     *
+     * @param id id of the session.
+     * @param session the session to load the state into. Must be a session of the store's model.
+     * @return {@code true} iff there was a session saved under {@code id}.
+     * @throws IllegalArgumentException if {@code session} is of another model.
+     */
+    public boolean load( String id, InterviewSession session ) {
+        lock.readLock().lock();
+        try {
+            assertOpen();
+            ByteBuffer snapshot = snapshotOf(id);
+            if ( snapshot == null ) return false;
+            codec.read(snapshot, session);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the state saved under {@code id} into {@code session}.
+     *
+     * @param id id of the session.
+     * @param session the session to load the state into. Must be a session of the store's model.
+     * @return {@code true} iff there was a session saved under {@code id}.
+     * @throws IllegalArgumentException if {@code session} is of another model.
+     */
+    public boolean load( String id, CompiledInterviewSession session ) {
+        lock.readLock().lock();
+        try {
+            assertOpen();
+            ByteBuffer snapshot = snapshotOf(id);
+            if ( snapshot == null ) return false;
+            codec.read(snapshot, session);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer snapshotOf( String id ) {
+        Long loc = index.get(id);
+        if ( loc == null ) return null;
+        Segment seg = segments.get(segmentOf(loc));
+        int pos = offsetOf(loc);
+        ByteBuffer view = seg.buffer.duplicate();
+        int length = view.getInt(pos);
+        int idLength = view.getShort(pos + RECORD_HEADER_SIZE + 1) & 0xFFFF;
+        view.limit(pos + RECORD_HEADER_SIZE + length);
+        view.position(pos + RECORD_HEADER_SIZE + 3 + idLength);
+        return view;
+    }
+
+    /**
+     * Removes the session saved under {@code id}.
+     * @param id id of the session.
+     * @return {@code true} iff there was a session saved under {@code id}.
+     * @throws IOException if a new segment file is needed but cannot be created.
+     */
+    public boolean remove( String id ) throws IOException {
+        lock.writeLock().lock();
+        try {
+            assertOpen();
+            if ( ! index.containsKey(id) ) return false;
+            long loc = append(REMOVED, id, buf -> {});
+            markDead(index.remove(id));
+            markDead(loc);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains( String id ) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of saved sessions.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the records of all saved sessions to new segments, and deletes
+     * the old segments. Reclaims the space of overwritten and removed sessions.
+     *
+     * @throws IOException if the new segments cannot be created, or the old ones cannot be deleted.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            assertOpen();
+            List<Segment> oldSegments = new ArrayList<>(segments.values());
+            startNewSegment();
+
+            // copy records as they are; no need to decode the snapshots.
+            List<Map.Entry<String, Long>> entries = new ArrayList<>(index.entrySet());
+            entries.sort( (a,b) -> Long.compare(a.getValue(), b.getValue()) );
+            for ( Map.Entry<String, Long> e : entries ) {
+                ByteBuffer snapshot = snapshotOf(e.getKey());
+                index.put(e.getKey(), append(SAVED, e.getKey(), buf -> buf.put(snapshot)));
+            }
+            int lastOldSegment = oldSegments.get(oldSegments.size()-1).number;
+            for ( Segment seg : segments.tailMap(lastOldSegment, false).values() ) {
+                seg.buffer.force();
+            }
+
+            // delete oldest first, so the remaining segments are always a consistent suffix of the log.
+            for ( Segment seg : oldSegments ) {
+                segments.remove(seg.number);
+                release(seg);
+                Files.deleteIfExists(seg.path);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the store if more than half of its records are dead, and
+     * there is at least a segment's worth of dead records.
+     * @return {@code true} iff the store was compacted.
+     * @throws IOException see {@link #compact()}.
+     */
+    public boolean compactIfNeeded() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long dead = getDeadBytes();
+            if ( dead >= segmentSize && dead*2 > getUsedBytes() ) {
+                compact();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces all written records to the disk.
+     */
+    public void sync() {
+        lock.writeLock().lock();
+        try {
+            segments.values().forEach( s -> s.buffer.force() );
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param shouldSync if {@code true}, each save and removal is forced to the disk before it returns.
+     */
+    public void setSyncOnWrite( boolean shouldSync ) {
+        syncOnWrite = shouldSync;
+    }
+
+    public boolean isSyncOnWrite() {
+        return syncOnWrite;
+    }
+
+    /**
+     * @return Bytes used by records, dead or alive.
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong( s -> s.writePosition - SEGMENT_HEADER_SIZE ).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Bytes used by records of overwritten and removed sessions.
+     */
+    public long getDeadBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong( s -> s.deadBytes ).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void assertOpen() {
+        if ( closed ) {
+            throw new IllegalStateException("Session store is closed");
+        }
+    }
+
+    /**
+     * Forces all records to the disk, and closes the segment files.
+     * @throws IOException if a segment file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if ( closed ) return;
+            closed = true;
+            for ( Segment seg : segments.values() ) {
+                seg.buffer.force();
+                release(seg);
+            }
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current version of a policy model, and allows replacing it while
+ * interviews are running.
+ *
+ * Published models are frozen, and shared by all sessions created on them,
+ * so code must not change their nodes or metadata, which freezing does not
+ * cover (see {@link PolicyModel#freeze()}).
+ *
+ * Each {@link InterviewSession} is pinned to the model version it was created
+ * on, and keeps using it until it is discarded - replacing the current version
+ * only affects sessions created afterwards. Publishing a version and creating
+ * a session are single atomic operations, and never block.
+ *
+ * The registry holds only the current version strongly. Older versions are
+ * reclaimed by the garbage collector once no session (or other code) refers
+ * to them; until then, they are counted by {@link #getRetiredVersionCount()}.
+ *
+ * @author michael
+ */
+public class ModelRegistry {
+
+    /**
+     * A published version of a model.
+     */
+    public static final class Version {
+        private final long number;
+        private final PolicyModel model;
+
+        Version(long aNumber, PolicyModel aModel) {
+            number = aNumber;
+            model = aModel;
+        }
+
+        /**
+         * @return The version number. Version numbers increase with each publication.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return The model of this version. It is frozen.
+         */
+        public PolicyModel getModel() {
+            return model;
+        }
+
+        /**
+         * @return A new, idle session pinned to this version.
+         */
+        public InterviewSession newSession() {
+            return new InterviewSession(model);
+        }
+
+        @Override
+        public String toString() {
+            return "[Version " + number + " " + model + "]";
+        }
+    }
+
+    private final AtomicReference<Version> current = new AtomicReference<>();
+    private final AtomicLong versionCounter = new AtomicLong();
+
+    // Models of retired versions, tracked weakly so they do not prevent reclamation.
+    // Sessions refer to the model rather than to the version, so the model is tracked.
+    private final ReferenceQueue<PolicyModel> reclaimed = new ReferenceQueue<>();
+    private final Set<WeakReference<PolicyModel>> retired = ConcurrentHashMap.newKeySet();
+
+    public ModelRegistry() {}
+
+    public ModelRegistry( PolicyModel initialModel ) {
+        publish(initialModel);
+    }
+
+    /**
+     * Makes {@code aModel} the current version. The model is frozen, if it was
+     * not frozen already. Sessions that were created on previous versions are
+     * not affected.
+     *
+     * @param aModel The model to publish.
+     * @return The new version.
+     */
+    public Version publish( PolicyModel aModel ) {
+        if ( aModel == null ) {
+            throw new IllegalArgumentException("Cannot publish a null model");
+        }
+        Version next = new Version(versionCounter.incrementAndGet(), aModel.freeze());
+        Version previous = current.getAndSet(next);
+        if ( previous != null ) {
+            retired.add( new WeakReference<>(previous.getModel(), reclaimed) );
+        }
+        expungeReclaimed();
+        return next;
+    }
+
+    /**
+     * @return The current version, or {@code null} if no model was published yet.
+     */
+    public Version current() {
+        return current.get();
+    }
+
+    /**
+     * @return The model of the current version, or {@code null} if no model was published yet.
+     */
+    public PolicyModel getModel() {
+        Version v = current.get();
+        return (v != null) ? v.getModel() : null;
+    }
+
+    /**
+     * Creates a session pinned to the current version.
+     *
+     * @return A new, idle session.
+     * @throws IllegalStateException if no model was published yet.
+     */
+    public InterviewSession newSession() {
+        Version v = current.get();
+        if ( v == null ) {
+            throw new IllegalStateException("No model published");
+        }
+        return v.newSession();
+    }
+
+    /**
+     * Sets the engine to run a new session on the current version.
+     *
+     * @param ngn The engine to use.
+     * @return The session the engine now works on.
+     * @see RuntimeEngine#setSession(edu.harvard.iq.policymodels.runtime.InterviewSession)
+     */
+    public InterviewSession startSession( RuntimeEngine ngn ) {
+        InterviewSession session = newSession();
+        ngn.setSession(session);
+        return session;
+    }
+
+    /**
+     * @param aSession A session.
+     * @return {@code true} iff the session runs on the current version.
+     */
+    public boolean isCurrent( InterviewSession aSession ) {
+        Version v = current.get();
+        return (v != null) && (v.getModel() == aSession.getModel());
+    }
+
+    /**
+     * @return Amount of previous versions that were not reclaimed yet.
+     */
+    public int getRetiredVersionCount() {
+        expungeReclaimed();
+        return retired.size();
+    }
+
+    /**
+     * @return The weak references to the models of retired versions. Tests
+     *         enqueue these directly, rather than wait for the garbage collector.
+     */
+    Set<WeakReference<PolicyModel>> getRetiredReferences() {
+        return retired;
+    }
+
+    private void expungeReclaimed() {
+        Object ref;
+        while ( (ref = reclaimed.poll()) != null ) {
+            retired.remove(ref);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[ModelRegistry current:" + current.get() + " retired:" + retired.size() + "]";
+    }
+
+}
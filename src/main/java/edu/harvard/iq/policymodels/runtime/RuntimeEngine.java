@@ -16,21 +16,21 @@ import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
-import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer;
+import edu.harvard.iq.policymodels.model.inference.ValueInferenceRunner;
 import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
 import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
 import edu.harvard.iq.policymodels.runtime.exceptions.MissingNodeException;
-import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The engine that executes a {@link DecisionGraph}.
+ * The engine that executes a {@link DecisionGraph}. The state of the run
+ * is kept in an {@link InterviewSession}; the engine itself only holds the
+ * model and the listener, so it can be switched between sessions.
  *
  * Intended usage pattern:  <code>
  *	if ( engine.start(node) ) {
@@ -70,13 +70,17 @@ import java.util.concurrent.atomic.AtomicInteger;
     private String id = "RuntimeEngine-" + COUNTER.incrementAndGet();
     private PolicyModel model;
     private DecisionGraph decisionGraph;
-    private CompoundValue currentValue;
-    private final Deque<ThroughNode> stack = new LinkedList<>();
-    private Node currentNode;
-    private RuntimeEngineStatus status = RuntimeEngineStatus.Idle;
+    private ValueInferenceRunner valueInference;
+    private InterviewSession session = new InterviewSession(null);
+    private volatile SnapshotCodec snapshotCodec;
     private Optional<Listener> listener = Optional.empty();
-    private Set<AbstractValueInferrer> valueInferrers;
 
+    public RuntimeEngine() {}
+    
+    public RuntimeEngine(PolicyModel aModel) {
+        setModel(aModel);
+    }
+    
     private final Node.Visitor<Node> processNodeVisitor = new Node.Visitor<Node>() {
 
         @Override
@@ -84,6 +88,7 @@ import java.util.concurrent.atomic.AtomicInteger;
             // check any answer to be part of the current DataTags 
             // return the node of the first write answer 
             
+            final CompoundValue currentValue = session.getCurrentValue();
             for (CompoundValue optionValue : nd.getAnswers()) {
                 if (currentValue.isSupersetOf(optionValue)) {
                     return nd.getNodeFor(optionValue);
@@ -109,24 +114,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 
         @Override
         public Node visit(SetNode nd) {
-            // Apply changes
-            setCurrentValue(getCurrentValue().composeWith(nd.getTags()));
-            
-            // Process inferred values (ValueInference)
-            CompoundValue previousValue;
-            CompoundValue inferredValue = getCurrentValue();
-            
-            if ( ! valueInferrers.isEmpty() ) {
-                do {
-                    previousValue = inferredValue;
-                    CompoundValue infCapture = inferredValue; // passing to lambda, has to be effectively final.
-                    inferredValue = valueInferrers.stream().map( vi -> vi.apply(infCapture) ).collect( C.compose(previousValue.getSlot()));                
-                } while ( !inferredValue.equals(previousValue) );
-
-                if ( ! inferredValue.equals(getCurrentValue()) ) {
-                    setCurrentValue(inferredValue);
-                }
-            }
+            // Apply changes, and process inferred values (ValueInference)
+            final CompoundValue previous = getCurrentValue();
+            final CompoundValue composed = previous.composeWith(nd.getTags());
+            session.setCurrentValue(session.isValueInferred()
+                                        ? valueInference.applyIncremental(previous, composed)
+                                        : valueInference.apply(composed),
+                                    true);
             
             // Off we go to the next node.
             return nd.getNextNode();
@@ -140,7 +134,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
         @Override
         public Node visit(CallNode nd) throws DataTagsRuntimeException {
-            stack.push(nd);
+            session.getStack().push(nd);
             // Dynamic linking to the destination node.
             Node calleeNode = nd.getCalleeNode();
             if (calleeNode == null) {
@@ -157,6 +151,7 @@ import java.util.concurrent.atomic.AtomicInteger;
          */
         @Override
         public Node visit(EndNode nd) throws DataTagsRuntimeException {
+            final Deque<ThroughNode> stack = session.getStack();
             while ( ! stack.isEmpty() ) {
                 if ( stack.peek() instanceof SectionNode ) {
                     // dispose all sections we may have on stack.
@@ -176,6 +171,7 @@ import java.util.concurrent.atomic.AtomicInteger;
          */
         @Override
         public Node visit( ContinueNode nd ) throws DataTagsRuntimeException {
+            final Deque<ThroughNode> stack = session.getStack();
             if ( stack.isEmpty() || !(stack.peek() instanceof SectionNode) ) {
                 setStatus(RuntimeEngineStatus.Error);
                 throw new DataTagsRuntimeException(RuntimeEngine.this, "[continue] node outside of a [section] node.");
@@ -188,7 +184,7 @@ import java.util.concurrent.atomic.AtomicInteger;
         @Override
         public Node visit(SectionNode nd) throws DataTagsRuntimeException{
             listener.ifPresent(l -> l.sectionStarted(RuntimeEngine.this, nd));
-            stack.push(nd);
+            session.getStack().push(nd);
             return nd.getStartNode();
         }
 
@@ -212,7 +208,14 @@ import java.util.concurrent.atomic.AtomicInteger;
         setStatus(RuntimeEngineStatus.Running);
         listener.ifPresent(l -> l.runStarted(this));
         
-        return processNode(decisionGraph.getStart());
+        final boolean running = processNode(decisionGraph.getStart());
+        checkpointJournal();
+        final SessionHistory history = session.getHistory();
+        if ( history != null ) {
+            history.clear();
+            history.record(session);
+        }
+        return running;
     }
 
     /**
@@ -222,8 +225,7 @@ import java.util.concurrent.atomic.AtomicInteger;
         if ( model == null ) return;
         listener.ifPresent(l -> l.runTerminated(this));
         setStatus(RuntimeEngineStatus.Restarting);
-        stack.clear();
-        currentNode = null;
+        session.clear();
         
         start();
     }
@@ -233,16 +235,17 @@ import java.util.concurrent.atomic.AtomicInteger;
      */
     public void setIdle() {
         setStatus(RuntimeEngineStatus.Idle);
-        stack.clear();
-        currentNode = null;
-        currentValue = null;
+        session.clear();
+        checkpointJournal();
+        final SessionHistory history = session.getHistory();
+        if ( history != null ) history.clear();
     }
 
     protected boolean processNode(Node n) throws DataTagsRuntimeException {
         Node next = n;
         do {
-            currentNode = next; // advance program counter
-            next = currentNode.accept(processNodeVisitor);
+            session.setCurrentNode(next); // advance program counter
+            next = next.accept(processNodeVisitor);
             listener.ifPresent(l -> l.processedNode(this, getCurrentNode()));
         } while (next != null);
 
@@ -257,12 +260,38 @@ import java.util.concurrent.atomic.AtomicInteger;
      * @throws DataTagsRuntimeException
      */
     public boolean consume(Answer ans) throws DataTagsRuntimeException {
-        AskNode current = (AskNode) currentNode;
+        AskNode current = (AskNode) session.getCurrentNode();
         Node next = current.getNodeFor(ans);
         if ( next == null ) {
             throw new DataTagsRuntimeException(this, "AskNode " + current.getId() + " does not have a node for answer " + ans );
         }
-        return processNode(next);
+        final boolean running = processNode(next);
+        // Steps are only recorded once they complete.
+        final InterviewJournal journal = session.getJournal();
+        if ( journal != null ) journal.recordStep(session, ans);
+        recordHistory();
+        return running;
+    }
+
+    /**
+     * Takes the interview back to where it was {@code steps} answers ago, using
+     * the {@link SessionHistory} of the current session. Takes constant time,
+     * regardless of {@code steps}, of the stack depth, and of the size of the value.
+     * 
+     * @param steps number of answers to go back.
+     * @return {@code true} iff the engine now waits for an answer.
+     * @throws IllegalStateException if the current session has no history.
+     * @throws IllegalArgumentException if the history does not go back {@code steps} answers.
+     */
+    public boolean back(int steps) {
+        final SessionHistory history = session.getHistory();
+        if ( history == null ) {
+            throw new IllegalStateException("Session has no history");
+        }
+        history.back(steps, session);
+        listener.ifPresent(l -> l.statusChanged(this));
+        checkpointJournal();
+        return getStatus() == RuntimeEngineStatus.Running;
     }
 
     public RuntimeEngineState createSnapshot() {
@@ -273,7 +302,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
         getStack().forEach(nd -> state.pushNodeIdToStack(nd.getId()));
 
-        state.setSerializedTagValue(new StringMapFormat().format(currentValue));
+        state.setSerializedTagValue(new StringMapFormat().format(getCurrentValue()));
 
         return state;
     }
@@ -283,14 +312,77 @@ import java.util.concurrent.atomic.AtomicInteger;
             throw new IllegalArgumentException("Snapshot cannot be null");
         }
         setStatus(snapshot.getStatus());
-        currentValue = new StringMapFormat().parseCompoundValue(
+        session.setCurrentValue(new StringMapFormat().parseCompoundValue(
                 model.getSpaceRoot(),
-                snapshot.getSerializedTagValue());
-        currentNode = decisionGraph.getNode(snapshot.getCurrentNodeId());
+                snapshot.getSerializedTagValue()));
+        session.setCurrentNode(decisionGraph.getNode(snapshot.getCurrentNodeId()));
 
+        final Deque<ThroughNode> stack = session.getStack();
         stack.clear();
         snapshot.getStack().forEach((nodeId) -> stack.push((ThroughNode) decisionGraph.getNode(nodeId)));
+        checkpointJournal();
+        recordHistory();
+    }
 
+    /**
+     * Writes the state of the current session to {@code out}, in the compact
+     * binary form of {@link SnapshotCodec}.
+     * 
+     * @param out The buffer to write to.
+     * @throws java.nio.BufferOverflowException if {@code out} is too small.
+     */
+    public void writeSnapshot(ByteBuffer out) {
+        getSnapshotCodec().write(session, out);
+    }
+    
+    /**
+     * @return The state of the current session, in the compact binary form of {@link SnapshotCodec}.
+     */
+    public byte[] createBinarySnapshot() {
+        return getSnapshotCodec().encode(session);
+    }
+    
+    /**
+     * Reads a snapshot written by {@link #writeSnapshot(java.nio.ByteBuffer)} 
+     * or {@link #createBinarySnapshot()}, and applies it to the current session.
+     * 
+     * @param in The buffer to read from.
+     * @throws IllegalArgumentException if the snapshot is malformed, or was written for another model.
+     */
+    public void applySnapshot(ByteBuffer in) {
+        getSnapshotCodec().read(in, session);
+        listener.ifPresent(l -> l.statusChanged(this));
+        checkpointJournal();
+        recordHistory();
+    }
+    
+    private void checkpointJournal() {
+        final InterviewJournal journal = session.getJournal();
+        if ( journal != null ) journal.checkpoint(session);
+    }
+    
+    private void recordHistory() {
+        final SessionHistory history = session.getHistory();
+        if ( history != null ) history.record(session);
+    }
+    
+    /**
+     * @return The snapshot codec of the current model. Codecs of frozen models
+     *         are created once and cached.
+     */
+    public SnapshotCodec getSnapshotCodec() {
+        if ( model == null ) {
+            throw new IllegalStateException("Engine has no model");
+        }
+        if ( ! model.isFrozen() ) {
+            return new SnapshotCodec(model);
+        }
+        SnapshotCodec codec = snapshotCodec;
+        if ( codec == null || codec.getModel() != model ) {
+            codec = new SnapshotCodec(model);
+            snapshotCodec = codec;
+        }
+        return codec;
     }
 
     /**
@@ -317,11 +409,11 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
 
     public void setCurrentValue(CompoundValue aNewValue) {
-        currentValue = aNewValue;
+        session.setCurrentValue(aNewValue);
     }
     
     public CompoundValue getCurrentValue() {
-        return currentValue;
+        return session.getCurrentValue();
     }
     
     /**
@@ -329,10 +421,11 @@ import java.util.concurrent.atomic.AtomicInteger;
      * engine is, but not what the data tags state is.
      */
     public Deque<ThroughNode> getStack() {
-        return stack;
+        return session.getStack();
     }
 
     public String getRejectionReason() {
+        Node currentNode = getCurrentNode();
         return (currentNode instanceof RejectNode) ? ((RejectNode) currentNode).getReason() : null;
     }
 
@@ -340,7 +433,42 @@ import java.util.concurrent.atomic.AtomicInteger;
      * @return The node the engine is currently in.
      */
     public Node getCurrentNode() {
-        return currentNode;
+        return session.getCurrentNode();
+    }
+    
+    /**
+     * @return The session holding the state of the current run.
+     */
+    public InterviewSession getSession() {
+        return session;
+    }
+    
+    /**
+     * Switches the engine to work on the passed session. The engine continues
+     * from wherever the session is; no listener methods are called. If the 
+     * session belongs to a different model than the current one, the engine
+     * switches to that model as well.
+     * 
+     * This allows a single engine to serve multiple interviews, e.g. one engine 
+     * per worker thread, and a session per interview.
+     * 
+     * @param aSession the session to work on.
+     */
+    public void setSession(InterviewSession aSession) {
+        if ( aSession == null ) {
+            throw new IllegalArgumentException("Session cannot be null");
+        }
+        if ( aSession.getModel() != model ) {
+            bindModel(aSession.getModel());
+        }
+        session = aSession;
+    }
+    
+    /**
+     * @return A new, idle session for the engine's current model.
+     */
+    public InterviewSession newSession() {
+        return new InterviewSession(model);
     }
 
     public Listener getListener() {
@@ -375,14 +503,14 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
 
     public RuntimeEngineStatus getStatus() {
-        return status;
+        return session.getStatus();
     }
 
     /**
      * @param status the status to set
      */
     protected void setStatus(RuntimeEngineStatus status) {
-        this.status = status;
+        session.setStatus(status);
         listener.ifPresent(l -> l.statusChanged(this));
     }
 
@@ -390,13 +518,25 @@ import java.util.concurrent.atomic.AtomicInteger;
         return model;
     }
 
+    /**
+     * Sets the model, and terminates the current run. To replace a model while
+     * interviews are running, publish it in a {@link ModelRegistry}, and give
+     * the engine sessions created by the registry.
+     * 
+     * @param model The model to run.
+     */
     public void setModel(PolicyModel model) {
-        this.model = model;
-        decisionGraph = model.getDecisionGraph();
-        valueInferrers = model.getValueInferrers();
+        bindModel(model);
+        session = new InterviewSession(model);
         listener.ifPresent( l->l.runTerminated(this) );
         setStatus(RuntimeEngineStatus.Idle);
         
     }
     
+    private void bindModel(PolicyModel aModel) {
+        model = aModel;
+        decisionGraph = (model != null) ? model.getDecisionGraph() : null;
+        valueInference = (model != null) ? model.getValueInferenceRunner() : null;
+    }
+    
 }
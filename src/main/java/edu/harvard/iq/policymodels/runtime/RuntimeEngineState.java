@@ -1,5 +1,9 @@
 package edu.harvard.iq.policymodels.runtime;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.net.URL;
 import java.util.Deque;
 import java.util.HashMap;
@@ -11,9 +15,17 @@ import java.util.Objects;
  * A serializable capture of the state of a runtime engine. Used to allow
  * state storage and restoration.
  * 
+ * Serialization writes the fields directly, rather than using the default
+ * Java serialization of the collections. For frequent persistence, use the 
+ * smaller and faster {@link SnapshotCodec}.
+ * 
  * @author michael
  */
-public class RuntimeEngineState implements java.io.Serializable {
+public class RuntimeEngineState implements Externalizable {
+    
+    private static final long serialVersionUID = 2L;
+    
+    private static final byte EXTERNAL_FORMAT_VERSION = 1;
     
     private RuntimeEngineStatus status;
     private URL decisionGraphSetSource;
@@ -72,6 +84,57 @@ public class RuntimeEngineState implements java.io.Serializable {
         this.serializedTagValue = serializedTagValue;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(EXTERNAL_FORMAT_VERSION);
+        out.writeByte( (status != null) ? status.ordinal() : -1 );
+        writeNullableString(out, (decisionGraphSetSource != null) ? decisionGraphSetSource.toExternalForm() : null);
+        writeNullableString(out, decisionGraphSetVersion);
+        writeNullableString(out, currentNodeId);
+        out.writeInt(stack.size());
+        for ( String nodeId : stack ) {
+            out.writeUTF(nodeId);
+        }
+        out.writeInt(serializedTagValue.size());
+        for ( Map.Entry<String, String> e : serializedTagValue.entrySet() ) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte version = in.readByte();
+        if ( version != EXTERNAL_FORMAT_VERSION ) {
+            throw new IOException("Unsupported engine state format version " + version);
+        }
+        int statusOrdinal = in.readByte();
+        status = (statusOrdinal >= 0) ? RuntimeEngineStatus.values()[statusOrdinal] : null;
+        String source = readNullableString(in);
+        decisionGraphSetSource = (source != null) ? new URL(source) : null;
+        decisionGraphSetVersion = readNullableString(in);
+        currentNodeId = readNullableString(in);
+        stack.clear();
+        int stackSize = in.readInt();
+        for ( int i=0; i<stackSize; i++ ) {
+            stack.addLast(in.readUTF());
+        }
+        int valueCount = in.readInt();
+        serializedTagValue = new HashMap<>();
+        for ( int i=0; i<valueCount; i++ ) {
+            serializedTagValue.put(in.readUTF(), in.readUTF());
+        }
+    }
+    
+    private static void writeNullableString( ObjectOutput out, String s ) throws IOException {
+        out.writeBoolean( s != null );
+        if ( s != null ) out.writeUTF(s);
+    }
+    
+    private static String readNullableString( ObjectInput in ) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
@@ -0,0 +1,157 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.Arrays;
+
+/**
+ * The states an {@link InterviewSession} went through, allowing the interview
+ * to go back (and then forward again) any number of steps in constant time.
+ *
+ * States are not copies of the session. The stack of each state is a
+ * {@link ConsList} shared with the states before it, and the value is the
+ * session's value itself - the engine never changes values in place, but
+ * composes new ones that share all unchanged fields with the old ones. So each
+ * recorded state costs only what changed in the step that led to it.
+ *
+ * Code that changes the current value of a session with a history in place
+ * (e.g. by calling {@link CompoundValue#put(edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue)})
+ * changes the recorded states as well. Such code should set a new value instead.
+ *
+ * Like sessions, histories are not thread-safe.
+ *
+ * @see InterviewSession#setHistory(edu.harvard.iq.policymodels.runtime.SessionHistory)
+ * @see RuntimeEngine#back(int)
+ * @author michael
+ */
+public final class SessionHistory {
+
+    private static final class State {
+        final RuntimeEngineStatus status;
+        final Node currentNode;
+        final ConsList<ThroughNode> stack;
+        final CompoundValue value;
+        final boolean valueInferred;
+
+        State(InterviewSession session) {
+            status = session.getStatus();
+            currentNode = session.getCurrentNode();
+            stack = session.getStackItems();
+            value = session.getCurrentValue();
+            valueInferred = session.isValueInferred();
+        }
+
+        void applyTo( InterviewSession session ) {
+            session.setStatus(status);
+            session.setCurrentNode(currentNode);
+            session.setStackItems(stack);
+            session.setCurrentValue(value, valueInferred);
+        }
+    }
+
+    private State[] states = new State[16];
+
+    /** Index of the current state, or -1 if there isn't one. */
+    private int position = -1;
+
+    /** Number of states that can be gone forward to. */
+    private int forwardCount = 0;
+
+    /**
+     * Records the current state of {@code session}, as the state after the
+     * current one. States that were gone back from are discarded.
+     *
+     * @param session the session whose state is recorded.
+     */
+    public void record( InterviewSession session ) {
+        if ( forwardCount > 0 ) {
+            Arrays.fill(states, position+1, position+1+forwardCount, null);
+            forwardCount = 0;
+        }
+        position++;
+        if ( position == states.length ) {
+            states = Arrays.copyOf(states, states.length*2);
+        }
+        states[position] = new State(session);
+    }
+
+    /**
+     * Sets {@code session} to the state recorded {@code steps} states before
+     * the current one. The states in between can be returned to using {@link #forward(int, edu.harvard.iq.policymodels.runtime.InterviewSession)},
+     * until a new state is recorded.
+     *
+     * @param steps number of states to go back.
+     * @param session the session to set.
+     * @throws IllegalArgumentException if {@code steps} is negative, or larger than {@link #getBackCount()}.
+     * @throws IllegalStateException if the history is empty.
+     */
+    public void back( int steps, InterviewSession session ) {
+        if ( steps < 0 || steps > getBackCount() ) {
+            throw new IllegalArgumentException("Cannot go back " + steps + " steps (history has " + getBackCount() + ")");
+        }
+        moveTo(position - steps, session);
+    }
+
+    /**
+     * Sets {@code session} to the state recorded {@code steps} states after
+     * the current one, undoing a previous {@link #back(int, edu.harvard.iq.policymodels.runtime.InterviewSession)}.
+     *
+     * @param steps number of states to go forward.
+     * @param session the session to set.
+     * @throws IllegalArgumentException if {@code steps} is negative, or larger than {@link #getForwardCount()}.
+     * @throws IllegalStateException if the history is empty.
+     */
+    public void forward( int steps, InterviewSession session ) {
+        if ( steps < 0 || steps > forwardCount ) {
+            throw new IllegalArgumentException("Cannot go forward " + steps + " steps (history has " + forwardCount + ")");
+        }
+        moveTo(position + steps, session);
+    }
+
+    private void moveTo( int newPosition, InterviewSession session ) {
+        if ( isEmpty() ) {
+            throw new IllegalStateException("History is empty");
+        }
+        forwardCount += position - newPosition;
+        position = newPosition;
+        states[position].applyTo(session);
+    }
+
+    /**
+     * @return The number of states before the current one.
+     */
+    public int getBackCount() {
+        return Math.max(position, 0);
+    }
+
+    /**
+     * @return The number of states after the current one, which were gone back from.
+     */
+    public int getForwardCount() {
+        return forwardCount;
+    }
+
+    /**
+     * @return {@code true} iff no state was recorded since the history was created or cleared.
+     */
+    public boolean isEmpty() {
+        return position < 0;
+    }
+
+    /**
+     * Discards all recorded states.
+     */
+    public void clear() {
+        Arrays.fill(states, 0, position+1+forwardCount, null);
+        position = -1;
+        forwardCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[SessionHistory back:" + getBackCount() + " forward:" + forwardCount + "]";
+    }
+
+}
@@ -0,0 +1,225 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.AbstractCollection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The call/section stack of an {@link InterviewSession}. Items are kept in a
+ * {@link ConsList}, so the stack's content at any point in time can be captured
+ * and restored in constant time, and captured stacks share their common bottoms.
+ *
+ * Operations on the top of the stack (the first element of the deque) take
+ * constant time. Operations on its bottom rebuild the list, and take time
+ * linear in the depth of the stack - which, for interviews, is small.
+ *
+ * @author michael
+ */
+final class SessionStack extends AbstractCollection<ThroughNode> implements Deque<ThroughNode> {
+
+    private ConsList<ThroughNode> items = ConsList.empty();
+
+    /**
+     * @return The current content of the stack. Later changes to the stack do not affect it.
+     */
+    ConsList<ThroughNode> getItems() {
+        return items;
+    }
+
+    /**
+     * Replaces the content of the stack.
+     * @param someItems the new content, top first.
+     */
+    void setItems( ConsList<ThroughNode> someItems ) {
+        items = Objects.requireNonNull(someItems);
+    }
+
+    @Override
+    public void push(ThroughNode e) {
+        addFirst(e);
+    }
+
+    @Override
+    public ThroughNode pop() {
+        return removeFirst();
+    }
+
+    @Override
+    public void addFirst(ThroughNode e) {
+        items = items.cons(Objects.requireNonNull(e));
+    }
+
+    @Override
+    public boolean offerFirst(ThroughNode e) {
+        addFirst(e);
+        return true;
+    }
+
+    @Override
+    public ThroughNode removeFirst() {
+        ThroughNode top = items.head();
+        items = items.tail();
+        return top;
+    }
+
+    @Override
+    public ThroughNode pollFirst() {
+        return isEmpty() ? null : removeFirst();
+    }
+
+    @Override
+    public ThroughNode getFirst() {
+        return items.head();
+    }
+
+    @Override
+    public ThroughNode peekFirst() {
+        return isEmpty() ? null : items.head();
+    }
+
+    @Override
+    public void addLast(ThroughNode e) {
+        Objects.requireNonNull(e);
+        List<ThroughNode> bottomUp = items.toReversedList();
+        ConsList<ThroughNode> res = ConsList.<ThroughNode>empty().cons(e);
+        for ( ThroughNode nd : bottomUp ) {
+            res = res.cons(nd);
+        }
+        items = res;
+    }
+
+    @Override
+    public boolean offerLast(ThroughNode e) {
+        addLast(e);
+        return true;
+    }
+
+    @Override
+    public ThroughNode removeLast() {
+        if ( isEmpty() ) throw new NoSuchElementException("Stack is empty");
+        List<ThroughNode> bottomUp = items.toReversedList();
+        ConsList<ThroughNode> res = ConsList.empty();
+        for ( int i=1; i<bottomUp.size(); i++ ) {
+            res = res.cons(bottomUp.get(i));
+        }
+        items = res;
+        return bottomUp.get(0);
+    }
+
+    @Override
+    public ThroughNode pollLast() {
+        return isEmpty() ? null : removeLast();
+    }
+
+    @Override
+    public ThroughNode getLast() {
+        if ( isEmpty() ) throw new NoSuchElementException("Stack is empty");
+        ThroughNode last = null;
+        for ( ThroughNode nd : items ) {
+            last = nd;
+        }
+        return last;
+    }
+
+    @Override
+    public ThroughNode peekLast() {
+        return isEmpty() ? null : getLast();
+    }
+
+    @Override
+    public boolean removeFirstOccurrence(Object o) {
+        List<ThroughNode> topFirst = items.toList();
+        return removeAt(topFirst, topFirst.indexOf(o));
+    }
+
+    @Override
+    public boolean removeLastOccurrence(Object o) {
+        List<ThroughNode> topFirst = items.toList();
+        return removeAt(topFirst, topFirst.lastIndexOf(o));
+    }
+
+    private boolean removeAt( List<ThroughNode> topFirst, int idx ) {
+        if ( idx < 0 ) return false;
+        topFirst.remove(idx);
+        ConsList<ThroughNode> res = ConsList.empty();
+        for ( int i=topFirst.size()-1; i>=0; i-- ) {
+            res = res.cons(topFirst.get(i));
+        }
+        items = res;
+        return true;
+    }
+
+    @Override
+    public boolean offer(ThroughNode e) {
+        return offerLast(e);
+    }
+
+    @Override
+    public boolean add(ThroughNode e) {
+        addLast(e);
+        return true;
+    }
+
+    @Override
+    public ThroughNode remove() {
+        return removeFirst();
+    }
+
+    @Override
+    public ThroughNode poll() {
+        return pollFirst();
+    }
+
+    @Override
+    public ThroughNode element() {
+        return getFirst();
+    }
+
+    @Override
+    public ThroughNode peek() {
+        return peekFirst();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return removeFirstOccurrence(o);
+    }
+
+    @Override
+    public void clear() {
+        items = ConsList.empty();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return An iterator over the stack, top first. The iterator does not support removal.
+     */
+    @Override
+    public Iterator<ThroughNode> iterator() {
+        return items.iterator();
+    }
+
+    /**
+     * @return An iterator over the stack, bottom first. The iterator does not support removal.
+     */
+    @Override
+    public Iterator<ThroughNode> descendingIterator() {
+        return Collections.unmodifiableList(items.toReversedList()).iterator();
+    }
+
+}
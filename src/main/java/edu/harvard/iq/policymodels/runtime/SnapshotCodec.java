@@ -0,0 +1,594 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import static edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph.NO_NODE;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AggregateValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AtomicValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Writes and reads the state of interview sessions in a compact binary form.
+ * This is the form to use when sessions are persisted often (e.g. after every
+ * answer); {@link RuntimeEngineState} is slower and larger, but readable, and
+ * not tied to a specific version of the model.
+ *
+ * A snapshot is laid out as follows. Numbers marked "varint" are unsigned
+ * LEB128, so small numbers take a single byte.
+ * <ol>
+ *  <li>Header: magic ({@code short}), format version ({@code byte}), and model
+ *      fingerprint ({@code long}).</li>
+ *  <li>Status ordinal ({@code byte}) and flags ({@code byte}).</li>
+ *  <li>Current node index, plus one (varint). {@code 0} means no node.</li>
+ *  <li>Stack size (varint), followed by the indices of the stack's nodes,
+ *      bottom first (varint each).</li>
+ *  <li>The current value, if present. A compound value is written as a bit mask
+ *      of its non-empty sub-slots, by sub-slot ordinal, followed by the values of
+ *      these sub-slots. Atomic values are written as their ordinal (varint), aggregate
+ *      values as a bit mask of their items' ordinals, and to-do values take no
+ *      space at all. Bit masks are written as 64 bit words (varint each), as many
+ *      as the slot needs.</li>
+ * </ol>
+ *
+ * Node indices are those of the model's {@link CompiledDecisionGraph}. The
+ * fingerprint covers the node ids and the structure of the policy space, so
+ * a snapshot can only be read by a codec of a model with the same graph and space.
+ *
+ * A codec reflects its model as it was when the codec was created, and should be
+ * created for frozen models. Instances are immutable and can be shared between threads.
+ *
+ * @author michael
+ */
+public final class SnapshotCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    static final short MAGIC = 0x5053;
+
+    private static final byte FLAG_HAS_VALUE = 1;
+
+    private static final byte NONE      = -1;
+    private static final byte ATOMIC    = 0;
+    private static final byte AGGREGATE = 1;
+    private static final byte COMPOUND  = 2;
+    private static final byte TODO      = 3;
+
+    private static final RuntimeEngineStatus[] STATUSES = RuntimeEngineStatus.values();
+
+    /**
+     * How to read and write values of a compound slot. Sub-slots are stored
+     * by their ordinals; removed sub-slots have a {@link #NONE} kind.
+     */
+    private static final class Shape {
+        final CompoundSlot slot;
+        final byte[] kinds;
+        final AbstractSlot[] slots;
+        final Shape[] children;
+
+        Shape( CompoundSlot aSlot ) {
+            slot = aSlot;
+            int count = aSlot.getOrdinalCount();
+            kinds = new byte[count];
+            slots = new AbstractSlot[count];
+            children = new Shape[count];
+        }
+    }
+
+    private final PolicyModel model;
+    private final CompiledDecisionGraph graph;
+    private final Shape rootShape;
+    private final long fingerprint;
+
+    public SnapshotCodec( PolicyModel aModel ) {
+        model = aModel;
+        graph = aModel.getCompiledDecisionGraph();
+        MessageDigest digest = sha256();
+        update(digest, Integer.toString(graph.getNodeCount()));
+        for ( int i=0; i<graph.getNodeCount(); i++ ) {
+            update(digest, graph.getNode(i).getId());
+            digest.update(graph.getKind(i));
+        }
+        rootShape = shapeOf(aModel.getSpaceRoot(), digest);
+        fingerprint = ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static Shape shapeOf( CompoundSlot slot, MessageDigest digest ) {
+        Shape shape = new Shape(slot);
+        update(digest, slot.getName());
+        update(digest, Integer.toString(shape.kinds.length));
+        for ( int ordinal=0; ordinal<shape.kinds.length; ordinal++ ) {
+            final int ord = ordinal;
+            AbstractSlot sub = slot.subSlotByOrdinal(ordinal);
+            shape.slots[ordinal] = sub;
+            if ( sub == null ) {
+                shape.kinds[ordinal] = NONE;
+                digest.update(NONE);
+                continue;
+            }
+            shape.kinds[ordinal] = sub.accept(new AbstractSlot.Visitor<Byte>() {
+                @Override
+                public Byte visitSimpleSlot(AtomicSlot t) {
+                    update(digest, t.getName());
+                    t.values().forEach( v -> update(digest, v.getName()) );
+                    return ATOMIC;
+                }
+
+                @Override
+                public Byte visitAggregateSlot(AggregateSlot t) {
+                    update(digest, t.getName());
+                    t.getItemType().values().forEach( v -> update(digest, v.getName()) );
+                    return AGGREGATE;
+                }
+
+                @Override
+                public Byte visitCompoundSlot(CompoundSlot t) {
+                    shape.children[ord] = shapeOf(t, digest);
+                    return COMPOUND;
+                }
+
+                @Override
+                public Byte visitTodoSlot(ToDoSlot t) {
+                    update(digest, t.getName());
+                    return TODO;
+                }
+            });
+            digest.update(shape.kinds[ordinal]);
+        }
+        return shape;
+    }
+
+    ////////////////////////////
+    // Writing
+
+    /**
+     * Writes the state of {@code session} to {@code out}, starting at its position.
+     *
+     * @param session The session to write. Must be a session of the codec's model.
+     * @param out The buffer to write to.
+     * @throws BufferOverflowException if {@code out} is too small.
+     */
+    public void write( InterviewSession session, ByteBuffer out ) {
+        assertSameModel(session.getModel());
+        writeHeader(out, session.getStatus(), session.getCurrentValue());
+        writeVarInt(out, indexOf(session.getCurrentNode()) + 1);
+        Deque<ThroughNode> stack = session.getStack();
+        writeVarInt(out, stack.size());
+        for ( Iterator<ThroughNode> it = stack.descendingIterator(); it.hasNext(); ) {
+            writeVarInt(out, indexOf(it.next()));
+        }
+        writeValue(out, session.getCurrentValue());
+    }
+
+    /**
+     * Writes the state of {@code session} to {@code out}, starting at its position.
+     *
+     * @param session The session to write. Must be a session of the codec's model.
+     * @param out The buffer to write to.
+     * @throws BufferOverflowException if {@code out} is too small.
+     */
+    public void write( CompiledInterviewSession session, ByteBuffer out ) {
+        assertSameGraph(session.getGraph());
+        writeHeader(out, session.getStatus(), session.getCurrentValue());
+        writeVarInt(out, session.getCurrentNodeIndex() + 1);
+        int[] stack = session.getStack();
+        writeVarInt(out, stack.length);
+        for ( int nodeIdx : stack ) {
+            writeVarInt(out, nodeIdx);
+        }
+        writeValue(out, session.getCurrentValue());
+    }
+
+    /**
+     * @param session the session to encode.
+     * @return The snapshot of {@code session}, as an array.
+     */
+    public byte[] encode( InterviewSession session ) {
+        int capacity = 64 + 4*session.getStack().size();
+        while ( true ) {
+            ByteBuffer buf = ByteBuffer.allocate(capacity);
+            try {
+                write(session, buf);
+                return Arrays.copyOf(buf.array(), buf.position());
+            } catch ( BufferOverflowException boe ) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * @param session the session to encode.
+     * @return The snapshot of {@code session}, as an array.
+     */
+    public byte[] encode( CompiledInterviewSession session ) {
+        int capacity = 64 + 4*session.getStackSize();
+        while ( true ) {
+            ByteBuffer buf = ByteBuffer.allocate(capacity);
+            try {
+                write(session, buf);
+                return Arrays.copyOf(buf.array(), buf.position());
+            } catch ( BufferOverflowException boe ) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    private void writeHeader( ByteBuffer out, RuntimeEngineStatus status, CompoundValue value ) {
+        out.putShort(MAGIC);
+        out.put((byte)FORMAT_VERSION);
+        out.putLong(fingerprint);
+        out.put((byte)status.ordinal());
+        out.put( (value != null) ? FLAG_HAS_VALUE : 0 );
+    }
+
+    private void writeValue( ByteBuffer out, CompoundValue value ) {
+        if ( value != null ) {
+            if ( value.getSlot() != rootShape.slot ) {
+                throw new IllegalArgumentException("Value of slot " + value.getSlot() + " is not of the model's space");
+            }
+            writeCompound(out, rootShape, value);
+        }
+    }
+
+    private void writeCompound( ByteBuffer out, Shape shape, CompoundValue value ) {
+        final int count = shape.kinds.length;
+        if ( value.getSlot().getOrdinalCount() != count ) {
+            throw new IllegalStateException("Slot " + shape.slot + " has changed since the codec was created");
+        }
+        for ( int base=0; base<count; base+=64 ) {
+            long mask = 0;
+            for ( int ordinal=base; ordinal<Math.min(count, base+64); ordinal++ ) {
+                if ( value.getByOrdinal(ordinal) != null ) {
+                    mask |= 1L << (ordinal-base);
+                }
+            }
+            writeVarLong(out, mask);
+        }
+        for ( int ordinal=0; ordinal<count; ordinal++ ) {
+            AbstractValue sub = value.getByOrdinal(ordinal);
+            if ( sub != null ) {
+                writeField(out, shape, ordinal, sub);
+            }
+        }
+    }
+
+    private void writeField( ByteBuffer out, Shape shape, int ordinal, AbstractValue sub ) {
+        switch ( shape.kinds[ordinal] ) {
+            case ATOMIC:
+                writeVarInt(out, ((AtomicValue)sub).getOrdinal());
+                break;
+
+            case AGGREGATE:
+                AggregateValue agg = (AggregateValue) sub;
+                long[] items = new long[wordCount(agg.getSlot().getItemType().getValueCount())];
+                for ( AtomicValue item : agg.getValues() ) {
+                    items[item.getOrdinal()>>>6] |= 1L << (item.getOrdinal() & 63);
+                }
+                for ( long word : items ) {
+                    writeVarLong(out, word);
+                }
+                break;
+
+            case COMPOUND:
+                writeCompound(out, shape.children[ordinal], (CompoundValue) sub);
+                break;
+
+            case TODO:
+                break;
+
+            default:
+                throw new IllegalStateException("Slot " + shape.slot + " has a value for a removed sub-slot");
+        }
+    }
+
+    ////////////////////////////
+    // Reading
+
+    /**
+     * Reads a snapshot from {@code in}, and applies it to {@code session}.
+     * If the snapshot cannot be read, {@code session} is not changed.
+     *
+     * @param in The buffer to read from, starting at its position.
+     * @param session The session to apply the snapshot to. Must be a session of the codec's model.
+     * @throws IllegalArgumentException if the snapshot is malformed, or was written for another model.
+     */
+    public void read( ByteBuffer in, InterviewSession session ) {
+        assertSameModel(session.getModel());
+        final RuntimeEngineStatus status;
+        final Node current;
+        final ThroughNode[] stack;
+        final CompoundValue value;
+        try {
+            status = readHeader(in);
+            boolean hasValue = (in.get() & FLAG_HAS_VALUE) != 0;
+            int currentIdx = readVarInt(in) - 1;
+            current = (currentIdx != NO_NODE) ? graph.getNode(checkIndex(currentIdx)) : null;
+            stack = new ThroughNode[readStackSize(in)];
+            for ( int i=0; i<stack.length; i++ ) {
+                Node nd = graph.getNode(checkIndex(readVarInt(in)));
+                if ( ! (nd instanceof ThroughNode) ) {
+                    throw new IllegalArgumentException("Node " + nd.getId() + " cannot be on the stack");
+                }
+                stack[i] = (ThroughNode) nd;
+            }
+            value = hasValue ? readCompound(in, rootShape) : null;
+
+        } catch ( BufferUnderflowException | IndexOutOfBoundsException e ) {
+            throw new IllegalArgumentException("Malformed snapshot", e);
+        }
+
+        session.setStatus(status);
+        session.setCurrentNode(current);
+        session.setCurrentValue(value);
+        Deque<ThroughNode> sessionStack = session.getStack();
+        sessionStack.clear();
+        for ( ThroughNode nd : stack ) {
+            sessionStack.push(nd);
+        }
+    }
+
+    /**
+     * Reads a snapshot from {@code in}, and applies it to {@code session}.
+     * If the snapshot cannot be read, {@code session} is not changed.
+     *
+     * @param in The buffer to read from, starting at its position.
+     * @param session The session to apply the snapshot to. Must be a session of the codec's model.
+     * @throws IllegalArgumentException if the snapshot is malformed, or was written for another model.
+     */
+    public void read( ByteBuffer in, CompiledInterviewSession session ) {
+        assertSameGraph(session.getGraph());
+        final RuntimeEngineStatus status;
+        final int current;
+        final int[] stack;
+        final CompoundValue value;
+        try {
+            status = readHeader(in);
+            boolean hasValue = (in.get() & FLAG_HAS_VALUE) != 0;
+            current = readVarInt(in) - 1;
+            if ( current != NO_NODE ) checkIndex(current);
+            stack = new int[readStackSize(in)];
+            for ( int i=0; i<stack.length; i++ ) {
+                stack[i] = checkIndex(readVarInt(in));
+            }
+            value = hasValue ? readCompound(in, rootShape) : null;
+
+        } catch ( BufferUnderflowException | IndexOutOfBoundsException e ) {
+            throw new IllegalArgumentException("Malformed snapshot", e);
+        }
+
+        session.clear();
+        session.setStatus(status);
+        session.setCurrentNodeIndex(current);
+        session.setCurrentValue(value, false);
+        for ( int nodeIdx : stack ) {
+            session.push(nodeIdx);
+        }
+    }
+
+    /**
+     * @param bytes a snapshot
+     * @param session the session to apply the snapshot to.
+     * @see #read(java.nio.ByteBuffer, edu.harvard.iq.policymodels.runtime.InterviewSession)
+     */
+    public void decode( byte[] bytes, InterviewSession session ) {
+        read(ByteBuffer.wrap(bytes), session);
+    }
+
+    /**
+     * @param bytes a snapshot
+     * @param session the session to apply the snapshot to.
+     * @see #read(java.nio.ByteBuffer, edu.harvard.iq.policymodels.runtime.CompiledInterviewSession)
+     */
+    public void decode( byte[] bytes, CompiledInterviewSession session ) {
+        read(ByteBuffer.wrap(bytes), session);
+    }
+
+    private RuntimeEngineStatus readHeader( ByteBuffer in ) {
+        if ( in.getShort() != MAGIC ) {
+            throw new IllegalArgumentException("Not a snapshot");
+        }
+        int version = in.get();
+        if ( version != FORMAT_VERSION ) {
+            throw new IllegalArgumentException("Unsupported snapshot format version " + version);
+        }
+        if ( in.getLong() != fingerprint ) {
+            throw new IllegalArgumentException("Snapshot was created for a different model");
+        }
+        int statusOrdinal = in.get();
+        if ( statusOrdinal < 0 || statusOrdinal >= STATUSES.length ) {
+            throw new IllegalArgumentException("Bad status ordinal " + statusOrdinal);
+        }
+        return STATUSES[statusOrdinal];
+    }
+
+    private CompoundValue readCompound( ByteBuffer in, Shape shape ) {
+        final int count = shape.kinds.length;
+        long[] present = new long[wordCount(count)];
+        for ( int i=0; i<present.length; i++ ) {
+            present[i] = readVarLong(in);
+        }
+        CompoundValue value = shape.slot.createInstance();
+        for ( int ordinal=0; ordinal<count; ordinal++ ) {
+            if ( (present[ordinal>>>6] & (1L << (ordinal & 63))) != 0 ) {
+                value.put( readField(in, shape, ordinal) );
+            }
+        }
+        return value;
+    }
+
+    private AbstractValue readField( ByteBuffer in, Shape shape, int ordinal ) {
+        switch ( shape.kinds[ordinal] ) {
+            case ATOMIC:
+                return ((AtomicSlot)shape.slots[ordinal]).valueByOrdinal(readVarInt(in));
+
+            case AGGREGATE:
+                AggregateSlot aggSlot = (AggregateSlot) shape.slots[ordinal];
+                AtomicSlot itemType = aggSlot.getItemType();
+                int itemCount = itemType.getValueCount();
+                AggregateValue agg = aggSlot.createInstance();
+                for ( int w=0; w<wordCount(itemCount); w++ ) {
+                    long word = readVarLong(in);
+                    while ( word != 0 ) {
+                        int item = (w<<6) + Long.numberOfTrailingZeros(word);
+                        agg.add( itemType.valueByOrdinal(item) );
+                        word &= word-1;
+                    }
+                }
+                return agg;
+
+            case COMPOUND:
+                return readCompound(in, shape.children[ordinal]);
+
+            case TODO:
+                return ((ToDoSlot)shape.slots[ordinal]).getValue();
+
+            default:
+                throw new IllegalArgumentException("Snapshot has a value for a removed sub-slot of " + shape.slot);
+        }
+    }
+
+    ////////////////////////////
+    // Top-level fields, used by InterviewJournal to write partial values.
+
+    /**
+     * @return Number of sub-slot ordinals of the space's root slot.
+     */
+    int getTopLevelSlotCount() {
+        return rootShape.kinds.length;
+    }
+
+    void writeTopLevelField( ByteBuffer out, int ordinal, AbstractValue value ) {
+        writeField(out, rootShape, ordinal, value);
+    }
+
+    AbstractValue readTopLevelField( ByteBuffer in, int ordinal ) {
+        if ( ordinal < 0 || ordinal >= rootShape.kinds.length ) {
+            throw new IllegalArgumentException("Bad slot ordinal " + ordinal);
+        }
+        return readField(in, rootShape, ordinal);
+    }
+
+    ////////////////////////////
+    // Utilities
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public PolicyModel getModel() {
+        return model;
+    }
+
+    CompiledDecisionGraph getGraph() {
+        return graph;
+    }
+
+    int indexOf( Node nd ) {
+        if ( nd == null ) return NO_NODE;
+        int idx = graph.indexOf(nd);
+        if ( idx == NO_NODE ) {
+            throw new IllegalArgumentException("Node " + nd.getId() + " is not part of the model");
+        }
+        return idx;
+    }
+
+    /** Reads the stack size, making sure it's not bigger than the remaining snapshot. */
+    static int readStackSize( ByteBuffer in ) {
+        int size = readVarInt(in);
+        if ( size < 0 || size > in.remaining() ) {
+            throw new IllegalArgumentException("Bad stack size " + size);
+        }
+        return size;
+    }
+
+    int checkIndex( int nodeIdx ) {
+        if ( nodeIdx < 0 || nodeIdx >= graph.getNodeCount() ) {
+            throw new IllegalArgumentException("Bad node index " + nodeIdx);
+        }
+        return nodeIdx;
+    }
+
+    private void assertSameModel( PolicyModel other ) {
+        // node and slot references are only meaningful in the model they were taken from.
+        if ( other != model ) {
+            throw new IllegalArgumentException("Session is not of the codec's model");
+        }
+    }
+
+    private void assertSameGraph( CompiledDecisionGraph other ) {
+        // indices are only meaningful in the graph they were taken from.
+        if ( other != graph ) {
+            throw new IllegalArgumentException("Session is not of the codec's model");
+        }
+    }
+
+    private static int wordCount( int bitCount ) {
+        return (bitCount+63) >>> 6;
+    }
+
+    static void writeVarInt( ByteBuffer out, int value ) {
+        while ( (value & ~0x7F) != 0 ) {
+            out.put( (byte)((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+    static void writeVarLong( ByteBuffer out, long value ) {
+        while ( (value & ~0x7FL) != 0 ) {
+            out.put( (byte)((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+    static int readVarInt( ByteBuffer in ) {
+        int value = 0;
+        for ( int shift=0; shift<32; shift+=7 ) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ( b >= 0 ) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static long readVarLong( ByteBuffer in ) {
+        long value = 0;
+        for ( int shift=0; shift<64; shift+=7 ) {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ( b >= 0 ) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void update( MessageDigest digest, String s ) {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+}
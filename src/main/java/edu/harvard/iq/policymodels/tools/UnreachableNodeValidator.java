@@ -2,13 +2,12 @@
 package edu.harvard.iq.policymodels.tools;
 
 import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.GraphAnalysis;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
 import edu.harvard.iq.policymodels.parser.decisiongraph.DecisionGraphCompiler;
 import edu.harvard.iq.policymodels.tools.ValidationMessage.Level;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import static java.util.stream.Collectors.toSet;
 
 /**
  * Checks that every node in the flow chart set
@@ -18,31 +17,24 @@ import static java.util.stream.Collectors.toSet;
  */
 public class UnreachableNodeValidator implements DecisionGraphValidator {
     
-    private final List<ValidationMessage> validationMessages = new LinkedList<>();
-    
     /**
      * Check each FlowChart in the FlowChartSet for unreachable nodes.
-     * Begin from the start node identified by the FlowChart.
+     * Begin from the start node identified by the FlowChart. Uses the 
+     * graph's cached {@link GraphAnalysis}.
      * @param dg The graph we validate.
      * @return WARNING messages showing the unreachable nodes.
      */
     @Override
     public List<ValidationMessage> validate( DecisionGraph dg ) {
-        Set<String> flowChartNodeIds = new HashSet<>();
-        flowChartNodeIds.addAll( dg.nodeIds() );
-
-        ReachableNodesCollector nc = new ReachableNodesCollector();
-        dg.getStart().accept(nc);
-        nc.getCollectedNodes().stream().map(n->n.getId()).forEach( flowChartNodeIds::remove );
-        Set<String> flowChartNodeIdsEnds = flowChartNodeIds.stream().filter(n->n.endsWith(DecisionGraphCompiler.SYNTHETIC_END_NODE_ID)).collect(toSet());
-        flowChartNodeIds.removeAll(flowChartNodeIdsEnds);
-
-        if (!flowChartNodeIds.isEmpty()) {
-            flowChartNodeIds.forEach((nodeId) -> {
+        List<ValidationMessage> validationMessages = new LinkedList<>();
+        GraphAnalysis analysis = dg.getAnalysis();
+        
+        for ( Node nd : dg.nodes() ) {
+            if ( ! analysis.isReachable(nd) 
+                    && ! nd.getId().endsWith(DecisionGraphCompiler.SYNTHETIC_END_NODE_ID) ) {
                 validationMessages.add(new NodeValidationMessage(Level.WARNING,
-                        "Node \"" + nodeId + "\" is unreachable.",
-                        dg.getNode(nodeId)));
-            });
+                        "Node \"" + nd.getId() + "\" is unreachable.", nd));
+            }
         }
         
         return validationMessages;
@@ -14,14 +14,26 @@ import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.inference.ValueInferenceRunner;
 import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
 import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
 import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import static java.util.stream.Collectors.joining;
 
 /**
@@ -30,6 +42,23 @@ import static java.util.stream.Collectors.joining;
  * 
  * The "Dgq" in the class name stand for "Decision Graph Query". We'll have more of those.
  * 
+ * In parallel mode, the graph is traversed by a {@link ForkJoinPool}, where each
+ * answer of an [ask] node (and each matching option of a [consider] node) is 
+ * traversed by a separate task. Tasks keep their traversal state in 
+ * {@link ConsList}s, so branching does not copy it. Listener calls are 
+ * serialized, but their order is arbitrary, unless the query is also 
+ * deterministic. Deterministic queries report their results after the traversal
+ * is done, in the order a sequential traversal would have.
+ * 
+ * When pruning, runs that cannot end with a superset of the value are abandoned
+ * as soon as this is known (based on {@link ReachableValues}). Abandoned runs
+ * are not reported to the listener; they are counted by {@link #getPrunedCount()}.
+ * 
+ * Matching runs can also be pulled, using {@link #iterator()}, {@link #spliterator()}
+ * or {@link #stream()}. These traverse the graph lazily - only as much as needed
+ * to get the next matching run - so a caller can take the first matching runs
+ * and stop, without traversing the rest of the graph.
+ * 
  * @author michael
  */
 public class FindSupertypeResultsDgq implements DecisionGraphQuery {
@@ -38,23 +67,434 @@ public class FindSupertypeResultsDgq implements DecisionGraphQuery {
     private GraphTraverser graphTraverser;
     private boolean debugMode = false;
     
+    private boolean parallel = false;
+    private boolean deterministic = false;
+    private ForkJoinPool pool;
+    
+    private boolean pruning = false;
+    private ReachableValues reachableValues;
+    private final LongAdder prunedCount = new LongAdder();
+    
+    /** Guards the listener in parallel mode. */
+    private final Object listenerLock = new Object();
+    /** The result being reported in parallel mode. Guarded by {@link #listenerLock}. */
+    private RunResult reportedResult;
+    
     public FindSupertypeResultsDgq( PolicyModel aPolicyModel, CompoundValue aValue) {
         subject = aPolicyModel;
         value = aValue;
     }
     
     public void get( DecisionGraphQuery.Listener aListener ) {
-        graphTraverser = new GraphTraverser(aListener);
-        aListener.started(this);
-        subject.getDecisionGraph().getStart().accept(graphTraverser);
-        aListener.done(this);
+        prunedCount.reset();
+        if ( pruning && reachableValues == null ) {
+            reachableValues = new ReachableValues(subject);
+        }
+        if ( parallel ) {
+            aListener.started(this);
+            getParallel(aListener);
+            aListener.done(this);
+            
+        } else {
+            graphTraverser = new GraphTraverser(aListener);
+            aListener.started(this);
+            subject.getDecisionGraph().getStart().accept(graphTraverser);
+            aListener.done(this);
+        }
     }
 
     @Override
     public RunTrace getCurrentTrace() {
+        if ( parallel ) {
+            synchronized ( listenerLock ) {
+                return (reportedResult != null ) ? reportedResult.toRunTrace() : null;
+            }
+        }
         return new RunTrace(graphTraverser.currentTrace, graphTraverser.currentAnswers, graphTraverser.valueStack.peek());
     }
     
+    /**
+     * @return An iterator over the matching runs, in the order a sequential 
+     *         traversal would have found them.
+     */
+    public Iterator<RunTrace> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+    
+    /**
+     * @return A spliterator over the matching runs. Splitting divides the 
+     *         yet-to-be-traversed branches of the graph.
+     */
+    public Spliterator<RunTrace> spliterator() {
+        return runSpliterator();
+    }
+    
+    /**
+     * Traverses the graph, and stores the matching runs in a {@link RunTraceStore}.
+     * Runs are stored as they are found, without creating a {@link RunTrace} for each.
+     * 
+     * @return A store with all the matching runs, in sequential traversal order.
+     */
+    public RunTraceStore collectMatches() {
+        RunTraceStore store = new RunTraceStore();
+        RunSpliterator runs = runSpliterator();
+        for ( RunResult res = runs.nextMatch(); res != null; res = runs.nextMatch() ) {
+            store.addReversed(res.trace, res.answers, res.value);
+        }
+        return store;
+    }
+    
+    private RunSpliterator runSpliterator() {
+        prunedCount.reset();
+        if ( pruning && reachableValues == null ) {
+            reachableValues = new ReachableValues(subject);
+        }
+        Deque<BranchTask> queue = new ArrayDeque<>();
+        queue.push( new BranchTask(null, subject.getValueInferenceRunner(),
+                                   subject.getDecisionGraph().getStart(),
+                                   ConsList.empty(), ConsList.empty(), ConsList.empty(),
+                                   subject.getSpaceRoot().createInstance()) );
+        return new RunSpliterator(queue);
+    }
+    
+    /**
+     * @return A stream of the matching runs. The stream is parallel iff this
+     *         query is parallel.
+     */
+    public Stream<RunTrace> stream() {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+    
+    private void getParallel( DecisionGraphQuery.Listener aListener ) {
+        BranchTask root = new BranchTask(aListener, subject.getValueInferenceRunner(),
+                                         subject.getDecisionGraph().getStart(),
+                                         ConsList.empty(), ConsList.empty(), ConsList.empty(),
+                                         subject.getSpaceRoot().createInstance());
+        ((pool != null) ? pool : ForkJoinPool.commonPool()).invoke(root);
+        
+        if ( deterministic ) {
+            // replay the results, in depth-first order.
+            Deque<BranchTask> tasks = new LinkedList<>();
+            tasks.push(root);
+            while ( ! tasks.isEmpty() ) {
+                BranchTask task = tasks.pop();
+                if ( task.result != null ) {
+                    report(aListener, task.result);
+                }
+                if ( task.subTasks != null ) {
+                    for ( int i=task.subTasks.length-1; i>=0; i-- ) {
+                        tasks.push(task.subTasks[i]);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks whether the run at {@code nd} can be abandoned, and counts it if so.
+     * @return {@code true} iff the run cannot match the value.
+     */
+    private boolean prune( Node nd, Iterable<? extends ThroughNode> stack, CompoundValue current ) {
+        if ( !pruning || reachableValues.mayReach(nd, stack, current, value) ) {
+            return false;
+        }
+        prunedCount.increment();
+        return true;
+    }
+    
+    private void report( DecisionGraphQuery.Listener aListener, RunResult result ) {
+        synchronized ( listenerLock ) {
+            reportedResult = result;
+            try {
+                switch ( result.kind ) {
+                    case MATCH:     aListener.matchFound(this);     break;
+                    case NON_MATCH: aListener.nonMatchFound(this);  break;
+                    case REJECTION: aListener.rejectionFound(this); break;
+                    case LOOP:      aListener.loopDetected(this);   break;
+                }
+            } finally {
+                reportedResult = null;
+            }
+        }
+    }
+    
+    enum ResultKind { MATCH, NON_MATCH, REJECTION, LOOP }
+    
+    /**
+     * A result of a traversal in parallel mode. Traces are kept most-recent-first.
+     */
+    static final class RunResult {
+        final ResultKind kind;
+        final ConsList<Node> trace;
+        final ConsList<Answer> answers;
+        final CompoundValue value;
+
+        RunResult(ResultKind aKind, ConsList<Node> aTrace, ConsList<Answer> someAnswers, CompoundValue aValue) {
+            kind = aKind;
+            trace = aTrace;
+            answers = someAnswers;
+            value = aValue;
+        }
+        
+        RunTrace toRunTrace() {
+            return new RunTrace(trace, answers, value);
+        }
+    }
+    
+    /**
+     * Pulls matching runs from a queue of pending branches. The head of the 
+     * queue is the branch a sequential traversal would traverse next.
+     */
+    class RunSpliterator implements Spliterator<RunTrace> {
+        
+        private final Deque<BranchTask> queue;
+        /** A match found while looking for a split. Reported before anything in the queue. */
+        private RunResult pendingMatch;
+
+        RunSpliterator(Deque<BranchTask> aQueue) {
+            queue = aQueue;
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super RunTrace> action) {
+            RunResult res = nextMatch();
+            if ( res != null ) {
+                action.accept(res.toRunTrace());
+                return true;
+            }
+            return false;
+        }
+        
+        /**
+         * @return The next matching run, or {@code null} if there are none.
+         */
+        RunResult nextMatch() {
+            if ( pendingMatch != null ) {
+                RunResult res = pendingMatch;
+                pendingMatch = null;
+                return res;
+            }
+            while ( ! queue.isEmpty() ) {
+                RunResult res = advance();
+                if ( res != null && res.kind == ResultKind.MATCH ) {
+                    return res;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Spliterator<RunTrace> trySplit() {
+            // traverse until there are branches to split.
+            while ( queue.size() == 1 ) {
+                RunResult res = advance();
+                if ( res != null && res.kind == ResultKind.MATCH ) {
+                    pendingMatch = res;
+                }
+            }
+            if ( pendingMatch != null || queue.size() < 2 ) return null;
+            
+            Deque<BranchTask> prefix = new ArrayDeque<>();
+            for ( int i=queue.size()/2; i>0; i-- ) {
+                prefix.addLast( queue.pollFirst() );
+            }
+            return new RunSpliterator(prefix);
+        }
+        
+        private RunResult advance() {
+            BranchTask task = queue.pop();
+            task.queue = queue;
+            task.compute();
+            return task.result;
+        }
+
+        @Override
+        public long estimateSize() {
+            return queue.isEmpty() && pendingMatch == null ? 0 : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+    
+    /**
+     * Traverses the graph from a node, until the run ends or branches. When the
+     * run branches, a sub-task is created for each branch.
+     */
+    class BranchTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        /** Above this amount of queued tasks, branches are traversed without forking. */
+        private static final int SURPLUS_THRESHOLD = 4;
+        
+        final DecisionGraphQuery.Listener listener;
+        final ValueInferenceRunner valueInference;
+        
+        Node node;
+        ConsList<Node> trace;
+        ConsList<Answer> answers;
+        ConsList<ThroughNode> nodeStack;
+        CompoundValue currentValue;
+        
+        /** Result of this task, when its run did not branch. Kept in deterministic mode only. */
+        RunResult result;
+        /** Branches of this task. Kept in deterministic mode only. */
+        BranchTask[] subTasks;
+        /** When not {@code null}, branches are added to this queue rather than forked. */
+        Deque<BranchTask> queue;
+
+        BranchTask(DecisionGraphQuery.Listener aListener, ValueInferenceRunner aValueInference, 
+                   Node aNode, ConsList<Node> aTrace, ConsList<Answer> someAnswers, 
+                   ConsList<ThroughNode> aNodeStack, CompoundValue aValue) {
+            listener = aListener;
+            valueInference = aValueInference;
+            node = aNode;
+            trace = aTrace;
+            answers = someAnswers;
+            nodeStack = aNodeStack;
+            currentValue = aValue;
+        }
+        
+        @Override
+        protected void compute() {
+            final Node.VoidVisitor stepper = new Node.VoidVisitor() {
+                @Override
+                public void visitImpl(AskNode nd) throws DataTagsRuntimeException {
+                    if ( prune(nd, nodeStack, currentValue) ) return;
+                    trace = trace.cons(nd);
+                    List<BranchTask> branches = new ArrayList<>(nd.getAnswers().size());
+                    for ( Answer ans : nd.getAnswers() ) {
+                        branches.add( branch(nd.getNodeFor(ans), answers.cons(ans)) );
+                    }
+                    fork(branches);
+                }
+
+                @Override
+                public void visitImpl(ConsiderNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    List<BranchTask> branches = new ArrayList<>();
+                    for ( CompoundValue option : nd.getAnswers() ) {
+                        if ( currentValue.isSupersetOf(option) ) {
+                            branches.add( branch(nd.getNodeFor(option), answers) );
+                        }
+                    }
+                    fork(branches);
+                }
+
+                @Override
+                public void visitImpl(SetNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    currentValue = valueInference.apply(currentValue.composeWith(nd.getTags()));
+                    if ( ! prune(nd.getNextNode(), nodeStack, currentValue) ) {
+                        node = nd.getNextNode();
+                    }
+                }
+
+                @Override
+                public void visitImpl(RejectNode nd) throws DataTagsRuntimeException {
+                    found(ResultKind.REJECTION);
+                }
+
+                @Override
+                public void visitImpl(CallNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    nodeStack = nodeStack.cons(nd);
+                    if ( trace.contains(nd.getCalleeNode()) ) {
+                        found(ResultKind.LOOP);
+                    } else {
+                        node = nd.getCalleeNode();
+                    }
+                }
+
+                @Override
+                public void visitImpl(ToDoNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    node = nd.getNextNode();
+                }
+
+                @Override
+                public void visitImpl(SectionNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    nodeStack = nodeStack.cons(nd);
+                    node = nd.getStartNode();
+                }
+
+                @Override
+                public void visitImpl(PartNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    node = nd.getStartNode();
+                }
+
+                @Override
+                public void visitImpl(EndNode nd) throws DataTagsRuntimeException {
+                    trace = trace.cons(nd);
+                    if ( nodeStack.isEmpty() ) {
+                        found( currentValue.isSupersetOf(value) ? ResultKind.MATCH : ResultKind.NON_MATCH );
+                    } else {
+                        // same stack logic as the sequential traversal.
+                        ConsList<ThroughNode> popped = nodeStack;
+                        nodeStack = nodeStack.tail();
+                        if ( ! nodeStack.isEmpty() && (nodeStack.head() instanceof CallNode) ) {
+                            popped = nodeStack;
+                            nodeStack = nodeStack.tail();
+                        }
+                        node = popped.head().getNextNode();
+                    }
+                }
+
+                @Override
+                public void visitImpl(ContinueNode nd) throws DataTagsRuntimeException {
+                    throw new UnsupportedOperationException("Querying over sections not supported yet.");
+                }
+            };
+            
+            while ( node != null ) {
+                Node cur = node;
+                node = null;
+                cur.accept(stepper);
+            }
+            
+            // Release traversal state, this task may be kept for replay.
+            trace = null;
+            answers = null;
+            nodeStack = null;
+            currentValue = null;
+        }
+        
+        private BranchTask branch( Node aNode, ConsList<Answer> someAnswers ) {
+            return new BranchTask(listener, valueInference, aNode, trace, someAnswers, nodeStack, currentValue);
+        }
+        
+        private void fork( List<BranchTask> branches ) {
+            if ( queue != null ) {
+                for ( int i=branches.size()-1; i>=0; i-- ) {
+                    queue.push(branches.get(i));
+                }
+                return;
+            }
+            if ( getSurplusQueuedTaskCount() > SURPLUS_THRESHOLD ) {
+                branches.forEach( BranchTask::compute );
+            } else {
+                invokeAll(branches);
+            }
+            if ( deterministic ) {
+                subTasks = branches.toArray(new BranchTask[branches.size()]);
+            }
+        }
+        
+        private void found( ResultKind kind ) {
+            RunResult res = new RunResult(kind, trace, answers, currentValue);
+            if ( deterministic || queue != null ) {
+                result = res;
+            } else {
+                report(listener, res);
+            }
+        }
+    }
+    
     class GraphTraverser extends Node.VoidVisitor {
         
         final DecisionGraphQuery.Listener listener;
@@ -63,9 +503,11 @@ public class FindSupertypeResultsDgq implements DecisionGraphQuery {
         LinkedList<List<ThroughNode>> nodeStackStack = new LinkedList<>();
         LinkedList<Answer> currentAnswers = new LinkedList<>();
         Deque<CompoundValue> valueStack = new LinkedList<>();
+        final ValueInferenceRunner valueInference;
         
         public GraphTraverser( DecisionGraphQuery.Listener aListener ) {
             listener = aListener;
+            valueInference = subject.getValueInferenceRunner();
             valueStack.push( subject.getSpaceRoot().createInstance() );
             nodeStackStack.push( Collections.emptyList() );
         }
@@ -73,6 +515,7 @@ public class FindSupertypeResultsDgq implements DecisionGraphQuery {
         @Override
         public void visitImpl(AskNode nd) throws DataTagsRuntimeException {
             if ( isDebugMode() ) dumpCurrentTrace();
+            if ( prune(nd, nodeStackStack.peek(), valueStack.peek()) ) return;
             currentTrace.addLast( nd );
             for ( Answer ans : nd.getAnswers() ) {
                 currentAnswers.addLast(ans);
@@ -110,24 +553,16 @@ public class FindSupertypeResultsDgq implements DecisionGraphQuery {
             
             //Value inference
             // Process inferred values (ValueInference)
-            CompoundValue previousValue;
-            CompoundValue inferredValue = valueStack.peek();
-            
-            if ( ! subject.getValueInferrers().isEmpty() ) {
-                do {
-                    previousValue = inferredValue;
-                    CompoundValue infCapture = inferredValue; // passing to lambda, has to be effectively final.
-                    inferredValue = subject.getValueInferrers().stream().map( vi -> vi.apply(infCapture) ).collect( C.compose(previousValue.getSlot()));                
-                } while ( !inferredValue.equals(previousValue) );
-
-                if ( ! inferredValue.equals(valueStack.peek()) ) {
-                    valueStack.pop();
-                    valueStack.push(inferredValue);
-                }
+            CompoundValue inferredValue = valueInference.apply(valueStack.peek());
+            if ( inferredValue != valueStack.peek() ) {
+                valueStack.pop();
+                valueStack.push(inferredValue);
             }
             
-            // go forward
-            nd.getNextNode().accept(this);
+            // go forward, unless the value can't be reached from here.
+            if ( ! prune(nd.getNextNode(), nodeStackStack.peek(), valueStack.peek()) ) {
+                nd.getNextNode().accept(this);
+            }
             
             // came back, clean up.
             valueStack.pop();
@@ -281,6 +716,66 @@ public class FindSupertypeResultsDgq implements DecisionGraphQuery {
         
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets whether the graph is traversed in parallel.
+     * @param isParallel {@code true} for parallel traversal.
+     */
+    public void setParallel(boolean isParallel) {
+        parallel = isParallel;
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * Sets whether the results of a parallel traversal are reported in the 
+     * order a sequential traversal would have reported them. Note that 
+     * this requires keeping all results until the traversal is done.
+     * 
+     * @param isDeterministic {@code true} for ordered results.
+     */
+    public void setDeterministic(boolean isDeterministic) {
+        deterministic = isDeterministic;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param aPool The pool to use in parallel mode. When {@code null}, the 
+     *              common pool is used.
+     */
+    public void setPool(ForkJoinPool aPool) {
+        pool = aPool;
+    }
+    
+    public boolean isPruning() {
+        return pruning;
+    }
+
+    /**
+     * Sets whether runs that cannot result in a superset of the value are
+     * abandoned early. Abandoned runs are not reported to the listener.
+     * 
+     * @param isPruning {@code true} to abandon runs early.
+     */
+    public void setPruning(boolean isPruning) {
+        pruning = isPruning;
+    }
+
+    /**
+     * @return The amount of runs abandoned during the last call to {@link #get(edu.harvard.iq.policymodels.tools.queries.DecisionGraphQuery.Listener)}.
+     */
+    public long getPrunedCount() {
+        return prunedCount.sum();
+    }
+    
     public boolean isDebugMode() {
         return debugMode;
     }
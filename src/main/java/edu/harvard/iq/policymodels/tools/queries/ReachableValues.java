@@ -0,0 +1,296 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ConsiderNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.RejectNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AbstractValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AggregateValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.AtomicValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.ToDoValue;
+import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * For each node of a decision graph, the values that may be set from that node
+ * on (until the end of the part it is in). Values are described per leaf slot
+ * (atomic, aggregate or to-do) - for atomic slots, the ordinals of the values
+ * that may be set; for aggregate slots, the ordinals of the items that may be added.
+ * Values the model's inferrers may infer are assumed to be reachable from any node.
+ *
+ * Since values only grow as a run progresses, a run whose value cannot be
+ * composed into a superset of a target value can be abandoned early. See
+ * {@link #mayReach(edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node, java.lang.Iterable, edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue, edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue)}.
+ *
+ * @author michael
+ */
+public class ReachableValues {
+
+    private final Map<Node, Map<AbstractSlot, BitSet>> reachable = new IdentityHashMap<>();
+    private final Map<AbstractSlot, BitSet> inferable = new HashMap<>();
+
+    public ReachableValues( PolicyModel model ) {
+        for ( AbstractValueInferrer inf : model.getValueInferrers() ) {
+            for ( InferencePair pair : inf.getInferencePairs() ) {
+                addLeaves(pair.getInferredValue(), inferable);
+            }
+        }
+
+        List<Node> roots = new ArrayList<>();
+        roots.add(model.getDecisionGraph().getStart());
+        roots.addAll(model.getDecisionGraph().getParts());
+        List<Node> postOrder = postOrder(roots);
+
+        // successors are mostly visited before their predecessors, so
+        // for acyclic graphs, the second pass just verifies the first one.
+        boolean changed = true;
+        while ( changed ) {
+            changed = false;
+            for ( Node nd : postOrder ) {
+                Map<AbstractSlot, BitSet> reach = reachable.computeIfAbsent(nd, n -> new HashMap<>());
+                if ( nd instanceof SetNode ) {
+                    changed |= addLeaves(((SetNode)nd).getTags(), reach);
+                }
+                for ( Node succ : successors(nd) ) {
+                    Map<AbstractSlot, BitSet> succReach = reachable.get(succ);
+                    if ( succReach != null ) {
+                        changed |= union(reach, succReach);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a run, currently at {@code node} with value {@code current},
+     * may end with a value that is a superset of {@code target}.
+     *
+     * @param node The node the run is at.
+     * @param stack The nodes the run will return to after the current part ends.
+     * @param current The current value of the run.
+     * @param target The value the run should reach.
+     * @return {@code false} if the run cannot reach {@code target}, {@code true} otherwise.
+     */
+    public boolean mayReach( Node node, Iterable<? extends ThroughNode> stack, CompoundValue current, CompoundValue target ) {
+        List<Map<AbstractSlot, BitSet>> bounds = new ArrayList<>();
+        bounds.add(inferable);
+        bounds.add(reachable.getOrDefault(node, Collections.emptyMap()));
+        for ( ThroughNode tn : stack ) {
+            if ( tn.getNextNode() != null ) {
+                bounds.add(reachable.getOrDefault(tn.getNextNode(), Collections.emptyMap()));
+            }
+        }
+        return mayReach(current, target, bounds);
+    }
+
+    private boolean mayReach( CompoundValue current, CompoundValue target, List<Map<AbstractSlot, BitSet>> bounds ) {
+        for ( AbstractSlot slot : target.getNonEmptySubSlots() ) {
+            final AbstractValue currentValue = (current != null) ? current.get(slot) : null;
+            boolean ok = target.get(slot).accept(new AbstractValue.Visitor<Boolean>() {
+                @Override
+                public Boolean visitToDoValue(ToDoValue v) {
+                    return currentValue != null || isReachable(bounds, v.getSlot(), 0);
+                }
+
+                @Override
+                public Boolean visitAtomicValue(AtomicValue v) {
+                    if ( currentValue != null ) {
+                        if ( currentValue.equals(v) ) return true;
+                        // atomic values only go up.
+                        if ( ((AtomicValue)currentValue).getOrdinal() > v.getOrdinal() ) return false;
+                    }
+                    return isReachable(bounds, v.getSlot(), v.getOrdinal());
+                }
+
+                @Override
+                public Boolean visitAggregateValue(AggregateValue v) {
+                    for ( AtomicValue item : v.getValues() ) {
+                        if ( currentValue != null && ((AggregateValue)currentValue).getValues().contains(item) ) continue;
+                        if ( ! isReachable(bounds, v.getSlot(), item.getOrdinal()) ) return false;
+                    }
+                    return true;
+                }
+
+                @Override
+                public Boolean visitCompoundValue(CompoundValue v) {
+                    return mayReach((CompoundValue)currentValue, v, bounds);
+                }
+            });
+            if ( ! ok ) return false;
+        }
+        return true;
+    }
+
+    private static boolean isReachable( List<Map<AbstractSlot, BitSet>> bounds, AbstractSlot slot, int bit ) {
+        for ( Map<AbstractSlot, BitSet> bound : bounds ) {
+            BitSet bits = bound.get(slot);
+            if ( bits != null && bits.get(bit) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the leaf values of {@code value} to {@code leaves}.
+     * @return {@code true} iff {@code leaves} changed.
+     */
+    private static boolean addLeaves( AbstractValue value, Map<AbstractSlot, BitSet> leaves ) {
+        return value.accept(new AbstractValue.Visitor<Boolean>() {
+            @Override
+            public Boolean visitToDoValue(ToDoValue v) {
+                return set(v.getSlot(), 0);
+            }
+
+            @Override
+            public Boolean visitAtomicValue(AtomicValue v) {
+                return set(v.getSlot(), v.getOrdinal());
+            }
+
+            @Override
+            public Boolean visitAggregateValue(AggregateValue v) {
+                boolean changed = false;
+                for ( AtomicValue item : v.getValues() ) {
+                    changed |= set(v.getSlot(), item.getOrdinal());
+                }
+                return changed;
+            }
+
+            @Override
+            public Boolean visitCompoundValue(CompoundValue v) {
+                boolean changed = false;
+                for ( AbstractSlot sub : v.getNonEmptySubSlots() ) {
+                    changed |= v.get(sub).accept(this);
+                }
+                return changed;
+            }
+
+            private boolean set( AbstractSlot slot, int bit ) {
+                BitSet bits = leaves.computeIfAbsent(slot, s -> new BitSet());
+                if ( bits.get(bit) ) return false;
+                bits.set(bit);
+                return true;
+            }
+        });
+    }
+
+    private static boolean union( Map<AbstractSlot, BitSet> target, Map<AbstractSlot, BitSet> source ) {
+        boolean changed = false;
+        for ( Map.Entry<AbstractSlot, BitSet> e : source.entrySet() ) {
+            BitSet bits = target.computeIfAbsent(e.getKey(), s -> new BitSet());
+            int before = bits.cardinality();
+            bits.or(e.getValue());
+            changed |= (bits.cardinality() != before);
+        }
+        return changed;
+    }
+
+    private List<Node> postOrder( List<Node> roots ) {
+        List<Node> out = new ArrayList<>();
+        Map<Node, Boolean> seen = new IdentityHashMap<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        for ( Node root : roots ) {
+            if ( root == null || seen.containsKey(root) ) continue;
+            seen.put(root, Boolean.TRUE);
+            stack.push(root);
+            expanded.push(Boolean.FALSE);
+            while ( ! stack.isEmpty() ) {
+                Node nd = stack.peek();
+                if ( expanded.peek() ) {
+                    stack.pop();
+                    expanded.pop();
+                    out.add(nd);
+                } else {
+                    expanded.pop();
+                    expanded.push(Boolean.TRUE);
+                    for ( Node succ : successors(nd) ) {
+                        if ( ! seen.containsKey(succ) ) {
+                            seen.put(succ, Boolean.TRUE);
+                            stack.push(succ);
+                            expanded.push(Boolean.FALSE);
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static List<Node> successors( Node nd ) {
+        final List<Node> out = new ArrayList<>(2);
+        nd.accept(new Node.VoidVisitor() {
+            @Override
+            public void visitImpl(ConsiderNode nd) throws DataTagsRuntimeException {
+                nd.getAnswers().forEach( a -> out.add(nd.getNodeFor(a)) );
+                out.add(nd.getElseNode());
+            }
+
+            @Override
+            public void visitImpl(AskNode nd) throws DataTagsRuntimeException {
+                for ( Answer a : nd.getAnswers() ) {
+                    out.add(nd.getNodeFor(a));
+                }
+            }
+
+            @Override
+            public void visitImpl(SetNode nd) throws DataTagsRuntimeException {
+                out.add(nd.getNextNode());
+            }
+
+            @Override
+            public void visitImpl(SectionNode nd) throws DataTagsRuntimeException {
+                out.add(nd.getStartNode());
+                out.add(nd.getNextNode());
+            }
+
+            @Override
+            public void visitImpl(PartNode nd) throws DataTagsRuntimeException {
+                out.add(nd.getStartNode());
+            }
+
+            @Override
+            public void visitImpl(CallNode nd) throws DataTagsRuntimeException {
+                out.add(nd.getCalleeNode());
+                out.add(nd.getNextNode());
+            }
+
+            @Override
+            public void visitImpl(ToDoNode nd) throws DataTagsRuntimeException {
+                out.add(nd.getNextNode());
+            }
+
+            @Override
+            public void visitImpl(RejectNode nd) throws DataTagsRuntimeException {}
+
+            @Override
+            public void visitImpl(EndNode nd) throws DataTagsRuntimeException {}
+
+            @Override
+            public void visitImpl(ContinueNode nd) throws DataTagsRuntimeException {}
+        });
+        out.removeIf( n -> n == null );
+        return out;
+    }
+
+}
@@ -0,0 +1,277 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ConsiderNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ContinueNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.PartNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.RejectNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.inference.ValueInferenceRunner;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.runtime.RuntimeEngine;
+import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes all the runs of a decision graph, without enumerating them.
+ * The runs from a given point depend only on the node, the current value and
+ * the stack at that point, so the summary of each such state is computed once,
+ * and re-used whenever the state is reached again. This takes time and memory
+ * proportional to the number of distinct states, rather than the number of runs.
+ *
+ * Runs are followed the way {@link RuntimeEngine} follows them, including
+ * [section]s and [continue]s. A run that calls a node that is already being 
+ * called is counted as a loop, and is not followed further.
+ *
+ * States are summarized using an explicit work stack, so long graphs do not
+ * overflow the call stack.
+ *
+ * @author michael
+ */
+public class RunSummarizer {
+
+    private final PolicyModel model;
+    private final ValueInferenceRunner valueInference;
+    private final Map<State, RunSummary> memo = new HashMap<>();
+    private final Summarizer summarizer = new Summarizer();
+
+    /**
+     * A point in a run. Nodes are compared by identity.
+     */
+    private static final class State {
+        final Node node;
+        final CompoundValue value;
+        final ConsList<ThroughNode> stack;
+        final int hash;
+
+        State(Node aNode, CompoundValue aValue, ConsList<ThroughNode> aStack) {
+            node = aNode;
+            value = aValue;
+            stack = aStack;
+            int h = System.identityHashCode(node);
+            h = 31*h + value.hashCode();
+            for ( ThroughNode tn : stack ) {
+                h = 31*h + System.identityHashCode(tn);
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if ( this == obj ) return true;
+            if ( ! (obj instanceof State) ) return false;
+            final State other = (State) obj;
+            return node == other.node
+                    && hash == other.hash
+                    && sameStack(stack, other.stack)
+                    && value.equals(other.value);
+        }
+
+        private static boolean sameStack( ConsList<ThroughNode> a, ConsList<ThroughNode> b ) {
+            if ( a.size() != b.size() ) return false;
+            while ( a != b ) {
+                if ( a.head() != b.head() ) return false;
+                a = a.tail();
+                b = b.tail();
+            }
+            return true;
+        }
+    }
+
+    public RunSummarizer( PolicyModel aModel ) {
+        model = aModel;
+        valueInference = model.getValueInferenceRunner();
+    }
+
+    /**
+     * @return A summary of all the runs of the model's decision graph.
+     */
+    public RunSummary summarize() {
+        return summarize(model.getDecisionGraph().getStart(),
+                         model.getSpaceRoot().createInstance(), ConsList.empty());
+    }
+
+    /**
+     * @return The amount of distinct states visited so far.
+     */
+    public int getStateCount() {
+        return memo.size();
+    }
+
+    /**
+     * A state whose summary is being computed: the summary is either known
+     * right away, or is the sum of the summaries of the next states.
+     */
+    private final class Frame {
+        final State state;
+        final List<State> nextStates = new ArrayList<>(2);
+        final List<RunSummary> nextSummaries = new ArrayList<>(2);
+        final RunSummary immediate;
+
+        Frame(State aState) {
+            state = aState;
+            immediate = summarizer.expand(state, nextStates);
+        }
+
+        boolean isDone() {
+            return immediate != null || nextSummaries.size() == nextStates.size();
+        }
+
+        State next() {
+            return nextStates.get(nextSummaries.size());
+        }
+
+        RunSummary summary() {
+            if ( immediate != null ) return immediate;
+            return (nextSummaries.size() == 1) ? nextSummaries.get(0) : RunSummary.sum(nextSummaries);
+        }
+    }
+
+    private RunSummary summarize( Node node, CompoundValue value, ConsList<ThroughNode> stack ) {
+        final State start = new State(node, value, stack);
+        RunSummary result = memo.get(start);
+        if ( result != null ) return result;
+
+        Deque<Frame> work = new ArrayDeque<>();
+        work.push(new Frame(start));
+        while ( ! work.isEmpty() ) {
+            Frame top = work.peek();
+            if ( ! top.isDone() ) {
+                State next = top.next();
+                RunSummary known = memo.get(next);
+                if ( known != null ) {
+                    top.nextSummaries.add(known);
+                } else {
+                    work.push(new Frame(next));
+                }
+            } else {
+                work.pop();
+                result = top.summary();
+                memo.put(top.state, result);
+                if ( ! work.isEmpty() ) {
+                    work.peek().nextSummaries.add(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the states following a state. Visits return the summary of the
+     * state if it is known right away, and {@code null} otherwise.
+     */
+    private class Summarizer implements Node.Visitor<RunSummary> {
+
+        CompoundValue value;
+        ConsList<ThroughNode> stack;
+        List<State> nextStates;
+
+        RunSummary expand( State state, List<State> someNextStates ) {
+            value = state.value;
+            stack = state.stack;
+            nextStates = someNextStates;
+            return state.node.accept(this);
+        }
+
+        private RunSummary follow( Node node, CompoundValue aValue, ConsList<ThroughNode> aStack ) {
+            nextStates.add( new State(node, aValue, aStack) );
+            return null;
+        }
+
+        @Override
+        public RunSummary visit(AskNode nd) throws DataTagsRuntimeException {
+            if ( nd.getAnswers().isEmpty() ) return RunSummary.EMPTY;
+            for ( Answer ans : nd.getAnswers() ) {
+                follow(nd.getNodeFor(ans), value, stack);
+            }
+            return null;
+        }
+
+        @Override
+        public RunSummary visit(ConsiderNode nd) throws DataTagsRuntimeException {
+            for ( CompoundValue option : nd.getAnswers() ) {
+                if ( value.isSupersetOf(option) ) {
+                    return follow(nd.getNodeFor(option), value, stack);
+                }
+            }
+            return (nd.getElseNode() != null) ? follow(nd.getElseNode(), value, stack) : RunSummary.EMPTY;
+        }
+
+        @Override
+        public RunSummary visit(SetNode nd) throws DataTagsRuntimeException {
+            return follow(nd.getNextNode(), valueInference.apply(value.composeWith(nd.getTags())), stack);
+        }
+
+        @Override
+        public RunSummary visit(RejectNode nd) throws DataTagsRuntimeException {
+            return RunSummary.REJECTION;
+        }
+
+        @Override
+        public RunSummary visit(CallNode nd) throws DataTagsRuntimeException {
+            for ( ThroughNode tn : stack ) {
+                if ( (tn instanceof CallNode) && ((CallNode)tn).getCalleeNode() == nd.getCalleeNode() ) {
+                    return RunSummary.LOOP;
+                }
+            }
+            return follow(nd.getCalleeNode(), value, stack.cons(nd));
+        }
+
+        @Override
+        public RunSummary visit(ToDoNode nd) throws DataTagsRuntimeException {
+            return follow(nd.getNextNode(), value, stack);
+        }
+
+        @Override
+        public RunSummary visit(SectionNode nd) throws DataTagsRuntimeException {
+            return follow(nd.getStartNode(), value, stack.cons(nd));
+        }
+
+        @Override
+        public RunSummary visit(PartNode nd) throws DataTagsRuntimeException {
+            return follow(nd.getStartNode(), value, stack);
+        }
+
+        @Override
+        public RunSummary visit(EndNode nd) throws DataTagsRuntimeException {
+            // pop sections until we get to the calling node, if any.
+            ConsList<ThroughNode> rest = stack;
+            while ( ! rest.isEmpty() ) {
+                ThroughNode top = rest.head();
+                rest = rest.tail();
+                if ( top instanceof CallNode ) {
+                    return follow(top.getNextNode(), value, rest);
+                }
+            }
+            return RunSummary.accepted(value);
+        }
+
+        @Override
+        public RunSummary visit(ContinueNode nd) throws DataTagsRuntimeException {
+            if ( stack.isEmpty() || !(stack.head() instanceof SectionNode) ) {
+                throw new DataTagsRuntimeException(null, "[continue] node outside of a [section] node.");
+            }
+            return follow(stack.head().getNextNode(), value, stack.tail());
+        }
+    }
+
+}
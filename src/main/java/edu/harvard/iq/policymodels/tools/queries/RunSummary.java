@@ -0,0 +1,208 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts of the runs of a decision graph (or a part of it), by their outcome.
+ * Accepted runs are counted by their final value, so queries about the
+ * final values of the runs can be answered without traversing them again.
+ *
+ * A sum of summaries refers to the summed summaries, rather than copying their
+ * final values; summaries of shared parts of the graph are shared as well. The
+ * final values of a sum are computed when first needed.
+ *
+ * Counts are {@code long}s; summing counts that overflow results in an
+ * {@link ArithmeticException}.
+ *
+ * @author michael
+ * @see RunSummarizer
+ */
+public class RunSummary {
+
+    static final RunSummary EMPTY = new RunSummary(Collections.emptyMap(), 0, 0);
+    static final RunSummary REJECTION = new RunSummary(Collections.emptyMap(), 1, 0);
+    static final RunSummary LOOP = new RunSummary(Collections.emptyMap(), 0, 1);
+
+    private static final RunSummary[] NO_PARTS = new RunSummary[0];
+
+    /** Accepted runs by final value. For sums, {@code null} until first needed. */
+    private volatile Map<CompoundValue, Long> finalValues;
+
+    /** The summaries this summary is the sum of, that have accepted runs. */
+    private final RunSummary[] parts;
+
+    private final long acceptedCount;
+    private final long rejectedCount;
+    private final long loopCount;
+
+    private RunSummary(Map<CompoundValue, Long> someFinalValues, long aRejectedCount, long aLoopCount) {
+        finalValues = Collections.unmodifiableMap(someFinalValues);
+        parts = NO_PARTS;
+        rejectedCount = aRejectedCount;
+        loopCount = aLoopCount;
+        long sum = 0;
+        for ( long cnt : someFinalValues.values() ) {
+            sum = Math.addExact(sum, cnt);
+        }
+        acceptedCount = sum;
+    }
+
+    private RunSummary(RunSummary[] someParts, long anAcceptedCount, long aRejectedCount, long aLoopCount) {
+        parts = someParts;
+        acceptedCount = anAcceptedCount;
+        rejectedCount = aRejectedCount;
+        loopCount = aLoopCount;
+        if ( parts.length == 0 ) {
+            finalValues = Collections.emptyMap();
+        }
+    }
+
+    static RunSummary accepted( CompoundValue finalValue ) {
+        return new RunSummary(Collections.singletonMap(finalValue, 1L), 0, 0);
+    }
+
+    /**
+     * Sums summaries of disjoint sets of runs.
+     * @param summaries the summaries to sum.
+     * @return A summary of all the runs in {@code summaries}.
+     */
+    static RunSummary sum( Iterable<RunSummary> summaries ) {
+        List<RunSummary> withValues = new ArrayList<>();
+        RunSummary single = EMPTY;
+        long accepted = 0;
+        long rejected = 0;
+        long loops = 0;
+        int count = 0;
+        for ( RunSummary rs : summaries ) {
+            count++;
+            single = rs;
+            accepted = Math.addExact(accepted, rs.acceptedCount);
+            rejected = Math.addExact(rejected, rs.rejectedCount);
+            loops = Math.addExact(loops, rs.loopCount);
+            if ( rs.acceptedCount > 0 ) {
+                withValues.add(rs);
+            }
+        }
+        if ( count == 1 ) return single;
+        return new RunSummary(withValues.toArray(new RunSummary[withValues.size()]), accepted, rejected, loops);
+    }
+
+    /**
+     * @return The accepted runs, counted by their final value.
+     */
+    public Map<CompoundValue, Long> getFinalValues() {
+        Map<CompoundValue, Long> res = finalValues;
+        if ( res == null ) {
+            res = Collections.unmodifiableMap(collectFinalValues());
+            finalValues = res;
+        }
+        return res;
+    }
+
+    /**
+     * Sums the final values of the summaries under this one. A summary may be
+     * reached through several paths, so each distinct summary is visited once,
+     * and its final values are weighted by the number of paths that reach it.
+     */
+    private Map<CompoundValue, Long> collectFinalValues() {
+        // distinct summaries under this one, in post-order. Summaries
+        // whose final values are known are not expanded.
+        List<RunSummary> postOrder = new ArrayList<>();
+        Map<RunSummary, Map<CompoundValue, Long>> known = new IdentityHashMap<>();
+        Set<RunSummary> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<RunSummary> stack = new ArrayDeque<>();
+        Deque<Integer> positions = new ArrayDeque<>();
+        visited.add(this);
+        stack.push(this);
+        positions.push(0);
+        while ( ! stack.isEmpty() ) {
+            RunSummary cur = stack.peek();
+            int pos = positions.pop();
+            if ( pos < cur.parts.length ) {
+                positions.push(pos+1);
+                RunSummary part = cur.parts[pos];
+                if ( visited.add(part) ) {
+                    Map<CompoundValue, Long> values = part.finalValues;
+                    if ( values != null ) {
+                        known.put(part, values);
+                        postOrder.add(part);
+                    } else {
+                        stack.push(part);
+                        positions.push(0);
+                    }
+                }
+            } else {
+                stack.pop();
+                postOrder.add(cur);
+            }
+        }
+
+        // reverse post-order visits each summary after all the summaries that include it.
+        Map<RunSummary, Long> weights = new IdentityHashMap<>();
+        weights.put(this, 1L);
+        Map<CompoundValue, Long> res = new HashMap<>();
+        for ( int i=postOrder.size()-1; i>=0; i-- ) {
+            RunSummary rs = postOrder.get(i);
+            long weight = weights.get(rs);
+            Map<CompoundValue, Long> values = known.get(rs);
+            if ( values != null ) {
+                for ( Map.Entry<CompoundValue, Long> e : values.entrySet() ) {
+                    res.merge(e.getKey(), Math.multiplyExact(e.getValue(), weight), Math::addExact);
+                }
+            } else {
+                for ( RunSummary part : rs.parts ) {
+                    weights.merge(part, weight, Math::addExact);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param value the value to look for.
+     * @return The amount of accepted runs whose final value is a superset of {@code value}.
+     */
+    public long countMatching( CompoundValue value ) {
+        long sum = 0;
+        for ( Map.Entry<CompoundValue, Long> e : getFinalValues().entrySet() ) {
+            if ( e.getKey().isSupersetOf(value) ) {
+                sum = Math.addExact(sum, e.getValue());
+            }
+        }
+        return sum;
+    }
+
+    public long getRunCount() {
+        return Math.addExact(Math.addExact(acceptedCount, rejectedCount), loopCount);
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getLoopCount() {
+        return loopCount;
+    }
+
+    @Override
+    public String toString() {
+        return "[RunSummary accepted:" + acceptedCount
+                + " rejected:" + rejectedCount
+                + " loops:" + loopCount
+                + " distinct values:" + getFinalValues().size() + "]";
+    }
+
+}
@@ -3,6 +3,7 @@ package edu.harvard.iq.policymodels.tools.queries;
 import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
 import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
 import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.util.ConsList;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +28,16 @@ public class RunTrace {
         value = aValue.getOwnableInstance();
     }
     
+    /**
+     * Constructs a new run result from traces kept as stacks (most recent first),
+     * copying them only once.
+     */
+    RunTrace( ConsList<Node> reversedNodes, ConsList<Answer> reversedAnswers, CompoundValue aValue ) {
+        nodes = reversedNodes.toReversedList();
+        answers = reversedAnswers.toReversedList();
+        value = aValue.getOwnableInstance();
+    }
+    
     public List<Node> getNodes() {
         return nodes;
     }
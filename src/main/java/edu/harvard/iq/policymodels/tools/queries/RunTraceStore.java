@@ -0,0 +1,326 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.util.ConsList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores many run traces compactly. Traces are kept in a trie, so traces
+ * that share a prefix share the memory used by that prefix. Each step of
+ * a trace - a node, and the answer given to it if it is an [ask] node - is
+ * encoded as an {@code int}, and equal final values are stored once.
+ *
+ * Stored traces are identified by the {@code int} returned when they are
+ * added, and are materialized into {@link RunTrace}s on demand.
+ *
+ * This class is not thread-safe.
+ *
+ * @author michael
+ */
+public class RunTraceStore implements Iterable<RunTrace> {
+
+    private static final int ROOT = -1;
+    private static final int NO_ANSWER = -1;
+
+    // Dictionaries
+    private final Map<Node, Integer> nodeCodes = new IdentityHashMap<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<Answer, Integer> answerCodes = new HashMap<>();
+    private final List<Answer> answers = new ArrayList<>();
+    /** step code, by (node code, answer code). */
+    private final LongIntTable stepCodes = new LongIntTable();
+    private int[] stepNodes = new int[16];
+    private int[] stepAnswers = new int[16];
+    private final Map<CompoundValue, Integer> valueCodes = new HashMap<>();
+    private final List<CompoundValue> values = new ArrayList<>();
+
+    // The trie. Entry i is step entrySteps[i], following entry entryParents[i].
+    /** entry index, by (parent entry, step code). */
+    private final LongIntTable children = new LongIntTable();
+    private int[] entryParents = new int[64];
+    private int[] entrySteps = new int[64];
+    private int entryCount = 0;
+
+    // The traces. Trace i ends at entry traceEnds[i], with value traceValues[i].
+    private int[] traceEnds = new int[16];
+    private int[] traceValues = new int[16];
+    private int traceCount = 0;
+
+    /**
+     * Adds a trace to the store.
+     * @param trace The trace to add.
+     * @return The id of the stored trace.
+     */
+    public int add( RunTrace trace ) {
+        return add( trace.getNodes(), trace.getAnswers(), trace.getValue() );
+    }
+
+    /**
+     * Adds a trace to the store. The answers are matched, in order, to the
+     * [ask] nodes in {@code someNodes}.
+     *
+     * @param someNodes The nodes of the trace, in traversal order.
+     * @param someAnswers The answers given in the trace.
+     * @param aValue The final value of the trace.
+     * @return The id of the stored trace.
+     * @throws IllegalArgumentException if there are more answers than [ask] nodes.
+     */
+    public int add( Iterable<Node> someNodes, Iterable<Answer> someAnswers, CompoundValue aValue ) {
+        Iterator<Answer> ansItr = someAnswers.iterator();
+        int entry = ROOT;
+        for ( Node nd : someNodes ) {
+            int answerCode = NO_ANSWER;
+            if ( (nd instanceof AskNode) && ansItr.hasNext() ) {
+                answerCode = answerCode(ansItr.next());
+            }
+            entry = child(entry, stepCode(nodeCode(nd), answerCode));
+        }
+        if ( ansItr.hasNext() ) {
+            throw new IllegalArgumentException("More answers than [ask] nodes in trace");
+        }
+
+        if ( traceCount == traceEnds.length ) {
+            traceEnds = Arrays.copyOf(traceEnds, traceCount*2);
+            traceValues = Arrays.copyOf(traceValues, traceCount*2);
+        }
+        traceEnds[traceCount] = entry;
+        traceValues[traceCount] = valueCode(aValue);
+        return traceCount++;
+    }
+
+    /**
+     * Adds a trace kept as stacks, most recent item first (as traversals keep them).
+     */
+    int addReversed( ConsList<Node> reversedNodes, ConsList<Answer> reversedAnswers, CompoundValue aValue ) {
+        return add( reversedNodes.toReversedList(), reversedAnswers.toReversedList(), aValue );
+    }
+
+    /**
+     * Materializes a stored trace.
+     * @param id The id of the trace, as returned from {@code add}.
+     * @return A new {@link RunTrace} with the trace's nodes, answers and value.
+     */
+    public RunTrace get( int id ) {
+        if ( id < 0 || id >= traceCount ) {
+            throw new IndexOutOfBoundsException("No trace with id " + id);
+        }
+        List<Node> traceNodes = new ArrayList<>();
+        List<Answer> traceAnswers = new ArrayList<>();
+
+        // walk up the trie, collecting the trace backwards.
+        for ( int entry = traceEnds[id]; entry != ROOT; entry = entryParents[entry] ) {
+            int step = entrySteps[entry];
+            traceNodes.add( nodes.get(stepNodes[step]) );
+            if ( stepAnswers[step] != NO_ANSWER ) {
+                traceAnswers.add( answers.get(stepAnswers[step]) );
+            }
+        }
+        Collections.reverse(traceNodes);
+        Collections.reverse(traceAnswers);
+        return new RunTrace( traceNodes, traceAnswers, values.get(traceValues[id]) );
+    }
+
+    /**
+     * @param id The id of the trace.
+     * @return The final value of the trace, without materializing it.
+     */
+    public CompoundValue getValue( int id ) {
+        if ( id < 0 || id >= traceCount ) {
+            throw new IndexOutOfBoundsException("No trace with id " + id);
+        }
+        return values.get(traceValues[id]);
+    }
+
+    /**
+     * @return Amount of traces in the store.
+     */
+    public int size() {
+        return traceCount;
+    }
+
+    public boolean isEmpty() {
+        return traceCount == 0;
+    }
+
+    /**
+     * @return Amount of trie entries, i.e. of distinct trace prefixes.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return Amount of distinct final values.
+     */
+    public int getValueCount() {
+        return values.size();
+    }
+
+    /**
+     * Iterates over the traces, materializing each one when reached.
+     * @return An iterator over the stored traces, in the order they were added.
+     */
+    @Override
+    public Iterator<RunTrace> iterator() {
+        return new Iterator<RunTrace>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < traceCount;
+            }
+
+            @Override
+            public RunTrace next() {
+                return get(next++);
+            }
+        };
+    }
+
+    private int child( int parent, int step ) {
+        long key = pair(parent, step);
+        int existing = children.get(key);
+        if ( existing != LongIntTable.NONE ) return existing;
+
+        if ( entryCount == entryParents.length ) {
+            entryParents = Arrays.copyOf(entryParents, entryCount*2);
+            entrySteps = Arrays.copyOf(entrySteps, entryCount*2);
+        }
+        entryParents[entryCount] = parent;
+        entrySteps[entryCount] = step;
+        children.putNew(key, entryCount);
+        return entryCount++;
+    }
+
+    private int stepCode( int nodeCode, int answerCode ) {
+        long key = pair(nodeCode, answerCode);
+        int code = stepCodes.get(key);
+        if ( code == LongIntTable.NONE ) {
+            code = stepCodes.size();
+            if ( code == stepNodes.length ) {
+                stepNodes = Arrays.copyOf(stepNodes, code*2);
+                stepAnswers = Arrays.copyOf(stepAnswers, code*2);
+            }
+            stepNodes[code] = nodeCode;
+            stepAnswers[code] = answerCode;
+            stepCodes.putNew(key, code);
+        }
+        return code;
+    }
+
+    private static long pair( int high, int low ) {
+        return (((long)high) << 32) | (low & 0xffffffffL);
+    }
+
+    private int nodeCode( Node nd ) {
+        return nodeCodes.computeIfAbsent(nd, n -> {
+            nodes.add(n);
+            return nodes.size()-1;
+        });
+    }
+
+    private int answerCode( Answer ans ) {
+        return answerCodes.computeIfAbsent(ans, a -> {
+            answers.add(a);
+            return answers.size()-1;
+        });
+    }
+
+    private int valueCode( CompoundValue val ) {
+        Integer code = valueCodes.get(val);
+        if ( code == null ) {
+            CompoundValue ownable = val.getOwnableInstance();
+            code = values.size();
+            values.add(ownable);
+            valueCodes.put(ownable, code);
+        }
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return "[RunTraceStore traces:" + traceCount + " entries:" + entryCount + " values:" + values.size() + "]";
+    }
+
+    /**
+     * An open-addressing hash table from {@code long} keys to non-negative
+     * {@code int} values. Used for the trie lookups, which happen for every
+     * step of every added trace, so they do not box their keys and values.
+     */
+    private static final class LongIntTable {
+
+        static final int NONE = -1;
+
+        private long[] keys = new long[64];
+        private int[] values = emptyValues(64);
+        private int size = 0;
+
+        /**
+         * @param key the key to look up.
+         * @return The value of {@code key}, or {@link #NONE} if it has none.
+         */
+        int get( long key ) {
+            final int mask = keys.length - 1;
+            for ( int i = slot(key, mask); values[i] != NONE; i = (i+1) & mask ) {
+                if ( keys[i] == key ) return values[i];
+            }
+            return NONE;
+        }
+
+        /**
+         * Adds a key that is not in the table yet.
+         * @param key the new key.
+         * @param value its value. Must not be negative.
+         */
+        void putNew( long key, int value ) {
+            if ( (size+1)*2 > keys.length ) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[oldKeys.length*2];
+                values = emptyValues(oldKeys.length*2);
+                for ( int i=0; i<oldKeys.length; i++ ) {
+                    if ( oldValues[i] != NONE ) insert(oldKeys[i], oldValues[i]);
+                }
+            }
+            insert(key, value);
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void insert( long key, int value ) {
+            final int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while ( values[i] != NONE ) {
+                i = (i+1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private static int slot( long key, int mask ) {
+            // keys are pairs of small ints, so spread their bits before masking.
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32)) & mask;
+        }
+
+        private static int[] emptyValues( int length ) {
+            int[] arr = new int[length];
+            Arrays.fill(arr, NONE);
+            return arr;
+        }
+    }
+
+}
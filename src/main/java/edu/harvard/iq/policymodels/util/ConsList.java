@@ -0,0 +1,139 @@
+package edu.harvard.iq.policymodels.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An immutable, singly-linked list. Adding an item to the list's head creates
+ * a new list that shares its tail with the original one, so many lists
+ * with common tails can be kept cheaply - e.g. the traces of all the
+ * runs of a decision graph, or the stacks of a run at different points in time.
+ *
+ * @author michael
+ * @param <T> Type of the list items.
+ */
+public final class ConsList<T> implements Iterable<T> {
+
+    private static final ConsList<Object> EMPTY = new ConsList<>(null, null, 0);
+
+    private final T head;
+    private final ConsList<T> tail;
+    private final int size;
+
+    @SuppressWarnings("unchecked")
+    public static <T> ConsList<T> empty() {
+        return (ConsList<T>) EMPTY;
+    }
+
+    private ConsList(T aHead, ConsList<T> aTail, int aSize) {
+        head = aHead;
+        tail = aTail;
+        size = aSize;
+    }
+
+    /**
+     * @param item the item to add.
+     * @return A new list, whose head is {@code item} and whose tail is {@code this}.
+     */
+    public ConsList<T> cons( T item ) {
+        return new ConsList<>(item, this, size+1);
+    }
+
+    public T head() {
+        if ( isEmpty() ) throw new NoSuchElementException("Empty list has no head");
+        return head;
+    }
+
+    public ConsList<T> tail() {
+        if ( isEmpty() ) throw new NoSuchElementException("Empty list has no tail");
+        return tail;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains( Object o ) {
+        for ( T t : this ) {
+            if ( Objects.equals(t, o) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The items of the list, head first.
+     */
+    public List<T> toList() {
+        List<T> out = new ArrayList<>(size);
+        for ( T t : this ) {
+            out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * @return The items of the list, head last. Useful when the list is
+     *         used as a stack, and the items are needed in insertion order.
+     */
+    public List<T> toReversedList() {
+        List<T> out = toList();
+        Collections.reverse(out);
+        return out;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            ConsList<T> cur = ConsList.this;
+
+            @Override
+            public boolean hasNext() {
+                return ! cur.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if ( cur.isEmpty() ) throw new NoSuchElementException();
+                T retVal = cur.head;
+                cur = cur.tail;
+                return retVal;
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for ( T t : this ) {
+            hash = 31*hash + Objects.hashCode(t);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if ( this == obj ) return true;
+        if ( ! (obj instanceof ConsList) ) return false;
+        ConsList<?> other = (ConsList<?>) obj;
+        if ( other.size != size ) return false;
+        Iterator<?> otherItr = other.iterator();
+        for ( T t : this ) {
+            if ( ! Objects.equals(t, otherItr.next()) ) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+}
@@ -0,0 +1,131 @@
+package edu.harvard.iq.policymodels.model.decisiongraph;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.tools.UnreachableNodeValidator;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import static edu.harvard.iq.util.PolicyModelHelper.compileGraph;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class GraphAnalysisTest {
+
+    DecisionGraph dg;
+    GraphAnalysis sut;
+
+    @Before
+    public void setUp() throws Exception {
+        String code = "[>a< ask: {text: q}\n"
+                    + "  {answers:\n"
+                    + "    {yes: [>t1< todo: one]}\n"
+                    + "    {no: [>t2< todo: two]}}]\n"
+                    + "[>t3< todo: join]\n"
+                    + "[>c< call: loop]\n"
+                    + "[>e< end]\n"
+                    + "[>u< todo: unreachable]\n"
+                    + "[-->loop< [>lt< todo: in loop] [>lc< call: loop] --]";
+        dg = compileGraph(new CompoundSlot("", ""), code);
+        sut = dg.getAnalysis();
+    }
+
+    private int idx( String idSuffix ) {
+        for ( int i=0; i<sut.getNodeCount(); i++ ) {
+            String id = sut.getNode(i).getId();
+            // end nodes are not prefixed
+            if ( id.endsWith("]" + idSuffix) || id.equals(idSuffix) ) return i;
+        }
+        fail("Node " + idSuffix + " not found");
+        return -1;
+    }
+
+    @Test
+    public void testReachability() {
+        for ( String id : Arrays.asList("a", "t1", "t2", "t3", "c", "e", "loop", "lt", "lc") ) {
+            assertTrue( id, sut.isReachable(idx(id)) );
+        }
+        assertFalse( sut.isReachable(idx("u")) );
+        assertFalse( sut.isReachable(sut.getNode(idx("u"))) );
+        assertEquals( sut.getReachableCount(), sut.getReachableNodes().size() );
+        assertEquals( -1, sut.getDepth(idx("u")) );
+    }
+
+    @Test
+    public void testEdges() {
+        int[] preds = sut.getPredecessors(idx("t3"));
+        Arrays.sort(preds);
+        int[] expected = new int[]{ idx("t1"), idx("t2") };
+        Arrays.sort(expected);
+        assertArrayEquals( expected, preds );
+
+        int[] succ = sut.getSuccessors(idx("c"));
+        assertEquals( 2, succ.length );
+        assertTrue( Arrays.binarySearch(succ, idx("loop")) >= 0 );
+        assertTrue( Arrays.binarySearch(succ, idx("e")) >= 0 );
+        assertEquals( 0, sut.getSuccessors(idx("e")).length );
+    }
+
+    @Test
+    public void testIndices() {
+        for ( int i=0; i<sut.getNodeCount(); i++ ) {
+            assertEquals( i, sut.indexOf(sut.getNode(i)) );
+        }
+        assertEquals( idx("a"), sut.getStart() );
+        assertEquals( CompiledDecisionGraph.NO_NODE, sut.indexOf(new EndNode("not-in-graph")) );
+    }
+
+    @Test
+    public void testDepth() {
+        assertEquals( 0, sut.getDepth(idx("a")) );
+        assertEquals( 1, sut.getDepth(idx("t1")) );
+        assertEquals( 2, sut.getDepth(idx("t3")) );
+        assertEquals( 4, sut.getDepth(idx("loop")) );
+    }
+
+    @Test
+    public void testDominators() {
+        int a = idx("a");
+        assertEquals( a, sut.getImmediateDominator(a) );
+        assertEquals( a, sut.getImmediateDominator(idx("t3")) );
+        assertEquals( idx("t3"), sut.getImmediateDominator(idx("c")) );
+        assertTrue( sut.dominates(a, idx("e")) );
+        assertTrue( sut.dominates(idx("c"), idx("lc")) );
+        assertFalse( sut.dominates(idx("t1"), idx("t3")) );
+        assertFalse( sut.dominates(a, idx("u")) );
+        assertEquals( CompiledDecisionGraph.NO_NODE, sut.getImmediateDominator(idx("u")) );
+    }
+
+    @Test
+    public void testCycles() {
+        assertTrue( sut.isOnCycle(idx("lt")) );
+        assertTrue( sut.isOnCycle(idx("lc")) );
+        assertEquals( sut.getComponent(idx("lt")), sut.getComponent(idx("loop")) );
+        assertFalse( sut.isOnCycle(idx("a")) );
+        assertFalse( sut.isOnCycle(idx("c")) );
+        assertNotEquals( sut.getComponent(idx("a")), sut.getComponent(idx("t3")) );
+        assertTrue( sut.getComponentCount() < sut.getNodeCount() );
+    }
+
+    @Test
+    public void testCaching() {
+        assertSame( sut, dg.getAnalysis() );
+
+        List<ValidationMessage> messages = new UnreachableNodeValidator().validate(dg);
+        assertSame( sut, dg.getAnalysis() );
+        assertEquals( 1, messages.size() );
+        assertTrue( messages.get(0).getMessage().contains("]u") );
+
+        EndNode another = dg.add( new EndNode("another") );
+        GraphAnalysis updated = dg.getAnalysis();
+        assertNotSame( sut, updated );
+        assertEquals( sut.getNodeCount()+1, updated.getNodeCount() );
+        assertFalse( updated.isReachable(updated.indexOf(another)) );
+    }
+
+}
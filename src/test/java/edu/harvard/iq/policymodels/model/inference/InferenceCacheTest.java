@@ -0,0 +1,138 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.inference.InferenceCache.EvictionPolicy;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
+import edu.harvard.iq.policymodels.runtime.RuntimeEngine;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import static edu.harvard.iq.util.PolicySpaceHelper.buildValue;
+import java.util.Collections;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class InferenceCacheTest {
+
+    CompoundSlot base;
+    CompoundValue x0, x1, x2, y0;
+
+    @Before
+    public void setup() throws Exception {
+        base = new TagSpaceParser().parse("Base: consists of X, Y.\n"
+                                        + "X: one of X0, X1, X2.\n"
+                                        + "Y: one of Y0, Y1.").buildType("Base").get();
+        x0 = buildValue(base, "X/X0");
+        x1 = buildValue(base, "X/X1");
+        x2 = buildValue(base, "X/X2");
+        y0 = buildValue(base, "Y/Y0");
+    }
+
+    @Test
+    public void testGetPut() {
+        InferenceCache sut = new InferenceCache(10);
+        assertNull( sut.get(x0) );
+        sut.put(x0, buildValue(base, "X/X0; Y/Y0"));
+        sut.put(x1, x1);
+
+        assertEquals( buildValue(base, "X/X0; Y/Y0"), sut.get(buildValue(base, "X/X0")) );
+        CompoundValue lookup = buildValue(base, "X/X1");
+        assertSame( lookup, sut.get(lookup) );
+
+        assertEquals( 2, sut.getHitCount() );
+        assertEquals( 1, sut.getMissCount() );
+        assertEquals( 2, sut.size() );
+
+        // keys are copied
+        x0.put(y0.get(base.getSubSlot("Y")));
+        assertEquals( buildValue(base, "X/X0; Y/Y0"), sut.get(buildValue(base, "X/X0")) );
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        InferenceCache sut = new InferenceCache(2, EvictionPolicy.LEAST_RECENTLY_USED);
+        sut.put(x0, x0);
+        sut.put(x1, x1);
+        sut.get(x0);
+        sut.put(x2, x2);
+        assertEquals( 2, sut.size() );
+        assertEquals( 1, sut.getEvictionCount() );
+        assertNotNull( sut.get(x0) );
+        assertNull( sut.get(x1) );
+    }
+
+    @Test
+    public void testFirstInFirstOut() {
+        InferenceCache sut = new InferenceCache(2, EvictionPolicy.FIRST_IN_FIRST_OUT);
+        sut.put(x0, x0);
+        sut.put(x1, x1);
+        sut.get(x0);
+        sut.put(x2, x2);
+        assertNull( sut.get(x0) );
+        assertNotNull( sut.get(x1) );
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        StringBuilder code = new StringBuilder("N: one of n0");
+        for ( int i=1; i<1000; i++ ) code.append(", n").append(i);
+        CompoundSlot wide = new TagSpaceParser().parse("Wide: consists of N.\n" + code + ".").buildType("Wide").get();
+
+        InferenceCache sut = new InferenceCache(500);
+        for ( int i=0; i<1000; i++ ) {
+            CompoundValue key = buildValue(wide, "N/n" + i);
+            sut.put(key, key);
+        }
+        assertTrue( sut.size() <= 500 );
+        assertTrue( sut.size() > 400 );
+        assertEquals( 1000-sut.size(), sut.getEvictionCount() );
+    }
+
+    @Test
+    public void testResultsAreCopied() {
+        InferenceCache sut = new InferenceCache(10);
+        CompoundValue result = buildValue(base, "X/X0; Y/Y0");
+        sut.put(x0, result);
+        result.clear(base.getSubSlot("Y"));
+
+        CompoundValue first = sut.get(x0);
+        assertEquals( buildValue(base, "X/X0; Y/Y0"), first );
+        first.clear(base.getSubSlot("Y"));
+        assertEquals( buildValue(base, "X/X0; Y/Y0"), sut.get(x0) );
+    }
+
+    @Test
+    public void testEnginesDoNotShareResults() throws Exception {
+        PolicyModel model = buildModel("Base: consists of X, Y.\n"
+                                     + "X: one of X0, X1, X2.\n"
+                                     + "Y: one of Y0, Y1.",
+                                    "Base",
+                                    "[>q1< ask: {text: x?} {answers: {yes: [set: X=X1]}}]\n"
+                                    + "[>q2< ask: {text: done?} {answers: {yes: [end]}}]\n");
+        SupportValueInferrer xToY = new SupportValueInferrer();
+        xToY.add(new InferencePair(buildValue(model.getSpaceRoot(), "X/X1"), buildValue(model.getSpaceRoot(), "Y/Y1")));
+        model.setValueInferrers(Collections.singleton(xToY));
+        model.freeze();
+
+        RuntimeEngine first = new RuntimeEngine(model);
+        first.start();
+        first.consume(YES);
+        RuntimeEngine second = new RuntimeEngine(model);
+        second.start();
+        second.consume(YES);
+        assertEquals( 1, model.getInferenceCache().getHitCount() );
+
+        CompoundValue expected = buildValue(model.getSpaceRoot(), "X/X1; Y/Y1");
+        assertEquals( expected, second.getCurrentValue() );
+        first.getCurrentValue().put(buildValue(model.getSpaceRoot(), "X/X2").get(model.getSpaceRoot().getSubSlot("X")));
+        assertEquals( expected, second.getCurrentValue() );
+    }
+
+}
@@ -0,0 +1,123 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AggregateValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
+import static edu.harvard.iq.util.PolicySpaceHelper.buildValue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the indexed lookup of the inferrers against a linear scan.
+ *
+ * @author michael
+ */
+public class InferencePairIndexTest {
+
+    private static final String SOURCE =
+            "Base: consists of X, Y, I, A.\n"
+            + "X: one of X0, X1, X2, X3.\n"
+            + "Y: one of Y0, Y1, Y2, Y3.\n"
+            + "I: one of I0, I1, I2, I3.\n"
+            + "A: some of A0, A1.";
+
+    CompoundSlot base;
+    Random rand;
+
+    @Before
+    public void setup() throws Exception {
+        base = new TagSpaceParser().parse(SOURCE).buildType("Base").get();
+        rand = new Random(17);
+    }
+
+    @Test
+    public void testBuild() {
+        SupportValueInferrer sut = new SupportValueInferrer();
+        assertFalse( sut.buildIndex() );
+        sut.add(new InferencePair(buildValue(base, "X/X0; Y/Y0"), buildValue(base, "I/I0")));
+        sut.add(new InferencePair(buildValue(base, "X/X1; Y/Y2"), buildValue(base, "I/I1")));
+        assertTrue( sut.buildIndex() );
+        assertTrue( sut.getIndex().isOrdered() );
+
+        // different slots in the coordinates
+        sut.add(new InferencePair(buildValue(base, "X/X2"), buildValue(base, "I/I2")));
+        assertFalse( sut.buildIndex() );
+
+        // non-atomic slots
+        SupportValueInferrer aggregate = new SupportValueInferrer();
+        AggregateSlot a = (AggregateSlot) base.getSubSlot("A");
+        AggregateValue a0 = a.createInstance();
+        a0.add(a.getItemType().valueOf("A0"));
+        CompoundValue coordinate = base.createInstance();
+        coordinate.put(a0);
+        aggregate.add(new InferencePair(coordinate, buildValue(base, "I/I0")));
+        assertFalse( aggregate.buildIndex() );
+    }
+
+    @Test
+    public void testOrderedParity() {
+        List<CompoundValue> coordinates = Arrays.asList(
+                buildValue(base, "X/X0; Y/Y0"), buildValue(base, "X/X1; Y/Y0"),
+                buildValue(base, "X/X1; Y/Y2"), buildValue(base, "X/X3; Y/Y3"));
+        SupportValueInferrer support = new SupportValueInferrer();
+        ComplianceValueInferrer compliance = new ComplianceValueInferrer();
+        for ( int i=0; i<coordinates.size(); i++ ) {
+            InferencePair pair = new InferencePair(coordinates.get(i), buildValue(base, "I/I"+i));
+            support.add(pair);
+            compliance.add(pair);
+        }
+        assertTrue( support.getIndex().isOrdered() );
+        assertParity(support, compliance);
+    }
+
+    @Test
+    public void testUnorderedParity() {
+        SupportValueInferrer support = new SupportValueInferrer();
+        ComplianceValueInferrer compliance = new ComplianceValueInferrer();
+        for ( String coordinate : Arrays.asList("X/X2; Y/Y0", "X/X0; Y/Y2", "X/X3; Y/Y3", "X/X1; Y/Y1") ) {
+            InferencePair pair = new InferencePair(buildValue(base, coordinate), buildValue(base, "I/I" + coordinate.charAt(3)));
+            support.add(pair);
+            compliance.add(pair);
+        }
+        assertFalse( support.getIndex().isOrdered() );
+        assertParity(support, compliance);
+    }
+
+    private void assertParity( SupportValueInferrer support, ComplianceValueInferrer compliance ) {
+        AtomicSlot x = (AtomicSlot) base.getSubSlot("X");
+        AtomicSlot y = (AtomicSlot) base.getSubSlot("Y");
+        for ( int i=0; i<500; i++ ) {
+            CompoundValue in = base.createInstance();
+            if ( rand.nextInt(5) > 0 ) in.put(x.valueByOrdinal(rand.nextInt(x.getValueCount())));
+            if ( rand.nextInt(5) > 0 ) in.put(y.valueByOrdinal(rand.nextInt(y.getValueCount())));
+            if ( rand.nextInt(3) == 0 ) in.put(((AtomicSlot) base.getSubSlot("I")).valueOf("I3"));
+
+            assertEquals( linearSupport(support.getInferencePairs(), in), support.apply(in) );
+            assertEquals( linearCompliance(compliance.getInferencePairs(), in), compliance.apply(in) );
+        }
+    }
+
+    private CompoundValue linearSupport( List<InferencePair> pairs, CompoundValue in ) {
+        Optional<InferencePair> found = pairs.stream()
+                .filter( p -> p.getMinimalCoordinate().compare(in.project(p.getMinimalCoordinate().getNonEmptySubSlots())).isGtE )
+                .findFirst();
+        return found.map( p -> in.composeWith(p.getInferredValue()) ).orElse(in);
+    }
+
+    private CompoundValue linearCompliance( List<InferencePair> pairs, CompoundValue in ) {
+        Optional<InferencePair> found = pairs.stream()
+                .filter( p -> in.project(p.getMinimalCoordinate().getNonEmptySubSlots()).compare(p.getMinimalCoordinate()).isGtE )
+                .reduce( (a,b)->b );
+        return found.map( p -> in.composeWith(p.getInferredValue()) ).orElse(in);
+    }
+
+}
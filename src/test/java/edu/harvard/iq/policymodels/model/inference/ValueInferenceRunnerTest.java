@@ -0,0 +1,111 @@
+package edu.harvard.iq.policymodels.model.inference;
+
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer.InferencePair;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
+import static edu.harvard.iq.policymodels.util.CollectionHelper.C;
+import static edu.harvard.iq.util.PolicySpaceHelper.buildValue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the incremental inference against the full one.
+ *
+ * @author michael
+ */
+public class ValueInferenceRunnerTest {
+
+    private static final String SOURCE =
+            "Base: consists of X, Y, Z, I, J, K.\n"
+            + "X: one of X0, X1, X2.\n"
+            + "Y: one of Y0, Y1, Y2.\n"
+            + "Z: one of Z0, Z1, Z2.\n"
+            + "I: one of I0, I1, I2.\n"
+            + "J: one of J0, J1, J2.\n"
+            + "K: one of K0, K1, K2.";
+
+    CompoundSlot base;
+    SupportValueInferrer xyToI, iToJ;
+    ComplianceValueInferrer zToK;
+    ValueInferenceRunner sut;
+
+    @Before
+    public void setup() throws Exception {
+        base = new TagSpaceParser().parse(SOURCE).buildType("Base").get();
+
+        xyToI = new SupportValueInferrer();
+        xyToI.add(new InferencePair(buildValue(base, "X/X0; Y/Y0"), buildValue(base, "I/I0")));
+        xyToI.add(new InferencePair(buildValue(base, "X/X1; Y/Y1"), buildValue(base, "I/I1")));
+        xyToI.add(new InferencePair(buildValue(base, "X/X2; Y/Y2"), buildValue(base, "I/I2")));
+
+        iToJ = new SupportValueInferrer();
+        iToJ.add(new InferencePair(buildValue(base, "I/I0"), buildValue(base, "J/J0")));
+        iToJ.add(new InferencePair(buildValue(base, "I/I1"), buildValue(base, "J/J1")));
+        iToJ.add(new InferencePair(buildValue(base, "I/I2"), buildValue(base, "J/J2")));
+
+        zToK = new ComplianceValueInferrer();
+        zToK.add(new InferencePair(buildValue(base, "Z/Z0"), buildValue(base, "K/K0")));
+        zToK.add(new InferencePair(buildValue(base, "Z/Z1"), buildValue(base, "K/K1")));
+        zToK.add(new InferencePair(buildValue(base, "Z/Z2"), buildValue(base, "K/K2")));
+
+        sut = new ValueInferenceRunner(Arrays.asList(xyToI, iToJ, zToK));
+    }
+
+    @Test
+    public void testSlots() {
+        assertEquals( C.set(base.getSubSlot("X"), base.getSubSlot("Y")), sut.getInputSlots(xyToI) );
+        assertEquals( C.set(base.getSubSlot("I")), sut.getOutputSlots(xyToI) );
+        assertEquals( C.set(base.getSubSlot("I")), sut.getInputSlots(iToJ) );
+        assertEquals( C.set(base.getSubSlot("K")), sut.getOutputSlots(zToK) );
+    }
+
+    @Test
+    public void testChain() {
+        assertEquals( buildValue(base, "X/X1; Y/Y1; I/I1; J/J1"), sut.apply(buildValue(base, "X/X1; Y/Y1")) );
+
+        CompoundValue fixpoint = sut.apply(buildValue(base, "X/X1; Y/Y1"));
+        CompoundValue next = fixpoint.composeWith(buildValue(base, "Z/Z2"));
+        assertEquals( buildValue(base, "X/X1; Y/Y1; I/I1; J/J1; Z/Z2; K/K2"), sut.applyIncremental(fixpoint, next) );
+    }
+
+    @Test
+    public void testIncrementalParity() {
+        Random rand = new Random(11);
+        List<String> slotNames = Arrays.asList("X", "Y", "Z");
+        for ( int run=0; run<200; run++ ) {
+            CompoundValue fixpoint = sut.apply(base.createInstance());
+            for ( int step=0; step<5; step++ ) {
+                AtomicSlot slot = (AtomicSlot) base.getSubSlot(slotNames.get(rand.nextInt(slotNames.size())));
+                CompoundValue set = base.createInstance();
+                set.put(slot.valueByOrdinal(rand.nextInt(3)));
+                CompoundValue composed = fixpoint.composeWith(set);
+
+                CompoundValue incremental = sut.applyIncremental(fixpoint, composed);
+                assertEquals( sut.apply(composed), incremental );
+                fixpoint = incremental;
+            }
+        }
+    }
+
+    @Test
+    public void testCache() {
+        InferenceCache cache = new InferenceCache(100);
+        ValueInferenceRunner cached = new ValueInferenceRunner(Arrays.asList(xyToI, iToJ, zToK), cache);
+        CompoundValue in = buildValue(base, "X/X1; Y/Y1");
+        assertEquals( sut.apply(in), cached.apply(in) );
+        assertEquals( sut.apply(in), cached.apply(buildValue(base, "X/X1; Y/Y1")) );
+        assertEquals( 1, cache.getHitCount() );
+
+        CompoundValue unchanged = buildValue(base, "K/K1");
+        assertSame( unchanged, cached.apply(unchanged) );
+        assertSame( unchanged, cached.apply(unchanged) );
+        assertEquals( 2, cache.getHitCount() );
+    }
+
+}
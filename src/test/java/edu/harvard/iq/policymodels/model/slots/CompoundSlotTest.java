@@ -83,6 +83,29 @@ public class CompoundSlotTest {
         
     }
     
+    @Test
+    public void testOrdinals() {
+        assertEquals( 0, ctSut.ordinalOf(stA) );
+        assertEquals( 1, ctSut.ordinalOf(stB) );
+        assertEquals( 2, ctSut.ordinalOf(aggT) );
+        assertEquals( -1, ctSut.ordinalOf(new AtomicSlot("NotThere", null)) );
+        
+        CompoundValue val = ctSut.createInstance();
+        val.put( values.get(stB).get(2) );
+        
+        // ordinals are not reused, so existing values are not affected
+        ctSut.removeSubSlot(stA);
+        assertEquals( -1, ctSut.ordinalOf(stA) );
+        assertEquals( 1, ctSut.ordinalOf(stB) );
+        AtomicSlot stC = new AtomicSlot("C", null);
+        ctSut.addSubSlot(stC);
+        assertEquals( 3, ctSut.ordinalOf(stC) );
+        
+        assertEquals( values.get(stB).get(2), val.get(stB) );
+        val.put( stC.registerValue("C-0", null) );
+        assertEquals( C.set(stB, stC), val.getNonEmptySubSlots() );
+    }
+    
     @Test( expected=IllegalArgumentException.class)
     public void testSimpleSet_fail() {
         CompoundValue val = ctSut.createInstance();
@@ -0,0 +1,113 @@
+package edu.harvard.iq.policymodels.model.values;
+
+import edu.harvard.iq.policymodels.model.policyspace.slots.AbstractSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.AggregateValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.PackedCompoundValue;
+import edu.harvard.iq.policymodels.model.policyspace.values.PackedValueLayout;
+import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the packed value representation against the regular one.
+ *
+ * @author michael
+ */
+public class PackedCompoundValueTest {
+
+    CompoundSlot space;
+    PackedValueLayout layout;
+    Random rand;
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder code = new StringBuilder();
+        code.append("Root: consists of Bag, Burrito, Many, Lots, Later.\n")
+            .append("Bag: one of banana_leaf, paper, plastic.\n")
+            .append("Burrito: consists of Wrap, Main, Side.\n")
+            .append("Wrap: one of corn, full_grain, wheat.\n")
+            .append("Main: one of chicken, tofu, beef, seitan.\n")
+            .append("Side: some of rice, corn, guacamole, cream, cheese.\n")
+            .append("Later: TODO.\n");
+        // slots that do not fit in a single word.
+        code.append("Many: one of ");
+        for ( int i=0; i<300; i++ ) code.append(i>0 ? ", " : "").append("m").append(i);
+        code.append(".\nLots: some of ");
+        for ( int i=0; i<100; i++ ) code.append(i>0 ? ", " : "").append("l").append(i);
+        code.append(".\n");
+
+        space = new TagSpaceParser().parse(code.toString()).buildType("Root").get();
+        layout = new PackedValueLayout(space);
+        rand = new Random(7);
+    }
+
+    private CompoundValue randomValue( CompoundSlot slot ) {
+        CompoundValue value = slot.createInstance();
+        for ( AbstractSlot sub : slot.getSubSlots() ) {
+            if ( rand.nextBoolean() ) continue;
+            if ( sub instanceof AtomicSlot ) {
+                AtomicSlot as = (AtomicSlot) sub;
+                value.put(as.valueByOrdinal(rand.nextInt(as.getValueCount())));
+            } else if ( sub instanceof AggregateSlot ) {
+                AggregateSlot ags = (AggregateSlot) sub;
+                AggregateValue av = ags.createInstance();
+                int itemCount = ags.getItemType().getValueCount();
+                for ( int i=0; i<itemCount; i++ ) {
+                    if ( rand.nextInt(4) == 0 ) av.add(ags.getItemType().valueByOrdinal(i));
+                }
+                value.put(av);
+            } else if ( sub instanceof CompoundSlot ) {
+                value.put(randomValue((CompoundSlot) sub));
+            } else {
+                value.put(((ToDoSlot) sub).getValue());
+            }
+        }
+        return value;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for ( int i=0; i<500; i++ ) {
+            CompoundValue value = randomValue(space);
+            PackedCompoundValue packed = layout.pack(value);
+            assertEquals( value, packed.unpack() );
+            assertEquals( packed, layout.fromWords(packed.getWords()) );
+            assertEquals( value.isEmpty(), packed.isEmpty() );
+        }
+    }
+
+    @Test
+    public void testOperationsParity() {
+        for ( int i=0; i<2000; i++ ) {
+            CompoundValue a = randomValue(space);
+            CompoundValue b = (i%3==0) ? a.composeWith(randomValue(space)) : randomValue(space);
+            PackedCompoundValue pa = layout.pack(a);
+            PackedCompoundValue pb = layout.pack(b);
+
+            assertEquals( a.composeWith(b), pa.composeWith(pb).unpack() );
+            assertEquals( layout.pack(a.composeWith(b)), pa.composeWith(pb) );
+            assertEquals( a.isSupersetOf(b), pa.isSupersetOf(pb) );
+            assertEquals( b.isSupersetOf(a), pb.isSupersetOf(pa) );
+            assertEquals( a.equals(b), pa.equals(pb) );
+
+            Set<AbstractSlot> slots = new HashSet<>();
+            space.getSubSlots().stream().filter( s -> rand.nextBoolean() ).forEach( slots::add );
+            assertEquals( a.project(slots), pa.project(slots).unpack() );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSlot() {
+        layout.pack( ((CompoundSlot)space.getSubSlot("Burrito")).createInstance() );
+    }
+
+}
@@ -0,0 +1,235 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.io.PolicyModelDataParser;
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.inference.AbstractValueInferrer;
+import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
+import edu.harvard.iq.policymodels.tools.queries.RunSummarizer;
+import edu.harvard.iq.policymodels.tools.queries.RunSummary;
+import edu.harvard.iq.util.ModelDirectoryHelper;
+import static edu.harvard.iq.util.ModelDirectoryHelper.changeDuringLoad;
+import static edu.harvard.iq.util.ModelDirectoryHelper.writeMetadata;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author michael
+ */
+public class CompiledModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path modelDir;
+    Path cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        modelDir = folder.newFolder("model").toPath();
+        cacheDir = folder.getRoot().toPath().resolve("cache");
+
+        writeMetadata(modelDir, "Cache Test", true);
+        write("space.pspace", "Base: consists of Harm, Encryption, Animals, Details, Later.\n"
+                + "Harm: one of none [no harm at all], minor, major.\n"
+                + "Encryption: one of clear, serverSide, doubleEncrypt.\n"
+                + "Animals: some of cats, dogs, frogs.\n"
+                + "Details: consists of Size, Color.\n"
+                + "Size: one of small, large.\n"
+                + "Color: some of red, green.\n"
+                + "Later: TODO.\n");
+        write("main.dg", "[#import pets: pets.dg]\n"
+                + "[set: Harm=none]\n"
+                + "[>harm< ask:\n"
+                + "  {text: How harmful?}\n"
+                + "  {terms: {harm: Damage, of any kind.}}\n"
+                + "  {answers:\n"
+                + "    {little: [set: Harm=minor]}\n"
+                + "    {very: [set: Harm=major; Size=large]}\n"
+                + "  }\n"
+                + "]\n"
+                + "[>sec< section: {title: Pets}\n"
+                + "  [call: pets>pets]\n"
+                + "  [todo: more pets]\n"
+                + "]\n"
+                + "[>cons< consider: {slot: Harm}\n"
+                + "  {options: {major: [reject: too harmful]}}\n"
+                + "  {else: [set: Color += red]}\n"
+                + "]\n"
+                + "[end]\n");
+        write("pets.dg", "[-->pets<\n"
+                + "  [>pet-sec< section: {title: Which pets}\n"
+                + "    [>q-pets< ask:\n"
+                + "      {text: Which pets?}\n"
+                + "      {answers:\n"
+                + "        {cats: [set: Animals += cats]}\n"
+                + "        {both: [set: Animals += cats, dogs]}\n"
+                + "        {none: [continue]}\n"
+                + "      }\n"
+                + "    ]\n"
+                + "    [set: Color += green]\n"
+                + "  ]\n"
+                + "--]\n");
+        write("inference.vi", "[Encryption: support\n"
+                + "  [ Harm=none  -> clear         ]\n"
+                + "  [ Harm=minor -> serverSide    ]\n"
+                + "  [ Harm=major -> doubleEncrypt ]\n"
+                + "]\n");
+    }
+
+    private void write( String fileName, String content ) throws Exception {
+        ModelDirectoryHelper.write(modelDir, fileName, content);
+    }
+
+    private PolicyModelLoadResult load() throws Exception {
+        PolicyModelData data = new PolicyModelDataParser().read(modelDir.resolve(PolicyModelDataParser.DEFAULT_FILENAME));
+        PolicyModelLoader loader = PolicyModelLoader.productionLoader();
+        loader.setModelCache(new CompiledModelCache(cacheDir));
+        PolicyModelLoadResult res = loader.load(data);
+        assertTrue( res.getMessages().toString(), res.isSuccessful() );
+        return res;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PolicyModelLoadResult fromSources = load();
+        assertFalse( fromSources.isLoadedFromCache() );
+        PolicyModelLoadResult fromCache = load();
+        assertTrue( fromCache.isLoadedFromCache() );
+
+        PolicyModel expected = fromSources.getModel();
+        PolicyModel actual = fromCache.getModel();
+
+        assertEquals( expected.getSpaceRoot(), actual.getSpaceRoot() );
+        assertEquals( expected.getSpaceRoot().getSubSlots(), actual.getSpaceRoot().getSubSlots() );
+        assertEquals( "no harm at all", ((AtomicSlot)actual.getSpaceRoot().getSubSlot("Harm")).valueOf("none").getNote() );
+        assertEquals( expected.getDecisionGraph().nodeIds(), actual.getDecisionGraph().nodeIds() );
+        assertEquals( expected.getDecisionGraph().getStart().getId(), actual.getDecisionGraph().getStart().getId() );
+
+        // dense ids are the same
+        CompiledDecisionGraph expectedCdg = expected.getCompiledDecisionGraph();
+        CompiledDecisionGraph actualCdg = actual.getCompiledDecisionGraph();
+        assertEquals( expectedCdg.getNodeCount(), actualCdg.getNodeCount() );
+        for ( int i=0; i<expectedCdg.getNodeCount(); i++ ) {
+            assertEquals( expectedCdg.getNode(i).getId(), actualCdg.getNode(i).getId() );
+            assertEquals( expectedCdg.getKind(i), actualCdg.getKind(i) );
+            assertEquals( expectedCdg.getNext(i), actualCdg.getNext(i) );
+            assertEquals( expectedCdg.getInner(i), actualCdg.getInner(i) );
+        }
+
+        AskNode expectedAsk = (AskNode) findNode(expected, "harm");
+        AskNode actualAsk = (AskNode) findNode(actual, "harm");
+        assertEquals( expectedAsk.getText(), actualAsk.getText() );
+        assertEquals( expectedAsk.getTermOrder(), actualAsk.getTermOrder() );
+        assertEquals( expectedAsk.getTermText("harm"), actualAsk.getTermText("harm") );
+        assertEquals( expectedAsk.getAnswers(), actualAsk.getAnswers() );
+
+        assertEquals( pairs(expected), pairs(actual) );
+
+        RunSummary expectedRuns = new RunSummarizer(expected).summarize();
+        RunSummary actualRuns = new RunSummarizer(actual).summarize();
+        assertEquals( expectedRuns.getRunCount(), actualRuns.getRunCount() );
+        assertEquals( expectedRuns.getRejectedCount(), actualRuns.getRejectedCount() );
+        assertEquals( expectedRuns.getFinalValues(), actualRuns.getFinalValues() );
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        load();
+        assertTrue( load().isLoadedFromCache() );
+
+        // change an imported file
+        write("pets.dg", "[-->pets<\n"
+                + "  [>q-pets< ask:\n"
+                + "    {text: Which pets?}\n"
+                + "    {answers:\n"
+                + "      {frogs: [set: Animals += frogs]}\n"
+                + "    }\n"
+                + "  ]\n"
+                + "--]\n");
+        PolicyModelLoadResult res = load();
+        assertFalse( res.isLoadedFromCache() );
+        assertEquals( 1, ((AskNode)findNode(res.getModel(), "q-pets")).getAnswers().size() );
+
+        res = load();
+        assertTrue( res.isLoadedFromCache() );
+        assertEquals( 1, ((AskNode)findNode(res.getModel(), "q-pets")).getAnswers().size() );
+    }
+
+    @Test
+    public void testChangeDuringLoad() throws Exception {
+        PolicyModelData data = new PolicyModelDataParser().read(modelDir.resolve(PolicyModelDataParser.DEFAULT_FILENAME));
+        PolicyModelLoader loader = PolicyModelLoader.productionLoader();
+        loader.setModelCache(new CompiledModelCache(cacheDir));
+        loader.add( changeDuringLoad("pets", modelDir.resolve("pets.dg"),
+                "[-->pets< [>q-pets< ask: {text: Which pets?} {answers: {frogs: [set: Animals += frogs]}}] --]\n") );
+        PolicyModelLoadResult stale = loader.load(data);
+        assertTrue( stale.getMessages().toString(), stale.isSuccessful() );
+        assertEquals( 3, ((AskNode)findNode(stale.getModel(), "q-pets")).getAnswers().size() );
+
+        PolicyModelLoadResult res = loader.load(data);
+        assertFalse( res.isLoadedFromCache() );
+        assertEquals( 1, ((AskNode)findNode(res.getModel(), "q-pets")).getAnswers().size() );
+        assertTrue( loader.load(data).isLoadedFromCache() );
+    }
+
+    @Test
+    public void testSpaceChangeDuringLoad() throws Exception {
+        PolicyModelData data = new PolicyModelDataParser().read(modelDir.resolve(PolicyModelDataParser.DEFAULT_FILENAME));
+        PolicyModelLoader loader = PolicyModelLoader.productionLoader();
+        loader.setModelCache(new CompiledModelCache(cacheDir));
+        // the space is parsed before the decision graph, so this changes it after it was parsed.
+        Path space = modelDir.resolve("space.pspace");
+        String newSpace = new String(Files.readAllBytes(space), StandardCharsets.UTF_8)
+                            .replace("minor, major.", "minor, major, catastrophic.");
+        loader.add( changeDuringLoad(null, space, newSpace) );
+        PolicyModelLoadResult stale = loader.load(data);
+        assertTrue( stale.getMessages().toString(), stale.isSuccessful() );
+        assertEquals( 3, ((AtomicSlot)stale.getModel().getSpaceRoot().getSubSlot("Harm")).getValueCount() );
+
+        PolicyModelLoadResult res = loader.load(data);
+        assertFalse( res.isLoadedFromCache() );
+        assertEquals( 4, ((AtomicSlot)res.getModel().getSpaceRoot().getSubSlot("Harm")).getValueCount() );
+        assertTrue( loader.load(data).isLoadedFromCache() );
+    }
+
+    @Test
+    public void testCorruptCacheFile() throws Exception {
+        load();
+        Path cacheFile = new CompiledModelCache(cacheDir).cacheFileFor(
+                new PolicyModelDataParser().read(modelDir.resolve(PolicyModelDataParser.DEFAULT_FILENAME)));
+        byte[] content = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(content, content.length/2));
+
+        assertFalse( load().isLoadedFromCache() );
+        assertTrue( load().isLoadedFromCache() );
+    }
+
+    private Node findNode( PolicyModel model, String idSuffix ) {
+        for ( Node nd : model.getDecisionGraph().nodes() ) {
+            if ( nd.getId().endsWith("]" + idSuffix) ) return nd;
+        }
+        fail("Node " + idSuffix + " not found");
+        return null;
+    }
+
+    private List<AbstractValueInferrer.InferencePair> pairs( PolicyModel model ) {
+        List<AbstractValueInferrer.InferencePair> out = new ArrayList<>();
+        model.getValueInferrers().forEach( inf -> out.addAll(inf.getInferencePairs()) );
+        return out;
+    }
+
+}
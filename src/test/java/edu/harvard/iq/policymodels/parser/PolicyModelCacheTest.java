@@ -0,0 +1,166 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.tools.DecisionGraphAstValidator;
+import static edu.harvard.iq.util.ModelDirectoryHelper.changeDuringLoad;
+import static edu.harvard.iq.util.ModelDirectoryHelper.write;
+import static edu.harvard.iq.util.ModelDirectoryHelper.writeModel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author michael
+ */
+public class PolicyModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createModel( String name ) throws Exception {
+        return writeModel(folder.getRoot().toPath().resolve(name), name, "[-->p< [set: Harm=none] --]\n");
+    }
+
+    @Test
+    public void testHitAndReload() throws Exception {
+        Path model = createModel("m");
+        PolicyModelCache sut = new PolicyModelCache(1024*1024);
+
+        PolicyModelLoadResult first = sut.get(model);
+        assertTrue( first.isSuccessful() );
+        assertTrue( first.getModel().isFrozen() );
+        assertSame( first, sut.get(model) );
+        assertEquals( 1, sut.getLoadCount() );
+        assertEquals( 1, sut.getHitCount() );
+
+        // touching a file without changing it does not cause a reload.
+        Path sub = model.getParent().resolve("sub.dg");
+        Files.setLastModifiedTime(sub, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        assertSame( first, sut.get(model) );
+        assertEquals( 1, sut.getLoadCount() );
+
+        // changing an imported file does.
+        write(model.getParent(), "sub.dg", "[-->p< [set: Harm=major] [todo: more] --]\n");
+        PolicyModelLoadResult second = sut.get(model);
+        assertNotSame( first, second );
+        assertEquals( 2, sut.getLoadCount() );
+        assertEquals( first.getModel().getDecisionGraph().nodeIds().size() + 1,
+                      second.getModel().getDecisionGraph().nodeIds().size() );
+        assertEquals( 1, sut.size() );
+    }
+
+    @Test
+    public void testChangeDuringLoad() throws Exception {
+        Path model = createModel("m");
+        Path sub = model.getParent().resolve("sub.dg");
+        DecisionGraphAstValidator change = changeDuringLoad("p", sub, "[-->p< [set: Harm=major] [todo: more] --]\n");
+        PolicyModelCache sut = new PolicyModelCache(1024*1024, () -> {
+            PolicyModelLoader loader = PolicyModelLoader.productionLoader();
+            loader.add(change);
+            return loader;
+        });
+
+        PolicyModelLoadResult stale = sut.get(model);
+        PolicyModelLoadResult current = sut.get(model);
+        assertNotSame( stale, current );
+        assertEquals( 2, sut.getLoadCount() );
+        assertEquals( stale.getModel().getDecisionGraph().nodeIds().size() + 1,
+                      current.getModel().getDecisionGraph().nodeIds().size() );
+        assertSame( current, sut.get(model) );
+    }
+
+    @Test
+    public void testFailedLoadNotStored() throws Exception {
+        Path model = createModel("m");
+        write(model.getParent(), "sub.dg", "[-->p< [set: Harm=nonexistent] --]\n");
+        PolicyModelCache sut = new PolicyModelCache(1024*1024);
+        assertNull( sut.getModel(model) );
+        assertEquals( 0, sut.size() );
+        assertNull( sut.getModel(model) );
+        assertEquals( 2, sut.getLoadCount() );
+    }
+
+    @Test
+    public void testLruEviction() throws Exception {
+        Path m0 = createModel("m0");
+        Path m1 = createModel("m1");
+        Path m2 = createModel("m2");
+        long modelSize = PolicyModelCache.estimateSize(new PolicyModelCache(1).get(m0).getModel());
+
+        PolicyModelCache sut = new PolicyModelCache(modelSize * 5 / 2);
+        sut.get(m0);
+        sut.get(m1);
+        sut.get(m0);
+        sut.get(m2);
+        assertEquals( 2, sut.size() );
+        assertEquals( 1, sut.getEvictionCount() );
+        assertTrue( sut.contains(m0) );
+        assertFalse( sut.contains(m1) );
+        assertTrue( sut.contains(m2) );
+        assertTrue( sut.getEstimatedSize() <= sut.getHeapBudget() );
+
+        // evicted models are loaded again when requested.
+        assertTrue( sut.get(m1).isSuccessful() );
+        assertEquals( 4, sut.getLoadCount() );
+        assertFalse( sut.contains(m0) );
+    }
+
+    @Test
+    public void testOversizedModelIsKept() throws Exception {
+        Path m0 = createModel("m0");
+        PolicyModelCache sut = new PolicyModelCache(1);
+        sut.get(m0);
+        assertTrue( sut.contains(m0) );
+        sut.get(m0);
+        assertEquals( 1, sut.getLoadCount() );
+    }
+
+    @Test
+    public void testConcurrentLoadsDeduplicated() throws Exception {
+        Path model = createModel("m");
+        AtomicInteger loaderCount = new AtomicInteger();
+        PolicyModelCache sut = new PolicyModelCache(1024*1024, () -> {
+            loaderCount.incrementAndGet();
+            try {
+                Thread.sleep(200); // make loads slow, so requests overlap.
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return PolicyModelLoader.productionLoader();
+        });
+
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<PolicyModelLoadResult>> results = new ArrayList<>();
+            for ( int i=0; i<8; i++ ) {
+                results.add( exec.submit(() -> {
+                    go.await();
+                    return sut.get(model);
+                }));
+            }
+            go.countDown();
+            PolicyModelLoadResult first = results.get(0).get(30, TimeUnit.SECONDS);
+            for ( Future<PolicyModelLoadResult> f : results ) {
+                assertSame( first, f.get(30, TimeUnit.SECONDS) );
+            }
+            assertEquals( 1, loaderCount.get() );
+            assertEquals( 1, sut.getLoadCount() );
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+}
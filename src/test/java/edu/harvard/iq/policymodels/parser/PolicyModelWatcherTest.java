@@ -0,0 +1,129 @@
+package edu.harvard.iq.policymodels.parser;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.tools.ValidationMessage;
+import edu.harvard.iq.util.ModelDirectoryHelper;
+import static edu.harvard.iq.util.ModelDirectoryHelper.writeModel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author michael
+ */
+public class PolicyModelWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path modelDir;
+    PolicyModelWatcher sut;
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        modelDir = folder.newFolder("model").toPath();
+        writeModel(modelDir, "Watch Test", "[-->p< [>v0< set: Harm=none] --]\n");
+
+        sut = new PolicyModelWatcher(modelDir.resolve("policy-model.xml"), PolicyModelLoader.productionLoader(), null);
+        sut.setDebounceMillis(200);
+        sut.setListener( new PolicyModelWatcher.Listener() {
+            @Override
+            public void modelReloaded(PolicyModelWatcher watcher, PolicyModelLoadResult result) {
+                events.add(result.getModel());
+            }
+
+            @Override
+            public void reloadFailed(PolicyModelWatcher watcher, PolicyModelLoadResult result, List<ValidationMessage> messages) {
+                events.add(messages);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        sut.close();
+    }
+
+    private void write( String fileName, String content ) throws Exception {
+        ModelDirectoryHelper.write(modelDir, fileName, content);
+    }
+
+    private Object nextEvent() throws InterruptedException {
+        Object evt = events.poll(20, TimeUnit.SECONDS);
+        assertNotNull( "Timed out waiting for the watcher", evt );
+        return evt;
+    }
+
+    private boolean hasNode( PolicyModel model, String idSuffix ) {
+        for ( Node nd : model.getDecisionGraph().nodes() ) {
+            if ( nd.getId().endsWith("]" + idSuffix) ) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        sut.start();
+        PolicyModel first = (PolicyModel) nextEvent();
+        assertSame( first, sut.getModel() );
+        assertTrue( hasNode(first, "v0") );
+
+        // A burst of saves results in a single reload, of the last version.
+        for ( int i=1; i<=5; i++ ) {
+            write("sub.dg", "[-->p< [>v" + i + "< set: Harm=minor] --]\n");
+        }
+        PolicyModel second = (PolicyModel) nextEvent();
+        assertSame( second, sut.getModel() );
+        assertTrue( hasNode(second, "v5") );
+        assertNull( events.poll(1, TimeUnit.SECONDS) );
+
+        // The old version is not changed.
+        assertTrue( hasNode(first, "v0") );
+        assertFalse( hasNode(first, "v5") );
+        assertEquals( 2, sut.getVersion() );
+    }
+
+    @Test
+    public void testWatchesImportsOutsideModelDirectory() throws Exception {
+        Path shared = folder.newFolder("shared").toPath();
+        ModelDirectoryHelper.write(shared, "sub.dg", "[-->p< [>s0< set: Harm=none] --]\n");
+        write("main.dg", "[#import sub: ../shared/sub.dg]\n[call: sub>p]\n[end]\n");
+        sut.start();
+        PolicyModel first = (PolicyModel) nextEvent();
+        assertTrue( hasNode(first, "s0") );
+
+        ModelDirectoryHelper.write(shared, "sub.dg", "[-->p< [>s1< set: Harm=minor] --]\n");
+        PolicyModel second = (PolicyModel) nextEvent();
+        assertTrue( hasNode(second, "s1") );
+    }
+
+    @Test
+    public void testFailedReloadKeepsModel() throws Exception {
+        sut.start();
+        PolicyModel first = (PolicyModel) nextEvent();
+
+        write("sub.dg", "[-->p< [set: Harm=nonexistent] --]\n");
+        Object evt = nextEvent();
+        assertTrue( evt instanceof List );
+        assertFalse( ((List<?>)evt).isEmpty() );
+        assertSame( first, sut.getModel() );
+        assertEquals( 1, sut.getVersion() );
+
+        write("sub.dg", "[-->p< [>fixed< set: Harm=major] --]\n");
+        PolicyModel fixed = (PolicyModel) nextEvent();
+        assertSame( fixed, sut.getModel() );
+        assertTrue( hasNode(fixed, "fixed") );
+    }
+
+}
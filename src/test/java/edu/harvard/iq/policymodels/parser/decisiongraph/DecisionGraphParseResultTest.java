@@ -33,9 +33,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinWorkerThread;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -703,6 +707,140 @@ public class DecisionGraphParseResultTest {
                             "[SYN-END]"), actual.nodeIds());
     }
     
+    @Test
+    public void parallelImports() throws IOException {
+        Map<Path, String> pathToString = new HashMap<>();
+        StringBuilder main = new StringBuilder();
+        for ( int i=0; i<12; i++ ) {
+            main.append("[#import m").append(i).append(": m").append(i).append(".dg]");
+            // each module imports the next, and a shared one.
+            pathToString.put(Paths.get("/m" + i + ".dg"), 
+                    "[#import next: m" + ((i+1)%12) + ".dg][#import shared: shared.dg]"
+                  + "[-->p< [todo: module " + i + "] [call: shared>s]--]");
+        }
+        main.append("[#import bad: bad.dg]");
+        for ( int i=0; i<12; i++ ) {
+            main.append("[call: m").append(i).append(">p]");
+        }
+        main.append("[call: bad>p]");
+        pathToString.put(Paths.get("/main.dg"), main.toString());
+        pathToString.put(Paths.get("/shared.dg"), "[-->s< [todo: shared]--]");
+        pathToString.put(Paths.get("/bad.dg"), "[-->p< [todo: bad]"); // syntax error
+        
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        
+        DecisionGraphCompiler sequential = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        sequential.setParseExecutor(null);
+        sequential.compile(emptyTagSpace, pmd, new ArrayList<>());
+        
+        pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        DecisionGraphCompiler parallel = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        parallel.compile(emptyTagSpace, pmd, new ArrayList<>());
+        
+        assertTrue( sequential.getMessages().stream().anyMatch(m -> m.getMessage().contains("bad.dg")) );
+        assertEquals( sequential.getMessages().toString(), parallel.getMessages().toString() );
+        
+        // without the bad import, the graph compiles, and node ids are the same.
+        pathToString.put(Paths.get("/bad.dg"), "[-->p< [todo: bad]--]");
+        DecisionGraph expected = new DecisionGraphCompiler(new MemoryContentReader(pathToString)).compile(emptyTagSpace, pmd, new ArrayList<>());
+        parallel = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        parallel.setParseExecutor(null);
+        DecisionGraph actual = parallel.compile(emptyTagSpace, pmd, new ArrayList<>());
+        assertEquals( expected.nodeIds(), actual.nodeIds() );
+    }
+    
+    @Test
+    public void parsedUnitCache() throws IOException {
+        Map<Path, String> pathToString = new HashMap<>();
+        pathToString.put(Paths.get("/main.dg"), "[#import a: a.dg][#import b: b.dg][call: a>p][call: b>p]");
+        pathToString.put(Paths.get("/a.dg"), "[-->p< [todo: a]--]");
+        pathToString.put(Paths.get("/b.dg"), "[-->p< [todo: b]--]");
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        
+        ParsedUnitCache cache = new ParsedUnitCache();
+        DecisionGraphCompiler dgc = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        dgc.setParsedUnitCache(cache);
+        DecisionGraph first = dgc.compile(emptyTagSpace, pmd, new ArrayList<>());
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 3, cache.getMissCount() );
+        assertEquals( 3, cache.size() );
+        
+        dgc = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        dgc.setParsedUnitCache(cache);
+        DecisionGraph second = dgc.compile(emptyTagSpace, pmd, new ArrayList<>());
+        assertEquals( 3, cache.getHitCount() );
+        assertEquals( 3, cache.getMissCount() );
+        assertEquals( first.nodeIds(), second.nodeIds() );
+        // nodes are compiled anew, so the first graph is not affected.
+        String someId = first.nodeIds().iterator().next();
+        assertTrue( first.getNode(someId) != second.getNode(someId) );
+        
+        // only the changed file is parsed again.
+        pathToString.put(Paths.get("/b.dg"), "[-->p< [>changed< todo: b]--]");
+        dgc = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        dgc.setParsedUnitCache(cache);
+        DecisionGraph third = dgc.compile(emptyTagSpace, pmd, new ArrayList<>());
+        assertEquals( 5, cache.getHitCount() );
+        assertEquals( 4, cache.getMissCount() );
+        assertTrue( third.nodeIds().stream().anyMatch( id -> id.endsWith("]changed") ) );
+        assertTrue( first.nodeIds().stream().noneMatch( id -> id.endsWith("]changed") ) );
+    }
+    
+    @Test
+    public void failedCompilationCancelsParses() throws IOException {
+        Map<Path, String> pathToString = new HashMap<>();
+        pathToString.put(Paths.get("/main.dg"), "[#import sub: sub.dg][continue][end]"); // stray [continue]
+        pathToString.put(Paths.get("/sub.dg"), "[-->p< [todo: sub]--]");
+        MemoryContentReader memoryReader = new MemoryContentReader(pathToString);
+        List<Path> readPaths = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
+        
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        DecisionGraphCompiler sut = new DecisionGraphCompiler(path -> {
+            readPaths.add(path);
+            return memoryReader.getContent(path);
+        });
+        sut.setParseExecutor(tasks::add);
+        
+        assertEquals( null, sut.compile(emptyTagSpace, pmd, new ArrayList<>()) );
+        assertEquals( 1, tasks.size() );
+        
+        // the parse of sub.dg was cancelled, so it does not read the file.
+        tasks.forEach( Runnable::run );
+        assertEquals( C.list(Paths.get("/main.dg")), readPaths );
+    }
+    
+    @Test
+    public void importsAreNotReadOnTheCommonPool() throws IOException {
+        Map<Path, String> pathToString = new HashMap<>();
+        pathToString.put(Paths.get("/main.dg"), "[#import sub: sub.dg][call: sub>p][end]");
+        pathToString.put(Paths.get("/sub.dg"), "[-->p< [todo: sub]--]");
+        MemoryContentReader memoryReader = new MemoryContentReader(pathToString);
+        Map<Path, Thread> readingThreads = new ConcurrentHashMap<>();
+        
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        DecisionGraphCompiler sut = new DecisionGraphCompiler(path -> {
+            readingThreads.put(path, Thread.currentThread());
+            return memoryReader.getContent(path);
+        });
+        
+        assertNotNull( sut.compile(emptyTagSpace, pmd, new ArrayList<>()) );
+        Thread subReader = readingThreads.get(Paths.get("/sub.dg"));
+        assertNotNull( subReader );
+        assertFalse( subReader instanceof ForkJoinWorkerThread );
+        assertTrue( subReader.isDaemon() );
+    }
+    
     private DecisionGraph normalize(DecisionGraph dg) {
         dg.setId("normalizedId");
         return dg;
@@ -5,6 +5,11 @@ import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
 import edu.harvard.iq.policymodels.model.policyspace.slots.AggregateSlot;
 import edu.harvard.iq.policymodels.model.policyspace.slots.AtomicSlot;
 import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.parser.exceptions.SemanticsErrorException;
+import edu.harvard.iq.policymodels.parser.exceptions.SyntaxErrorException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -33,4 +38,23 @@ public class TagSpaceParserTest {
         assertNull( ato.getParentSlot() );
 
     }
+    
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        List<String> names = IntStream.range(0, 64).parallel()
+                .mapToObj( i -> {
+                    try {
+                        String typeDef = "top" + i + ": consists of agg, ato.\n"
+                                       + "agg: some of A, B, C.\n"
+                                       + "ato: one of X, Y, Z.";
+                        return new TagSpaceParser().parse(typeDef).buildType("top" + i).get().getName();
+                    } catch (SyntaxErrorException | SemanticsErrorException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }).collect( Collectors.toList() );
+        
+        for ( int i=0; i<64; i++ ) {
+            assertEquals( "top" + i, names.get(i) );
+        }
+    }
 }
@@ -0,0 +1,205 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.NO;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import edu.harvard.iq.policymodels.runtime.exceptions.DataTagsRuntimeException;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class AsyncInterviewTest {
+
+    private static final String SPACE = "Root: consists of Color, Tags.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Tags: some of t1, t2, t3.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: first?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Color=green; Tags+=t1] [call: sub]}\n"
+            + "    {no: [set: Color=red]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>q3< ask:\n"
+            + "  {text: last?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Tags+=t3]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>q2< ask:\n"
+            + "    {text: more?}\n"
+            + "    {answers:\n"
+            + "      {yes: [set: Tags+=t2]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "--]\n";
+
+    private PolicyModel model;
+
+    @Before
+    public void setUp() throws Exception {
+        model = buildModel(SPACE, "Root", CODE).freeze();
+    }
+
+    @Test
+    public void testStepsRunInOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            AsyncInterview sut = new AsyncInterview(new InterviewSession(model), pool);
+            List<AsyncInterview.Step> steps = Collections.synchronizedList(new ArrayList<>());
+            List<String> threads = Collections.synchronizedList(new ArrayList<>());
+            sut.addListener(step -> {
+                steps.add(step);
+                threads.add(Thread.currentThread().getName());
+                return null;
+            });
+
+            // submitted without waiting.
+            sut.start();
+            sut.consume(YES);
+            sut.consume(YES);
+            CompletableFuture<Boolean> last = sut.consume(YES);
+            assertFalse( last.get(5, TimeUnit.SECONDS) );
+            sut.drain().get(5, TimeUnit.SECONDS);
+
+            RuntimeEngine ngn = new RuntimeEngine(model);
+            ngn.start();
+            ngn.consumeAll(YES, YES, YES);
+            assertArrayEquals( ngn.createBinarySnapshot(), sut.query(RuntimeEngine::createBinarySnapshot).get() );
+
+            assertEquals( 4, steps.size() );
+            for ( int i=0; i<steps.size(); i++ ) {
+                assertEquals( i+1, steps.get(i).getNumber() );
+            }
+            assertNull( steps.get(0).getAnswer() );
+            assertEquals( YES, steps.get(1).getAnswer() );
+            assertEquals( RuntimeEngineStatus.Accept, steps.get(3).getStatus() );
+            assertFalse( steps.get(1).getProcessedNodes().isEmpty() );
+            assertFalse( threads.contains(Thread.currentThread().getName()) );
+
+            // the step snapshot is the state after the step.
+            InterviewSession restored = new InterviewSession(model);
+            ngn.getSnapshotCodec().read(steps.get(3).getSnapshot(), restored);
+            assertEquals( ngn.getCurrentValue(), restored.getCurrentValue() );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        AsyncInterview sut = new AsyncInterview(new InterviewSession(model), Runnable::run);
+        sut.setMaxPendingSideEffects(2);
+        List<CompletableFuture<Void>> effects = new ArrayList<>();
+        sut.addListener(step -> {
+            CompletableFuture<Void> effect = new CompletableFuture<>();
+            effects.add(effect);
+            return effect;
+        });
+
+        assertTrue( sut.start().isDone() );
+        assertTrue( sut.consume(YES).isDone() );
+        assertEquals( 2, sut.getPendingSideEffectCount() );
+
+        // the listener is called for the second step after the first one's side effect completes.
+        assertEquals( 1, effects.size() );
+
+        // a third step waits for a side effect to complete.
+        CompletableFuture<Boolean> third = sut.consume(YES);
+        CompletableFuture<Boolean> fourth = sut.consume(YES);
+        assertFalse( third.isDone() );
+        assertFalse( fourth.isDone() );
+        CompletableFuture<Void> drained = sut.drain();
+
+        effects.get(0).complete(null);
+        assertEquals( 2, effects.size() );
+        assertTrue( third.isDone() );
+        assertFalse( fourth.isDone() );
+
+        effects.get(1).complete(null);
+        assertFalse( fourth.get() );
+        assertFalse( drained.isDone() );
+        for ( int i=0; i<effects.size(); i++ ) {
+            effects.get(i).complete(null);
+        }
+        assertEquals( 4, effects.size() );
+        assertTrue( drained.isDone() );
+        assertEquals( 0, sut.getPendingSideEffectCount() );
+    }
+
+    @Test
+    public void testListenerGetsStepsInOrder() throws Exception {
+        AsyncInterview sut = new AsyncInterview(new InterviewSession(model), Runnable::run);
+        List<Long> handled = new ArrayList<>();
+        List<CompletableFuture<Void>> effects = new ArrayList<>();
+        sut.addListener(step -> {
+            handled.add(step.getNumber());
+            CompletableFuture<Void> effect = new CompletableFuture<>();
+            effects.add(effect);
+            return effect;
+        });
+        sut.start();
+        sut.consume(YES);
+        sut.consume(YES);
+
+        // the listener did not get the later steps, while the first is pending...
+        assertEquals( Collections.singletonList(1L), handled );
+        // ...but the interview went on.
+        assertEquals( RuntimeEngineStatus.Running, sut.query(RuntimeEngine::getStatus).get() );
+        assertEquals( "q3", sut.query(e -> e.getCurrentNode().getId().replaceAll(".*\\]", "")).get() );
+
+        effects.get(0).complete(null);
+        effects.get(1).complete(null);
+        assertEquals( Arrays.asList(1L, 2L, 3L), handled );
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        AsyncInterview sut = new AsyncInterview(new InterviewSession(model), Runnable::run);
+        List<Throwable> errors = new ArrayList<>();
+        sut.setSideEffectErrorHandler((step, err) -> errors.add(err));
+        sut.addListener(step -> {
+            if ( step.getNumber() == 2 ) throw new IllegalStateException("audit is down");
+            return null;
+        });
+        List<Long> other = new ArrayList<>();
+        sut.addListener(step -> {
+            other.add(step.getNumber());
+            return null;
+        });
+
+        sut.start();
+        CompletableFuture<Boolean> bad = sut.consume(Answer.withName("maybe"));
+        try {
+            bad.get();
+            fail("Consuming a bad answer should fail");
+        } catch ( ExecutionException ee ) {
+            assertTrue( ee.getCause() instanceof DataTagsRuntimeException );
+        }
+        assertTrue( sut.consume(NO).get() );
+        sut.drain().get();
+
+        assertEquals( 1, errors.size() );
+        assertEquals( "audit is down", errors.get(0).getMessage() );
+        assertEquals( Arrays.asList(1L, 2L, 3L), other );
+    }
+
+}
@@ -0,0 +1,129 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.CompiledDecisionGraph;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import static edu.harvard.iq.util.PolicyModelHelper.randomAnswer;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Makes sure the compiled engine behaves like the regular one.
+ *
+ * @author michael
+ */
+public class CompiledRuntimeEngineTest {
+
+    private static final String SPACE = "Root: consists of Color, Size, Tags.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Size: one of small, large.\n"
+            + "Tags: some of t1, t2, t3.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: color?}\n"
+            + "  {answers:\n"
+            + "    {red: [set: Color=red]}\n"
+            + "    {green: [set: Color=green] [call: sub]}\n"
+            + "    {blue: [set: Color=blue; Tags+=t3]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>sec< section:\n"
+            + "  {title: sizes}\n"
+            + "  [>q2< ask:\n"
+            + "    {text: size?}\n"
+            + "    {answers:\n"
+            + "      {small: [set: Size=small] [continue]}\n"
+            + "      {large: [set: Size=large]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "  [set: Tags+=t2]\n"
+            + "]\n"
+            + "[consider:\n"
+            + "  {slot: Color}\n"
+            + "  {options:\n"
+            + "    {red: [reject: no red]}\n"
+            + "    {green: [set: Tags+=t1]}\n"
+            + "  }\n"
+            + "  {else: [set: Size=small]}\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>q3< ask:\n"
+            + "    {text: tag?}\n"
+            + "    {answers:\n"
+            + "      {yes: [set: Tags+=t1] [end]}\n"
+            + "      {no: [set: Tags+=t2]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "--]\n";
+
+    @Test
+    public void testCompiledIndicesAreStable() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        CompiledDecisionGraph cdgA = CompiledDecisionGraph.compile(model.getDecisionGraph());
+        CompiledDecisionGraph cdgB = CompiledDecisionGraph.compile(model.getDecisionGraph());
+        assertEquals( cdgA.getNodeCount(), cdgB.getNodeCount() );
+        for ( int i=0; i<cdgA.getNodeCount(); i++ ) {
+            assertSame( cdgA.getNode(i), cdgB.getNode(i) );
+        }
+        assertSame( model.getCompiledDecisionGraph(), model.getCompiledDecisionGraph() );
+    }
+
+    @Test
+    public void testParityWithRuntimeEngine() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        CompiledRuntimeEngine cngn = new CompiledRuntimeEngine(model);
+        CompiledInterviewSession session = cngn.newSession();
+        Random rand = new Random(42);
+
+        for ( int run=0; run<200; run++ ) {
+            boolean going = ngn.start();
+            assertEquals( going, cngn.start(session) );
+            while ( going ) {
+                assertSame( ngn.getCurrentNode(), session.getCurrentNode() );
+                Answer ans = randomAnswer(ngn, rand);
+                going = ngn.consume(ans);
+                assertEquals( going, cngn.consume(session, cngn.answerIndex(ans)) );
+                assertEquals( ngn.getCurrentValue(), session.getCurrentValue() );
+                assertEquals( ngn.getStack().size(), session.getStackSize() );
+            }
+            assertEquals( ngn.getStatus(), session.getStatus() );
+            assertSame( ngn.getCurrentNode(), session.getCurrentNode() );
+            assertEquals( ngn.getCurrentValue(), session.getCurrentValue() );
+        }
+    }
+
+    @Test
+    public void testRejectsBadCalls() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        PolicyModel other = buildModel(SPACE, "Root", CODE).freeze();
+        CompiledRuntimeEngine cngn = new CompiledRuntimeEngine(model);
+        CompiledInterviewSession otherSession = new CompiledRuntimeEngine(other).newSession();
+        try {
+            cngn.start(otherSession);
+            fail("Sessions of another graph should not be started");
+        } catch ( IllegalArgumentException expected ) {}
+        assertEquals( RuntimeEngineStatus.Idle, otherSession.getStatus() );
+
+        new CompiledRuntimeEngine(other).start(otherSession);
+        try {
+            cngn.consume(otherSession, 0);
+            fail("Sessions of another graph should not be advanced");
+        } catch ( IllegalArgumentException expected ) {}
+
+        CompiledInterviewSession session = cngn.newSession();
+        try {
+            cngn.consume(session, 0);
+            fail("Sessions that are not at an ask node should not consume answers");
+        } catch ( IllegalStateException expected ) {}
+        cngn.start(session);
+        try {
+            cngn.consume(session, -1);
+            fail("Unknown answers should be rejected");
+        } catch ( IllegalArgumentException expected ) {}
+    }
+
+}
@@ -0,0 +1,205 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import static edu.harvard.iq.util.PolicyModelHelper.randomAnswer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author michael
+ */
+public class InterviewJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String SPACE = "Root: consists of Color, Size, Tags, Extra.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Size: one of small, large.\n"
+            + "Tags: some of t1, t2, t3.\n"
+            + "Extra: consists of E1, E2.\n"
+            + "E1: one of a, b.\n"
+            + "E2: one of c, d.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: color?}\n"
+            + "  {answers:\n"
+            + "    {red: [set: Color=red]}\n"
+            + "    {green: [set: Color=green] [call: sub]}\n"
+            + "    {blue: [set: Color=blue; Tags+=t3]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>sec< section:\n"
+            + "  {title: sizes}\n"
+            + "  [>q2< ask:\n"
+            + "    {text: size?}\n"
+            + "    {answers:\n"
+            + "      {small: [set: Size=small; E1=a] [continue]}\n"
+            + "      {large: [set: Size=large; E2=d]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "  [set: Tags+=t2]\n"
+            + "]\n"
+            + "[>q4< ask:\n"
+            + "  {text: again?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Tags+=t1]}\n"
+            + "    {no: [set: E1=b]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>q3< ask:\n"
+            + "    {text: tag?}\n"
+            + "    {answers:\n"
+            + "      {yes: [set: Tags+=t1] [end]}\n"
+            + "      {no: [set: Tags+=t2]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "--]\n";
+
+    @Test
+    public void testReplayMatchesLiveSession() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        SnapshotCodec codec = ngn.getSnapshotCodec();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        InterviewJournal journal = new InterviewJournal(codec, log);
+        journal.setCheckpointInterval(5);
+        ngn.getSession().setJournal(journal);
+        Random rand = new Random(7);
+
+        int totalSteps = 0;
+        for ( int run=0; run<50; run++ ) {
+            boolean going = ngn.start();
+            while ( going ) {
+                going = ngn.consume(randomAnswer(ngn, rand));
+                totalSteps++;
+
+                InterviewSession replayed = ngn.newSession();
+                int steps = InterviewJournal.replay(codec, ByteBuffer.wrap(log.toByteArray()), replayed);
+                assertTrue( steps < journal.getCheckpointInterval() );
+                assertArrayEquals( codec.encode(ngn.getSession()), codec.encode(replayed) );
+                assertEquals( ngn.getCurrentValue(), replayed.getCurrentValue() );
+                assertEquals( new ArrayList<>(ngn.getStack()), new ArrayList<>(replayed.getStack()) );
+            }
+        }
+        assertTrue( totalSteps > 100 );
+        assertEquals( log.size(), journal.getBytesWritten() );
+
+        // the journal survives clearing the session.
+        ngn.setIdle();
+        InterviewSession replayed = ngn.newSession();
+        InterviewJournal.replay(codec, ByteBuffer.wrap(log.toByteArray()), replayed);
+        assertEquals( RuntimeEngineStatus.Idle, replayed.getStatus() );
+        assertNull( replayed.getCurrentNode() );
+        assertNull( replayed.getCurrentValue() );
+    }
+
+    @Test
+    public void testWriteVolume() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        InterviewJournal journal = new InterviewJournal(ngn.getSnapshotCodec(), log);
+        ngn.getSession().setJournal(journal);
+        Random rand = new Random(11);
+
+        // compare the records written for answers with full snapshots at the same points.
+        // Values in this model are tiny, so snapshots are mostly header; the
+        // difference grows with the size of the value.
+        long stepBytes = 0;
+        long fullSnapshotBytes = 0;
+        for ( int run=0; run<20; run++ ) {
+            boolean going = ngn.start();
+            while ( going ) {
+                long before = journal.getBytesWritten();
+                going = ngn.consume(randomAnswer(ngn, rand));
+                stepBytes += journal.getBytesWritten() - before;
+                fullSnapshotBytes += ngn.createBinarySnapshot().length;
+            }
+        }
+        assertTrue( stepBytes + " vs. " + fullSnapshotBytes, stepBytes * 3 < fullSnapshotBytes * 2 );
+    }
+
+    @Test
+    public void testPartialLastRecordIgnored() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        SnapshotCodec codec = ngn.getSnapshotCodec();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ngn.getSession().setJournal(new InterviewJournal(codec, log));
+
+        ngn.start();
+        ngn.consume(Answer.withName("green"));
+        byte[] beforeLast = codec.encode(ngn.getSession());
+        int completeLength = log.size();
+        ngn.consume(Answer.withName("no"));
+        assertTrue( log.size() > completeLength );
+
+        byte[] bytes = log.toByteArray();
+        for ( int len=completeLength; len<bytes.length; len++ ) {
+            InterviewSession replayed = ngn.newSession();
+            assertEquals( 1, InterviewJournal.replay(codec, ByteBuffer.wrap(Arrays.copyOf(bytes, len)), replayed) );
+            assertArrayEquals( beforeLast, codec.encode(replayed) );
+        }
+        InterviewSession replayed = ngn.newSession();
+        assertEquals( 2, InterviewJournal.replay(codec, ByteBuffer.wrap(bytes), replayed) );
+        assertArrayEquals( codec.encode(ngn.getSession()), codec.encode(replayed) );
+    }
+
+    @Test
+    public void testAppendAfterPartialRecord() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        SnapshotCodec codec = ngn.getSnapshotCodec();
+        Path file = folder.newFile("journal").toPath();
+
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ) ) {
+            ngn.getSession().setJournal(InterviewJournal.append(codec, channel));
+            ngn.start();
+            ngn.consume(Answer.withName("green"));
+            ngn.consume(Answer.withName("no"));
+        }
+        // tear the last record, as if the process died while writing it.
+        long size = Files.size(file);
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+            channel.truncate(size - 2);
+        }
+
+        InterviewSession resumed = ngn.newSession();
+        InterviewJournal.replay(codec, ByteBuffer.wrap(Files.readAllBytes(file)), resumed);
+        ngn.setSession(resumed);
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ) ) {
+            resumed.setJournal(InterviewJournal.append(codec, channel));
+            ngn.consumeAll(Answer.withName("no"), Answer.withName("large"), Answer.withName("yes"));
+        }
+        assertEquals( RuntimeEngineStatus.Accept, ngn.getStatus() );
+
+        InterviewSession replayed = ngn.newSession();
+        InterviewJournal.replay(codec, ByteBuffer.wrap(Files.readAllBytes(file)), replayed);
+        assertArrayEquals( codec.encode(ngn.getSession()), codec.encode(replayed) );
+    }
+
+    @Test( expected=IllegalArgumentException.class )
+    public void testNoCheckpoint() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        SnapshotCodec codec = new SnapshotCodec(model);
+        InterviewJournal.replay(codec, ByteBuffer.wrap(new byte[]{InterviewJournal.STEP, 3, 0}), new InterviewSession(model));
+    }
+
+}
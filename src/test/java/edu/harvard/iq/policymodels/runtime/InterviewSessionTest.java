@@ -0,0 +1,85 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import static edu.harvard.iq.util.DecisionGraphHelper.linearYesChart;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for running multiple interviews on a single, frozen, model.
+ *
+ * @author michael
+ */
+public class InterviewSessionTest {
+
+    private PolicyModel frozenModel( String chartId ) {
+        PolicyModel pm = new PolicyModel();
+        pm.setDecisionGraph(linearYesChart(chartId, 3));
+        pm.setSpaceRoot(new CompoundSlot("", ""));
+        return pm.freeze();
+    }
+
+    @Test
+    public void testInterleavedSessions() {
+        PolicyModel pm = frozenModel("ch");
+        RuntimeEngine ngn = new RuntimeEngine(pm);
+
+        InterviewSession s1 = ngn.getSession();
+        assertTrue( ngn.start() );
+        assertTrue( ngn.consume(YES) );
+
+        InterviewSession s2 = ngn.newSession();
+        ngn.setSession(s2);
+        assertEquals( RuntimeEngineStatus.Idle, ngn.getStatus() );
+        assertTrue( ngn.start() );
+        assertEquals( "ch_1", ngn.getCurrentNode().getId() );
+
+        ngn.setSession(s1);
+        assertEquals( "ch_2", ngn.getCurrentNode().getId() );
+        assertTrue( ngn.consume(YES) );
+        assertFalse( ngn.consume(YES) );
+        assertEquals( RuntimeEngineStatus.Accept, s1.getStatus() );
+
+        assertEquals( "ch_1", s2.getCurrentNode().getId() );
+        assertEquals( RuntimeEngineStatus.Running, s2.getStatus() );
+    }
+
+    @Test
+    public void testSessionSwitchesModel() {
+        PolicyModel pmA = frozenModel("a");
+        PolicyModel pmB = frozenModel("b");
+        RuntimeEngine ngn = new RuntimeEngine(pmA);
+
+        ngn.setSession(new InterviewSession(pmB));
+        assertSame( pmB, ngn.getModel() );
+        ngn.start();
+        assertEquals( "b_1", ngn.getCurrentNode().getId() );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFrozenModelSetter() {
+        frozenModel("ch").setSpaceRoot(new CompoundSlot("", ""));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFrozenGraph() {
+        DecisionGraph dg = frozenModel("ch").getDecisionGraph();
+        dg.add(new EndNode("newEnd"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFrozenSpace() {
+        PolicyModel pm = new PolicyModel();
+        CompoundSlot root = new CompoundSlot("root", "");
+        CompoundSlot sub = new CompoundSlot("sub", "");
+        root.addSubSlot(sub);
+        pm.setSpaceRoot(root);
+        pm.freeze();
+        sub.addSubSlot(new CompoundSlot("subSub", ""));
+    }
+
+}
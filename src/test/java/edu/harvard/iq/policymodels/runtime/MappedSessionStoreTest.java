@@ -0,0 +1,267 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.NO;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author michael
+ */
+public class MappedSessionStoreTest {
+
+    private static final String SPACE = "Root: consists of Color, Tags.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Tags: some of t1, t2, t3.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: first?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Color=green; Tags+=t1] [call: sub]}\n"
+            + "    {no: [set: Color=red]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>q3< ask:\n"
+            + "  {text: last?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Tags+=t3]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>q2< ask:\n"
+            + "    {text: more?}\n"
+            + "    {answers:\n"
+            + "      {yes: [set: Tags+=t2]}\n"
+            + "    }\n"
+            + "  ]\n"
+            + "--]\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PolicyModel model;
+    private SnapshotCodec codec;
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        model = buildModel(SPACE, "Root", CODE).freeze();
+        codec = new SnapshotCodec(model);
+        dir = folder.newFolder("store").toPath();
+    }
+
+    /** Runs a session through the passed answers. */
+    private InterviewSession sessionAfter( Answer... answers ) {
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consumeAll(answers);
+        return ngn.getSession();
+    }
+
+    @Test
+    public void testSaveLoadAndReopen() throws Exception {
+        InterviewSession inCall = sessionAfter(YES);
+        InterviewSession done = sessionAfter(NO, YES);
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            for ( int i=0; i<200; i++ ) {
+                sut.save("session-" + i, (i%2==0) ? inCall : done);
+            }
+            assertEquals( 200, sut.size() );
+            assertTrue( sut.getSegmentCount() > 1 );
+
+            InterviewSession loaded = new InterviewSession(model);
+            assertTrue( sut.load("session-10", loaded) );
+            assertArrayEquals( codec.encode(inCall), codec.encode(loaded) );
+            assertFalse( sut.load("no-such-session", loaded) );
+        }
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            assertEquals( 200, sut.size() );
+            for ( int i=0; i<200; i++ ) {
+                InterviewSession loaded = new InterviewSession(model);
+                assertTrue( sut.load("session-" + i, loaded) );
+                assertArrayEquals( codec.encode((i%2==0) ? inCall : done), codec.encode(loaded) );
+            }
+
+            // the loaded session can continue.
+            RuntimeEngine ngn = new RuntimeEngine(model);
+            InterviewSession loaded = ngn.newSession();
+            sut.load("session-0", loaded);
+            ngn.setSession(loaded);
+            ngn.consumeAll(YES, YES);
+            assertEquals( RuntimeEngineStatus.Accept, ngn.getStatus() );
+        }
+    }
+
+    @Test
+    public void testOverwriteRemoveAndCompact() throws Exception {
+        InterviewSession first = sessionAfter(YES);
+        InterviewSession second = sessionAfter(NO);
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            for ( int round=0; round<20; round++ ) {
+                for ( int i=0; i<20; i++ ) {
+                    sut.save("s" + i, (round%2==0) ? first : second);
+                }
+            }
+            assertTrue( sut.remove("s0") );
+            assertFalse( sut.remove("s0") );
+            assertFalse( sut.contains("s0") );
+            assertEquals( 19, sut.size() );
+            assertTrue( sut.getDeadBytes() * 2 > sut.getUsedBytes() );
+            int segmentsBefore = sut.getSegmentCount();
+
+            assertTrue( sut.compactIfNeeded() );
+            assertEquals( 0, sut.getDeadBytes() );
+            assertTrue( sut.getSegmentCount() < segmentsBefore );
+            assertEquals( 19, sut.size() );
+            InterviewSession loaded = new InterviewSession(model);
+            assertTrue( sut.load("s5", loaded) );
+            assertArrayEquals( codec.encode(second), codec.encode(loaded) );
+            assertFalse( sut.compactIfNeeded() );
+        }
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            assertEquals( 19, sut.size() );
+            assertFalse( sut.contains("s0") );
+            InterviewSession loaded = new InterviewSession(model);
+            assertTrue( sut.load("s19", loaded) );
+            assertArrayEquals( codec.encode(second), codec.encode(loaded) );
+        }
+    }
+
+    @Test
+    public void testTornWriteIsIgnored() throws Exception {
+        InterviewSession first = sessionAfter(YES);
+        InterviewSession second = sessionAfter(NO);
+        long lastRecordOffset;
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            sut.save("a", first);
+            sut.save("b", first);
+            lastRecordOffset = sut.getUsedBytes() + MappedSessionStore.SEGMENT_HEADER_SIZE;
+            sut.save("b", second);
+        }
+
+        // corrupt the last record's body, as if the process died while it was written.
+        List<Path> files = Files.list(dir).collect(Collectors.toList());
+        assertEquals( 1, files.size() );
+        try ( RandomAccessFile raf = new RandomAccessFile(files.get(0).toFile(), "rw") ) {
+            raf.seek(lastRecordOffset + MappedSessionStore.RECORD_HEADER_SIZE + 4);
+            raf.write(0x7F);
+        }
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            InterviewSession loaded = new InterviewSession(model);
+            assertTrue( sut.load("b", loaded) );
+            assertArrayEquals( codec.encode(first), codec.encode(loaded) );
+
+            // new records replace the torn one.
+            sut.save("c", second);
+        }
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            assertEquals( 3, sut.size() );
+            InterviewSession loaded = new InterviewSession(model);
+            assertTrue( sut.load("c", loaded) );
+            assertArrayEquals( codec.encode(second), codec.encode(loaded) );
+        }
+    }
+
+    @Test
+    public void testRecordsAfterTornWriteStayDead() throws Exception {
+        InterviewSession first = sessionAfter(YES);
+        InterviewSession second = sessionAfter(NO);
+        long tornRecordOffset;
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            sut.save("a", first);
+            tornRecordOffset = sut.getUsedBytes() + MappedSessionStore.SEGMENT_HEADER_SIZE;
+            sut.save("b", first);
+            sut.save("c", second);
+        }
+
+        List<Path> files = Files.list(dir).collect(Collectors.toList());
+        try ( RandomAccessFile raf = new RandomAccessFile(files.get(0).toFile(), "rw") ) {
+            raf.seek(tornRecordOffset + MappedSessionStore.RECORD_HEADER_SIZE + 4);
+            raf.write(0x7F);
+        }
+
+        // a record of the same size as the torn one ends where "c" starts.
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            assertEquals( 1, sut.size() );
+            sut.save("b", first);
+        }
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            assertEquals( 2, sut.size() );
+            assertFalse( sut.contains("c") );
+        }
+    }
+
+    @Test
+    public void testCompactDeletesOldSegments() throws Exception {
+        InterviewSession first = sessionAfter(YES);
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            for ( int i=0; i<100; i++ ) {
+                sut.save("s" + (i%5), first);
+            }
+            sut.compact();
+            assertEquals( sut.getSegmentCount(), Files.list(dir).count() );
+            assertEquals( 5, sut.size() );
+        }
+    }
+
+    @Test
+    public void testCompiledSessions() throws Exception {
+        CompiledRuntimeEngine cngn = new CompiledRuntimeEngine(model);
+        CompiledInterviewSession session = cngn.newSession();
+        cngn.start(session);
+        cngn.consume(session, YES);
+
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            sut.save("compiled", session);
+            CompiledInterviewSession loaded = cngn.newSession();
+            assertTrue( sut.load("compiled", loaded) );
+            assertArrayEquals( session.getStack(), loaded.getStack() );
+            assertEquals( session.getCurrentValue(), loaded.getCurrentValue() );
+
+            // compiled and regular sessions share the format.
+            InterviewSession regular = new InterviewSession(model);
+            assertTrue( sut.load("compiled", regular) );
+            assertArrayEquals( codec.encode(session), codec.encode(regular) );
+        }
+    }
+
+    @Test
+    public void testRejectsSessionsOfOtherModels() throws Exception {
+        PolicyModel other = buildModel(SPACE, "Root", CODE).freeze();
+        try ( MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096) ) {
+            sut.save("a", sessionAfter(YES));
+            InterviewSession loaded = new InterviewSession(other);
+            try {
+                sut.load("a", loaded);
+                fail("Sessions of another model should not be loaded into");
+            } catch ( IllegalArgumentException expected ) {}
+            assertEquals( RuntimeEngineStatus.Idle, loaded.getStatus() );
+        }
+    }
+
+    @Test( expected=IllegalStateException.class )
+    public void testClosed() throws Exception {
+        MappedSessionStore sut = new MappedSessionStore(dir, codec, 4096);
+        sut.close();
+        sut.load("a", new InterviewSession(model));
+    }
+
+}
@@ -0,0 +1,119 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import static edu.harvard.iq.util.DecisionGraphHelper.linearYesChart;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class ModelRegistryTest {
+
+    private PolicyModel model( String chartId ) {
+        PolicyModel pm = new PolicyModel();
+        pm.setDecisionGraph(linearYesChart(chartId, 3));
+        pm.setSpaceRoot(new CompoundSlot("", ""));
+        return pm;
+    }
+
+    @Test
+    public void testSessionsArePinned() {
+        ModelRegistry sut = new ModelRegistry(model("a"));
+        assertTrue( sut.getModel().isFrozen() );
+        assertEquals( 1, sut.current().getNumber() );
+
+        RuntimeEngine ngn = new RuntimeEngine();
+        InterviewSession sA = sut.startSession(ngn);
+        assertTrue( ngn.start() );
+        assertTrue( ngn.consume(YES) );
+
+        ModelRegistry.Version vB = sut.publish(model("b"));
+        assertEquals( 2, vB.getNumber() );
+        assertTrue( vB.getModel().isFrozen() );
+        assertFalse( sut.isCurrent(sA) );
+
+        // the running session is not affected
+        assertEquals( "a_2", ngn.getCurrentNode().getId() );
+        assertTrue( ngn.consume(YES) );
+        assertFalse( ngn.consume(YES) );
+        assertEquals( RuntimeEngineStatus.Accept, sA.getStatus() );
+
+        // new sessions use the new version
+        InterviewSession sB = sut.startSession(ngn);
+        assertTrue( sut.isCurrent(sB) );
+        assertTrue( ngn.start() );
+        assertEquals( "b_1", ngn.getCurrentNode().getId() );
+    }
+
+    @Test
+    public void testRetiredVersionsAreReclaimed() throws Exception {
+        ModelRegistry sut = new ModelRegistry(model("a"));
+        PolicyModel a = sut.getModel();
+        PolicyModel b = sut.publish(model("b")).getModel();
+        sut.publish(model("c"));
+        assertEquals( 2, sut.getRetiredVersionCount() );
+
+        // the garbage collector enqueues the references of reclaimed models.
+        reclaim(sut, b);
+        assertEquals( 1, sut.getRetiredVersionCount() );
+        reclaim(sut, a);
+        assertEquals( 0, sut.getRetiredVersionCount() );
+
+        // publishing retires the previous version, "c".
+        sut.publish(model("d"));
+        assertEquals( 1, sut.getRetiredVersionCount() );
+    }
+
+    private void reclaim( ModelRegistry sut, PolicyModel model ) {
+        for ( WeakReference<PolicyModel> ref : sut.getRetiredReferences() ) {
+            if ( ref.get() == model ) {
+                ref.enqueue();
+                return;
+            }
+        }
+        fail("Model " + model + " is not retired");
+    }
+
+    @Test
+    public void testConcurrentPublishing() throws Exception {
+        ModelRegistry sut = new ModelRegistry(model("m0"));
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> interviews = new ArrayList<>();
+            for ( int i=0; i<4; i++ ) {
+                interviews.add( exec.submit( () -> {
+                    RuntimeEngine ngn = new RuntimeEngine();
+                    for ( int run=0; run<200; run++ ) {
+                        InterviewSession s = sut.startSession(ngn);
+                        PolicyModel pinned = s.getModel();
+                        ngn.start();
+                        while ( ngn.consume(YES) ) {}
+                        assertEquals( RuntimeEngineStatus.Accept, s.getStatus() );
+                        assertSame( pinned, s.getModel() );
+                    }
+                }));
+            }
+            for ( int i=1; i<=50; i++ ) {
+                sut.publish(model("m" + i));
+            }
+            for ( Future<?> f : interviews ) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals( 51, sut.current().getNumber() );
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+}
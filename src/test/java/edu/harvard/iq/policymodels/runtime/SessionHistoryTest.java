@@ -0,0 +1,168 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ThroughNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.util.ConsList;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import static edu.harvard.iq.util.PolicyModelHelper.randomAnswer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class SessionHistoryTest {
+
+    private static final String SPACE = "Root: consists of Color, Size, Tags.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Size: one of small, large.\n"
+            + "Tags: some of t1, t2, t3.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: color?}\n"
+            + "  {answers:\n"
+            + "    {red: [set: Color=red]}\n"
+            + "    {green: [set: Color=green] [call: sub]}\n"
+            + "    {blue: [set: Color=blue; Tags+=t3]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>q4< ask:\n"
+            + "  {text: again?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Tags+=t1]}\n"
+            + "    {no: [>q5< ask: {text: sure?} {answers: {yes: [set: Size=small]} }]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>sec< section:\n"
+            + "    {title: sizes}\n"
+            + "    [>q2< ask:\n"
+            + "      {text: size?}\n"
+            + "      {answers:\n"
+            + "        {small: [set: Size=small] [continue]}\n"
+            + "        {large: [set: Size=large]}\n"
+            + "      }\n"
+            + "    ]\n"
+            + "    [>q3< ask:\n"
+            + "      {text: tag?}\n"
+            + "      {answers:\n"
+            + "        {yes: [set: Tags+=t2]}\n"
+            + "      }\n"
+            + "    ]\n"
+            + "  ]\n"
+            + "--]\n";
+
+    @Test
+    public void testBackMatchesEarlierStates() throws Exception {
+        RuntimeEngine ngn = new RuntimeEngine(buildModel(SPACE, "Root", CODE).freeze());
+        SnapshotCodec codec = ngn.getSnapshotCodec();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ngn.getSession().setJournal(new InterviewJournal(codec, log));
+        ngn.getSession().setHistory(new SessionHistory());
+        Random rand = new Random(3);
+
+        for ( int run=0; run<50; run++ ) {
+            List<byte[]> states = new ArrayList<>();
+            boolean going = ngn.start();
+            states.add(codec.encode(ngn.getSession()));
+            while ( going ) {
+                going = ngn.consume(randomAnswer(ngn, rand));
+                states.add(codec.encode(ngn.getSession()));
+
+                if ( rand.nextInt(3) == 0 ) {
+                    int steps = rand.nextInt(states.size());
+                    assertEquals( states.size()-1, ngn.getSession().getHistory().getBackCount() );
+                    going = ngn.back(steps);
+                    for ( int i=0; i<steps; i++ ) states.remove(states.size()-1);
+                    assertArrayEquals( states.get(states.size()-1), codec.encode(ngn.getSession()) );
+                    assertEquals( ngn.getStatus() == RuntimeEngineStatus.Running, going );
+
+                    // the journal follows the engine back.
+                    InterviewSession replayed = ngn.newSession();
+                    InterviewJournal.replay(codec, ByteBuffer.wrap(log.toByteArray()), replayed);
+                    assertArrayEquals( codec.encode(ngn.getSession()), codec.encode(replayed) );
+                }
+            }
+            assertEquals( RuntimeEngineStatus.Accept, ngn.getStatus() );
+        }
+    }
+
+    @Test
+    public void testStatesAreShared() throws Exception {
+        RuntimeEngine ngn = new RuntimeEngine(buildModel(SPACE, "Root", CODE).freeze());
+        InterviewSession session = ngn.getSession();
+        SessionHistory history = new SessionHistory();
+        session.setHistory(history);
+
+        ngn.start();
+        ngn.consume(Answer.withName("green"));
+        ConsList<ThroughNode> inSection = session.getStackItems();
+        assertEquals( 2, inSection.size() );
+        CompoundValue green = ngn.getCurrentValue();
+        ngn.consume(Answer.withName("large"));
+        CompoundValue large = ngn.getCurrentValue();
+        assertSame( green.get(green.getSlot().getSubSlot("Color")), large.get(large.getSlot().getSubSlot("Color")) );
+        ngn.consume(Answer.withName("yes"));
+        assertTrue( session.getStack().isEmpty() );
+
+        // going back restores the recorded objects, rather than copies.
+        assertTrue( ngn.back(2) );
+        assertSame( green, ngn.getCurrentValue() );
+        assertSame( inSection, session.getStackItems() );
+        assertEquals( 2, history.getForwardCount() );
+
+        assertTrue( ngn.back(0) );
+        history.forward(1, session);
+        assertSame( large, ngn.getCurrentValue() );
+        assertEquals( 1, history.getForwardCount() );
+
+        // a new answer discards the states gone back from.
+        ngn.consume(Answer.withName("yes"));
+        assertEquals( 0, history.getForwardCount() );
+        assertEquals( 3, history.getBackCount() );
+    }
+
+    @Test
+    public void testStartClearsHistory() throws Exception {
+        RuntimeEngine ngn = new RuntimeEngine(buildModel(SPACE, "Root", CODE).freeze());
+        SessionHistory history = new SessionHistory();
+        ngn.getSession().setHistory(history);
+        ngn.start();
+        ngn.consumeAll(Answer.withName("red"), Answer.withName("no"));
+        assertEquals( 2, history.getBackCount() );
+
+        ngn.restart();
+        assertEquals( 0, history.getBackCount() );
+        ngn.setIdle();
+        assertTrue( history.isEmpty() );
+    }
+
+    @Test
+    public void testBadBacks() throws Exception {
+        RuntimeEngine ngn = new RuntimeEngine(buildModel(SPACE, "Root", CODE).freeze());
+        ngn.start();
+        try {
+            ngn.back(1);
+            fail("Engine should not go back without a history");
+        } catch ( IllegalStateException expected ) {}
+
+        ngn.getSession().setHistory(new SessionHistory());
+        ngn.start();
+        ngn.consume(Answer.withName("red"));
+        byte[] before = ngn.createBinarySnapshot();
+        try {
+            ngn.back(2);
+            fail("Engine should not go back before the start of the run");
+        } catch ( IllegalArgumentException expected ) {}
+        assertArrayEquals( before, ngn.createBinarySnapshot() );
+    }
+
+}
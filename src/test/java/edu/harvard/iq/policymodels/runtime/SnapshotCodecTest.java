@@ -0,0 +1,269 @@
+package edu.harvard.iq.policymodels.runtime;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.NO;
+import static edu.harvard.iq.policymodels.model.decisiongraph.Answer.YES;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.CallNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SectionNode;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.slots.ToDoSlot;
+import static edu.harvard.iq.util.PolicyModelHelper.buildModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class SnapshotCodecTest {
+
+    private static final String SPACE = "Root: consists of Color, Tags, Details, Later.\n"
+            + "Color: one of red, green, blue.\n"
+            + "Tags: some of t1, t2, t3.\n"
+            + "Details: consists of Size, More.\n"
+            + "Size: one of small, large.\n"
+            + "More: some of m1, m2.\n"
+            + "Later: TODO.\n";
+
+    private static final String CODE = "[>q1< ask:\n"
+            + "  {text: first?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Color=green; Tags+=t1,t3] [call: sub]}\n"
+            + "    {no: [set: Color=red]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[>q3< ask:\n"
+            + "  {text: last?}\n"
+            + "  {answers:\n"
+            + "    {yes: [set: Tags+=t2]}\n"
+            + "  }\n"
+            + "]\n"
+            + "[end]\n"
+            + "[-->sub<\n"
+            + "  [>sec< section:\n"
+            + "    {title: details}\n"
+            + "    [>q2< ask:\n"
+            + "      {text: size?}\n"
+            + "      {answers:\n"
+            + "        {yes: [set: Size=large; More+=m2]}\n"
+            + "      }\n"
+            + "    ]\n"
+            + "  ]\n"
+            + "--]\n";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consume(YES);
+        assertEquals( 2, ngn.getStack().size() );
+
+        byte[] snapshot = ngn.createBinarySnapshot();
+        RuntimeEngineState readable = ngn.createSnapshot();
+
+        ngn.consume(YES);
+        ngn.consume(YES);
+        assertEquals( RuntimeEngineStatus.Accept, ngn.getStatus() );
+
+        ngn.applySnapshot(ByteBuffer.wrap(snapshot));
+        assertEquals( readable, ngn.createSnapshot() );
+        assertTrue( ngn.getCurrentNode().getId().endsWith("]q2") );
+        assertTrue( ngn.getStack().peek() instanceof SectionNode );
+        assertTrue( ngn.getStack().peekLast() instanceof CallNode );
+
+        // the restored session continues where the snapshot was taken.
+        ngn.consume(YES);
+        ngn.consume(YES);
+        assertEquals( RuntimeEngineStatus.Accept, ngn.getStatus() );
+        assertEquals( 3, ngn.getCurrentValue().getNonEmptySubSlots().size() );
+        assertArrayEquals( ngn.createBinarySnapshot(), ngn.getSnapshotCodec().encode(ngn.getSession()) );
+    }
+
+    @Test
+    public void testDirectBufferAndSize() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consumeAll(YES, YES, YES);
+        CompoundSlot root = model.getSpaceRoot();
+        ngn.getCurrentValue().put( ((ToDoSlot)root.getSubSlot("Later")).getValue() );
+        assertEquals( 4, ngn.getCurrentValue().getNonEmptySubSlots().size() );
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(256);
+        buf.put((byte)42); // snapshots start at the buffer's position
+        ngn.writeSnapshot(buf);
+        int size = buf.position() - 1;
+        assertTrue( "snapshot too large: " + size, size < 32 );
+        assertTrue( size*4 < ngn.createSnapshot().getSerializedTagValue().toString().length() );
+
+        InterviewSession restored = ngn.newSession();
+        buf.flip();
+        buf.get();
+        ngn.getSnapshotCodec().read(buf, restored);
+        assertFalse( buf.hasRemaining() );
+        assertEquals( ngn.getCurrentValue(), restored.getCurrentValue() );
+        assertSame( ngn.getCurrentNode(), restored.getCurrentNode() );
+        assertEquals( RuntimeEngineStatus.Accept, restored.getStatus() );
+    }
+
+    @Test
+    public void testCompiledSessions() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        SnapshotCodec codec = new SnapshotCodec(model);
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        CompiledRuntimeEngine cngn = new CompiledRuntimeEngine(model);
+        CompiledInterviewSession cSession = cngn.newSession();
+
+        ngn.start();
+        cngn.start(cSession);
+        for ( Answer ans : Arrays.asList(YES, YES) ) {
+            ngn.consume(ans);
+            cngn.consume(cSession, ans);
+        }
+
+        // both kinds of sessions have the same snapshots.
+        byte[] snapshot = codec.encode(cSession);
+        assertArrayEquals( ngn.createBinarySnapshot(), snapshot );
+
+        CompiledInterviewSession restored = cngn.newSession();
+        codec.decode(snapshot, restored);
+        assertArrayEquals( cSession.getStack(), restored.getStack() );
+        assertEquals( cSession.getCurrentNodeIndex(), restored.getCurrentNodeIndex() );
+        assertEquals( cSession.getCurrentValue(), restored.getCurrentValue() );
+        assertFalse( cngn.consume(restored, YES) );
+        assertEquals( RuntimeEngineStatus.Accept, restored.getStatus() );
+    }
+
+    @Test
+    public void testRejectsOtherModels() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consume(NO);
+        byte[] snapshot = ngn.createBinarySnapshot();
+
+        // same model, loaded again
+        SnapshotCodec sameCodec = new SnapshotCodec(buildModel(SPACE, "Root", CODE).freeze());
+        assertEquals( ngn.getSnapshotCodec().getFingerprint(), sameCodec.getFingerprint() );
+        InterviewSession session = new InterviewSession(sameCodec.getModel());
+        sameCodec.decode(snapshot, session);
+        assertEquals( "q3", session.getCurrentNode().getId().replaceAll(".*\\]", "") );
+
+        SnapshotCodec otherCodec = new SnapshotCodec(buildModel(SPACE.replace("t1, t2, t3", "t1, t2, t3, t4"), "Root", CODE).freeze());
+        assertNotEquals( sameCodec.getFingerprint(), otherCodec.getFingerprint() );
+        InterviewSession otherSession = new InterviewSession(otherCodec.getModel());
+        try {
+            otherCodec.decode(snapshot, otherSession);
+            fail("Snapshot of another model should be rejected");
+        } catch ( IllegalArgumentException expected ) {}
+        assertNull( otherSession.getCurrentNode() );
+        assertEquals( RuntimeEngineStatus.Idle, otherSession.getStatus() );
+    }
+
+    @Test
+    public void testRejectsSessionsOfOtherModels() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        PolicyModel other = buildModel(SPACE, "Root", CODE.replace(">q3<", ">q9<")).freeze();
+        assertEquals( model.getCompiledDecisionGraph().getNodeCount(), other.getCompiledDecisionGraph().getNodeCount() );
+        SnapshotCodec codec = new SnapshotCodec(model);
+
+        CompiledRuntimeEngine otherNgn = new CompiledRuntimeEngine(other);
+        CompiledInterviewSession otherSession = otherNgn.newSession();
+        otherNgn.start(otherSession);
+        otherNgn.consume(otherSession, NO);
+        try {
+            codec.encode(otherSession);
+            fail("Sessions of another model should not be written");
+        } catch ( IllegalArgumentException expected ) {}
+
+        CompiledRuntimeEngine ngn = new CompiledRuntimeEngine(model);
+        CompiledInterviewSession session = ngn.newSession();
+        ngn.start(session);
+        byte[] snapshot = codec.encode(session);
+        try {
+            codec.decode(snapshot, otherSession);
+            fail("Sessions of another model should not be read into");
+        } catch ( IllegalArgumentException expected ) {}
+        assertEquals( RuntimeEngineStatus.Running, otherSession.getStatus() );
+
+        // regular sessions refer to nodes, which are only meaningful in their own model.
+        RuntimeEngine otherRegularNgn = new RuntimeEngine(other);
+        otherRegularNgn.start();
+        InterviewSession otherRegular = otherRegularNgn.getSession();
+        try {
+            codec.encode(otherRegular);
+            fail("Sessions of another model should not be written");
+        } catch ( IllegalArgumentException expected ) {}
+        try {
+            codec.decode(snapshot, otherRegular);
+            fail("Sessions of another model should not be read into");
+        } catch ( IllegalArgumentException expected ) {}
+        assertEquals( RuntimeEngineStatus.Running, otherRegular.getStatus() );
+    }
+
+    @Test
+    public void testRejectsMalformedSnapshots() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consume(YES);
+        byte[] snapshot = ngn.createBinarySnapshot();
+
+        for ( int len=0; len<snapshot.length; len++ ) {
+            try {
+                ngn.getSnapshotCodec().decode(Arrays.copyOf(snapshot, len), ngn.newSession());
+                fail("Truncated snapshot of length " + len + " should be rejected");
+            } catch ( IllegalArgumentException expected ) {}
+        }
+        byte[] badVersion = snapshot.clone();
+        badVersion[2]++;
+        try {
+            ngn.getSnapshotCodec().decode(badVersion, ngn.newSession());
+            fail("Unknown format version should be rejected");
+        } catch ( IllegalArgumentException expected ) {}
+    }
+
+    @Test
+    public void testVarInts() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        int[] ints = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1};
+        long[] longs = {0L, 1L << 40, -1L, Long.MIN_VALUE};
+        for ( int i : ints ) SnapshotCodec.writeVarInt(buf, i);
+        for ( long l : longs ) SnapshotCodec.writeVarLong(buf, l);
+        buf.flip();
+        assertEquals( 0, buf.get(0) );
+        assertEquals( 1, buf.get(1) );
+        for ( int i : ints ) assertEquals( i, SnapshotCodec.readVarInt(buf) );
+        for ( long l : longs ) assertEquals( l, SnapshotCodec.readVarLong(buf) );
+        assertFalse( buf.hasRemaining() );
+    }
+
+    @Test
+    public void testExternalizedEngineState() throws Exception {
+        PolicyModel model = buildModel(SPACE, "Root", CODE).freeze();
+        RuntimeEngine ngn = new RuntimeEngine(model);
+        ngn.start();
+        ngn.consume(YES);
+        RuntimeEngineState state = ngn.createSnapshot();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream out = new ObjectOutputStream(bytes) ) {
+            out.writeObject(state);
+        }
+        RuntimeEngineState read;
+        try ( ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())) ) {
+            read = (RuntimeEngineState) in.readObject();
+        }
+        assertEquals( state, read );
+        assertEquals( state.getStack(), read.getStack() );
+    }
+
+}
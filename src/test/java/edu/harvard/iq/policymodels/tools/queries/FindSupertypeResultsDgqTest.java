@@ -26,10 +26,15 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -546,6 +551,158 @@ public class FindSupertypeResultsDgqTest {
         
     }
     
+    @Test
+    public void testParallelParity() throws DataTagsParseException, IOException {
+        buildAskChainModel(6, "[consider: {slot: Atomic}\n"
+                            + "  {options: {val1: [reject: one]}}\n"
+                            + "  {else: [set: Aggregate += optC]}\n]\n");
+        
+        SetNode sn = createSetNode("Aggregate += optA, optB");
+        
+        List<String> sequential = recordResults(new FindSupertypeResultsDgq(policyModel, sn.getTags()));
+        // 3^6 runs, less the 2^6 runs that do not match any [consider] option.
+        assertEquals( 665, sequential.size() );
+        
+        FindSupertypeResultsDgq ordered = new FindSupertypeResultsDgq(policyModel, sn.getTags());
+        ordered.setParallel(true);
+        ordered.setDeterministic(true);
+        assertEquals( sequential, recordResults(ordered) );
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<String> unorderedResults;
+        try {
+            FindSupertypeResultsDgq unordered = new FindSupertypeResultsDgq(policyModel, sn.getTags());
+            unordered.setParallel(true);
+            unordered.setPool(pool);
+            unorderedResults = recordResults(unordered);
+        } finally {
+            pool.shutdown();
+        }
+        Collections.sort(unorderedResults);
+        List<String> sortedSequential = new ArrayList<>(sequential);
+        Collections.sort(sortedSequential);
+        assertEquals( sortedSequential, unorderedResults );
+    }
+    
+    @Test
+    public void testPruning() throws DataTagsParseException, IOException {
+        buildAskChainModel(6, "");
+        
+        SetNode sn = createSetNode("Atomic=val0");
+        List<String> matches = recordResults(new FindSupertypeResultsDgq(policyModel, sn.getTags())).stream()
+                                    .filter( r -> r.startsWith("match") )
+                                    .collect( toList() );
+        // runs with no "b" answers, and at least one "a" answer.
+        assertEquals( 63, matches.size() );
+        
+        FindSupertypeResultsDgq pruned = new FindSupertypeResultsDgq(policyModel, sn.getTags());
+        pruned.setPruning(true);
+        assertEquals( matches, recordResults(pruned) );
+        assertTrue( pruned.getPrunedCount() > 0 );
+        
+        FindSupertypeResultsDgq parallelPruned = new FindSupertypeResultsDgq(policyModel, sn.getTags());
+        parallelPruned.setPruning(true);
+        parallelPruned.setParallel(true);
+        parallelPruned.setDeterministic(true);
+        assertEquals( matches, recordResults(parallelPruned) );
+        assertEquals( pruned.getPrunedCount(), parallelPruned.getPrunedCount() );
+    }
+    
+    @Test
+    public void testIterator() throws DataTagsParseException, IOException {
+        buildAskChainModel(6, "");
+        SetNode sn = createSetNode("Aggregate += optA, optB");
+        List<String> matches = recordResults(new FindSupertypeResultsDgq(policyModel, sn.getTags())).stream()
+                                    .filter( r -> r.startsWith("match") )
+                                    .collect( toList() );
+        
+        List<String> iterated = new ArrayList<>();
+        Iterator<RunTrace> itr = new FindSupertypeResultsDgq(policyModel, sn.getTags()).iterator();
+        while ( itr.hasNext() ) {
+            iterated.add( describe("match", itr.next()) );
+        }
+        assertEquals( matches, iterated );
+        
+        assertEquals( matches.subList(2, 7), 
+                      new FindSupertypeResultsDgq(policyModel, sn.getTags()).stream()
+                            .skip(2).limit(5).map( t -> describe("match", t) ).collect(toList()) );
+        
+        FindSupertypeResultsDgq parallel = new FindSupertypeResultsDgq(policyModel, sn.getTags());
+        parallel.setParallel(true);
+        assertTrue( parallel.stream().isParallel() );
+        assertEquals( matches, parallel.stream().map( t -> describe("match", t) ).collect(toList()) );
+    }
+    
+    @Test(timeout = 10000)
+    public void testIteratorIsLazy() throws DataTagsParseException, IOException {
+        // 3^40 runs - can't be traversed in full.
+        buildAskChainModel(40, "");
+        SetNode sn = createSetNode("Atomic=val1");
+        List<RunTrace> firstRuns = new FindSupertypeResultsDgq(policyModel, sn.getTags()).stream()
+                                        .limit(3).collect(toList());
+        assertEquals( 3, firstRuns.size() );
+        for ( RunTrace rt : firstRuns ) {
+            assertTrue( rt.getValue().isSupersetOf(sn.getTags()) );
+            assertEquals( 40, rt.getAnswers().size() );
+        }
+    }
+    
+    private void buildAskChainModel( int askCount, String suffix ) throws DataTagsParseException, IOException {
+        StringBuilder code = new StringBuilder();
+        for ( int i=0; i<askCount; i++ ) {
+            code.append("[>q").append(i).append("< ask: {text: q").append(i).append("}\n")
+                .append("  {answers:\n")
+                .append("    {a: [set: Atomic=val0]}\n")
+                .append("    {b: [set: Atomic=val1; Aggregate += optA]}\n")
+                .append("    {c: [set: Aggregate += optB]}\n")
+                .append("  }\n]\n");
+        }
+        code.append(suffix);
+        String spaceTags = "PSRoot: consists of Atomic, Aggregate.\n" +
+                            "Atomic: one of val0, val1, val2.\n" +
+                            "Aggregate: some of optA, optB, optC.\n";
+        
+        Map<Path,String> pathToString = new HashMap<>();
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        pathToString.put(Paths.get("/main.dg"), code.toString());
+        DecisionGraphCompiler dgc = new DecisionGraphCompiler(new MemoryContentReader(pathToString));
+        root = new TagSpaceParser().parse(spaceTags).buildType("PSRoot");
+        policyModel = new PolicyModel();
+        policyModel.setDecisionGraph(dgc.compile(root.get(), pmd, new ArrayList<>()));
+        policyModel.setSpaceRoot(root.get());
+    }
+    
+    private String describe( String kind, RunTrace trace ) {
+        return kind + " " + trace.getAnswers() 
+                    + " " + trace.getNodes().stream().map(n->n.getId()).collect(joining("->"))
+                    + " " + trace.getValue();
+    }
+    
+    private List<String> recordResults( FindSupertypeResultsDgq query ) {
+        final List<String> results = new ArrayList<>();
+        query.get(new DecisionGraphQuery.Listener() {
+            @Override
+            public void started(DecisionGraphQuery dgq) {}
+            @Override
+            public void matchFound(DecisionGraphQuery dgq) { record("match", dgq); }
+            @Override
+            public void nonMatchFound(DecisionGraphQuery dgq) { record("miss", dgq); }
+            @Override
+            public void rejectionFound(DecisionGraphQuery dgq) { record("reject", dgq); }
+            @Override
+            public void done(DecisionGraphQuery dgq) {}
+            @Override
+            public void loopDetected(DecisionGraphQuery dgq) { record("loop", dgq); }
+            
+            private void record( String kind, DecisionGraphQuery dgq ) {
+                results.add( describe(kind, dgq.getCurrentTrace()) );
+            }
+        });
+        return results;
+    }
+    
     private SetNode createSetNode(String tagValue) throws DataTagsParseException{
         String tagValueExpression = "[>x< set: " + tagValue + "]";
         CompilationUnit cu = new CompilationUnit(tagValueExpression);
@@ -0,0 +1,105 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.Node;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.ToDoNode;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import static edu.harvard.iq.util.PolicyModelHelper.askChain;
+import static edu.harvard.iq.util.PolicyModelHelper.buildQueryModel;
+import static edu.harvard.iq.util.PolicyModelHelper.value;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class RunSummarizerTest {
+
+    @Test
+    public void testParityWithQuery() throws Exception {
+        String code = "[set: Atomic=val0]\n"
+                + askChain(5)
+                + "[consider: {slot: Atomic}\n"
+                + "  {options: {val1: [reject: one]} {val0: [set: Aggregate += optC]}}\n"
+                + "]\n";
+        PolicyModel model = buildQueryModel(code);
+        CompoundValue query = value(model, "Aggregate += optA, optB");
+
+        final long[] counts = new long[3];
+        new FindSupertypeResultsDgq(model, query).get(new DecisionGraphQuery.Listener() {
+            @Override public void started(DecisionGraphQuery dgq) {}
+            @Override public void matchFound(DecisionGraphQuery dgq) { counts[0]++; }
+            @Override public void nonMatchFound(DecisionGraphQuery dgq) { counts[1]++; }
+            @Override public void rejectionFound(DecisionGraphQuery dgq) { counts[2]++; }
+            @Override public void done(DecisionGraphQuery dgq) {}
+            @Override public void loopDetected(DecisionGraphQuery dgq) {}
+        });
+
+        RunSummary summary = new RunSummarizer(model).summarize();
+        assertEquals( counts[0], summary.countMatching(query) );
+        assertEquals( counts[1], summary.getAcceptedCount()-summary.countMatching(query) );
+        assertEquals( counts[2], summary.getRejectedCount() );
+        assertEquals( counts[0]+counts[1]+counts[2], summary.getRunCount() );
+    }
+
+    @Test
+    public void testManyRuns() throws Exception {
+        PolicyModel model = buildQueryModel(askChain(30));
+        RunSummarizer sut = new RunSummarizer(model);
+        RunSummary summary = sut.summarize();
+
+        long expected = 1;
+        for ( int i=0; i<30; i++ ) expected *= 3;
+        assertEquals( expected, summary.getRunCount() );
+        assertTrue( sut.getStateCount() < 30*3*3*4*4 );
+        // only "a" answers
+        assertEquals( 1, summary.getFinalValues().get(value(model, "Atomic=val0")).longValue() );
+        // all runs with at least one "b" answer
+        assertEquals( expected - (1L<<30), summary.countMatching(value(model, "Atomic=val1")) );
+    }
+
+    @Test
+    public void testLongGraph() throws Exception {
+        PolicyModel model = buildQueryModel("[end]");
+        Node next = new EndNode("end");
+        for ( int i=0; i<100000; i++ ) {
+            ToDoNode todo = new ToDoNode("todo" + i, "step " + i);
+            todo.setNextNode(next);
+            next = todo;
+        }
+        // setStart() would collect the nodes recursively, so we bypass it.
+        final Node start = next;
+        model.setDecisionGraph(new DecisionGraph(){
+            @Override
+            public Node getStart() {
+                return start;
+            }
+        });
+
+        RunSummary summary = new RunSummarizer(model).summarize();
+        assertEquals( 1, summary.getRunCount() );
+        assertEquals( 1, summary.getAcceptedCount() );
+    }
+
+    @Test
+    public void testSectionsAndCalls() throws Exception {
+        String code = "[>s< section: {title: sec}\n"
+                    + "  [ask: {text: q} {answers: {yes: [set: Atomic=val1]} {no: [set: Atomic=val0]}}]\n"
+                    + "]\n"
+                    + "[call: p]\n"
+                    + "[call: p]\n"
+                    + "[end]\n"
+                    + "[-->p< [ask: {text: q2} {answers: {yes: [set: Aggregate += optA]} {no: [set: Aggregate += optB]}}] --]";
+        PolicyModel model = buildQueryModel(code);
+        RunSummary summary = new RunSummarizer(model).summarize();
+        assertEquals( 8, summary.getRunCount() );
+        assertEquals( 0, summary.getLoopCount() );
+        assertEquals( 4, summary.countMatching(value(model, "Atomic=val1")) );
+        assertEquals( 6, summary.countMatching(value(model, "Aggregate += optA")) );
+        assertEquals( 2, summary.countMatching(value(model, "Atomic=val1; Aggregate += optA, optB")) );
+    }
+
+}
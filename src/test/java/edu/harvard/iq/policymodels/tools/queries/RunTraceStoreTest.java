@@ -0,0 +1,77 @@
+package edu.harvard.iq.policymodels.tools.queries;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import static edu.harvard.iq.util.PolicyModelHelper.askChain;
+import static edu.harvard.iq.util.PolicyModelHelper.buildQueryModel;
+import static edu.harvard.iq.util.PolicyModelHelper.value;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author michael
+ */
+public class RunTraceStoreTest {
+
+    private void assertSameTrace( RunTrace expected, RunTrace actual ) {
+        assertEquals( expected.getNodes().size(), actual.getNodes().size() );
+        for ( int i=0; i<expected.getNodes().size(); i++ ) {
+            assertSame( expected.getNodes().get(i), actual.getNodes().get(i) );
+        }
+        assertEquals( expected.getAnswers(), actual.getAnswers() );
+        assertEquals( expected.getValue(), actual.getValue() );
+    }
+
+    @Test
+    public void testAddAndGet() throws Exception {
+        PolicyModel model = buildQueryModel(askChain(6));
+        CompoundValue query = value(model, "Aggregate += optA, optB");
+
+        List<RunTrace> traces = new ArrayList<>();
+        RunTraceStore sut = new RunTraceStore();
+        Iterator<RunTrace> itr = new FindSupertypeResultsDgq(model, query).iterator();
+        while ( itr.hasNext() ) {
+            RunTrace rt = itr.next();
+            traces.add(rt);
+            assertEquals( traces.size()-1, sut.add(rt) );
+        }
+
+        assertEquals( traces.size(), sut.size() );
+        for ( int i=0; i<traces.size(); i++ ) {
+            assertSameTrace( traces.get(i), sut.get(i) );
+            assertEquals( traces.get(i).getValue(), sut.getValue(i) );
+        }
+    }
+
+    @Test
+    public void testCollectMatches() throws Exception {
+        PolicyModel model = buildQueryModel(askChain(8));
+        CompoundValue query = value(model, "Aggregate += optA, optB");
+
+        RunTraceStore sut = new FindSupertypeResultsDgq(model, query).collectMatches();
+        Iterator<RunTrace> expected = new FindSupertypeResultsDgq(model, query).iterator();
+        long totalLength = 0;
+        for ( RunTrace actual : sut ) {
+            assertTrue( expected.hasNext() );
+            RunTrace rt = expected.next();
+            totalLength += rt.getNodes().size();
+            assertSameTrace( rt, actual );
+        }
+        assertFalse( expected.hasNext() );
+
+        // prefixes are shared
+        assertTrue( sut.getEntryCount() < totalLength/4 );
+        // all matches have a "b" answer, so Atomic is val1, Aggregate is {optA, optB}.
+        assertEquals( 1, sut.getValueCount() );
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetMissing() {
+        new RunTraceStore().get(0);
+    }
+
+}
@@ -0,0 +1,95 @@
+package edu.harvard.iq.util;
+
+import edu.harvard.iq.policymodels.io.PolicyModelDataParser;
+import edu.harvard.iq.policymodels.tools.DecisionGraphAstValidator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Helps writing policy models to directories, for tests that load models
+ * from files (caches, watchers).
+ *
+ * @author michael
+ */
+public class ModelDirectoryHelper {
+
+    /**
+     * Writes a small model to {@code dir}: a {@code Base} space with a single
+     * {@code Harm} slot (none, minor, major), and a {@code main.dg} that calls
+     * part {@code p} of the imported {@code sub.dg}.
+     *
+     * @param dir the directory of the model. Created if needed.
+     * @param title title of the model.
+     * @param subCode code of {@code sub.dg}. Should define {@code [-->p< ... --]}.
+     * @return Path to the model's metadata file.
+     * @throws IOException if the files cannot be written.
+     */
+    public static Path writeModel( Path dir, String title, String subCode ) throws IOException {
+        Files.createDirectories(dir);
+        writeMetadata(dir, title, false);
+        write(dir, "space.pspace", "Base: consists of Harm.\n"
+                + "Harm: one of none, minor, major.\n");
+        write(dir, "main.dg", "[#import sub: sub.dg]\n[call: sub>p]\n[end]\n");
+        write(dir, "sub.dg", subCode);
+        return dir.resolve(PolicyModelDataParser.DEFAULT_FILENAME);
+    }
+
+    /**
+     * Writes a metadata file for a model whose space is {@code space.pspace},
+     * rooted at {@code Base}, and whose graph is {@code main.dg}.
+     *
+     * @param dir the directory of the model.
+     * @param title title of the model.
+     * @param withValueInferrer whether the model has value inference, at {@code inference.vi}.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeMetadata( Path dir, String title, boolean withValueInferrer ) throws IOException {
+        write(dir, PolicyModelDataParser.DEFAULT_FILENAME, "<policy-model>\n"
+                + "  <title>" + title + "</title>\n"
+                + "  <version>1.0</version>\n"
+                + "  <model>\n"
+                + "    <space root=\"Base\">space.pspace</space>\n"
+                + "    <graph>main.dg</graph>\n"
+                + (withValueInferrer ? "    <valueInferrer>inference.vi</valueInferrer>\n" : "")
+                + "  </model>\n"
+                + "</policy-model>");
+    }
+
+    public static void write( Path dir, String fileName, String content ) throws IOException {
+        Files.write(dir.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a validator that changes a model file while the model is being
+     * loaded: once a decision graph unit was parsed, but before the load is
+     * done. This is the window in which a loader can mistake the model it
+     * loaded for a model of the new file content.
+     *
+     * @param nodeId id of a node in the unit whose parsing triggers the
+     *               change, or {@code null} to change the file after the first
+     *               parsed unit.
+     * @param file the file to change.
+     * @param content the new content of {@code file}.
+     * @return A validator that changes the file once, and reports no messages.
+     */
+    public static DecisionGraphAstValidator changeDuringLoad( String nodeId, Path file, String content ) {
+        AtomicBoolean changed = new AtomicBoolean(false);
+        return astNodes -> {
+            if ( (nodeId == null || astNodes.stream().anyMatch(n -> nodeId.equals(n.getId())))
+                  && ! changed.getAndSet(true) ) {
+                try {
+                    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+                } catch ( IOException ex ) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return Collections.emptyList();
+        };
+    }
+
+}
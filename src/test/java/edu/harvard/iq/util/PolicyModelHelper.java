@@ -0,0 +1,131 @@
+package edu.harvard.iq.util;
+
+import edu.harvard.iq.policymodels.model.PolicyModel;
+import edu.harvard.iq.policymodels.model.decisiongraph.Answer;
+import edu.harvard.iq.policymodels.model.decisiongraph.DecisionGraph;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.AskNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.EndNode;
+import edu.harvard.iq.policymodels.model.decisiongraph.nodes.SetNode;
+import edu.harvard.iq.policymodels.model.metadata.PolicyModelData;
+import edu.harvard.iq.policymodels.model.policyspace.slots.CompoundSlot;
+import edu.harvard.iq.policymodels.model.policyspace.values.CompoundValue;
+import edu.harvard.iq.policymodels.parser.decisiongraph.CompilationUnit;
+import edu.harvard.iq.policymodels.parser.decisiongraph.DecisionGraphCompiler;
+import edu.harvard.iq.policymodels.parser.decisiongraph.MemoryContentReader;
+import edu.harvard.iq.policymodels.parser.policyspace.TagSpaceParser;
+import edu.harvard.iq.policymodels.runtime.RuntimeEngine;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Helps building policy models from source code, for tests.
+ * 
+ * @author michael
+ */
+public class PolicyModelHelper {
+
+    /** A small policy space for query tests, rooted at {@code PSRoot}. */
+    public static final String QUERY_SPACE = "PSRoot: consists of Atomic, Aggregate.\n"
+                                           + "Atomic: one of val0, val1, val2.\n"
+                                           + "Aggregate: some of optA, optB, optC.\n";
+
+    /**
+     * Compiles decision graph code, kept in memory as {@code /main.dg}.
+     * @param space the policy space the graph refers to.
+     * @param code the decision graph code.
+     * @return The compiled graph.
+     * @throws IOException if the code cannot be read.
+     */
+    public static DecisionGraph compileGraph( CompoundSlot space, String code ) throws IOException {
+        Map<Path, String> pathToString = new HashMap<>();
+        pathToString.put(Paths.get("/main.dg"), code);
+        return new DecisionGraphCompiler(new MemoryContentReader(pathToString))
+                        .compile(space, metadata(), new ArrayList<>());
+    }
+
+    /**
+     * Builds a model from policy space and decision graph code. The model
+     * is not frozen, so tests can still change it.
+     *
+     * @param space policy space code.
+     * @param rootSlot name of the slot at the root of the space.
+     * @param code decision graph code.
+     * @return The model.
+     * @throws Exception if the code cannot be parsed.
+     */
+    public static PolicyModel buildModel( String space, String rootSlot, String code ) throws Exception {
+        CompoundSlot root = new TagSpaceParser().parse(space).buildType(rootSlot).get();
+        PolicyModel model = new PolicyModel();
+        model.setMetadata(metadata());
+        model.setSpaceRoot(root);
+        model.setDecisionGraph(compileGraph(root, code));
+        return model;
+    }
+
+    /**
+     * Builds a model over {@link #QUERY_SPACE}.
+     * @param code decision graph code.
+     * @return The model, not frozen.
+     * @throws Exception if the code cannot be parsed.
+     */
+    public static PolicyModel buildQueryModel( String code ) throws Exception {
+        return buildModel(QUERY_SPACE, "PSRoot", code);
+    }
+
+    /**
+     * Creates decision graph code of {@code count} consecutive questions over
+     * {@link #QUERY_SPACE}, each with three answers. So there are {@code 3^count}
+     * runs, and the graph has many shared states.
+     * @param count number of questions.
+     * @return The code.
+     */
+    public static String askChain( int count ) {
+        StringBuilder code = new StringBuilder();
+        for ( int i=0; i<count; i++ ) {
+            code.append("[>q").append(i).append("< ask: {text: q").append(i).append("}\n")
+                .append("  {answers:\n")
+                .append("    {a: [set: Atomic=val0]}\n")
+                .append("    {b: [set: Atomic=val1; Aggregate += optA]}\n")
+                .append("    {c: [set: Aggregate += optB]}\n")
+                .append("  }\n]\n");
+        }
+        return code.toString();
+    }
+
+    /**
+     * Parses a value expression, as written in a {@code [set: ...]} node.
+     * @param model the model whose space the value belongs to.
+     * @param expression the expression, e.g. {@code "Atomic=val0; Aggregate += optA"}.
+     * @return The value.
+     * @throws Exception if the expression cannot be parsed.
+     */
+    public static CompoundValue value( PolicyModel model, String expression ) throws Exception {
+        CompilationUnit cu = new CompilationUnit("[>x< set: " + expression + "]");
+        cu.compile(model.getSpaceRoot(), new EndNode("SYN-END"), new ArrayList<>());
+        return ((SetNode) cu.getDecisionGraph().getNode("x")).getTags();
+    }
+
+    /**
+     * @param ngn an engine waiting for an answer.
+     * @param rand source of randomness.
+     * @return A random answer of the node the engine is at.
+     */
+    public static Answer randomAnswer( RuntimeEngine ngn, Random rand ) {
+        List<Answer> answers = ((AskNode)ngn.getCurrentNode()).getAnswers();
+        return answers.get(rand.nextInt(answers.size()));
+    }
+
+    private static PolicyModelData metadata() {
+        PolicyModelData pmd = new PolicyModelData();
+        pmd.setDecisionGraphPath(Paths.get("/main.dg"));
+        pmd.setMetadataFile(Paths.get("/test/main.dg"));
+        return pmd;
+    }
+
+}